@@ -0,0 +1,123 @@
+package se.lth.cs.docforia.bench;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import se.lth.cs.docforia.graph.text.Sentence;
+import se.lth.cs.docforia.graph.text.Token;
+import se.lth.cs.docforia.memstore.MemoryDocument;
+import se.lth.cs.docforia.util.AnnotationIndex;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Insert, cover and overlap performance of {@link AnnotationIndex}.
+ * <p>
+ * Ranges are the token and sentence ranges of a synthetic corpus concatenated into one long text.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AnnotationIndexBenchmark {
+    @Param({"100"})
+    public int numDocuments;
+
+    private int[] tokenStarts;
+    private int[] tokenEnds;
+    private Integer[] tokenItems;
+    private int[] queryStarts;
+    private int[] queryEnds;
+
+    private AnnotationIndex<Integer> index;
+
+    @Setup
+    public void setup() {
+        SyntheticWikipedia generator = new SyntheticWikipedia(1234);
+        IntArrayList starts = new IntArrayList();
+        IntArrayList ends = new IntArrayList();
+        IntArrayList sentenceStarts = new IntArrayList();
+        IntArrayList sentenceEnds = new IntArrayList();
+
+        int offset = 0;
+        for (int i = 0; i < numDocuments; i++) {
+            MemoryDocument doc = generator.next();
+            for (Token token : doc.nodes(Token.class)) {
+                starts.add(offset + token.getStart());
+                ends.add(offset + token.getEnd());
+            }
+            for (Sentence sentence : doc.nodes(Sentence.class)) {
+                sentenceStarts.add(offset + sentence.getStart());
+                sentenceEnds.add(offset + sentence.getEnd());
+            }
+            offset += doc.length();
+        }
+
+        tokenStarts = starts.toIntArray();
+        tokenEnds = ends.toIntArray();
+        tokenItems = new Integer[tokenStarts.length];
+        for (int i = 0; i < tokenItems.length; i++) {
+            tokenItems[i] = i;
+        }
+
+        queryStarts = sentenceStarts.toIntArray();
+        queryEnds = sentenceEnds.toIntArray();
+
+        index = new AnnotationIndex<>();
+        index.bulkLoad(tokenStarts, tokenEnds, tokenItems);
+    }
+
+    @Benchmark
+    public AnnotationIndex<Integer> insert() {
+        AnnotationIndex<Integer> index = new AnnotationIndex<>();
+        for (int i = 0; i < tokenStarts.length; i++) {
+            index.add(tokenStarts[i], tokenEnds[i], tokenItems[i]);
+        }
+        return index;
+    }
+
+    @Benchmark
+    public AnnotationIndex<Integer> bulkLoad() {
+        AnnotationIndex<Integer> index = new AnnotationIndex<>();
+        index.bulkLoad(tokenStarts, tokenEnds, tokenItems);
+        return index;
+    }
+
+    @Benchmark
+    public void cover(Blackhole bh) {
+        for (int i = 0; i < queryStarts.length; i++) {
+            Iterator<Integer> iter = index.cover(queryStarts[i], queryEnds[i]);
+            while(iter.hasNext()) {
+                bh.consume(iter.next());
+            }
+        }
+    }
+
+    @Benchmark
+    public void overlap(Blackhole bh) {
+        for (int i = 0; i < queryStarts.length; i++) {
+            Iterator<Integer> iter = index.overlap(queryStarts[i], queryEnds[i]);
+            while(iter.hasNext()) {
+                bh.consume(iter.next());
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package se.lth.cs.docforia.bench;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import se.lth.cs.docforia.Document;
+import se.lth.cs.docforia.DocumentStorageLevel;
+import se.lth.cs.docforia.io.file.DataFilter;
+import se.lth.cs.docforia.io.file.DocumentBlockFileReader;
+import se.lth.cs.docforia.io.file.DocumentBlockFileWriter;
+import se.lth.cs.docforia.io.file.GzipFilter;
+import se.lth.cs.docforia.io.file.Lz4Filter;
+import se.lth.cs.docforia.io.file.ParallelDocumentBlockFileReader;
+
+import java.io.File;
+import java.io.IOError;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write and read throughput of block files with different filters.
+ * <p>
+ * One operation writes or reads the whole corpus. Read benchmarks use a file written once during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockFileBenchmark {
+    @Param({"NA", "GZ", "L4"})
+    public String filter;
+
+    @Param({"1000"})
+    public int numDocuments;
+
+    @Param({"64"})
+    public int blockSize;
+
+    private List<Document> docs;
+    private File directory;
+    private File corpus;
+    private int counter;
+
+    private DataFilter filter() {
+        switch (filter) {
+            case "NA":
+                return null;
+            case "GZ":
+                return GzipFilter.getInstance();
+            case "L4":
+                return Lz4Filter.getInstance();
+            default:
+                throw new IllegalArgumentException("Unknown filter: " + filter);
+        }
+    }
+
+    private void write(File file) {
+        try {
+            DocumentBlockFileWriter writer = new DocumentBlockFileWriter(file, DocumentStorageLevel.LEVEL_2, filter());
+            for (int i = 0; i < docs.size(); i += blockSize) {
+                writer.write(docs.subList(i, Math.min(docs.size(), i + blockSize)));
+            }
+            writer.close();
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        docs = new SyntheticWikipedia(1234).next(numDocuments);
+        directory = Files.createTempDirectory("block-file-benchmark").toFile();
+        corpus = new File(directory, "corpus.docs");
+        write(corpus);
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if(files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public long write() {
+        //The writer refuses to overwrite files, every invocation writes a new file
+        File file = new File(directory, "write-" + (counter++) + ".docs");
+        try {
+            write(file);
+            return file.length();
+        } finally {
+            if(!file.delete())
+                throw new IOError(new IOException("Could not delete " + file.getAbsolutePath()));
+        }
+    }
+
+    @Benchmark
+    public void read(Blackhole bh) {
+        DocumentBlockFileReader reader = new DocumentBlockFileReader(corpus);
+        Document doc;
+        while((doc = reader.next()) != null) {
+            bh.consume(doc);
+        }
+        reader.close();
+    }
+
+    @Benchmark
+    public void readMemoryMapped(Blackhole bh) {
+        DocumentBlockFileReader reader = new DocumentBlockFileReader(corpus, true);
+        Document doc;
+        while((doc = reader.next()) != null) {
+            bh.consume(doc);
+        }
+        reader.close();
+    }
+
+    @Benchmark
+    public void readParallel(Blackhole bh) {
+        ParallelDocumentBlockFileReader reader = new ParallelDocumentBlockFileReader(corpus, Runtime.getRuntime().availableProcessors());
+        Document doc;
+        while((doc = reader.next()) != null) {
+            bh.consume(doc);
+        }
+        reader.close();
+    }
+}
@@ -0,0 +1,131 @@
+package se.lth.cs.docforia.bench;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import se.lth.cs.docforia.Document;
+import se.lth.cs.docforia.DocumentStorageLevel;
+import se.lth.cs.docforia.io.multipart.MultipartMessages;
+import se.lth.cs.docforia.io.multipart.MultipartReaderV1;
+import se.lth.cs.docforia.io.multipart.MultipartWriterV1;
+import se.lth.cs.docforia.memstore.MemoryDocumentFactory;
+import se.lth.cs.docforia.memstore.MemoryDocumentIO;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode and decode throughput of the document codecs.
+ * <p>
+ * L0, L1 and L2 are the binary storage levels, JSON is the level 0 JSON codec and MULTIPART the V1 multipart format.
+ * One operation encodes or decodes all documents of the corpus.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"L0", "L1", "L2", "JSON", "MULTIPART"})
+    public String codec;
+
+    @Param({"100"})
+    public int numDocuments;
+
+    private List<Document> docs;
+    private byte[][] encoded;
+    private String[] encodedJson;
+    private MultipartWriterV1 multipartWriter;
+
+    @Setup
+    public void setup() {
+        docs = new SyntheticWikipedia(1234).next(numDocuments);
+        multipartWriter = new MultipartWriterV1();
+        encoded = new byte[numDocuments][];
+        encodedJson = new String[numDocuments];
+        for (int i = 0; i < numDocuments; i++) {
+            switch (codec) {
+                case "JSON":
+                    encodedJson[i] = MemoryDocumentIO.getInstance().toJson(docs.get(i), DocumentStorageLevel.LEVEL_0);
+                    break;
+                case "MULTIPART":
+                    encoded[i] = multipartWriter.encode(docs.get(i), null).toBytes();
+                    break;
+                default:
+                    encoded[i] = docs.get(i).toBytes(level());
+                    break;
+            }
+        }
+    }
+
+    private DocumentStorageLevel level() {
+        switch (codec) {
+            case "L0":
+                return DocumentStorageLevel.LEVEL_0;
+            case "L1":
+                return DocumentStorageLevel.LEVEL_1;
+            case "L2":
+                return DocumentStorageLevel.LEVEL_2;
+            default:
+                throw new IllegalArgumentException("Not a binary codec: " + codec);
+        }
+    }
+
+    @Benchmark
+    public void encode(Blackhole bh) {
+        switch (codec) {
+            case "JSON":
+                for (Document doc : docs) {
+                    bh.consume(MemoryDocumentIO.getInstance().toJson(doc, DocumentStorageLevel.LEVEL_0));
+                }
+                break;
+            case "MULTIPART":
+                for (Document doc : docs) {
+                    bh.consume(multipartWriter.encode(doc, null).toBytes());
+                }
+                break;
+            default:
+                DocumentStorageLevel level = level();
+                for (Document doc : docs) {
+                    bh.consume(doc.toBytes(level));
+                }
+                break;
+        }
+    }
+
+    @Benchmark
+    public void decode(Blackhole bh) {
+        switch (codec) {
+            case "JSON":
+                for (String json : encodedJson) {
+                    bh.consume(MemoryDocumentIO.getInstance().fromJson(json));
+                }
+                break;
+            case "MULTIPART":
+                for (byte[] data : encoded) {
+                    bh.consume(MultipartReaderV1.decode(MultipartMessages.fromBytes(data), MemoryDocumentFactory.getInstance()));
+                }
+                break;
+            default:
+                for (byte[] data : encoded) {
+                    bh.consume(MemoryDocumentIO.getInstance().fromBytes(data));
+                }
+                break;
+        }
+    }
+}
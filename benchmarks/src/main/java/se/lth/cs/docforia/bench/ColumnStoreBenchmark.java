@@ -0,0 +1,79 @@
+package se.lth.cs.docforia.bench;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.openjdk.jmh.annotations.*;
+import se.lth.cs.docforia.*;
+import se.lth.cs.docforia.colstore.ColumnDocumentFactory;
+import se.lth.cs.docforia.memstore.MemoryDocumentFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Build cost of the memory and column stores.
+ * <p>
+ * One operation creates a chain of tokens with properties and edges through the store only.
+ * Run with -prof gc, gc.alloc.rate.norm is the allocated bytes per built document.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ColumnStoreBenchmark {
+    @Param({"MEMORY", "COLUMN"})
+    public String store;
+
+    @Param({"50000"})
+    public int numTokens;
+
+    private DocumentFactory factory;
+    private String text;
+
+    @Setup
+    public void setup() {
+        factory = store.equals("COLUMN") ? ColumnDocumentFactory.getInstance() : MemoryDocumentFactory.getInstance();
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < numTokens; i++) {
+            sb.append("w ");
+        }
+        text = sb.toString();
+    }
+
+    @Benchmark
+    public Document build() {
+        Document doc = factory.createTextFragment(text);
+        DocumentStore docStore = doc.store();
+        NodeRef prev = null;
+        for (int i = 0; i < numTokens; i++) {
+            NodeRef token = docStore.createNode("token");
+            token.get().setRanges(i * 2, i * 2 + 1);
+            token.get().putProperty("pos", i % 2 == 0 ? "NN" : "VB");
+            token.get().putProperty("index", String.valueOf(i));
+
+            if(prev != null) {
+                EdgeRef edge = docStore.createEdge("next");
+                edge.get().connect(prev, token);
+                edge.get().putProperty("label", "next");
+            }
+            prev = token;
+        }
+
+        return doc;
+    }
+}
@@ -0,0 +1,136 @@
+package se.lth.cs.docforia.bench;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.openjdk.jmh.annotations.*;
+import se.lth.cs.docforia.Document;
+import se.lth.cs.docforia.DocumentStorageLevel;
+import se.lth.cs.docforia.graph.text.Token;
+import se.lth.cs.docforia.io.file.DataFilter;
+import se.lth.cs.docforia.io.file.DataFilters;
+import se.lth.cs.docforia.io.file.DictionaryTrainer;
+import se.lth.cs.docforia.io.file.DocumentBlockFileReader;
+import se.lth.cs.docforia.io.file.DocumentBlockFileWriter;
+import se.lth.cs.docforia.io.file.GzipFilter;
+import se.lth.cs.docforia.io.file.Lz4Filter;
+import se.lth.cs.docforia.io.mem.Input;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOError;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scan throughput of block files using different filters on the same corpus.
+ * <p>
+ * unfilter reads and unfilters all blocks without decoding documents, scan also decodes all documents.
+ * LD is LZ4 with a dictionary trained on the first documents of the corpus.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark {
+    @Param({"NA", "GZ", "L4", "LD"})
+    public String filter;
+
+    @Param({"1000"})
+    public int numDocuments;
+
+    @Param({"64"})
+    public int blockSize;
+
+    private File directory;
+    private File corpus;
+
+    private DataFilter filter(List<Document> docs) {
+        switch (filter) {
+            case "NA":
+                return null;
+            case "GZ":
+                return GzipFilter.getInstance();
+            case "L4":
+                return Lz4Filter.getInstance();
+            case "LD": {
+                List<Document> sample = docs.subList(0, Math.min(docs.size(), 500));
+                byte[] dictionary = new DictionaryTrainer().trainDocuments(sample, DocumentStorageLevel.LEVEL_2, 32 * 1024);
+                Lz4Filter dictionaryFilter = Lz4Filter.withDictionary(dictionary);
+
+                //Dictionary filters must be registered to be detected when reading
+                DataFilters.register(dictionaryFilter);
+                return dictionaryFilter;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown filter: " + filter);
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        List<Document> docs = new SyntheticWikipedia(1234).next(numDocuments);
+        directory = Files.createTempDirectory("filter-benchmark").toFile();
+        corpus = new File(directory, filter + ".docs");
+
+        DocumentBlockFileWriter writer = new DocumentBlockFileWriter(corpus, DocumentStorageLevel.LEVEL_2, filter(docs));
+        for (int i = 0; i < docs.size(); i += blockSize) {
+            writer.write(docs.subList(i, Math.min(docs.size(), i + blockSize)));
+        }
+        writer.close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if(!corpus.delete() || !directory.delete())
+            throw new IOError(new IOException("Could not delete " + directory.getAbsolutePath()));
+    }
+
+    /** Read and unfilter all blocks without decoding documents */
+    @Benchmark
+    public long unfilter() throws IOException {
+        Input input = new Input(new FileInputStream(corpus));
+        byte[] header = new byte[6];
+        input.readBytes(header);
+        DataFilter dataFilter = DataFilters.forId(Arrays.copyOfRange(header, 4, 6));
+
+        long size = 0;
+        int length;
+        while((length = input.readVarInt(true)) != 0) {
+            byte[] block = input.readBytes(length);
+            size += dataFilter != null ? dataFilter.unapply(block).length : block.length;
+        }
+        input.close();
+        return size;
+    }
+
+    /** Read and decode all documents */
+    @Benchmark
+    public long scan() {
+        DocumentBlockFileReader reader = new DocumentBlockFileReader(corpus);
+        long numTokens = 0;
+        Document doc;
+        while((doc = reader.next()) != null) {
+            numTokens += doc.nodes(Token.class).count();
+        }
+        reader.close();
+        return numTokens;
+    }
+}
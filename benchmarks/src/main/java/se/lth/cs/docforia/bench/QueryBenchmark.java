@@ -0,0 +1,107 @@
+package se.lth.cs.docforia.bench;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.openjdk.jmh.annotations.*;
+import se.lth.cs.docforia.Document;
+import se.lth.cs.docforia.graph.TokenProperties;
+import se.lth.cs.docforia.graph.text.NamedEntity;
+import se.lth.cs.docforia.graph.text.Sentence;
+import se.lth.cs.docforia.graph.text.Token;
+import se.lth.cs.docforia.query.NodeTVar;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Structural query performance, {@code select().where().coveredBy()} over a synthetic corpus.
+ * <p>
+ * One operation runs the query on every document and counts the results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+    @Param({"100"})
+    public int numDocuments;
+
+    private List<Document> docs;
+
+    private final NodeTVar<Token> T = Token.var();
+    private final NodeTVar<NamedEntity> NE = NamedEntity.var();
+    private final NodeTVar<Sentence> S = Sentence.var();
+
+    @Setup
+    public void setup() {
+        docs = new SyntheticWikipedia(1234).next(numDocuments);
+    }
+
+    /** Tokens covered by named entities */
+    @Benchmark
+    public long tokensCoveredByEntities() {
+        long count = 0;
+        for (Document doc : docs) {
+            count += doc.select(T, NE).where(T).coveredBy(NE).stream().count();
+        }
+        return count;
+    }
+
+    /** Tokens covered by named entities, allocation free evaluation */
+    @Benchmark
+    public long tokensCoveredByEntitiesForEachMatch() {
+        long[] count = new long[1];
+        for (Document doc : docs) {
+            doc.select(T, NE).where(T).coveredBy(NE).compile().forEachMatch(prop -> count[0]++);
+        }
+        return count[0];
+    }
+
+    /** Entities per sentence */
+    @Benchmark
+    public long entitiesCoveredBySentences() {
+        long count = 0;
+        for (Document doc : docs) {
+            count += doc.select(NE, S).where(NE).coveredBy(S).stream().count();
+        }
+        return count;
+    }
+
+    /** Nouns per sentence, combines a property predicate with coverage */
+    @Benchmark
+    public long nounsCoveredBySentences() {
+        long count = 0;
+        for (Document doc : docs) {
+            count += doc.select(T, S)
+                        .where(T).property(TokenProperties.POS).equals("NN")
+                        .where(T).coveredBy(S)
+                        .stream().count();
+        }
+        return count;
+    }
+
+    /** First 10 sentences with entities, in text order */
+    @Benchmark
+    public long firstSentencesWithEntities() {
+        long count = 0;
+        for (Document doc : docs) {
+            count += doc.select(S, NE).where(NE).coveredBy(S).orderByRange(S, NE).limit(10).stream().count();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,242 @@
+package se.lth.cs.docforia.bench;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import se.lth.cs.docforia.Document;
+import se.lth.cs.docforia.graph.hypertext.Anchor;
+import se.lth.cs.docforia.graph.text.DependencyRelation;
+import se.lth.cs.docforia.graph.text.NamedEntity;
+import se.lth.cs.docforia.graph.text.Paragraph;
+import se.lth.cs.docforia.graph.text.Sentence;
+import se.lth.cs.docforia.graph.text.Token;
+import se.lth.cs.docforia.memstore.MemoryDocument;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic generator of documents resembling parsed Wikipedia articles.
+ * <p>
+ * Articles consist of paragraphs of sentences, tokens carry part of speech and lemma and are connected by
+ * dependency relations. Named entities and anchors are placed over capitalized token spans. Words are drawn
+ * from a Zipf distribution so that layer sizes and property value frequencies are close to real corpora.
+ * The same seed always produces the same documents.
+ */
+public class SyntheticWikipedia {
+    private static final String[] FUNCTION_WORDS = {"the", "of", "and", "in", "a", "to", "was", "is", "for", "on",
+                                                    "as", "by", "with", "from", "at", "his", "an", "which", "it", "be"};
+
+    private static final String[] FUNCTION_TAGS = {"DT", "IN", "CC", "IN", "DT", "TO", "VBD", "VBZ", "IN", "IN",
+                                                   "IN", "IN", "IN", "IN", "IN", "PRP$", "DT", "WDT", "PRP", "VB"};
+
+    private static final String[] CONTENT_TAGS = {"NN", "NN", "NNS", "JJ", "VBD", "VBN", "RB", "CD"};
+
+    private static final String[] NE_LABELS = {"PERSON", "LOCATION", "ORGANIZATION", "MISC"};
+
+    private static final String[] DEPRELS = {"nsubj", "dobj", "amod", "det", "prep", "pobj", "advmod", "conj", "cc", "nn"};
+
+    private static final String[] SYLLABLES = {"ka", "ro", "lin", "de", "mar", "sto", "ne", "va", "tor", "li",
+                                               "an", "ber", "gu", "sen", "hol", "mi", "ra", "tes", "lo", "und"};
+
+    private final Random random;
+    private final String[] vocabulary;
+    private final String[] names;
+    private final double[] zipf;
+    private int counter;
+
+    public SyntheticWikipedia(long seed) {
+        this(seed, 20000);
+    }
+
+    /**
+     * Primary constructor
+     * @param seed random seed, the same seed produces the same documents
+     * @param vocabularySize number of distinct content words
+     */
+    public SyntheticWikipedia(long seed, int vocabularySize) {
+        this.random = new Random(seed);
+        this.vocabulary = new String[vocabularySize];
+        for (int i = 0; i < vocabularySize; i++) {
+            vocabulary[i] = word(2 + random.nextInt(3));
+        }
+
+        this.names = new String[vocabularySize / 10];
+        for (int i = 0; i < names.length; i++) {
+            String name = word(2 + random.nextInt(2));
+            names[i] = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        }
+
+        //Cumulative Zipf distribution with exponent 1
+        this.zipf = new double[vocabularySize];
+        double sum = 0.0;
+        for (int i = 0; i < vocabularySize; i++) {
+            sum += 1.0 / (i + 1);
+            zipf[i] = sum;
+        }
+        for (int i = 0; i < vocabularySize; i++) {
+            zipf[i] /= sum;
+        }
+    }
+
+    private String word(int numSyllables) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < numSyllables; i++) {
+            sb.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        return sb.toString();
+    }
+
+    private int zipfRank(int size) {
+        double p = random.nextDouble() * zipf[size - 1];
+        int pos = Arrays.binarySearch(zipf, 0, size, p);
+        return pos >= 0 ? pos : Math.min(-pos - 1, size - 1);
+    }
+
+    private static class Span {
+        final int start;
+        final int end;
+
+        Span(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /** Generate the next document */
+    public MemoryDocument next() {
+        int id = counter++;
+        String title = names[zipfRank(names.length)] + " " + names[zipfRank(names.length)];
+
+        StringBuilder text = new StringBuilder();
+        ArrayList<Span> tokens = new ArrayList<>();
+        ArrayList<String> tags = new ArrayList<>();
+        ArrayList<String> lemmas = new ArrayList<>();
+        ArrayList<Span> sentences = new ArrayList<>();
+        ArrayList<Span> paragraphs = new ArrayList<>();
+        ArrayList<Span> mentions = new ArrayList<>();
+        ArrayList<int[]> sentenceTokens = new ArrayList<>();
+
+        text.append(title).append("\n\n");
+        int numParagraphs = 1 + random.nextInt(8);
+        for (int p = 0; p < numParagraphs; p++) {
+            int paragraphStart = text.length();
+            int numSentences = 1 + random.nextInt(6);
+            for (int s = 0; s < numSentences; s++) {
+                int sentenceStart = text.length();
+                int firstToken = tokens.size();
+                int numTokens = 5 + random.nextInt(25);
+                for (int t = 0; t < numTokens; t++) {
+                    double r = random.nextDouble();
+                    if(r < 0.08 && t < numTokens - 2) {
+                        //Multi token capitalized span, a named entity candidate
+                        int len = 1 + random.nextInt(3);
+                        int mentionStart = text.length();
+                        for (int k = 0; k < len; k++) {
+                            String name = names[zipfRank(names.length)];
+                            tokens.add(new Span(text.length(), text.length() + name.length()));
+                            tags.add("NNP");
+                            lemmas.add(name);
+                            text.append(name).append(' ');
+                        }
+                        mentions.add(new Span(mentionStart, text.length() - 1));
+                        t += len - 1;
+                    } else if(r < 0.5) {
+                        int k = random.nextInt(FUNCTION_WORDS.length);
+                        String w = t == 0 ? Character.toUpperCase(FUNCTION_WORDS[k].charAt(0)) + FUNCTION_WORDS[k].substring(1) : FUNCTION_WORDS[k];
+                        tokens.add(new Span(text.length(), text.length() + w.length()));
+                        tags.add(FUNCTION_TAGS[k]);
+                        lemmas.add(FUNCTION_WORDS[k]);
+                        text.append(w).append(' ');
+                    } else {
+                        String lemma = vocabulary[zipfRank(vocabulary.length)];
+                        String tag = CONTENT_TAGS[random.nextInt(CONTENT_TAGS.length)];
+                        String w = tag.equals("NNS") ? lemma + "s" : tag.startsWith("VB") ? lemma + "ed" : lemma;
+                        tokens.add(new Span(text.length(), text.length() + w.length()));
+                        tags.add(tag);
+                        lemmas.add(lemma);
+                        text.append(w).append(' ');
+                    }
+                }
+
+                //Replace trailing space with a punctuation token
+                text.setLength(text.length() - 1);
+                tokens.add(new Span(text.length(), text.length() + 1));
+                tags.add(".");
+                lemmas.add(".");
+                text.append(". ");
+
+                sentences.add(new Span(sentenceStart, text.length() - 1));
+                sentenceTokens.add(new int[] {firstToken, tokens.size()});
+            }
+            text.setLength(text.length() - 1);
+            paragraphs.add(new Span(paragraphStart, text.length()));
+            text.append("\n\n");
+        }
+
+        MemoryDocument doc = new MemoryDocument(text.toString());
+        doc.setId("synthetic-" + id);
+        doc.setTitle(title);
+        doc.setLanguage("en");
+
+        for (Span paragraph : paragraphs) {
+            new Paragraph(doc).setRange(paragraph.start, paragraph.end);
+        }
+
+        Token[] tokenNodes = new Token[tokens.size()];
+        for (int i = 0; i < tokens.size(); i++) {
+            Span span = tokens.get(i);
+            tokenNodes[i] = new Token(doc).setRange(span.start, span.end)
+                                          .setPartOfSpeech(tags.get(i))
+                                          .setLemma(lemmas.get(i));
+        }
+
+        for (int i = 0; i < sentences.size(); i++) {
+            Span sentence = sentences.get(i);
+            new Sentence(doc).setRange(sentence.start, sentence.end);
+
+            //Random projective tree: every token attaches to an earlier token, the first token is the root
+            int[] range = sentenceTokens.get(i);
+            for (int k = range[0] + 1; k < range[1]; k++) {
+                int head = range[0] + random.nextInt(k - range[0]);
+                tokenNodes[k].connect(tokenNodes[head], new DependencyRelation())
+                             .setRelation(DEPRELS[random.nextInt(DEPRELS.length)]);
+            }
+        }
+
+        for (Span mention : mentions) {
+            String label = NE_LABELS[random.nextInt(NE_LABELS.length)];
+            new NamedEntity(doc).setRange(mention.start, mention.end).setLabel(label);
+
+            if(random.nextInt(3) != 0) {
+                new Anchor(doc).setRange(mention.start, mention.end)
+                               .setTarget(text.substring(mention.start, mention.end).replace(' ', '_'));
+            }
+        }
+
+        return doc;
+    }
+
+    /** Generate a list of documents */
+    public List<Document> next(int count) {
+        ArrayList<Document> docs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            docs.add(next());
+        }
+        return docs;
+    }
+}
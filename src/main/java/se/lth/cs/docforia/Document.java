@@ -757,6 +757,42 @@ public abstract class Document implements CharSequence, Range, DocumentProxy, Pr
 		return representations().wrapNodes(engine().nodesWithProperty(nodeLayer(nodeType), nodeVariant, key, value));
 	}
 
+	/**
+	 * Index the values of a property of a node type, speeds up nodesWithProperty and property equality queries
+	 * @param key the property key
+	 * @return true if indexed, false if not supported by the storage
+	 * @see DocumentEngine#createPropertyIndex(String, String, String)
+	 */
+	public <N extends Node> boolean createPropertyIndex(Class<N> nodeType, String key) {
+		return engine().createPropertyIndex(nodeLayer(nodeType), null, key);
+	}
+
+	/**
+	 * Index the values of a property of a node type and variant
+	 * @param key the property key
+	 * @return true if indexed, false if not supported by the storage
+	 */
+	public <N extends Node> boolean createPropertyIndex(Class<N> nodeType, String nodeVariant, String key) {
+		return engine().createPropertyIndex(nodeLayer(nodeType), nodeVariant, key);
+	}
+
+	/**
+	 * Remove the index of a property of a node type and variant
+	 * @param key the property key
+	 * @return true if the index existed
+	 */
+	public <N extends Node> boolean dropPropertyIndex(Class<N> nodeType, String nodeVariant, String key) {
+		return engine().dropPropertyIndex(nodeLayer(nodeType), nodeVariant, key);
+	}
+
+	/**
+	 * Check if the values of a property of a node type and variant are indexed
+	 * @param key the property key
+	 */
+	public <N extends Node> boolean hasPropertyIndex(Class<N> nodeType, String nodeVariant, String key) {
+		return engine().hasPropertyIndex(nodeLayer(nodeType), nodeVariant, key);
+	}
+
 	/**
 	 * Create an iterable of all nodes with dynamic type and property
 	 * @param key the property key
@@ -2339,7 +2375,7 @@ public abstract class Document implements CharSequence, Range, DocumentProxy, Pr
      * @return copy of source into a new representation
      */
 	public static Document convert(DocumentFactory factory, Document source) {
-		Document target = factory.createFragment(source.id(), source.text());
+		Document target = source.id() != null ? factory.createFragment(source.id(), source.text()) : factory.createTextFragment(source.text());
 		target.setType(source.type());
 
 		//Copy properties
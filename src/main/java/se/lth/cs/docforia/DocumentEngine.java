@@ -504,6 +504,75 @@ public abstract class DocumentEngine {
 			
 	}
 
+	/**
+	 * Get the number of nodes in a layer
+	 * @param nodeLayer raw layer name, null together with a null variant counts all nodes
+	 * @param variant the raw layer variant
+	 * @return number of nodes, 0 if the layer does not exist
+	 */
+	public int numNodes(final String nodeLayer, final String variant) {
+		int count = 0;
+		for (NodeRef ignored : nodeLayer == null && variant == null ? nodes() : nodes(nodeLayer, variant)) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Get the number of edges in a layer
+	 * @param edgeLayer raw layer name
+	 * @param edgeVariant the raw layer variant
+	 * @return number of edges, 0 if the layer does not exist
+	 */
+	public int numEdges(final String edgeLayer, final String edgeVariant) {
+		int count = 0;
+		for (EdgeRef ignored : edges(edgeLayer, edgeVariant)) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Get the number of nodes in a layer with given property with key, value
+	 * <b>Remarks:</b> the default implementation counts {@link #nodesWithProperty(String, String, String, String)}
+	 */
+	public int numNodesWithProperty(final String nodeLayer, final String nodeVariant, final String key, final String value) {
+		int count = 0;
+		for (NodeRef ignored : nodesWithProperty(nodeLayer, nodeVariant, key, value)) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Index the values of a property in a node layer.
+	 * <p>
+	 * Indexed properties are used by nodesWithProperty and property equality queries, the index is maintained
+	 * on changes until it is dropped. Indexes are not persisted.
+	 * @param nodeLayer   raw layer name
+	 * @param nodeVariant raw layer variant
+	 * @param key         the property key
+	 * @return true if the property is indexed, false if indexes are not supported by this engine
+	 */
+	public boolean createPropertyIndex(final String nodeLayer, final String nodeVariant, final String key) {
+		return false;
+	}
+
+	/**
+	 * Remove a property index
+	 * @return true if the index existed
+	 */
+	public boolean dropPropertyIndex(final String nodeLayer, final String nodeVariant, final String key) {
+		return false;
+	}
+
+	/**
+	 * Check if the values of a property in a node layer are indexed
+	 */
+	public boolean hasPropertyIndex(final String nodeLayer, final String nodeVariant, final String key) {
+		return false;
+	}
+
 	/**
 	 * Get all annotations (nodes with start, end) that is covered by (from, to)
 	 * @param nodeLayer raw layer name
@@ -715,7 +784,7 @@ public abstract class DocumentEngine {
 	 * Get all nodes of specific type that has given property with key, value
 	 */
 	public DocumentIterable<NodeRef> nodesWithProperty(String nodeLayer, String key, String value) {
-		return nodesWithProperty(nodes(nodeLayer), key, value);
+		return nodesWithProperty(nodeLayer, null, key, value);
 	}
 
 	/**
@@ -766,6 +835,14 @@ public abstract class DocumentEngine {
         return annotations(nodeLayer, nodeVariant.isPresent() ? nodeVariant.get() : null);
     }
 
+    /**
+     * Check if the navigators of {@link #annotations(String, String)} move in order of annotation start.
+     * <b>Remarks:</b> the default navigator follows the order of {@link #nodes(String, String)}
+     */
+    public boolean hasRangeOrderedAnnotations() {
+        return false;
+    }
+
     /**
      * Get a navigator for a layer
      * @param nodeLayer   the node layer
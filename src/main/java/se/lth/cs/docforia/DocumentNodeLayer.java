@@ -31,6 +31,22 @@ public interface DocumentNodeLayer extends Iterable<NodeRef>, LayerRef {
      **/
     NodeRef create(int start, int end);
 
+    /** Create annotations in bulk, preferably sorted by start
+     *  <p>
+     *  <b>Remarks:</b> This is a low level API with minimal or no checks.
+     *  @param starts start positions
+     *  @param ends end positions
+     *  @param count number of annotations to create
+     *  @return the created annotations in the same order as the given ranges
+     **/
+    default NodeRef[] create(int[] starts, int[] ends, int count) {
+        NodeRef[] refs = new NodeRef[count];
+        for (int i = 0; i < count; i++) {
+            refs[i] = create(starts[i], ends[i]);
+        }
+        return refs;
+    }
+
     /**
      * Used to change type of an existing layer to something else
      * <p>
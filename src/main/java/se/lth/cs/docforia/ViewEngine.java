@@ -144,6 +144,21 @@ public class ViewEngine extends DocumentEngine {
         return wrapNode(engine.nodesWithProperty(nodeLayer, nodeVariant, key, value));
     }
 
+    @Override
+    public boolean createPropertyIndex(String nodeLayer, String nodeVariant, String key) {
+        return engine.createPropertyIndex(nodeLayer, nodeVariant, key);
+    }
+
+    @Override
+    public boolean dropPropertyIndex(String nodeLayer, String nodeVariant, String key) {
+        return engine.dropPropertyIndex(nodeLayer, nodeVariant, key);
+    }
+
+    @Override
+    public boolean hasPropertyIndex(String nodeLayer, String nodeVariant, String key) {
+        return engine.hasPropertyIndex(nodeLayer, nodeVariant, key);
+    }
+
     @Override
     public DocumentIterable<EdgeRef> edgesWithProperty(String key, String value) {
         return engine.edgesWithProperty(key, value);
@@ -0,0 +1,364 @@
+package se.lth.cs.docforia.colstore;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import se.lth.cs.docforia.EdgeRef;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Edge adjacency in compressed sparse row (CSR) form.
+ * <p>
+ * The CSR arrays are built from all edge layers on demand. Nodes and edges are addressed as (layer id, row) and
+ * all state is kept in int arrays, node slots are the row offset by the first slot of the layer.
+ * Edges connected after a build are kept in per node linked lists until enough of them has accumulated to make
+ * a rebuild worthwhile. Entries are validated when read, removed or reconnected edges are therefore never returned
+ * for a node they no longer belong to. Renumbering nodes or edges invalidates the CSR arrays.
+ */
+public class ColumnAdjacency {
+    private final ColumnDocumentStore store;
+
+    private boolean valid = false;
+    private int indexed = 0;
+
+    /** First slot and number of indexed rows by node layer id */
+    private int[] base = new int[0];
+    private int[] builtRows = new int[0];
+
+    private int[] outOffsets = new int[1];
+    private int[] inOffsets = new int[1];
+    private int[] outLayers = new int[0];
+    private int[] outRows = new int[0];
+    private int[] inLayers = new int[0];
+    private int[] inRows = new int[0];
+
+    /** Edges connected since the build by edge layer id, their CSR entries are stale */
+    private long[][] touched = new long[0][];
+
+    private int numPending = 0;
+    private int numEntries = 0;
+    private int[] pendingLayers = new int[16];
+    private int[] pendingRows = new int[16];
+    private int[] pendingNext = new int[16];
+    private final Long2IntOpenHashMap pendingOut = new Long2IntOpenHashMap();
+    private final Long2IntOpenHashMap pendingIn = new Long2IntOpenHashMap();
+
+    public ColumnAdjacency(ColumnDocumentStore store) {
+        this.store = store;
+        this.pendingOut.defaultReturnValue(-1);
+        this.pendingIn.defaultReturnValue(-1);
+    }
+
+    protected static long key(int layer, int row) {
+        return ((long)layer << 32) | (row & 0xFFFFFFFFL);
+    }
+
+    private void addPending(Long2IntOpenHashMap pending, long node, int edgeLayer, int edgeRow) {
+        int head = pending.get(node);
+        for (int i = head; i != -1; i = pendingNext[i]) {
+            if(pendingLayers[i] == edgeLayer && pendingRows[i] == edgeRow)
+                return;
+        }
+
+        if(numEntries == pendingLayers.length) {
+            int capacity = numEntries * 2;
+            pendingLayers = Arrays.copyOf(pendingLayers, capacity);
+            pendingRows = Arrays.copyOf(pendingRows, capacity);
+            pendingNext = Arrays.copyOf(pendingNext, capacity);
+        }
+
+        pendingLayers[numEntries] = edgeLayer;
+        pendingRows[numEntries] = edgeRow;
+        pendingNext[numEntries] = head;
+        pending.put(node, numEntries++);
+    }
+
+    /** Called when the tail or head of an edge has been changed */
+    protected void connected(int edgeLayer, int edgeRow) {
+        //Picked up by the next build
+        if(!valid)
+            return;
+
+        if(edgeLayer >= touched.length)
+            touched = Arrays.copyOf(touched, edgeLayer + 1);
+
+        long[] bits = touched[edgeLayer] == null ? new long[1] : touched[edgeLayer];
+        if(!ColumnProperties.bit(bits, edgeRow)) {
+            touched[edgeLayer] = ColumnProperties.setBit(bits, edgeRow);
+            numPending++;
+        }
+
+        ColumnEdgeLayer layer = store.edgeLayers[edgeLayer];
+        if(layer.tailLayers[edgeRow] > 0 && layer.tailRows[edgeRow] >= 0)
+            addPending(pendingOut, key(layer.tailLayers[edgeRow], layer.tailRows[edgeRow]), edgeLayer, edgeRow);
+
+        if(layer.headLayers[edgeRow] > 0 && layer.headRows[edgeRow] >= 0)
+            addPending(pendingIn, key(layer.headLayers[edgeRow], layer.headRows[edgeRow]), edgeLayer, edgeRow);
+    }
+
+    /** Called when nodes or edges have been renumbered */
+    protected void invalidate() {
+        if(valid) {
+            valid = false;
+            clearPending();
+        }
+    }
+
+    private void clearPending() {
+        numPending = 0;
+        numEntries = 0;
+        pendingOut.clear();
+        pendingIn.clear();
+    }
+
+    /** Slot of a node at the current build or -1 */
+    private int slot(int layer, int row) {
+        return layer >= 0 && layer < base.length && row >= 0 && row < builtRows[layer] ? base[layer] + row : -1;
+    }
+
+    /** Rebuild the CSR arrays from all edge layers */
+    protected void rebuild() {
+        ColumnNodeLayer[] nodeLayers = store.nodeLayers;
+
+        base = new int[nodeLayers.length];
+        builtRows = new int[nodeLayers.length];
+        int slots = 0;
+        for (int i = 0; i < nodeLayers.length; i++) {
+            if(nodeLayers[i] != null) {
+                base[i] = slots;
+                builtRows[i] = nodeLayers[i].rows;
+                slots += nodeLayers[i].rows;
+            }
+        }
+
+        int[] outOffsets = new int[slots+1];
+        int[] inOffsets = new int[slots+1];
+        for (ColumnEdgeLayer layer : store.edges.values()) {
+            for (int i = 0; i < layer.rows; i++) {
+                int tail = slot(layer.tailLayers[i], layer.tailRows[i]);
+                if(tail != -1)
+                    outOffsets[tail+1]++;
+
+                int head = slot(layer.headLayers[i], layer.headRows[i]);
+                if(head != -1)
+                    inOffsets[head+1]++;
+            }
+        }
+
+        for (int i = 0; i < slots; i++) {
+            outOffsets[i+1] += outOffsets[i];
+            inOffsets[i+1] += inOffsets[i];
+        }
+
+        int[] outLayers = new int[outOffsets[slots]];
+        int[] outRows = new int[outOffsets[slots]];
+        int[] inLayers = new int[inOffsets[slots]];
+        int[] inRows = new int[inOffsets[slots]];
+        int[] outPos = Arrays.copyOf(outOffsets, slots);
+        int[] inPos = Arrays.copyOf(inOffsets, slots);
+
+        for (ColumnEdgeLayer layer : store.edges.values()) {
+            int id = layer.key.id;
+            for (int i = 0; i < layer.rows; i++) {
+                int tail = slot(layer.tailLayers[i], layer.tailRows[i]);
+                if(tail != -1) {
+                    outLayers[outPos[tail]] = id;
+                    outRows[outPos[tail]++] = i;
+                }
+
+                int head = slot(layer.headLayers[i], layer.headRows[i]);
+                if(head != -1) {
+                    inLayers[inPos[head]] = id;
+                    inRows[inPos[head]++] = i;
+                }
+            }
+        }
+
+        this.outOffsets = outOffsets;
+        this.inOffsets = inOffsets;
+        this.outLayers = outLayers;
+        this.outRows = outRows;
+        this.inLayers = inLayers;
+        this.inRows = inRows;
+        this.indexed = outLayers.length;
+        this.touched = new long[store.edgeLayers.length][];
+        this.valid = true;
+        clearPending();
+    }
+
+    /** Cursor over the (layer id, row) of edges connected to a node */
+    private class Cursor {
+        private final int layer;
+        private final int row;
+        private final boolean outbound;
+
+        private final int[] csrLayers;
+        private final int[] csrRows;
+        private final long[][] touched;
+        private int pos;
+        private final int end;
+
+        private final int[] pendingLayers;
+        private final int[] pendingRows;
+        private int pendingPos = 0;
+
+        protected int edgeLayer;
+        protected int edgeRow;
+
+        public Cursor(int layer, int row, boolean outbound) {
+            if(!valid || (numPending > 16 && numPending > indexed / 2))
+                rebuild();
+
+            this.layer = layer;
+            this.row = row;
+            this.outbound = outbound;
+            this.csrLayers = outbound ? outLayers : inLayers;
+            this.csrRows = outbound ? outRows : inRows;
+            this.touched = ColumnAdjacency.this.touched;
+
+            int slot = slot(layer, row);
+            if(slot != -1) {
+                int[] offsets = outbound ? outOffsets : inOffsets;
+                this.pos = offsets[slot];
+                this.end = offsets[slot+1];
+            } else {
+                this.pos = 0;
+                this.end = 0;
+            }
+
+            int n = 0;
+            int head = (outbound ? pendingOut : pendingIn).get(key(layer, row));
+            for (int i = head; i != -1; i = pendingNext[i]) {
+                n++;
+            }
+
+            this.pendingLayers = new int[n];
+            this.pendingRows = new int[n];
+            for (int i = head, k = n - 1; i != -1; i = pendingNext[i], k--) {
+                pendingLayers[k] = ColumnAdjacency.this.pendingLayers[i];
+                pendingRows[k] = ColumnAdjacency.this.pendingRows[i];
+            }
+        }
+
+        public boolean isEmpty() {
+            return pos == end && pendingLayers.length == 0;
+        }
+
+        private boolean connected(int edgeLayer, int edgeRow) {
+            ColumnEdgeLayer edges = edgeLayer < store.edgeLayers.length ? store.edgeLayers[edgeLayer] : null;
+            if(edges == null || edgeRow >= edges.rows || edges.isRemoved(edgeRow))
+                return false;
+
+            return outbound ? edges.tailLayers[edgeRow] == layer && edges.tailRows[edgeRow] == row
+                            : edges.headLayers[edgeRow] == layer && edges.headRows[edgeRow] == row;
+        }
+
+        /** Move to the next connected edge */
+        public boolean next() {
+            while(pos < end) {
+                int edgeLayer = csrLayers[pos];
+                int edgeRow = csrRows[pos++];
+
+                //Edges connected since the build are returned from the pending lists
+                long[] bits = edgeLayer < touched.length ? touched[edgeLayer] : null;
+                if((bits == null || !ColumnProperties.bit(bits, edgeRow)) && connected(edgeLayer, edgeRow)) {
+                    this.edgeLayer = edgeLayer;
+                    this.edgeRow = edgeRow;
+                    return true;
+                }
+            }
+
+            while(pendingPos < pendingLayers.length) {
+                int edgeLayer = pendingLayers[pendingPos];
+                int edgeRow = pendingRows[pendingPos++];
+                if(connected(edgeLayer, edgeRow)) {
+                    this.edgeLayer = edgeLayer;
+                    this.edgeRow = edgeRow;
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /** (layer id, row) keys of all edges connected to a node */
+    protected LongArrayList edges(int layer, int row) {
+        LongArrayList edges = new LongArrayList();
+        for (Cursor cursor : new Cursor[] {new Cursor(layer, row, true), new Cursor(layer, row, false)}) {
+            while(cursor.next()) {
+                edges.add(key(cursor.edgeLayer, cursor.edgeRow));
+            }
+        }
+
+        return edges;
+    }
+
+    private Iterator<EdgeRef> edges(final ColumnNode node, final boolean outbound) {
+        if(node.layer == null)
+            return Collections.emptyIterator();
+
+        final Cursor cursor = new Cursor(node.layer.key.id, node.row, outbound);
+        if(cursor.isEmpty())
+            return Collections.emptyIterator();
+
+        return new Iterator<EdgeRef>() {
+            ColumnEdge next;
+
+            private boolean moveForward() {
+                if(next != null)
+                    return true;
+
+                if(cursor.next()) {
+                    next = store.edgeLayers[cursor.edgeLayer].handle(cursor.edgeRow);
+                    return true;
+                }
+
+                return false;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return moveForward();
+            }
+
+            @Override
+            public EdgeRef next() {
+                if(!moveForward())
+                    throw new NoSuchElementException();
+
+                EdgeRef retval = next;
+                next = null;
+                return retval;
+            }
+        };
+    }
+
+    /** Outbound edges from a node */
+    public Iterator<EdgeRef> outbound(ColumnNode node) {
+        return edges(node, true);
+    }
+
+    /** Inbound edges to a node */
+    public Iterator<EdgeRef> inbound(ColumnNode node) {
+        return edges(node, false);
+    }
+}
@@ -0,0 +1,99 @@
+package se.lth.cs.docforia.colstore;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import se.lth.cs.docforia.Document;
+import se.lth.cs.docforia.DocumentStorageLevel;
+import se.lth.cs.docforia.io.mem.Input;
+import se.lth.cs.docforia.io.mem.Output;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Column Document implementation
+ */
+public class ColumnDocument extends Document implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
+    protected ColumnDocumentStore store;
+    protected ColumnDocumentEngine engine;
+    protected ColumnDocumentRepresentations instances = new ColumnDocumentRepresentations(this);
+
+    public ColumnDocument() {
+        this.store = new ColumnDocumentStore();
+        this.store.doc = this;
+        this.engine = new ColumnDocumentEngine(store);
+    }
+
+    public ColumnDocument(String text) {
+        this();
+        if(text == null)
+            throw new NullPointerException("text");
+
+        this.store.setText(text);
+    }
+
+    public ColumnDocument(String id, String text) {
+        this(text);
+        if(id == null)
+            throw new NullPointerException("id");
+
+        this.setId(id);
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        byte[] data = ColumnDocumentIO.getInstance().toBytes(this, DocumentStorageLevel.LEVEL_2);
+        Output.writeVarInt(out, data.length, true);
+        out.write(data);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        int size = Input.readVarInt(in, true);
+        byte[] data = new byte[size];
+        in.readFully(data);
+
+        ColumnDocument doc = ColumnDocumentIO.getInstance().fromBytes(data);
+        this.engine = doc.engine;
+        this.instances = doc.instances;
+        this.store = doc.store;
+        this.store.doc = this;
+    }
+
+    @Override
+    public ColumnDocumentRepresentations representations() {
+        return instances;
+    }
+
+    @Override
+    public final ColumnDocumentStore store() {
+        return store;
+    }
+
+    @Override
+    public ColumnDocumentEngine engine() {
+        return engine;
+    }
+
+    @Override
+    public ColumnDocumentFactory factory() {
+        return ColumnDocumentFactory.getInstance();
+    }
+}
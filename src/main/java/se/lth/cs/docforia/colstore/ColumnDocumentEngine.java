@@ -0,0 +1,297 @@
+package se.lth.cs.docforia.colstore;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import se.lth.cs.docforia.*;
+import se.lth.cs.docforia.util.*;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Column Document Database implementation
+ */
+public class ColumnDocumentEngine extends DocumentEngine {
+    protected ColumnDocumentStore store;
+
+    public ColumnDocumentEngine(final ColumnDocumentStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public DocumentStore store() {
+        return store;
+    }
+
+    @Override
+    public DocumentIterable<EdgeRef> edges(boolean onlyDefaultVariant) {
+        return DocumentIterables.wrap(store.edges());
+    }
+
+    @Override
+    public DocumentIterable<EdgeRef> edges(final String edgeLayer, final String edgeVariant) {
+        final ColumnLayerKey key = new ColumnLayerKey(edgeLayer, edgeVariant);
+        return new DocumentIterableBase<EdgeRef>() {
+            @Override
+            public Iterator<EdgeRef> iterator() {
+                ColumnEdgeLayer layer = store.edges.get(key);
+                return layer == null ? Collections.emptyIterator() : layer.iterator();
+            }
+        };
+    }
+
+    @Override
+    public DocumentIterable<EdgeRef> edges(NodeRef start, Direction dir) {
+        switch (dir) {
+            case IN:
+                return DocumentIterables.wrap(store.inboundEdges(start));
+            case OUT:
+                return DocumentIterables.wrap(store.outboundEdges(start));
+        }
+
+        return super.edges(start, dir);
+    }
+
+    @Override
+    public DocumentIterable<NodeRef> nodes(final String nodeLayer, final String variant) {
+        final ColumnLayerKey key = new ColumnLayerKey(nodeLayer, variant);
+        return new DocumentIterableBase<NodeRef>() {
+            @Override
+            public Iterator<NodeRef> iterator() {
+                ColumnNodeLayer layer = store.nodes.get(key);
+                return layer == null ? Collections.emptyIterator() : layer.iterator();
+            }
+        };
+    }
+
+    /** Distinct layer names of a sorted key set */
+    private static DocumentIterable<String> layerNames(final Collection<ColumnLayerKey> keys) {
+        return new DocumentIterableBase<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new Iterator<String>() {
+                    Iterator<ColumnLayerKey> iter = keys.iterator();
+                    String next;
+                    String last;
+
+                    private boolean moveForward() {
+                        if(next != null)
+                            return true;
+
+                        while(iter.hasNext()) {
+                            String layer = iter.next().layer;
+                            if(!layer.equals(last)) {
+                                next = last = layer;
+                                return true;
+                            }
+                        }
+
+                        return false;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return moveForward();
+                    }
+
+                    @Override
+                    public String next() {
+                        if(!moveForward())
+                            throw new NoSuchElementException();
+
+                        String retval = next;
+                        next = null;
+                        return retval;
+                    }
+                };
+            }
+        };
+    }
+
+    /** Variants of a layer with at least one node or edge */
+    private static <L extends DocumentIterable<?>> DocumentIterable<Optional<String>> layerVariants(final SortedMap<ColumnLayerKey,L> layers, final String layer, final Function<L,Integer> size) {
+        return new DocumentIterableBase<Optional<String>>() {
+            @Override
+            public Iterator<Optional<String>> iterator() {
+                ArrayList<Optional<String>> variants = new ArrayList<>();
+                for (Map.Entry<ColumnLayerKey, L> entry : layers.tailMap(new ColumnLayerKey(layer, null)).entrySet()) {
+                    if(!entry.getKey().layer.equals(layer))
+                        break;
+
+                    if(size.apply(entry.getValue()) > 0)
+                        variants.add(Optional.ofNullable(entry.getKey().variant));
+                }
+
+                return variants.iterator();
+            }
+        };
+    }
+
+    @Override
+    public DocumentIterable<String> nodeLayers() {
+        return layerNames(store.nodes.keySet());
+    }
+
+    @Override
+    public DocumentIterable<String> edgeLayers() {
+        return layerNames(store.edges.keySet());
+    }
+
+    @Override
+    public DocumentIterable<Optional<String>> nodeLayerAllVariants(String nodeLayer) {
+        return layerVariants(store.nodes, nodeLayer, ColumnNodeLayer::size);
+    }
+
+    @Override
+    public DocumentIterable<Optional<String>> edgeLayerAllVariants(String edgeLayer) {
+        return layerVariants(store.edges, edgeLayer, ColumnEdgeLayer::size);
+    }
+
+    @Override
+    public DocumentIterable<String> nodeLayerVariants(String nodeLayer) {
+        final DocumentIterable<Optional<String>> variants = nodeLayerAllVariants(nodeLayer);
+        return new DocumentIterableBase<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                ArrayList<String> named = new ArrayList<>();
+                for (Optional<String> variant : variants) {
+                    variant.ifPresent(named::add);
+                }
+
+                return named.iterator();
+            }
+        };
+    }
+
+    @Override
+    public DocumentIterable<String> edgeLayerVariants(String edgeLayer) {
+        final DocumentIterable<Optional<String>> variants = edgeLayerAllVariants(edgeLayer);
+        return new DocumentIterableBase<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                ArrayList<String> named = new ArrayList<>();
+                for (Optional<String> variant : variants) {
+                    variant.ifPresent(named::add);
+                }
+
+                return named.iterator();
+            }
+        };
+    }
+
+    @Override
+    public String toString(Range range) {
+        return store.text.substring(range.getStart(), range.getEnd());
+    }
+
+    @Override
+    public DocumentIterable<NodeRef> coveredAnnotation(String nodeLayer, String nodeVariant, int from, int to) {
+        ColumnNodeLayer layer = store.nodes.get(new ColumnLayerKey(nodeLayer, nodeVariant));
+        if(layer == null)
+            return DocumentIterables.wrap(Collections.emptyList());
+        else
+            return new DocumentIterableBase<NodeRef>() {
+                @Override
+                public Iterator<NodeRef> iterator() {
+                    return layer.cover(from, to);
+                }
+            };
+    }
+
+    @Override
+    public DocumentIterable<NodeRef> overlappingAnnotations(String nodeLayer, String nodeVariant, int from, int to) {
+        ColumnNodeLayer layer = store.nodes.get(new ColumnLayerKey(nodeLayer, nodeVariant));
+        if(layer == null)
+            return DocumentIterables.wrap(Collections.emptyList());
+        else
+            return new DocumentIterableBase<NodeRef>() {
+                @Override
+                public Iterator<NodeRef> iterator() {
+                    return layer.overlap(from, to);
+                }
+            };
+    }
+
+    @Override
+    public AnnotationNavigator<NodeRef> annotations(NodeRef ref) {
+        if(!ref.get().isAnnotation())
+            throw new IllegalArgumentException("ref is not an annotation!");
+
+        ColumnNode node = (ColumnNode) ref;
+        return node.layer.navigator(node);
+    }
+
+    @Override
+    public boolean hasRangeOrderedAnnotations() {
+        return true;
+    }
+
+    @Override
+    public AnnotationNavigator<NodeRef> annotations(String nodeLayer, String nodeVariant) {
+        ColumnNodeLayer layer = store.nodes.get(new ColumnLayerKey(nodeLayer, nodeVariant));
+        if(layer == null)
+            return emptyNavigator;
+        else
+            return layer.navigator();
+    }
+
+    private static final AnnotationNavigator<NodeRef> emptyNavigator = new AnnotationNavigator<NodeRef>() {
+        @Override
+        public NodeRef current() {
+            return null;
+        }
+
+        @Override
+        public boolean next() {
+            return false;
+        }
+
+        @Override
+        public boolean nextFloor(int start) {
+            return false;
+        }
+
+        @Override
+        public boolean hasReachedEnd() {
+            return true;
+        }
+
+        @Override
+        public boolean prev() {
+            return false;
+        }
+
+        @Override
+        public void reset() {
+
+        }
+
+        @Override
+        public boolean next(int start) {
+            return false;
+        }
+
+        @Override
+        public int start() {
+            return 0;
+        }
+
+        @Override
+        public int end() {
+            return 0;
+        }
+    };
+}
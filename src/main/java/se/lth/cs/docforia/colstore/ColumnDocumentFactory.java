@@ -0,0 +1,74 @@
+package se.lth.cs.docforia.colstore;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import se.lth.cs.docforia.Document;
+import se.lth.cs.docforia.DocumentFactory;
+import se.lth.cs.docforia.io.DocumentIO;
+
+/**
+ * Column Document factory
+ */
+public class ColumnDocumentFactory implements DocumentFactory {
+
+    @Override
+    public Document create() {
+        return new ColumnDocument();
+    }
+
+    @Override
+    public Document create(Document doc) {
+        return Document.convert(this, doc);
+    }
+
+    @Override
+    public Document create(String uri) {
+        return new ColumnDocument().setUri(uri);
+    }
+
+    @Override
+    public Document create(String uri, String text) {
+        return new ColumnDocument(text).setUri(uri);
+    }
+
+    public Document createFragment(String id) {
+        return new ColumnDocument().setId(id);
+    }
+
+    public Document createFragment(String id, String text) {
+        return new ColumnDocument(id, text);
+    }
+
+    @Override
+    public Document createTextFragment(String text) {
+        return new ColumnDocument(text);
+    }
+
+    public Document createFragment(Document doc) {
+        return Document.convert(this, doc);
+    }
+
+    @Override
+    public DocumentIO io() {
+        return ColumnDocumentIO.getInstance();
+    }
+
+    private static final ColumnDocumentFactory INSTANCE = new ColumnDocumentFactory();
+
+    public static ColumnDocumentFactory getInstance() {
+        return INSTANCE;
+    }
+}
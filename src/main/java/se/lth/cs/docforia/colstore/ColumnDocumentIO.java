@@ -0,0 +1,211 @@
+package se.lth.cs.docforia.colstore;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
+import se.lth.cs.docforia.*;
+import se.lth.cs.docforia.data.DataRef;
+import se.lth.cs.docforia.io.DocumentIO;
+import se.lth.cs.docforia.io.DocumentReader;
+import se.lth.cs.docforia.io.DocumentWriter;
+import se.lth.cs.docforia.memstore.MemoryDocument;
+import se.lth.cs.docforia.memstore.MemoryDocumentFactory;
+import se.lth.cs.docforia.memstore.MemoryDocumentIO;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Column document I/O
+ * <p>
+ * <b>Remarks:</b> Uses the memory document formats so that files can be read by any reader, documents are
+ * converted on encode and decode. The conversion copies rows between the stores directly, no node or edge
+ * representations and no column handles are created. Property values are shared with the transient memory document.
+ */
+public class ColumnDocumentIO implements DocumentIO {
+
+    private static MemoryDocument toMemory(Document doc) {
+        if(doc instanceof MemoryDocument)
+            return (MemoryDocument)doc;
+        else if(!(doc instanceof ColumnDocument))
+            return (MemoryDocument)Document.convert(MemoryDocumentFactory.getInstance(), doc);
+
+        ColumnDocumentStore source = ((ColumnDocument) doc).store();
+        MemoryDocument target = doc.id() != null ? new MemoryDocument(doc.id(), doc.text()) : new MemoryDocument(doc.text());
+        DocumentStore targetStore = target.store();
+        for (Map.Entry<String, DataRef> entry : source.properties()) {
+            targetStore.putProperty(entry.getKey(), entry.getValue());
+        }
+
+        NodeRef[][] refs = new NodeRef[source.nodeLayers.length][];
+        for (ColumnNodeLayer layer : source.nodes.values()) {
+            DocumentNodeLayer targetLayer = targetStore.nodeLayer(layer.getLayer(), layer.getVariant());
+            NodeRef[] layerRefs = new NodeRef[layer.rows];
+
+            int numAnnotations = 0;
+            int[] rows = new int[layer.rows];
+            int[] starts = new int[layer.rows];
+            int[] ends = new int[layer.rows];
+            for (int i = 0; i < layer.rows; i++) {
+                if(layer.isRemoved(i))
+                    continue;
+
+                if(layer.starts[i] != Integer.MIN_VALUE && layer.ends[i] != Integer.MIN_VALUE) {
+                    rows[numAnnotations] = i;
+                    starts[numAnnotations] = layer.starts[i];
+                    ends[numAnnotations++] = layer.ends[i];
+                } else {
+                    layerRefs[i] = targetLayer.create();
+                }
+            }
+
+            NodeRef[] annotations = targetLayer.create(starts, ends, numAnnotations);
+            for (int i = 0; i < numAnnotations; i++) {
+                layerRefs[rows[i]] = annotations[i];
+            }
+
+            for (int i = 0; i < layer.rows; i++) {
+                if(layerRefs[i] == null)
+                    continue;
+
+                final int row = i;
+                NodeStore node = layerRefs[i].get();
+                for (Map.Entry<String, DataRef> entry : layer.properties.entries(() -> row)) {
+                    node.putProperty(entry.getKey(), entry.getValue());
+                }
+            }
+
+            refs[layer.key.id] = layerRefs;
+        }
+
+        for (ColumnEdgeLayer layer : source.edges.values()) {
+            DocumentEdgeLayer targetLayer = targetStore.edgeLayer(layer.getLayer(), layer.getVariant());
+            for (int i = 0; i < layer.rows; i++) {
+                if(layer.isRemoved(i))
+                    continue;
+
+                final int row = i;
+                EdgeRef edge = targetLayer.create(node(refs, layer.tailLayers[i], layer.tailRows[i]), node(refs, layer.headLayers[i], layer.headRows[i]));
+                EdgeStore edgeStore = edge.get();
+                for (Map.Entry<String, DataRef> entry : layer.properties.entries(() -> row)) {
+                    edgeStore.putProperty(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        target.setType(doc.type());
+        return target;
+    }
+
+    private static NodeRef node(NodeRef[][] refs, int layer, int row) {
+        return layer > 0 && row >= 0 && refs[layer] != null ? refs[layer][row] : null;
+    }
+
+    private static ColumnDocument fromMemory(MemoryDocument doc) {
+        if(doc == null)
+            return null;
+
+        ColumnDocument target = doc.id() != null ? new ColumnDocument(doc.id(), doc.text()) : new ColumnDocument(doc.text());
+        ColumnDocumentStore targetStore = target.store();
+        for (Map.Entry<String, DataRef> entry : doc.store().properties()) {
+            targetStore.putProperty(entry.getKey(), entry.getValue());
+        }
+
+        Reference2LongOpenHashMap<NodeRef> rows = new Reference2LongOpenHashMap<>();
+        rows.defaultReturnValue(-1L);
+        for (DocumentNodeLayer layer : doc.store().nodeLayers()) {
+            if(layer.size() == 0)
+                continue;
+
+            ColumnNodeLayer targetLayer = targetStore.getNodeLayer(layer.getLayer(), layer.getVariant());
+            for (NodeRef ref : layer) {
+                NodeStore node = ref.get();
+                int row = node.isAnnotation() ? targetLayer.append(node.getStart(), node.getEnd()) : targetLayer.append(Integer.MIN_VALUE, Integer.MAX_VALUE);
+                for (Map.Entry<String, DataRef> entry : node.properties()) {
+                    targetLayer.properties.put(row, entry.getKey(), entry.getValue());
+                }
+
+                rows.put(ref, ColumnAdjacency.key(targetLayer.key.id, row));
+            }
+        }
+
+        for (DocumentEdgeLayer layer : doc.store().edgeLayers()) {
+            if(layer.size() == 0)
+                continue;
+
+            ColumnEdgeLayer targetLayer = targetStore.getEdgeLayer(layer.getLayer(), layer.getVariant());
+            for (EdgeRef ref : layer) {
+                EdgeStore edge = ref.get();
+                long tail = edge.getTail() != null ? rows.getLong(edge.getTail()) : -1L;
+                long head = edge.getHead() != null ? rows.getLong(edge.getHead()) : -1L;
+                int row = targetLayer.append((int)(tail >> 32), (int)tail, (int)(head >> 32), (int)head);
+                for (Map.Entry<String, DataRef> entry : edge.properties()) {
+                    targetLayer.properties.put(row, entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        target.setType(doc.type());
+        return target;
+    }
+
+    @Override
+    public String toJson(Document doc, DocumentStorageLevel opt) {
+        return MemoryDocumentIO.getInstance().toJson(toMemory(doc), opt);
+    }
+
+    @Override
+    public ColumnDocument fromJson(String json) {
+        return fromMemory(MemoryDocumentIO.getInstance().fromJson(json));
+    }
+
+    @Override
+    public byte[] toBytes(Document doc, DocumentStorageLevel opt) {
+        return MemoryDocumentIO.getInstance().toBytes(toMemory(doc), opt);
+    }
+
+    @Override
+    public ColumnDocument fromBytes(byte[] bytes) {
+        return fromMemory(MemoryDocumentIO.getInstance().fromBytes(bytes));
+    }
+
+    @Override
+    public ColumnDocument fromBytes(byte[] bytes, int offset, int length) {
+        return fromMemory(MemoryDocumentIO.getInstance().fromBytes(bytes, offset, length));
+    }
+
+    @Override
+    public ColumnDocument fromBuffer(ByteBuffer buffer) {
+        return fromMemory(MemoryDocumentIO.getInstance().fromBuffer(buffer));
+    }
+
+    @Override
+    public DocumentReader createReader(File location) {
+        return MemoryDocumentIO.getInstance().createReader(location);
+    }
+
+    @Override
+    public DocumentWriter createWriter(File location) {
+        return MemoryDocumentIO.getInstance().createWriter(location);
+    }
+
+    private static final ColumnDocumentIO INSTANCE = new ColumnDocumentIO();
+
+    public static ColumnDocumentIO getInstance() {
+        return INSTANCE;
+    }
+}
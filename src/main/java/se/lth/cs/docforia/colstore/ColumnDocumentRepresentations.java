@@ -0,0 +1,111 @@
+package se.lth.cs.docforia.colstore;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import se.lth.cs.docforia.*;
+import se.lth.cs.docforia.memstore.MemoryCoreEdgeLayer;
+import se.lth.cs.docforia.memstore.MemoryCoreNodeLayer;
+import se.lth.cs.docforia.memstore.MemoryEdgeFactory;
+import se.lth.cs.docforia.memstore.MemoryNodeFactory;
+
+/**
+ * Column Document Node/Edge Representation instance abstraction
+ */
+public class ColumnDocumentRepresentations extends DocumentRepresentations {
+    private final Document doc;
+
+    public ColumnDocumentRepresentations(Document doc) {
+        super(doc);
+        this.doc = doc;
+    }
+
+    @Override
+    public Edge<?> create(EdgeRef ref) {
+        MemoryEdgeFactory factory = MemoryCoreEdgeLayer.fromLayerName(ref.layer().getLayer()).factory;
+        return factory != null ? factory.create() : super.create(ref);
+    }
+
+    @Override
+    public Node<?> create(NodeRef ref) {
+        MemoryNodeFactory factory = MemoryCoreNodeLayer.fromLayerName(ref.layer().getLayer()).factory;
+        return factory != null ? factory.create() : super.create(ref);
+    }
+
+    @Override
+    public Edge<?> get(EdgeRef ref) {
+        ColumnEdge eref = (ColumnEdge) ref;
+        if(eref.instance != null) {
+            return eref.instance;
+        }
+        else
+        {
+            Edge<?> edge = create(ref);
+            setInstance(eref, edge);
+            initialize(edge, ref);
+            return edge;
+        }
+    }
+
+    @Override
+    public Node<?> get(NodeRef ref) {
+        ColumnNode nref = (ColumnNode) ref;
+        if(nref.instance != null) {
+            return nref.instance;
+        }
+        else
+        {
+            Node<?> node = create(ref);
+            setInstance(nref, node);
+            initialize(node, ref);
+            return node;
+        }
+    }
+
+    /** Set the representation, a handle with a representation is kept alive by the store */
+    private static void setInstance(ColumnEdge ref, Edge<?> edge) {
+        if(ref.layer != null)
+            ref.layer.store.setInstance(ref, edge);
+        else
+            ref.instance = edge;
+    }
+
+    private static void setInstance(ColumnNode ref, Node<?> node) {
+        if(ref.layer != null)
+            ref.layer.store.setInstance(ref, node);
+        else
+            ref.instance = node;
+    }
+
+    @Override
+    protected void resetRepresentations() {
+        ((ColumnDocumentStore)doc.store()).clearInstances();
+        super.resetRepresentations();
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes") //Raw signature of DocumentRepresentations
+    public void register(Edge edge, EdgeRef ref) {
+        setInstance((ColumnEdge)ref, edge);
+        initialize(edge, ref);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes") //Raw signature of DocumentRepresentations
+    public void register(Node node, NodeRef ref) {
+        setInstance((ColumnNode)ref, node);
+        initialize(node, ref);
+    }
+}
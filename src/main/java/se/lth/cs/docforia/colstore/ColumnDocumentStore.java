@@ -0,0 +1,476 @@
+package se.lth.cs.docforia.colstore;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ReferenceAVLTreeMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import se.lth.cs.docforia.*;
+import se.lth.cs.docforia.data.DataRef;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Column Document Storage implementation, contains all data.
+ * <p>
+ * Nodes and edges are stored per layer as struct of arrays, see {@link ColumnNodeLayer} and {@link ColumnEdgeLayer}.
+ * Edges refer to nodes by (layer id, row) and adjacency is kept in CSR form by {@link ColumnAdjacency}.
+ * <p>
+ * Handles are only weakly cached, handles with a representation are kept alive by this store.
+ */
+public class ColumnDocumentStore extends DocumentStore {
+    protected ColumnDocument doc;
+
+    protected String text = "";
+
+    protected Object2ReferenceAVLTreeMap<ColumnLayerKey,ColumnNodeLayer> nodes = new Object2ReferenceAVLTreeMap<>();
+    protected Object2ReferenceAVLTreeMap<ColumnLayerKey,ColumnEdgeLayer> edges = new Object2ReferenceAVLTreeMap<>();
+
+    protected int nodelayerIdCounter = 1;
+    protected int edgelayerIdCounter = 1;
+
+    /** Layers by id */
+    protected ColumnNodeLayer[] nodeLayers = new ColumnNodeLayer[8];
+    protected ColumnEdgeLayer[] edgeLayers = new ColumnEdgeLayer[8];
+
+    /** Handles with a representation */
+    protected final ReferenceOpenHashSet<ColumnNode> nodeInstances = new ReferenceOpenHashSet<>();
+    protected final ReferenceOpenHashSet<ColumnEdge> edgeInstances = new ReferenceOpenHashSet<>();
+
+    protected Object2ObjectOpenHashMap<String,DataRef> properties = new Object2ObjectOpenHashMap<>();
+
+    protected final ColumnAdjacency adjacency = new ColumnAdjacency(this);
+
+    @Override
+    public Document getDocument() {
+        return doc;
+    }
+
+    /** Flattens the layers of a map */
+    private static <T> Iterator<T> flatten(final Collection<? extends Iterable<T>> layers) {
+        final Iterator<? extends Iterable<T>> iterator = layers.iterator();
+        return new Iterator<T>() {
+            Iterator<T> current;
+            T next;
+
+            private boolean moveForward() {
+                if(next != null)
+                    return true;
+
+                while(current == null || !current.hasNext()) {
+                    if(!iterator.hasNext())
+                        return false;
+
+                    current = iterator.next().iterator();
+                }
+
+                next = current.next();
+                return true;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return moveForward();
+            }
+
+            @Override
+            public T next() {
+                if(!moveForward())
+                    throw new NoSuchElementException();
+
+                T retval = next;
+                next = null;
+                return retval;
+            }
+        };
+    }
+
+    @Override
+    public Iterable<NodeRef> nodes() {
+        return () -> flatten(nodes.values());
+    }
+
+    @Override
+    public Iterable<EdgeRef> edges() {
+        return () -> flatten(edges.values());
+    }
+
+    @Override
+    public Iterable<EdgeRef> inboundEdges(NodeRef node) {
+        return () -> adjacency.inbound((ColumnNode)node);
+    }
+
+    @Override
+    public Iterable<EdgeRef> outboundEdges(NodeRef node) {
+        return () -> adjacency.outbound((ColumnNode)node);
+    }
+
+    /** Resolve a node, a removed node is returned as a detached handle */
+    protected ColumnNode node(int layer, int row) {
+        if(layer < 0)
+            return null;
+
+        ColumnNodeLayer nodeLayer = layer < nodeLayers.length ? nodeLayers[layer] : null;
+        if(nodeLayer == null || row < 0 || row >= nodeLayer.rows || nodeLayer.isRemoved(row))
+            return new ColumnNode(null, -1);
+
+        return nodeLayer.handle(row);
+    }
+
+    protected void setInstance(ColumnNode node, Node<?> instance) {
+        node.instance = instance;
+        if(instance != null)
+            nodeInstances.add(node);
+        else
+            nodeInstances.remove(node);
+    }
+
+    protected void setInstance(ColumnEdge edge, Edge<?> instance) {
+        edge.instance = instance;
+        if(instance != null)
+            edgeInstances.add(edge);
+        else
+            edgeInstances.remove(edge);
+    }
+
+    /** Drop all representations */
+    protected void clearInstances() {
+        for (ColumnNode node : nodeInstances) {
+            node.instance = null;
+        }
+
+        for (ColumnEdge edge : edgeInstances) {
+            edge.instance = null;
+        }
+
+        nodeInstances.clear();
+        edgeInstances.clear();
+    }
+
+    @Override
+    public void remove(NodeRef nodeId) {
+        ColumnNode node = (ColumnNode)nodeId;
+        if(node.instance != null) {
+            markNodeAsRemoved(node.instance);
+            setInstance(node, null);
+        }
+
+        ColumnNodeLayer layer = node.layer;
+        layer.remove(node);
+        if(layer.isEmpty())
+            removeLayer(layer);
+    }
+
+    @Override
+    public void remove(EdgeRef edgeId) {
+        ColumnEdge edge = (ColumnEdge)edgeId;
+        if(edge.instance != null) {
+            markEdgeAsRemoved(edge.instance);
+            setInstance(edge, null);
+        }
+
+        ColumnEdgeLayer layer = edge.layer;
+        layer.remove(edge);
+        if(layer.isEmpty())
+            removeLayer(layer);
+    }
+
+    protected void removeLayer(ColumnNodeLayer layer) {
+        nodes.remove(layer.key);
+        if(nodeLayers[layer.key.id] == layer)
+            nodeLayers[layer.key.id] = null;
+    }
+
+    protected void removeLayer(ColumnEdgeLayer layer) {
+        edges.remove(layer.key);
+        if(edgeLayers[layer.key.id] == layer)
+            edgeLayers[layer.key.id] = null;
+    }
+
+    /** Move a node to another layer and redirect the edges connected to it */
+    protected void moveNode(ColumnNode node, ColumnNodeLayer target) {
+        int layer = node.layer.key.id;
+        int row = node.row;
+        LongArrayList connected = adjacency.edges(layer, row);
+        int newRow = node.layer.moveTo(row, target);
+
+        for (int i = 0; i < connected.size(); i++) {
+            long edge = connected.getLong(i);
+            int edgeLayer = (int)(edge >>> 32);
+            int edgeRow = (int)edge;
+            edgeLayers[edgeLayer].redirect(edgeRow, layer, row, target.key.id, newRow);
+            adjacency.connected(edgeLayer, edgeRow);
+        }
+    }
+
+    /** Redirect edges to moved nodes, keyed by (layer id, row) */
+    private void redirect(Long2LongOpenHashMap moved) {
+        for (ColumnEdgeLayer layer : edges.values()) {
+            for (int i = 0; i < layer.rows; i++) {
+                long tail = moved.get(ColumnAdjacency.key(layer.tailLayers[i], layer.tailRows[i]));
+                if(tail != -1L) {
+                    layer.tailLayers[i] = (int)(tail >>> 32);
+                    layer.tailRows[i] = (int)tail;
+                }
+
+                long head = moved.get(ColumnAdjacency.key(layer.headLayers[i], layer.headRows[i]));
+                if(head != -1L) {
+                    layer.headLayers[i] = (int)(head >>> 32);
+                    layer.headRows[i] = (int)head;
+                }
+            }
+        }
+
+        adjacency.invalidate();
+    }
+
+    /** Called when a node layer has been compacted, redirects edges to the new rows */
+    protected void compacted(ColumnNodeLayer nodeLayer, int[] rowMap) {
+        int id = nodeLayer.key.id;
+        for (ColumnEdgeLayer layer : edges.values()) {
+            for (int i = 0; i < layer.rows; i++) {
+                if(layer.tailLayers[i] == id && layer.tailRows[i] >= 0)
+                    layer.tailRows[i] = rowMap[layer.tailRows[i]];
+
+                if(layer.headLayers[i] == id && layer.headRows[i] >= 0)
+                    layer.headRows[i] = rowMap[layer.headRows[i]];
+            }
+        }
+
+        adjacency.invalidate();
+    }
+
+    protected void migrate(ColumnLayerKey oldKey, ColumnLayerKey newKey, ColumnNodeLayer layer) {
+        newKey.id = oldKey.id;
+        nodes.remove(oldKey);
+        nodes.put(newKey, layer);
+    }
+
+    protected void migrate(ColumnLayerKey oldKey, ColumnLayerKey newKey, ColumnEdgeLayer layer) {
+        newKey.id = oldKey.id;
+        edges.remove(oldKey);
+        edges.put(newKey, layer);
+    }
+
+    @Override
+    public EdgeRef getEdge(String uniqueRef) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public NodeRef getNode(String uniqueRef) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getText() {
+        return text;
+    }
+
+    @Override
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    @Override
+    public int numProperties() {
+        return properties.size();
+    }
+
+    @Override
+    public boolean hasProperty(String key) {
+        return properties.containsKey(key);
+    }
+
+    @Override
+    public void putProperty(String key, DataRef ref) {
+        properties.put(key, ref);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends DataRef> T getRefProperty(String key) {
+        return (T)properties.get(key);
+    }
+
+    @Override
+    public Iterable<Map.Entry<String, DataRef>> properties() {
+        return properties.entrySet();
+    }
+
+    @Override
+    public void removeProperty(String key) {
+        properties.remove(key);
+    }
+
+    protected ColumnNodeLayer getNodeLayer(String nodeLayer, String nodeVariant) {
+        ColumnLayerKey key = new ColumnLayerKey(nodeLayer, nodeVariant);
+        ColumnNodeLayer layer = nodes.get(key);
+        if(layer == null) {
+            layer = new ColumnNodeLayer(this, key);
+            key.id = nodelayerIdCounter++;
+            nodes.put(key, layer);
+
+            if(key.id == nodeLayers.length)
+                nodeLayers = Arrays.copyOf(nodeLayers, nodeLayers.length * 2);
+
+            nodeLayers[key.id] = layer;
+        }
+
+        return layer;
+    }
+
+    protected ColumnEdgeLayer getEdgeLayer(String edgeLayer, String edgeVariant) {
+        ColumnLayerKey key = new ColumnLayerKey(edgeLayer, edgeVariant);
+        ColumnEdgeLayer layer = edges.get(key);
+        if(layer == null) {
+            layer = new ColumnEdgeLayer(this, key);
+            key.id = edgelayerIdCounter++;
+            edges.put(key, layer);
+
+            if(key.id == edgeLayers.length)
+                edgeLayers = Arrays.copyOf(edgeLayers, edgeLayers.length * 2);
+
+            edgeLayers[key.id] = layer;
+        }
+
+        return layer;
+    }
+
+    @Override
+    public DocumentNodeLayer nodeLayer(String nodeLayer, String nodeVariant) {
+        return getNodeLayer(nodeLayer, nodeVariant);
+    }
+
+    @Override
+    public DocumentEdgeLayer edgeLayer(String edgeLayer, String edgeVariant) {
+        return getEdgeLayer(edgeLayer, edgeVariant);
+    }
+
+    @Override
+    public EdgeRef createEdge(String edgeLayer, String edgeVariant) {
+        return getEdgeLayer(edgeLayer, edgeVariant).create();
+    }
+
+    @Override
+    public NodeRef createNode(String nodeLayer, String nodeVariant) {
+        return getNodeLayer(nodeLayer, nodeVariant).create();
+    }
+
+    @Override
+    public EdgeRef createEdge(String edgeLayer) {
+        return createEdge(edgeLayer, null);
+    }
+
+    @Override
+    public NodeRef createNode(String nodeLayer) {
+        return createNode(nodeLayer, null);
+    }
+
+    /** Iterable of node layers and all their variants */
+    @Override
+    public Iterable<? extends DocumentNodeLayer> nodeLayers() {
+        return nodes.values();
+    }
+
+    /** Iterable of edge layers and all their variants */
+    @Override
+    public Iterable<? extends DocumentEdgeLayer> edgeLayers() {
+        return edges.values();
+    }
+
+    @Override
+    public void migrateNodesToVariant(String nodeLayer, String prevVariant, String newVariant) {
+        ColumnNodeLayer source = nodes.get(new ColumnLayerKey(nodeLayer, prevVariant));
+        if(source != null) {
+            ColumnNodeLayer target = getNodeLayer(nodeLayer, newVariant);
+            if(target == source)
+                return;
+
+            Long2LongOpenHashMap moved = new Long2LongOpenHashMap();
+            moved.defaultReturnValue(-1L);
+            for (int i = 0; i < source.rows; i++) {
+                if(!source.isRemoved(i))
+                    moved.put(ColumnAdjacency.key(source.key.id, i), ColumnAdjacency.key(target.key.id, source.moveTo(i, target)));
+            }
+
+            redirect(moved);
+            removeLayer(source);
+        }
+    }
+
+    @Override
+    public void migrateEdgesToVariant(String edgeLayer, String prevVariant, String newVariant) {
+        ColumnEdgeLayer source = edges.get(new ColumnLayerKey(edgeLayer, prevVariant));
+        if(source != null) {
+            ColumnEdgeLayer target = getEdgeLayer(edgeLayer, newVariant);
+            if(target == source)
+                return;
+
+            for (int i = 0; i < source.rows; i++) {
+                if(!source.isRemoved(i))
+                    source.moveTo(i, target);
+            }
+
+            adjacency.invalidate();
+            removeLayer(source);
+        }
+    }
+
+    @Override
+    public void migradeNodesToVariant(String nodeLayer, String targetVariant, Iterable<NodeRef> nodes) {
+        ColumnNodeLayer target = getNodeLayer(nodeLayer, targetVariant);
+        Long2LongOpenHashMap moved = new Long2LongOpenHashMap();
+        moved.defaultReturnValue(-1L);
+        for (NodeRef node : nodes) {
+            ColumnNode cnode = (ColumnNode)node;
+            if(cnode.layer != target) {
+                long from = ColumnAdjacency.key(cnode.layer.key.id, cnode.row);
+                moved.put(from, ColumnAdjacency.key(target.key.id, cnode.layer.moveTo(cnode.row, target)));
+            }
+        }
+
+        if(!moved.isEmpty())
+            redirect(moved);
+    }
+
+    @Override
+    public void migradeEdgesToVariant(String edgeLayer, String targetVariant, Iterable<EdgeRef> edges) {
+        ColumnEdgeLayer target = getEdgeLayer(edgeLayer, targetVariant);
+        boolean moved = false;
+        for (EdgeRef edge : edges) {
+            ColumnEdge cedge = (ColumnEdge)edge;
+            if(cedge.layer != target) {
+                cedge.layer.moveTo(cedge.row, target);
+                moved = true;
+            }
+        }
+
+        if(moved)
+            adjacency.invalidate();
+    }
+
+    @Override
+    public String toString() {
+        return "Column Document Storage with " + nodes.keySet().size() + " node layers and " + edges.keySet().size() + " edge layers.";
+    }
+}
@@ -0,0 +1,148 @@
+package se.lth.cs.docforia.colstore;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import se.lth.cs.docforia.Document;
+import se.lth.cs.docforia.Edge;
+import se.lth.cs.docforia.EdgeStore;
+import se.lth.cs.docforia.NodeRef;
+import se.lth.cs.docforia.data.DataRef;
+
+import java.util.Map;
+
+/**
+ * Column Edge, a handle to a row in an edge layer.
+ */
+public class ColumnEdge extends EdgeStore implements ColumnProperties.ColumnRow {
+    protected ColumnEdgeLayer layer;
+    protected int row;
+    protected Edge<?> instance;
+
+    public ColumnEdge(ColumnEdgeLayer layer, int row) {
+        this.layer = layer;
+        this.row = row;
+    }
+
+    @Override
+    public int row() {
+        return row;
+    }
+
+    @Override
+    public Document parent() {
+        return layer.store.doc;
+    }
+
+    @Override
+    public ColumnEdgeLayer layer() {
+        return layer;
+    }
+
+    @Override
+    public ColumnNode getHead() {
+        return layer.head(row);
+    }
+
+    @Override
+    public ColumnNode getTail() {
+        return layer.tail(row);
+    }
+
+    @Override
+    public void setHead(NodeRef head) {
+        layer.setHead(row, (ColumnNode)head);
+        layer.store.adjacency.connected(layer.key.id, row);
+    }
+
+    @Override
+    public void setTail(NodeRef tail) {
+        layer.setTail(row, (ColumnNode)tail);
+        layer.store.adjacency.connected(layer.key.id, row);
+    }
+
+    @Override
+    public void connect(NodeRef tail, NodeRef head) {
+        layer.setTail(row, (ColumnNode)tail);
+        layer.setHead(row, (ColumnNode)head);
+        layer.store.adjacency.connected(layer.key.id, row);
+    }
+
+    @Override
+    public String getLayer() {
+        return layer.key.layer;
+    }
+
+    @Override
+    public String getVariant() {
+        return layer.key.variant;
+    }
+
+    @Override
+    public void setVariant(String variant) {
+        layer.variantChanged(this, variant);
+    }
+
+    @Override
+    public boolean valid() {
+        return layer != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends DataRef> T getRefProperty(String key) {
+        return (T)layer.properties.get(row, key);
+    }
+
+    @Override
+    public boolean hasProperty(String key) {
+        return layer.properties.has(row, key);
+    }
+
+    @Override
+    public int numProperties() {
+        return layer.properties.count(row);
+    }
+
+    @Override
+    public void putProperty(String key, DataRef ref) {
+        layer.properties.put(row, key, ref);
+    }
+
+    @Override
+    public void removeProperty(String key) {
+        layer.properties.remove(row, key);
+    }
+
+    @Override
+    public Iterable<Map.Entry<String, DataRef>> properties() {
+        return layer.properties.entries(this);
+    }
+
+    @Override
+    public final EdgeStore get() {
+        return this;
+    }
+
+    @Override
+    public String reference() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(getTail()) + " -> " + String.valueOf(getHead()) + " : " + super.toString();
+    }
+}
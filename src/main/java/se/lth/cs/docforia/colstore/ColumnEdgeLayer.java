@@ -0,0 +1,323 @@
+package se.lth.cs.docforia.colstore;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import se.lth.cs.docforia.DocumentEdgeLayer;
+import se.lth.cs.docforia.EdgeRef;
+import se.lth.cs.docforia.NodeRef;
+import se.lth.cs.docforia.util.DocumentIterable;
+import se.lth.cs.docforia.util.DocumentIterableBase;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Column Edge Layer, stores all edges of a layer and variant as struct of arrays.
+ * <p>
+ * Tail and head are kept as node layer id and row columns, -1 as layer id is used for no node.
+ * Edges are iterated in insertion order.
+ */
+public class ColumnEdgeLayer extends DocumentIterableBase<EdgeRef> implements DocumentIterable<EdgeRef>, DocumentEdgeLayer {
+    protected final ColumnDocumentStore store;
+    protected ColumnLayerKey key;
+    protected final ColumnProperties properties = new ColumnProperties();
+
+    protected int[] tailLayers = new int[8];
+    protected int[] tailRows = new int[8];
+    protected int[] headLayers = new int[8];
+    protected int[] headRows = new int[8];
+    protected final ColumnHandleCache<ColumnEdge> handles = new ColumnHandleCache<>();
+    protected long[] removed = new long[1];
+    protected int rows = 0;
+    protected int numRemoved = 0;
+
+    public ColumnEdgeLayer(ColumnDocumentStore store, ColumnLayerKey key) {
+        this.store = store;
+        this.key = key;
+    }
+
+    public ColumnLayerKey getKey() {
+        return key;
+    }
+
+    @Override
+    public String getLayer() {
+        return key.layer;
+    }
+
+    @Override
+    public String getVariant() {
+        return key.variant;
+    }
+
+    @Override
+    public int size() {
+        return rows - numRemoved;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** Get the edge handle for a row */
+    protected ColumnEdge handle(int row) {
+        ColumnEdge edge = handles.get(row);
+        if(edge == null) {
+            edge = new ColumnEdge(this, row);
+            handles.put(row, edge);
+        }
+
+        return edge;
+    }
+
+    protected boolean isRemoved(int row) {
+        return ColumnProperties.bit(removed, row);
+    }
+
+    /** Layer id of a node, 0 is never assigned and used for removed nodes */
+    private static int layerOf(ColumnNode node) {
+        return node == null ? -1 : node.layer != null ? node.layer.key.id : 0;
+    }
+
+    private static int rowOf(ColumnNode node) {
+        return node == null || node.layer == null ? -1 : node.row;
+    }
+
+    protected int append(int tailLayer, int tailRow, int headLayer, int headRow) {
+        if(rows == tailLayers.length) {
+            int capacity = ColumnProperties.capacity(rows, rows);
+            tailLayers = Arrays.copyOf(tailLayers, capacity);
+            tailRows = Arrays.copyOf(tailRows, capacity);
+            headLayers = Arrays.copyOf(headLayers, capacity);
+            headRows = Arrays.copyOf(headRows, capacity);
+        }
+
+        tailLayers[rows] = tailLayer;
+        tailRows[rows] = tailRow;
+        headLayers[rows] = headLayer;
+        headRows[rows] = headRow;
+        return rows++;
+    }
+
+    protected ColumnNode tail(int row) {
+        return store.node(tailLayers[row], tailRows[row]);
+    }
+
+    protected ColumnNode head(int row) {
+        return store.node(headLayers[row], headRows[row]);
+    }
+
+    protected void setTail(int row, ColumnNode tail) {
+        tailLayers[row] = layerOf(tail);
+        tailRows[row] = rowOf(tail);
+    }
+
+    protected void setHead(int row, ColumnNode head) {
+        headLayers[row] = layerOf(head);
+        headRows[row] = rowOf(head);
+    }
+
+    /** Point tail and head at the given node to another row */
+    protected void redirect(int row, int fromLayer, int fromRow, int toLayer, int toRow) {
+        if(tailLayers[row] == fromLayer && tailRows[row] == fromRow) {
+            tailLayers[row] = toLayer;
+            tailRows[row] = toRow;
+        }
+
+        if(headLayers[row] == fromLayer && headRows[row] == fromRow) {
+            headLayers[row] = toLayer;
+            headRows[row] = toRow;
+        }
+    }
+
+    @Override
+    public ColumnEdge create() {
+        return handle(append(-1, -1, -1, -1));
+    }
+
+    @Override
+    public ColumnEdge create(NodeRef tail, NodeRef head) {
+        ColumnNode tailNode = (ColumnNode)tail;
+        ColumnNode headNode = (ColumnNode)head;
+        int row = append(layerOf(tailNode), rowOf(tailNode), layerOf(headNode), rowOf(headNode));
+        store.adjacency.connected(key.id, row);
+        return handle(row);
+    }
+
+    @Override
+    public void migrate(String newLayer) {
+        migrate(newLayer, key.variant);
+    }
+
+    @Override
+    public void migrate(String newLayer, String variant) {
+        ColumnLayerKey oldKey = key;
+        ColumnLayerKey newKey = new ColumnLayerKey(newLayer, variant);
+        store.migrate(oldKey, newKey, this);
+
+        for (ColumnEdge edge : handles.values()) {
+            store.setInstance(edge, null);
+        }
+
+        this.key = newKey;
+    }
+
+    @Override
+    public void remove(EdgeRef ref) {
+        ColumnEdge edge = (ColumnEdge)ref;
+        if(edge.layer != this)
+            throw new IllegalArgumentException("This edge does not belong to this layer!");
+
+        store.remove(edge);
+    }
+
+    protected void remove(ColumnEdge edge) {
+        unlink(edge.row);
+        edge.layer = null;
+    }
+
+    protected void unlink(int row) {
+        removed = ColumnProperties.setBit(removed, row);
+        numRemoved++;
+        properties.clear(row);
+        tailLayers[row] = -1;
+        headLayers[row] = -1;
+        handles.remove(row);
+    }
+
+    protected void variantChanged(ColumnEdge edge, String variant) {
+        if(!Objects.equals(variant, key.variant)) {
+            ColumnEdgeLayer target = store.getEdgeLayer(key.layer, variant);
+            store.adjacency.connected(target.key.id, moveTo(edge.row, target));
+            if(isEmpty())
+                store.removeLayer(this);
+        }
+    }
+
+    /**
+     * Move a row to another layer, a live handle is kept.
+     * @return the row in the target layer
+     */
+    protected int moveTo(int row, ColumnEdgeLayer target) {
+        int newRow = target.append(tailLayers[row], tailRows[row], headLayers[row], headRows[row]);
+        properties.copyTo(row, target.properties, newRow);
+
+        ColumnEdge edge = handles.get(row);
+        unlink(row);
+
+        if(edge != null) {
+            edge.layer = target;
+            edge.row = newRow;
+            target.handles.put(newRow, edge);
+        }
+
+        return newRow;
+    }
+
+    /** Remove dead rows, keeps insertion order of the remaining rows */
+    private void compact() {
+        int[] rowMap = new int[rows];
+        int w = 0;
+        for (int r = 0; r < rows; r++) {
+            if(!ColumnProperties.bit(removed, r)) {
+                if(w != r) {
+                    tailLayers[w] = tailLayers[r];
+                    tailRows[w] = tailRows[r];
+                    headLayers[w] = headLayers[r];
+                    headRows[w] = headRows[r];
+                    properties.move(r, w);
+                }
+                rowMap[r] = w++;
+            } else {
+                rowMap[r] = -1;
+            }
+        }
+
+        for (ColumnEdge edge : handles.values()) {
+            edge.row = rowMap[edge.row];
+        }
+
+        handles.remap(rowMap);
+        Arrays.fill(removed, 0L);
+        rows = w;
+        numRemoved = 0;
+        store.adjacency.invalidate();
+    }
+
+    @Override
+    public Iterator<EdgeRef> iterator() {
+        if(numRemoved > 0 && numRemoved * 2 >= rows)
+            compact();
+
+        return new Iterator<EdgeRef>() {
+            int pos = 0;
+            ColumnEdge next;
+
+            private boolean moveForward() {
+                if(next != null)
+                    return true;
+
+                while(pos < rows) {
+                    int row = pos++;
+                    if(!ColumnProperties.bit(removed, row)) {
+                        next = handle(row);
+                        return true;
+                    }
+                }
+
+                return false;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return moveForward();
+            }
+
+            @Override
+            public EdgeRef next() {
+                if(!moveForward())
+                    throw new NoSuchElementException();
+
+                EdgeRef retval = next;
+                next = null;
+                return retval;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ColumnEdgeLayer that = (ColumnEdgeLayer) o;
+        return store == that.store && key.equals(that.key);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = store.hashCode();
+        result = 31 * result + key.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return size() + " edges in edge layer " + key.layer;
+    }
+}
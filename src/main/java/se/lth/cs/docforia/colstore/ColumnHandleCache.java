@@ -0,0 +1,111 @@
+package se.lth.cs.docforia.colstore;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+/**
+ * Weak cache of row handles.
+ * <p>
+ * Handles are created on demand, the cache only guarantees that a row has at most one live handle
+ * so that handles can be compared by identity. Handles no longer referenced are collected.
+ */
+public class ColumnHandleCache<T> {
+    private static final class Entry<T> extends WeakReference<T> {
+        private int row;
+
+        public Entry(T referent, int row, ReferenceQueue<? super T> queue) {
+            super(referent, queue);
+            this.row = row;
+        }
+    }
+
+    private Int2ObjectOpenHashMap<Entry<T>> entries = new Int2ObjectOpenHashMap<>();
+    private final ReferenceQueue<T> queue = new ReferenceQueue<>();
+
+    /** Drop entries of collected handles, the queue only holds entries */
+    @SuppressWarnings("unchecked")
+    private void purge() {
+        Reference<? extends T> ref;
+        while((ref = queue.poll()) != null) {
+            Entry<T> entry = (Entry<T>)ref;
+            if(entries.get(entry.row) == entry)
+                entries.remove(entry.row);
+        }
+    }
+
+    /** Get the live handle of a row or null */
+    public T get(int row) {
+        purge();
+        Entry<T> entry = entries.get(row);
+        return entry != null ? entry.get() : null;
+    }
+
+    public void put(int row, T handle) {
+        purge();
+        entries.put(row, new Entry<>(handle, row, queue));
+    }
+
+    /** Remove the handle of a row, returns the live handle or null */
+    public T remove(int row) {
+        Entry<T> entry = entries.remove(row);
+        return entry != null ? entry.get() : null;
+    }
+
+    /** Snapshot of all live handles */
+    public ArrayList<T> values() {
+        purge();
+        ArrayList<T> values = new ArrayList<>(entries.size());
+        for (Entry<T> entry : entries.values()) {
+            T handle = entry.get();
+            if(handle != null)
+                values.add(handle);
+        }
+
+        return values;
+    }
+
+    /**
+     * Renumber rows
+     * @param rowMap new row by old row, -1 drops the entry
+     */
+    public void remap(int[] rowMap) {
+        purge();
+        Int2ObjectOpenHashMap<Entry<T>> remapped = new Int2ObjectOpenHashMap<>(entries.size());
+        for (Int2ObjectMap.Entry<Entry<T>> entry : entries.int2ObjectEntrySet()) {
+            Entry<T> handle = entry.getValue();
+            int row = rowMap[entry.getIntKey()];
+            if(row != -1 && handle.get() != null) {
+                handle.row = row;
+                remapped.put(row, handle);
+            }
+        }
+
+        this.entries = remapped;
+    }
+
+    /** Number of live or not yet purged handles */
+    public int size() {
+        purge();
+        return entries.size();
+    }
+}
@@ -0,0 +1,81 @@
+package se.lth.cs.docforia.colstore;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import se.lth.cs.docforia.LayerRef;
+
+import java.util.Objects;
+
+/**
+ * Layer key, orders by layer and then variant with the default variant first.
+ */
+public class ColumnLayerKey implements Comparable<ColumnLayerKey>, LayerRef {
+    protected final String layer;
+    protected final String variant;
+    protected int id = -1;
+
+    public ColumnLayerKey(String layer, String variant) {
+        if(layer == null)
+            throw new NullPointerException("layer");
+
+        this.layer = layer;
+        this.variant = variant;
+    }
+
+    @Override
+    public String getLayer() {
+        return layer;
+    }
+
+    @Override
+    public String getVariant() {
+        return variant;
+    }
+
+    @Override
+    public int compareTo(ColumnLayerKey o) {
+        int result = layer.compareTo(o.layer);
+        if(result == 0) {
+            if(variant == null || o.variant == null)
+                return -Boolean.compare(variant == null, o.variant == null);
+            else
+                return variant.compareTo(o.variant);
+        }
+        else
+            return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ColumnLayerKey key = (ColumnLayerKey) o;
+        return layer.equals(key.layer) && Objects.equals(variant, key.variant);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = layer.hashCode();
+        result = 31 * result + (variant != null ? variant.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "( " + layer + ", " + Objects.toString(variant) + " )";
+    }
+}
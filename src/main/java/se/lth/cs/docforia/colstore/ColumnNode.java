@@ -0,0 +1,154 @@
+package se.lth.cs.docforia.colstore;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import se.lth.cs.docforia.Document;
+import se.lth.cs.docforia.Node;
+import se.lth.cs.docforia.NodeStore;
+import se.lth.cs.docforia.data.DataRef;
+
+import java.util.Map;
+
+/**
+ * Column Node, a handle to a row in a node layer.
+ * <p>
+ * <b>Remarks:</b> All data is kept in the layer, the handle only knows its position. Handles are created on demand,
+ * a handle is only kept alive by the layer while it has a representation, see {@link ColumnDocumentStore#setInstance(ColumnNode, Node)}.
+ */
+public class ColumnNode extends NodeStore implements ColumnProperties.ColumnRow {
+    protected ColumnNodeLayer layer;
+    protected int row;
+    protected Node<?> instance;
+
+    public ColumnNode(ColumnNodeLayer layer, int row) {
+        this.layer = layer;
+        this.row = row;
+    }
+
+    @Override
+    public int row() {
+        return row;
+    }
+
+    @Override
+    public Document parent() {
+        return layer.store.doc;
+    }
+
+    @Override
+    public ColumnNodeLayer layer() {
+        return layer;
+    }
+
+    @Override
+    public String getLayer() {
+        return layer.key.layer;
+    }
+
+    @Override
+    public String getVariant() {
+        return layer.key.variant;
+    }
+
+    @Override
+    public void setVariant(String variant) {
+        layer.variantChanged(this, variant);
+    }
+
+    @Override
+    public boolean isAnnotation() {
+        return layer.starts[row] != Integer.MIN_VALUE && layer.ends[row] != Integer.MIN_VALUE;
+    }
+
+    @Override
+    public int getStart() {
+        return layer.starts[row];
+    }
+
+    @Override
+    public int getEnd() {
+        return layer.ends[row];
+    }
+
+    @Override
+    public void setRanges(int start, int end) {
+        layer.rangeChanged(this, start, end);
+    }
+
+    @Override
+    public void setNoRanges() {
+        layer.rangeChanged(this, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean valid() {
+        return layer != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends DataRef> T getRefProperty(String key) {
+        return (T)layer.properties.get(row, key);
+    }
+
+    @Override
+    public boolean hasProperty(String key) {
+        return layer.properties.has(row, key);
+    }
+
+    @Override
+    public int numProperties() {
+        return layer.properties.count(row);
+    }
+
+    @Override
+    public void putProperty(String key, DataRef ref) {
+        layer.properties.put(row, key, ref);
+    }
+
+    @Override
+    public void removeProperty(String key) {
+        layer.properties.remove(row, key);
+    }
+
+    @Override
+    public Iterable<Map.Entry<String, DataRef>> properties() {
+        return layer.properties.entries(this);
+    }
+
+    @Override
+    public final NodeStore get() {
+        return this;
+    }
+
+    @Override
+    public String reference() {
+        throw new UnsupportedOperationException("Not implemented.");
+    }
+
+    @Override
+    public String toString() {
+        if(layer == null)
+            return "Removed node";
+
+        String header = layer.getLayer() + (layer.getVariant() != null ? ", " + layer.getVariant() : "");
+        if(isAnnotation()) {
+            return header + " : Annotation {" + layer.store.getText().substring(getStart(), getEnd()) + "}";
+        } else {
+            return header + " : Node " + super.toString();
+        }
+    }
+}
@@ -0,0 +1,534 @@
+package se.lth.cs.docforia.colstore;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import se.lth.cs.docforia.DocumentNodeLayer;
+import se.lth.cs.docforia.LayerRef;
+import se.lth.cs.docforia.NodeRef;
+import se.lth.cs.docforia.util.AnnotationNavigator;
+import se.lth.cs.docforia.util.DocumentIterable;
+import se.lth.cs.docforia.util.DocumentIterableBase;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Column Node Layer, stores all nodes of a layer and variant as struct of arrays.
+ * <p>
+ * Ranges are kept in int arrays and properties in {@link ColumnProperties}, a node is a row.
+ * Node handles are created on demand and only weakly cached.
+ * Annotations are ordered by start and center in an order index that is rebuilt when needed.
+ */
+public class ColumnNodeLayer extends DocumentIterableBase<NodeRef> implements DocumentIterable<NodeRef>, DocumentNodeLayer {
+    protected final ColumnDocumentStore store;
+    protected ColumnLayerKey key;
+    protected final ColumnProperties properties = new ColumnProperties();
+
+    protected int[] starts = new int[8];
+    protected int[] ends = new int[8];
+    protected final ColumnHandleCache<ColumnNode> handles = new ColumnHandleCache<>();
+    protected long[] removed = new long[1];
+    protected int rows = 0;
+    protected int numRemoved = 0;
+
+    /** Order index: non annotations first followed by annotations ordered by start, center */
+    private int[] order = new int[0];
+    /** Running maximum of end for the annotation part of the order index */
+    private int[] maxEnds = new int[0];
+    private int firstAnnotation = 0;
+    private boolean dirty = false;
+
+    public ColumnNodeLayer(ColumnDocumentStore store, ColumnLayerKey key) {
+        this.store = store;
+        this.key = key;
+    }
+
+    public ColumnLayerKey getKey() {
+        return key;
+    }
+
+    @Override
+    public String getLayer() {
+        return key.layer;
+    }
+
+    @Override
+    public String getVariant() {
+        return key.variant;
+    }
+
+    @Override
+    public int size() {
+        return rows - numRemoved;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** Get the node handle for a row */
+    protected ColumnNode handle(int row) {
+        ColumnNode node = handles.get(row);
+        if(node == null) {
+            node = new ColumnNode(this, row);
+            handles.put(row, node);
+        }
+
+        return node;
+    }
+
+    protected boolean isRemoved(int row) {
+        return ColumnProperties.bit(removed, row);
+    }
+
+    protected int append(int start, int end) {
+        if(rows == starts.length) {
+            int capacity = ColumnProperties.capacity(rows, rows);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+
+        starts[rows] = start;
+        ends[rows] = end;
+        dirty = true;
+        return rows++;
+    }
+
+    @Override
+    public ColumnNode create() {
+        return handle(append(Integer.MIN_VALUE, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public ColumnNode create(int start, int end) {
+        return handle(append(start, end));
+    }
+
+    @Override
+    public void migrate(String newLayer) {
+        migrate(newLayer, key.variant);
+    }
+
+    @Override
+    public void migrate(String newLayer, String variant) {
+        ColumnLayerKey oldKey = key;
+        ColumnLayerKey newKey = new ColumnLayerKey(newLayer, variant);
+        store.migrate(oldKey, newKey, this);
+
+        for (ColumnNode node : handles.values()) {
+            store.setInstance(node, null);
+        }
+
+        this.key = newKey;
+    }
+
+    @Override
+    public void remove(NodeRef ref) {
+        ColumnNode node = (ColumnNode)ref;
+        if(node.layer != this)
+            throw new IllegalArgumentException("Node does not belong to this layer!");
+
+        store.remove(node);
+    }
+
+    protected void remove(ColumnNode node) {
+        unlink(node.row);
+        node.layer = null;
+    }
+
+    protected void unlink(int row) {
+        removed = ColumnProperties.setBit(removed, row);
+        numRemoved++;
+        properties.clear(row);
+        handles.remove(row);
+        dirty = true;
+    }
+
+    protected void rangeChanged(ColumnNode node, int start, int end) {
+        starts[node.row] = start;
+        ends[node.row] = end;
+        dirty = true;
+    }
+
+    protected void variantChanged(ColumnNode node, String variant) {
+        if(!Objects.equals(variant, key.variant))
+            store.moveNode(node, store.getNodeLayer(key.layer, variant));
+    }
+
+    /**
+     * Move a row to another layer, a live handle is kept.
+     * <p>
+     * <b>Remarks:</b> edges are not redirected, see {@link ColumnDocumentStore#moveNode(ColumnNode, ColumnNodeLayer)}
+     * @return the row in the target layer
+     */
+    protected int moveTo(int row, ColumnNodeLayer target) {
+        int newRow = target.append(starts[row], ends[row]);
+        properties.copyTo(row, target.properties, newRow);
+
+        ColumnNode node = handles.get(row);
+        unlink(row);
+
+        if(node != null) {
+            node.layer = target;
+            node.row = newRow;
+            target.handles.put(newRow, node);
+        }
+
+        return newRow;
+    }
+
+    /** Remove dead rows, keeps the relative order of the remaining rows */
+    private void compact() {
+        int[] rowMap = new int[rows];
+        int w = 0;
+        for (int r = 0; r < rows; r++) {
+            if(!ColumnProperties.bit(removed, r)) {
+                if(w != r) {
+                    starts[w] = starts[r];
+                    ends[w] = ends[r];
+                    properties.move(r, w);
+                }
+                rowMap[r] = w++;
+            } else {
+                rowMap[r] = -1;
+            }
+        }
+
+        for (ColumnNode node : handles.values()) {
+            node.row = rowMap[node.row];
+        }
+
+        handles.remap(rowMap);
+        Arrays.fill(removed, 0L);
+        rows = w;
+        numRemoved = 0;
+        store.compacted(this, rowMap);
+    }
+
+    private void ensureOrder() {
+        if(!dirty)
+            return;
+
+        if(numRemoved > 0 && numRemoved * 2 >= rows)
+            compact();
+
+        int[] order = new int[rows - numRemoved];
+        int numNodes = 0;
+        for (int i = 0; i < rows; i++) {
+            if(!ColumnProperties.bit(removed, i) && starts[i] == Integer.MIN_VALUE)
+                numNodes++;
+        }
+
+        int n = 0;
+        int a = numNodes;
+        for (int i = 0; i < rows; i++) {
+            if(ColumnProperties.bit(removed, i))
+                continue;
+
+            if(starts[i] == Integer.MIN_VALUE)
+                order[n++] = i;
+            else
+                order[a++] = i;
+        }
+
+        final int[] starts = this.starts;
+        final int[] ends = this.ends;
+        IntArrays.quickSort(order, numNodes, order.length, new AbstractIntComparator() {
+            @Override
+            public int compare(int x, int y) {
+                int compare = Integer.compare(starts[x], starts[y]);
+                if(compare != 0)
+                    return compare;
+
+                compare = Integer.compare(starts[x] + (ends[x] - starts[x]) / 2, starts[y] + (ends[y] - starts[y]) / 2);
+                return compare != 0 ? compare : Integer.compare(x, y);
+            }
+        });
+
+        int[] maxEnds = new int[order.length - numNodes];
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < maxEnds.length; i++) {
+            max = Math.max(max, ends[order[numNodes + i]]);
+            maxEnds[i] = max;
+        }
+
+        this.order = order;
+        this.maxEnds = maxEnds;
+        this.firstAnnotation = numNodes;
+        this.dirty = false;
+    }
+
+    /** First position in [from, to) with a start &gt;= start */
+    private int lowerBound(int[] order, int from, int to, int start) {
+        int lo = from;
+        int hi = to;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(starts[order[mid]] < start)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return lo;
+    }
+
+    /** Iterator of rows in the order index */
+    private abstract class RowIterator implements Iterator<NodeRef> {
+        protected final int[] order;
+        protected int pos;
+        private ColumnNode next;
+
+        public RowIterator(int[] order, int pos) {
+            this.order = order;
+            this.pos = pos;
+        }
+
+        /** Accept row, return false to skip, throw NoSuchElementException to stop */
+        protected abstract boolean accept(int row);
+
+        private boolean moveForward() {
+            if(next != null)
+                return true;
+
+            try {
+                while(pos < order.length) {
+                    int row = order[pos++];
+                    if(row < rows && !ColumnProperties.bit(removed, row) && accept(row)) {
+                        next = handle(row);
+                        return true;
+                    }
+                }
+            } catch (NoSuchElementException e) {
+                pos = order.length;
+            }
+
+            return false;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return moveForward();
+        }
+
+        @Override
+        public NodeRef next() {
+            if(!moveForward())
+                throw new NoSuchElementException();
+
+            NodeRef retval = next;
+            next = null;
+            return retval;
+        }
+    }
+
+    @Override
+    public Iterator<NodeRef> iterator() {
+        ensureOrder();
+        return new RowIterator(order, 0) {
+            @Override
+            protected boolean accept(int row) {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Find the annotations covered by the given range
+     * @param from start position (closed)
+     * @param to end position (closed)
+     */
+    public Iterator<NodeRef> cover(final int from, final int to) {
+        ensureOrder();
+        return new RowIterator(order, lowerBound(order, firstAnnotation, order.length, from)) {
+            @Override
+            protected boolean accept(int row) {
+                if(starts[row] >= from && ends[row] <= to)
+                    return true;
+                else if(starts[row] >= to)
+                    throw new NoSuchElementException();
+                else
+                    return false;
+            }
+        };
+    }
+
+    /**
+     * Find the annotations overlapping the given range
+     * @param from start (closed)
+     * @param to end (open)
+     */
+    public Iterator<NodeRef> overlap(final int from, final int to) {
+        ensureOrder();
+        int lo = 0;
+        int hi = maxEnds.length;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(maxEnds[mid] <= from)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return new RowIterator(order, firstAnnotation + lo) {
+            @Override
+            protected boolean accept(int row) {
+                if(ends[row] > from && starts[row] < to)
+                    return true;
+                else if(starts[row] >= to)
+                    throw new NoSuchElementException();
+                else
+                    return false;
+            }
+        };
+    }
+
+    /** Navigator from the first annotation */
+    public AnnotationNavigator<NodeRef> navigator() {
+        ensureOrder();
+        return new Navigator(order, firstAnnotation, firstAnnotation - 1);
+    }
+
+    /** Navigator with the given annotation as current */
+    public AnnotationNavigator<NodeRef> navigator(ColumnNode node) {
+        ensureOrder();
+        int pos = lowerBound(order, firstAnnotation, order.length, starts[node.row]);
+        while(pos < order.length && order[pos] != node.row)
+            pos++;
+
+        return new Navigator(order, firstAnnotation, pos);
+    }
+
+    /** Array based navigator over the annotation part of the order index */
+    private class Navigator implements AnnotationNavigator<NodeRef> {
+        private final int[] order;
+        private final int lo;
+        private final int hi;
+        private int pos;
+
+        public Navigator(int[] order, int lo, int pos) {
+            this.order = order;
+            this.lo = lo;
+            this.hi = order.length;
+            this.pos = pos;
+        }
+
+        @Override
+        public NodeRef current() {
+            return pos >= lo && pos < hi ? handle(order[pos]) : null;
+        }
+
+        @Override
+        public boolean next() {
+            if(pos >= hi)
+                return false;
+
+            pos++;
+            return pos < hi;
+        }
+
+        @Override
+        public boolean nextFloor(int start) {
+            if(pos >= hi)
+                return false;
+            else if(pos >= lo && start() >= start)
+                return next();
+
+            int target = lowerBound(order, lo, hi, start);
+            if(target == hi || starts[order[target]] > start)
+                target--;
+
+            if(target < lo)
+                target = lo;
+
+            if(target <= pos)
+                return next();
+
+            pos = target;
+            return true;
+        }
+
+        @Override
+        public boolean hasReachedEnd() {
+            return pos >= hi;
+        }
+
+        @Override
+        public boolean prev() {
+            if(pos >= hi) {
+                pos = hi - 1;
+                return pos >= lo;
+            } else if(pos < lo) {
+                return false;
+            } else {
+                pos--;
+                return pos >= lo;
+            }
+        }
+
+        @Override
+        public void reset() {
+            pos = lo - 1;
+        }
+
+        @Override
+        public boolean next(int start) {
+            if(pos >= hi)
+                return false;
+            else if(pos >= lo && start() >= start)
+                return next();
+
+            pos = lowerBound(order, Math.max(pos + 1, lo), hi, start);
+            return pos < hi;
+        }
+
+        @Override
+        public int start() {
+            return starts[order[pos]];
+        }
+
+        @Override
+        public int end() {
+            return ends[order[pos]];
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ColumnNodeLayer that = (ColumnNodeLayer) o;
+        return store == that.store && key.equals(that.key);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = store.hashCode();
+        result = 31 * result + key.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        ensureOrder();
+        return firstAnnotation + " nodes and " + (order.length - firstAnnotation) + " annotations in node layer " + key.layer;
+    }
+}
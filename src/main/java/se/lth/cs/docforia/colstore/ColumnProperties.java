@@ -0,0 +1,465 @@
+package se.lth.cs.docforia.colstore;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import se.lth.cs.docforia.data.*;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Per layer property storage, one column per property key.
+ * <p>
+ * Strings are dictionary coded, ints, longs, floats, doubles and booleans are stored in primitive arrays.
+ * All other types, or keys with mixed types, fall back to a column of references.
+ */
+public class ColumnProperties {
+    private final Object2IntOpenHashMap<String> key2column = new Object2IntOpenHashMap<>();
+    private String[] keys = new String[4];
+    private Column[] columns = new Column[4];
+    private int numColumns = 0;
+
+    public ColumnProperties() {
+        key2column.defaultReturnValue(-1);
+    }
+
+    /** Test bit in a bitset, out of range is treated as not set */
+    protected static boolean bit(long[] bits, int index) {
+        int word = index >>> 6;
+        return word < bits.length && (bits[word] & (1L << index)) != 0;
+    }
+
+    /** Set bit in a bitset, grows the set when needed */
+    protected static long[] setBit(long[] bits, int index) {
+        int word = index >>> 6;
+        if(word >= bits.length)
+            bits = Arrays.copyOf(bits, Math.max(word + 1, bits.length * 2));
+
+        bits[word] |= (1L << index);
+        return bits;
+    }
+
+    /** Clear bit in a bitset */
+    protected static void clearBit(long[] bits, int index) {
+        int word = index >>> 6;
+        if(word < bits.length)
+            bits[word] &= ~(1L << index);
+    }
+
+    protected static int capacity(int current, int index) {
+        return Math.max(index + 1, Math.max(8, current + (current >> 1)));
+    }
+
+    /** Number of property keys ever stored in this layer */
+    public int numKeys() {
+        return numColumns;
+    }
+
+    /** Property key by column index */
+    public String key(int column) {
+        return keys[column];
+    }
+
+    public DataRef get(int row, String key) {
+        int column = key2column.getInt(key);
+        return column == -1 ? null : columns[column].get(row);
+    }
+
+    public boolean has(int row, String key) {
+        int column = key2column.getInt(key);
+        return column != -1 && columns[column].has(row);
+    }
+
+    public void put(int row, String key, DataRef ref) {
+        if(ref == null)
+            throw new NullPointerException("ref");
+
+        int column = key2column.getInt(key);
+        if(column == -1) {
+            if(numColumns == columns.length) {
+                columns = Arrays.copyOf(columns, numColumns * 2);
+                keys = Arrays.copyOf(keys, numColumns * 2);
+            }
+
+            column = numColumns++;
+            columns[column] = Column.create(ref);
+            keys[column] = key;
+            key2column.put(key, column);
+        }
+
+        Column col = columns[column];
+        if(!col.accepts(ref)) {
+            col = new RefColumn(col);
+            columns[column] = col;
+        }
+
+        col.set(row, ref);
+    }
+
+    public void remove(int row, String key) {
+        int column = key2column.getInt(key);
+        if(column != -1)
+            columns[column].clear(row);
+    }
+
+    public int count(int row) {
+        int count = 0;
+        for (int i = 0; i < numColumns; i++) {
+            if(columns[i].has(row))
+                count++;
+        }
+
+        return count;
+    }
+
+    /** Clear all properties of a row */
+    public void clear(int row) {
+        for (int i = 0; i < numColumns; i++) {
+            columns[i].clear(row);
+        }
+    }
+
+    /** Move all properties from one row to another in this layer, the source row is cleared */
+    public void move(int from, int to) {
+        for (int i = 0; i < numColumns; i++) {
+            columns[i].move(from, to);
+        }
+    }
+
+    /** Copy all properties of a row to a row in another layer */
+    public void copyTo(int row, ColumnProperties target, int targetRow) {
+        for (int i = 0; i < numColumns; i++) {
+            if(columns[i].has(row))
+                target.put(targetRow, keys[i], columns[i].get(row));
+        }
+    }
+
+    /** Iterable of properties for a row, reflects the current state of the row. */
+    public Iterable<Map.Entry<String,DataRef>> entries(final ColumnRow row) {
+        return () -> new Iterator<Map.Entry<String, DataRef>>() {
+            int column = 0;
+            int next = -1;
+            int last = -1;
+
+            private boolean moveForward() {
+                if(next != -1)
+                    return true;
+
+                int current = row.row();
+                while(column < numColumns) {
+                    if(columns[column].has(current)) {
+                        next = column++;
+                        return true;
+                    }
+                    column++;
+                }
+
+                return false;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return moveForward();
+            }
+
+            @Override
+            public Map.Entry<String, DataRef> next() {
+                if(!moveForward())
+                    throw new NoSuchElementException();
+
+                last = next;
+                next = -1;
+                return new AbstractMap.SimpleImmutableEntry<>(keys[last], columns[last].get(row.row()));
+            }
+
+            @Override
+            public void remove() {
+                if(last == -1)
+                    throw new IllegalStateException();
+
+                columns[last].clear(row.row());
+                last = -1;
+            }
+        };
+    }
+
+    /** Row position provider, rows can move when a layer is compacted. */
+    public interface ColumnRow {
+        int row();
+    }
+
+    /** Abstract column */
+    protected static abstract class Column {
+        protected long[] present = new long[1];
+
+        public static Column create(DataRef ref) {
+            Class<?> type = ref.getClass();
+            if(type == StringRef.class)
+                return new StringColumn();
+            else if(type == IntRef.class)
+                return new IntColumn();
+            else if(type == LongRef.class)
+                return new LongColumn();
+            else if(type == FloatRef.class)
+                return new FloatColumn();
+            else if(type == DoubleRef.class)
+                return new DoubleColumn();
+            else if(type == BooleanRef.class)
+                return new BooleanColumn();
+            else
+                return new RefColumn();
+        }
+
+        public boolean has(int row) {
+            return bit(present, row);
+        }
+
+        public DataRef get(int row) {
+            return has(row) ? read(row) : null;
+        }
+
+        public void set(int row, DataRef ref) {
+            write(row, ref);
+            present = setBit(present, row);
+        }
+
+        public void clear(int row) {
+            if(has(row)) {
+                clearBit(present, row);
+                release(row);
+            }
+        }
+
+        public void move(int from, int to) {
+            if(has(from)) {
+                set(to, read(from));
+                clear(from);
+            } else {
+                clear(to);
+            }
+        }
+
+        /** Check if ref can be stored in this column */
+        public abstract boolean accepts(DataRef ref);
+
+        /** Read a present value */
+        protected abstract DataRef read(int row);
+
+        /** Write a value, the column must accept it */
+        protected abstract void write(int row, DataRef ref);
+
+        /** Release any reference held by a cleared row */
+        protected void release(int row) {
+
+        }
+    }
+
+    /** Dictionary coded string column */
+    protected static class StringColumn extends Column {
+        private final Object2IntOpenHashMap<String> dictionary = new Object2IntOpenHashMap<>();
+        private StringRef[] values = new StringRef[16];
+        private int numValues = 0;
+        private int[] codes = new int[0];
+
+        public StringColumn() {
+            dictionary.defaultReturnValue(-1);
+        }
+
+        @Override
+        public boolean accepts(DataRef ref) {
+            return ref.getClass() == StringRef.class;
+        }
+
+        @Override
+        protected DataRef read(int row) {
+            return values[codes[row]];
+        }
+
+        @Override
+        protected void write(int row, DataRef ref) {
+            String value = ref.stringValue();
+            int code = dictionary.getInt(value);
+            if(code == -1) {
+                if(numValues == values.length)
+                    values = Arrays.copyOf(values, numValues * 2);
+
+                code = numValues++;
+                values[code] = (StringRef)ref;
+                dictionary.put(value, code);
+            }
+
+            if(row >= codes.length)
+                codes = Arrays.copyOf(codes, capacity(codes.length, row));
+
+            codes[row] = code;
+        }
+    }
+
+    protected static class IntColumn extends Column {
+        private int[] values = new int[0];
+
+        @Override
+        public boolean accepts(DataRef ref) {
+            return ref.getClass() == IntRef.class;
+        }
+
+        @Override
+        protected DataRef read(int row) {
+            return new IntRef(values[row]);
+        }
+
+        @Override
+        protected void write(int row, DataRef ref) {
+            if(row >= values.length)
+                values = Arrays.copyOf(values, capacity(values.length, row));
+
+            values[row] = ref.intValue();
+        }
+    }
+
+    protected static class LongColumn extends Column {
+        private long[] values = new long[0];
+
+        @Override
+        public boolean accepts(DataRef ref) {
+            return ref.getClass() == LongRef.class;
+        }
+
+        @Override
+        protected DataRef read(int row) {
+            return new LongRef(values[row]);
+        }
+
+        @Override
+        protected void write(int row, DataRef ref) {
+            if(row >= values.length)
+                values = Arrays.copyOf(values, capacity(values.length, row));
+
+            values[row] = ref.longValue();
+        }
+    }
+
+    protected static class FloatColumn extends Column {
+        private float[] values = new float[0];
+
+        @Override
+        public boolean accepts(DataRef ref) {
+            return ref.getClass() == FloatRef.class;
+        }
+
+        @Override
+        protected DataRef read(int row) {
+            return new FloatRef(values[row]);
+        }
+
+        @Override
+        protected void write(int row, DataRef ref) {
+            if(row >= values.length)
+                values = Arrays.copyOf(values, capacity(values.length, row));
+
+            values[row] = ref.floatValue();
+        }
+    }
+
+    protected static class DoubleColumn extends Column {
+        private double[] values = new double[0];
+
+        @Override
+        public boolean accepts(DataRef ref) {
+            return ref.getClass() == DoubleRef.class;
+        }
+
+        @Override
+        protected DataRef read(int row) {
+            return new DoubleRef(values[row]);
+        }
+
+        @Override
+        protected void write(int row, DataRef ref) {
+            if(row >= values.length)
+                values = Arrays.copyOf(values, capacity(values.length, row));
+
+            values[row] = ref.doubleValue();
+        }
+    }
+
+    protected static class BooleanColumn extends Column {
+        private long[] values = new long[1];
+
+        @Override
+        public boolean accepts(DataRef ref) {
+            return ref.getClass() == BooleanRef.class;
+        }
+
+        @Override
+        protected DataRef read(int row) {
+            return bit(values, row) ? BooleanRef.TRUE : BooleanRef.FALSE;
+        }
+
+        @Override
+        protected void write(int row, DataRef ref) {
+            if(ref.booleanValue())
+                values = setBit(values, row);
+            else
+                clearBit(values, row);
+        }
+    }
+
+    /** Fallback column, stores references as is */
+    protected static class RefColumn extends Column {
+        private DataRef[] values = new DataRef[0];
+
+        public RefColumn() {
+
+        }
+
+        /** Convert a typed column into a reference column */
+        public RefColumn(Column column) {
+            int last = column.present.length * 64;
+            for (int i = 0; i < last; i++) {
+                if(column.has(i))
+                    set(i, column.read(i));
+            }
+        }
+
+        @Override
+        public boolean accepts(DataRef ref) {
+            return true;
+        }
+
+        @Override
+        protected DataRef read(int row) {
+            return values[row];
+        }
+
+        @Override
+        protected void write(int row, DataRef ref) {
+            if(row >= values.length)
+                values = Arrays.copyOf(values, capacity(values.length, row));
+
+            values[row] = ref;
+        }
+
+        @Override
+        protected void release(int row) {
+            values[row] = null;
+        }
+    }
+}
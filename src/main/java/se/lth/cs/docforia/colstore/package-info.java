@@ -0,0 +1,4 @@
+/**
+ * Provides the columnar storage implementation
+ */
+package se.lth.cs.docforia.colstore;
@@ -40,31 +40,7 @@ public class JsonCoreReader implements CoreRefReader {
             return CoreRefType.STRING;
         }
         else if(node.isObject()) {
-            Map.Entry<String, JsonNode> data = node.fields().next();
-            switch (data.getKey()) {
-                case "binary":
-                    return CoreRefType.BINARY;
-                case "stringarray":
-                    return CoreRefType.STRING_ARRAY;
-                case "doc":
-                    return CoreRefType.DOCUMENT;
-                case "docarray":
-                    return CoreRefType.DOCUMENT_ARRAY;
-                case "boolarray":
-                    return CoreRefType.BOOLEAN_ARRAY;
-                case "intarray":
-                    return CoreRefType.INT_ARRAY;
-                case "longarray":
-                    return CoreRefType.LONG_ARRAY;
-                case "floatarray":
-                    return CoreRefType.FLOAT_ARRAY;
-                case "doublearray":
-                    return CoreRefType.DOUBLE_ARRAY;
-                case "prop":
-                    return CoreRefType.PROPERTY_MAP;
-                default:
-                    throw new UnsupportedOperationException("Unknown format: " + data.getKey());
-            }
+            return fromJsonFormat(node.fields().next().getKey());
         }
         else if(node.isBoolean()) {
             return CoreRefType.BOOLEAN;
@@ -90,6 +66,37 @@ public class JsonCoreReader implements CoreRefReader {
         }
     }
 
+    /** Get CoreRef type from the field name of a JSON object value, e.g. intarray
+     *
+     * @throws UnsupportedOperationException thrown if unknown.
+     */
+    public static CoreRefType fromJsonFormat(String format) {
+        switch (format) {
+            case "binary":
+                return CoreRefType.BINARY;
+            case "stringarray":
+                return CoreRefType.STRING_ARRAY;
+            case "doc":
+                return CoreRefType.DOCUMENT;
+            case "docarray":
+                return CoreRefType.DOCUMENT_ARRAY;
+            case "boolarray":
+                return CoreRefType.BOOLEAN_ARRAY;
+            case "intarray":
+                return CoreRefType.INT_ARRAY;
+            case "longarray":
+                return CoreRefType.LONG_ARRAY;
+            case "floatarray":
+                return CoreRefType.FLOAT_ARRAY;
+            case "doublearray":
+                return CoreRefType.DOUBLE_ARRAY;
+            case "prop":
+                return CoreRefType.PROPERTY_MAP;
+            default:
+                throw new UnsupportedOperationException("Unknown format: " + format);
+        }
+    }
+
     public CoreRef read(JsonNode currentNode) {
         this.node = currentNode;
         return read(fromJsonValue(node));
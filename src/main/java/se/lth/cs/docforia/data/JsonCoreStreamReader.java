@@ -0,0 +1,272 @@
+package se.lth.cs.docforia.data;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import it.unimi.dsi.fastutil.booleans.BooleanArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import se.lth.cs.docforia.memstore.MemoryDocument;
+import se.lth.cs.docforia.memstore.MemoryJson;
+
+import java.io.IOError;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Streaming JSON Reader, reads values directly from a parser without building a tree.
+ * <p>
+ * Reads the format of {@link JsonCoreWriter}, the same as {@link JsonCoreReader}. Every read starts at the first
+ * token of a value and leaves the parser at the last token of the value.
+ */
+public class JsonCoreStreamReader implements CoreRefReader {
+    private final JsonParser parser;
+
+    public JsonCoreStreamReader(JsonParser parser) {
+        this.parser = parser;
+    }
+
+    /** Read the value at the current token */
+    public CoreRef read() {
+        try {
+            JsonToken token = parser.getCurrentToken();
+            if(token == null)
+                throw new IOError(new IOException("Unexpected end of input"));
+
+            switch (token) {
+                case VALUE_STRING:
+                    return readString();
+                case VALUE_TRUE:
+                case VALUE_FALSE:
+                    return readBoolean();
+                case VALUE_NUMBER_INT:
+                    return parser.getNumberType() == JsonParser.NumberType.INT ? readInt() : readLong();
+                case VALUE_NUMBER_FLOAT:
+                    return readDouble();
+                case START_OBJECT: {
+                    if(parser.nextToken() != JsonToken.FIELD_NAME)
+                        throw new UnsupportedOperationException("Unknown json format: empty object");
+
+                    CoreRefType type = JsonCoreReader.fromJsonFormat(parser.getCurrentName());
+                    parser.nextToken();
+                    CoreRef ref = read(type);
+                    if(parser.nextToken() != JsonToken.END_OBJECT)
+                        throw new UnsupportedOperationException("Unknown json format: expected end of " + type.toString());
+
+                    return ref;
+                }
+                default:
+                    throw new UnsupportedOperationException("Unknown json format: " + token.toString());
+            }
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    /** Move to the next element of the current array, false at the end of the array */
+    private boolean nextElement() throws IOException {
+        JsonToken token = parser.nextToken();
+        if(token == null)
+            throw new IOError(new IOException("Unexpected end of input"));
+
+        return token != JsonToken.END_ARRAY;
+    }
+
+    @Override
+    public StringRef readString() {
+        try {
+            return new StringRef(parser.getText());
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    @Override
+    public StringArrayRef readStringArray() {
+        try {
+            ArrayList<String> list = new ArrayList<>();
+            while(nextElement()) {
+                list.add(parser.getText());
+            }
+
+            return new StringArrayRef(list.toArray(new String[list.size()]));
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    @Override
+    public PropertyMapRef readPropertyMap() {
+        try {
+            PropertyMap map = new PropertyMap();
+            while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                String key = parser.getCurrentName();
+                parser.nextToken();
+                map.putProperty(key, read());
+            }
+
+            return new PropertyMapRef(map);
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    @Override
+    public BooleanRef readBoolean() {
+        try {
+            return parser.getValueAsBoolean() ? BooleanRef.TRUE : BooleanRef.FALSE;
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    @Override
+    public IntRef readInt() {
+        try {
+            return new IntRef(parser.getIntValue());
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    @Override
+    public LongRef readLong() {
+        try {
+            return new LongRef(parser.getLongValue());
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    @Override
+    public FloatRef readFloat() {
+        try {
+            return new FloatRef(parser.getFloatValue());
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    @Override
+    public DoubleRef readDouble() {
+        try {
+            return new DoubleRef(parser.getDoubleValue());
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    @Override
+    public BinaryRef readBinary() {
+        try {
+            return new BinaryRef(parser.getBinaryValue());
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    @Override
+    public DocRef readDocument() {
+        return new DocRef(MemoryJson.decodeJson(parser));
+    }
+
+    @Override
+    public BooleanArrayRef readBooleanArray() {
+        try {
+            BooleanArrayList list = new BooleanArrayList();
+            while(nextElement()) {
+                list.add(parser.getIntValue() == 1);
+            }
+
+            return new BooleanArrayRef(list.toBooleanArray());
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    @Override
+    public IntArrayRef readIntArray() {
+        try {
+            IntArrayList list = new IntArrayList();
+            while(nextElement()) {
+                list.add(parser.getIntValue());
+            }
+
+            return new IntArrayRef(list.toIntArray());
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    @Override
+    public LongArrayRef readLongArray() {
+        try {
+            LongArrayList list = new LongArrayList();
+            while(nextElement()) {
+                list.add(parser.getLongValue());
+            }
+
+            return new LongArrayRef(list.toLongArray());
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    @Override
+    public FloatArrayRef readFloatArray() {
+        try {
+            FloatArrayList list = new FloatArrayList();
+            while(nextElement()) {
+                list.add(parser.getFloatValue());
+            }
+
+            return new FloatArrayRef(list.toFloatArray());
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    @Override
+    public DoubleArrayRef readDoubleArray() {
+        try {
+            DoubleArrayList list = new DoubleArrayList();
+            while(nextElement()) {
+                list.add(parser.getDoubleValue());
+            }
+
+            return new DoubleArrayRef(list.toDoubleArray());
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    @Override
+    public DocArrayRef readDocumentArray() {
+        try {
+            ArrayList<MemoryDocument> list = new ArrayList<>();
+            while(nextElement()) {
+                list.add(MemoryJson.decodeJson(parser));
+            }
+
+            return new DocArrayRef(list.toArray(new MemoryDocument[list.size()]));
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+}
@@ -116,9 +116,8 @@ public class JsonCoreWriter implements CoreRefWriter {
         try {
             jsonWriter.writeStartObject();
             jsonWriter.writeObjectFieldStart("prop");
-            jsonWriter.writeStartObject();
             for (String s : propertyMap.properties.keySet()) {
-                jsonWriter.writeObjectFieldStart(s);
+                jsonWriter.writeFieldName(s);
 
                 DataRef ref = propertyMap.properties.get(s);
                 if(ref instanceof CoreRef) {
@@ -138,7 +137,7 @@ public class JsonCoreWriter implements CoreRefWriter {
     public void writeBooleanArray(boolean[] boolValues) {
         try {
             jsonWriter.writeStartObject();
-            jsonWriter.writeObjectFieldStart("boolarray");
+            jsonWriter.writeFieldName("boolarray");
             jsonWriter.writeStartArray(boolValues.length);
             for (boolean b : boolValues) {
                 jsonWriter.writeNumber(b ? 1 : 0);
@@ -218,7 +217,7 @@ public class JsonCoreWriter implements CoreRefWriter {
     public void writeDocumentArray(MemoryDocument[] docValues) {
         try {
             jsonWriter.writeStartObject();
-            jsonWriter.writeObjectFieldStart("docarray");
+            jsonWriter.writeFieldName("docarray");
 
             jsonWriter.writeStartArray(docValues.length);
             for (MemoryDocument document : docValues) {
@@ -227,7 +226,6 @@ public class JsonCoreWriter implements CoreRefWriter {
             jsonWriter.writeEndArray();
 
             jsonWriter.writeEndObject();
-            jsonWriter.writeEndObject();
         } catch (IOException e) {
             throw new IOError(e);
         }
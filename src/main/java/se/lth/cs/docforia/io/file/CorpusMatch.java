@@ -0,0 +1,57 @@
+package se.lth.cs.docforia.io.file;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import se.lth.cs.docforia.Document;
+import se.lth.cs.docforia.Edge;
+import se.lth.cs.docforia.Node;
+import se.lth.cs.docforia.query.EdgeTVar;
+import se.lth.cs.docforia.query.NodeTVar;
+import se.lth.cs.docforia.query.Proposition;
+
+/**
+ * Result of a {@link CorpusQuery}, a proposition and the document it was found in
+ */
+public class CorpusMatch {
+    private final Document document;
+    private final Proposition proposition;
+
+    public CorpusMatch(Document document, Proposition proposition) {
+        this.document = document;
+        this.proposition = proposition;
+    }
+
+    /** The id of the document, null if the document has none */
+    public String documentId() {
+        return document.id();
+    }
+
+    public Document document() {
+        return document;
+    }
+
+    public Proposition proposition() {
+        return proposition;
+    }
+
+    public <N extends Node> N get(NodeTVar<N> var) {
+        return proposition.get(var);
+    }
+
+    public <E extends Edge> E get(EdgeTVar<E> var) {
+        return proposition.get(var);
+    }
+}
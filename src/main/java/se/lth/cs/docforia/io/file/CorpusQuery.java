@@ -0,0 +1,228 @@
+package se.lth.cs.docforia.io.file;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import se.lth.cs.docforia.Document;
+import se.lth.cs.docforia.memstore.MemoryDocument;
+import se.lth.cs.docforia.query.PreparedQuery;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Prepared query executed against every document of a set of block files.
+ * <p>
+ * Documents are decoded lazily, see {@link se.lth.cs.docforia.memstore.MemoryBinary#decodeLazy(byte[], int, int)}:
+ * only the layers the query touches are decoded, other layers are skipped using the layer directory of the
+ * document. Blocks are read sequentially and unfiltered, decoded and queried by the workers of the stream.
+ * <p>
+ * Modifiers of the query, e.g. limit and orderByRange, apply per document.
+ * <p>
+ * Example:
+ * <pre>{@code
+ * PreparedQuery query = PreparedQuery.select(T, NE).where(T).coveredBy(NE).prepare();
+ * try(Stream<CorpusMatch> matches = new CorpusQuery(query, files).stream()) {
+ *     matches.forEach(match -> ...);
+ * }
+ * }</pre>
+ *
+ * @see DocumentBlockFileWriter
+ */
+public class CorpusQuery {
+    private final PreparedQuery query;
+    private final List<File> files;
+    private boolean memoryMapped = false;
+
+    public CorpusQuery(PreparedQuery query, File...files) {
+        this(query, Arrays.asList(files));
+    }
+
+    public CorpusQuery(PreparedQuery query, List<File> files) {
+        this.query = query;
+        this.files = files;
+    }
+
+    /** Read blocks from memory mapped files */
+    public CorpusQuery setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        return this;
+    }
+
+    public PreparedQuery getQuery() {
+        return query;
+    }
+
+    public List<File> getFiles() {
+        return files;
+    }
+
+    /**
+     * Stream of all documents, lazily decoded.
+     * <p>
+     * Splits at block boundaries, a split block is unfiltered and decoded by the thread traversing it.
+     */
+    public Stream<Document> documents() {
+        BlockSpliterator blocks = new BlockSpliterator();
+        return StreamSupport.stream(blocks, true).onClose(blocks::close);
+    }
+
+    /**
+     * Parallel stream of all matches in file order, use {@link Stream#sequential()} to evaluate in the calling thread.
+     * <p>
+     * Closing the stream closes the open file.
+     */
+    public Stream<CorpusMatch> stream() {
+        return documents().flatMap(doc -> query.execute(doc).stream().map(proposition -> new CorpusMatch(doc, proposition)));
+    }
+
+    /** Number of matches in all files */
+    public long count() {
+        try(Stream<Document> docs = documents()) {
+            return docs.mapToLong(doc -> query.execute(doc).count()).sum();
+        }
+    }
+
+    /** Documents of one block, unfiltered and decoded on first use */
+    private static class Block implements Spliterator<Document> {
+        private ByteBuffer data;
+        private DataFilter filter;
+        private Spliterator<Document> documents;
+
+        private Block(ByteBuffer data, DataFilter filter) {
+            this.data = data;
+            this.filter = filter;
+        }
+
+        private Spliterator<Document> documents() {
+            if(documents == null) {
+                ArrayList<Document> decoded = new ArrayList<>();
+                DocumentBlockFileReader.decodeBlockLazy(filter != null ? filter.unapply(data) : data, decoded);
+                documents = decoded.spliterator();
+                data = null;
+            }
+            return documents;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Document> action) {
+            return documents().tryAdvance(action);
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Document> action) {
+            documents().forEachRemaining(action);
+        }
+
+        @Override
+        public Spliterator<Document> trySplit() {
+            return documents().trySplit();
+        }
+
+        @Override
+        public long estimateSize() {
+            return documents == null ? Long.MAX_VALUE : documents.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL;
+        }
+    }
+
+    /** All documents of all files, the files are read in order and one block at a time */
+    private class BlockSpliterator implements Spliterator<Document> {
+        private int nextFile = 0;
+        private DocumentBlockFileReader reader;
+        private final ArrayDeque<MemoryDocument> current = new ArrayDeque<>();
+
+        /**
+         * Read the next block
+         * @return null if all files have been read
+         */
+        private Block nextBlock() {
+            while(true) {
+                if(reader == null) {
+                    if(nextFile == files.size())
+                        return null;
+
+                    reader = new DocumentBlockFileReader(files.get(nextFile++), memoryMapped);
+                }
+
+                ByteBuffer data = reader.readBlock();
+                if(data != null)
+                    return new Block(data, reader.getFilter());
+
+                reader.close();
+                reader = null;
+            }
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Document> action) {
+            if(current.isEmpty()) {
+                Block block = nextBlock();
+                if(block == null)
+                    return false;
+
+                block.forEachRemaining(doc -> current.add((MemoryDocument)doc));
+                if(current.isEmpty())
+                    return tryAdvance(action);
+            }
+
+            action.accept(current.removeFirst());
+            return true;
+        }
+
+        @Override
+        public Spliterator<Document> trySplit() {
+            if(!current.isEmpty()) {
+                ArrayList<Document> prefix = new ArrayList<>(current);
+                current.clear();
+                return Spliterators.spliterator(prefix, characteristics());
+            }
+
+            return nextBlock();
+        }
+
+        @Override
+        public long estimateSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL;
+        }
+
+        private void close() {
+            current.clear();
+            nextFile = files.size();
+            if(reader != null) {
+                reader.close();
+                reader = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package se.lth.cs.docforia.io.file;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+import java.io.IOError;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Registry of data filters by id, used to detect the filter of a file from its header.
+ * <p>
+ * GZIP and LZ4 are registered by default, filters with a dictionary must be registered before files using them
+ * can be detected.
+ */
+public class DataFilters {
+    private static final Int2ObjectOpenHashMap<DataFilter> filters = new Int2ObjectOpenHashMap<>();
+
+    static {
+        register(GzipFilter.getInstance());
+        register(Lz4Filter.getInstance());
+    }
+
+    private DataFilters() {
+
+    }
+
+    private static int key(byte[] id) {
+        if(id.length != 2)
+            throw new IllegalArgumentException("Filter id must be 2 bytes.");
+
+        return (id[0] & 0xFF) << 8 | (id[1] & 0xFF);
+    }
+
+    /** Register a filter, replaces any filter with the same id */
+    public static synchronized void register(DataFilter filter) {
+        filters.put(key(filter.id()), filter);
+    }
+
+    /**
+     * Get filter by id
+     * @return the filter or null if id indicates no filter
+     * @throws IOError if no filter is registered for the id
+     */
+    public static synchronized DataFilter forId(byte[] id) {
+        if(Arrays.equals(id, DocumentFileWriter.FILTER_NA))
+            return null;
+
+        DataFilter filter = filters.get(key(id));
+        if(filter == null)
+            throw new IOError(new IOException("Unknown filter: " + new String(id, StandardCharsets.ISO_8859_1)));
+
+        return filter;
+    }
+
+    /**
+     * Resolve the filter of a file header
+     * @param filterid id read from the header
+     * @param filter expected filter, null if none
+     * @param detect ignore the expected filter and use the registered filter of the id
+     */
+    static DataFilter resolve(byte[] filterid, DataFilter filter, boolean detect) {
+        if(detect)
+            return forId(filterid);
+
+        if(!Arrays.equals(filterid, filter == null ? DocumentFileWriter.FILTER_NA : filter.id())) {
+            throw new IOError(new IOException("Invalid filter!"));
+        }
+
+        return filter;
+    }
+}
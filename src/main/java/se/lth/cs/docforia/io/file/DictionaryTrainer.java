@@ -0,0 +1,179 @@
+package se.lth.cs.docforia.io.file;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import se.lth.cs.docforia.Document;
+import se.lth.cs.docforia.DocumentStorageLevel;
+
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+
+/**
+ * Trains compression dictionaries from a sample of documents.
+ * <p>
+ * Segments of the samples are scored by the number of samples that share their 8 byte substrings. The best
+ * segments are selected greedily, substrings already in the dictionary do not count towards later segments.
+ * The most valuable segments are placed last, closest to the compressed data.
+ *
+ * @see Lz4Filter#withDictionary(byte[])
+ */
+public class DictionaryTrainer {
+    private static final int K = 8;
+
+    private final int segmentSize;
+
+    public DictionaryTrainer() {
+        this(64);
+    }
+
+    /**
+     * @param segmentSize size of the segments the dictionary is built from
+     */
+    public DictionaryTrainer(int segmentSize) {
+        if(segmentSize < K)
+            throw new IllegalArgumentException("segmentSize must be at least " + K);
+
+        this.segmentSize = segmentSize;
+    }
+
+    private static class Segment implements Comparable<Segment> {
+        private final byte[] sample;
+        private final int start;
+        private int score;
+
+        public Segment(byte[] sample, int start, int score) {
+            this.sample = sample;
+            this.start = start;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(Segment o) {
+            return Integer.compare(o.score, score);
+        }
+    }
+
+    private static long kmer(byte[] data, int pos) {
+        long value = 0;
+        for (int i = 0; i < K; i++) {
+            value = (value << 8) | (data[pos+i] & 0xFF);
+        }
+        return value;
+    }
+
+    /** Sum of frequencies of distinct substrings shared with other samples */
+    private int score(byte[] sample, int start, int end, Long2IntOpenHashMap frequency, LongOpenHashSet seen) {
+        seen.clear();
+        int score = 0;
+        for (int i = start; i + K <= end; i++) {
+            long kmer = kmer(sample, i);
+            if(seen.add(kmer)) {
+                int freq = frequency.get(kmer);
+                if(freq > 1)
+                    score += freq;
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Train a dictionary
+     * @param samples binary samples, typically encoded documents
+     * @param maxSize maximum dictionary size in bytes
+     * @return dictionary, empty if the samples share no content
+     */
+    public byte[] train(Iterable<byte[]> samples, int maxSize) {
+        ArrayList<byte[]> data = new ArrayList<>();
+        Long2IntOpenHashMap frequency = new Long2IntOpenHashMap();
+        LongOpenHashSet seen = new LongOpenHashSet();
+
+        //Sample frequency of every substring
+        for (byte[] sample : samples) {
+            if(sample.length < K)
+                continue;
+
+            data.add(sample);
+            seen.clear();
+            for (int i = 0; i + K <= sample.length; i++) {
+                long kmer = kmer(sample, i);
+                if(seen.add(kmer))
+                    frequency.put(kmer, frequency.get(kmer) + 1);
+            }
+        }
+
+        PriorityQueue<Segment> candidates = new PriorityQueue<>();
+        int step = Math.max(1, segmentSize / 2);
+        for (byte[] sample : data) {
+            for (int start = 0; start + K <= sample.length; start += step) {
+                int end = Math.min(sample.length, start + segmentSize);
+                int score = score(sample, start, end, frequency, seen);
+                if(score > 0)
+                    candidates.add(new Segment(sample, start, score));
+            }
+        }
+
+        //Lazy greedy selection, scores only decrease as substrings are covered
+        ArrayList<Segment> selected = new ArrayList<>();
+        int size = 0;
+        while(!candidates.isEmpty() && size < maxSize) {
+            Segment best = candidates.poll();
+            int end = Math.min(best.sample.length, best.start + segmentSize);
+            int score = score(best.sample, best.start, end, frequency, seen);
+            if(score == 0)
+                continue;
+
+            if(score < best.score && !candidates.isEmpty() && score < candidates.peek().score) {
+                best.score = score;
+                candidates.add(best);
+                continue;
+            }
+
+            for (int i = best.start; i + K <= end; i++) {
+                frequency.remove(kmer(best.sample, i));
+            }
+
+            selected.add(best);
+            size += Math.min(end - best.start, maxSize - size);
+        }
+
+        byte[] dictionary = new byte[size];
+        int pos = size;
+        for (Segment segment : selected) {
+            int length = Math.min(Math.min(segment.sample.length, segment.start + segmentSize) - segment.start, pos);
+            pos -= length;
+            System.arraycopy(segment.sample, segment.start, dictionary, pos, length);
+        }
+
+        return dictionary;
+    }
+
+    /**
+     * Train a dictionary from documents encoded using the given storage level
+     * @param documents sample documents
+     * @param level the storage level used when writing
+     * @param maxSize maximum dictionary size in bytes
+     */
+    public byte[] trainDocuments(Iterable<? extends Document> documents, DocumentStorageLevel level, int maxSize) {
+        ArrayList<byte[]> samples = new ArrayList<>();
+        for (Document document : documents) {
+            samples.add(document.toBytes(level));
+        }
+
+        return train(samples, maxSize);
+    }
+}
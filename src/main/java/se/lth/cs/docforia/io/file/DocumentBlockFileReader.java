@@ -17,11 +17,15 @@ package se.lth.cs.docforia.io.file;
 
 import se.lth.cs.docforia.Document;
 import se.lth.cs.docforia.io.DocumentReader;
+import se.lth.cs.docforia.io.mem.ByteBufferInput;
 import se.lth.cs.docforia.io.mem.Input;
+import se.lth.cs.docforia.io.mem.Output;
 import se.lth.cs.docforia.memstore.MemoryBinary;
 import se.lth.cs.docforia.memstore.MemoryDocument;
+import se.lth.cs.docforia.memstore.encoders.SharedStringDictionary;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /** Sequential document reader that reads documents stored in blocks.
@@ -34,11 +38,43 @@ public class DocumentBlockFileReader implements DocumentReader {
     private Input input;
     private DataFilter filter;
 
+    //Memory mapped mode
+    private MappedFile mapped;
+    private long mappedPosition;
+
+    /**
+     * Reader with the filter detected from the file header
+     * @see DataFilters
+     */
     public DocumentBlockFileReader(File input) {
-        this(input, GzipFilter.getInstance());
+        this(input, false);
+    }
+
+    /**
+     * Reader with the filter detected from the file header
+     * @param input the block file
+     * @param memoryMapped read blocks from a memory mapped file
+     * @see DataFilters
+     */
+    public DocumentBlockFileReader(File input, boolean memoryMapped) {
+        this(input, null, true, memoryMapped);
     }
 
     public DocumentBlockFileReader(File input, DataFilter filter) {
+        this(input, filter, false);
+    }
+
+    /**
+     * Primary constructor
+     * @param input the block file
+     * @param filter the filter used when writing, null if none
+     * @param memoryMapped read blocks from a memory mapped file, unfiltered documents are decoded without copying.
+     */
+    public DocumentBlockFileReader(File input, DataFilter filter, boolean memoryMapped) {
+        this(input, filter, false, memoryMapped);
+    }
+
+    private DocumentBlockFileReader(File input, DataFilter filter, boolean detect, boolean memoryMapped) {
         try {
             if(!input.exists())
                 throw new IOError(new FileNotFoundException(input.getAbsolutePath()));
@@ -46,8 +82,13 @@ public class DocumentBlockFileReader implements DocumentReader {
             if(input.length() < 6)
                 throw new IOError(new IOException("File is too small to be valid."));
 
-            this.input = new Input(new FileInputStream(input));
-            this.filter = filter;
+            if(memoryMapped) {
+                this.mapped = new MappedFile(input);
+                this.mappedPosition = 6;
+                this.input = mapped.input(0, 6);
+            }
+            else
+                this.input = new Input(new FileInputStream(input));
 
             byte[] header = new byte[4];
             byte[] filterid = new byte[2];
@@ -59,9 +100,7 @@ public class DocumentBlockFileReader implements DocumentReader {
                 throw new IOError(new IOException("Invalid magic header!"));
             }
 
-            if(!Arrays.equals(filterid, filter == null ? DocumentFileWriter.FILTER_NA : filter.id())) {
-                throw new IOError(new IOException("Invalid filter!"));
-            }
+            this.filter = DataFilters.resolve(filterid, filter, detect);
         } catch (FileNotFoundException e) {
             throw new IOError(e);
         }
@@ -95,6 +134,9 @@ public class DocumentBlockFileReader implements DocumentReader {
         if(eof)
             return false;
 
+        if(mapped != null)
+            return readMapped(documentCollection);
+
         int blockSize = input.readVarInt(true);
         if(blockSize == 0) {
             eof = true;
@@ -105,19 +147,119 @@ public class DocumentBlockFileReader implements DocumentReader {
 
         fullBlock = filter != null ? filter.unapply(fullBlock) : fullBlock;
 
-        Input blockReader = new Input(fullBlock);
+        decodeBlock(ByteBuffer.wrap(fullBlock), documentCollection);
+        return true;
+    }
+
+    private boolean readMapped(Collection<? super MemoryDocument> documentCollection) {
+        ByteBuffer block = readBlock();
+        if(block == null)
+            return false;
+
+        decodeBlock(filter != null ? filter.unapply(block) : block, documentCollection);
+        return true;
+    }
+
+    /** The filter of this file, null if none */
+    public DataFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Read the next block without unfiltering or decoding it
+     * @return the filtered block or null if there are no more blocks
+     */
+    ByteBuffer readBlock() {
+        if(eof)
+            return null;
+
+        if(mapped != null) {
+            int blockSize = mapped.readVarInt(mappedPosition, true);
+            mappedPosition += Output.intLength(blockSize, true);
+            if(blockSize == 0) {
+                eof = true;
+                return null;
+            }
+
+            ByteBuffer block = mapped.slice(mappedPosition, blockSize);
+            mappedPosition += blockSize;
+            return block;
+        }
+
+        int blockSize = input.readVarInt(true);
+        if(blockSize == 0) {
+            eof = true;
+            return null;
+        }
+
+        return ByteBuffer.wrap(input.readBytes(blockSize));
+    }
+
+    /**
+     * Decode all documents of an unfiltered block, documents are read directly from the buffer.
+     * <p>
+     * A block written with shared strings starts with the dictionary of the block, see
+     * {@link DocumentBlockFileWriter#setSharedStrings(boolean)}.
+     */
+    static void decodeBlock(ByteBuffer block, Collection<? super MemoryDocument> documentCollection) {
+        Input blockReader = block.hasArray() ? new Input(block) : new ByteBufferInput(block);
+        SharedStringDictionary dictionary = null;
+        boolean first = true;
         while(!blockReader.eof()) {
             int frameSize = blockReader.readVarInt(true);
-            documentCollection.add(MemoryBinary.decode(new Input(blockReader.getBuffer(), blockReader.position(), frameSize)));
+            Input frame = block.hasArray()
+                    ? new Input(blockReader.getBuffer(), blockReader.position(), frameSize)
+                    : ((ByteBufferInput)blockReader).slice(frameSize);
+
+            if(first && SharedStringDictionary.isDictionary(frame))
+                dictionary = SharedStringDictionary.read(frame);
+            else
+                documentCollection.add(MemoryBinary.decode(frame, dictionary));
+
+            first = false;
             blockReader.skip(frameSize);
         }
+    }
+
+    /**
+     * Decode the headers of all documents of an unfiltered block, layers are decoded on first use,
+     * see {@link MemoryBinary#decodeLazy(byte[], int, int)}. Blocks without a backing array are copied.
+     */
+    static void decodeBlockLazy(ByteBuffer block, Collection<? super MemoryDocument> documentCollection) {
+        byte[] data;
+        int offset;
+        if(block.hasArray()) {
+            data = block.array();
+            offset = block.arrayOffset() + block.position();
+        } else {
+            data = new byte[block.remaining()];
+            block.duplicate().get(data);
+            offset = 0;
+        }
 
-        return true;
+        Input blockReader = new Input(data, offset, block.remaining());
+        SharedStringDictionary dictionary = null;
+        boolean first = true;
+        while(!blockReader.eof()) {
+            int frameSize = blockReader.readVarInt(true);
+            Input frame = new Input(data, blockReader.position(), frameSize);
+            if(first && SharedStringDictionary.isDictionary(frame))
+                dictionary = SharedStringDictionary.read(frame);
+            else
+                documentCollection.add(MemoryBinary.decodeLazy(data, blockReader.position(), frameSize, dictionary));
+
+            first = false;
+            blockReader.skip(frameSize);
+        }
     }
 
     @Override
     public void close() {
         eof = true;
         input.close();
+        if(mapped != null) {
+            mapped.close();
+            mapped = null;
+        }
     }
 }
@@ -19,6 +19,10 @@ import se.lth.cs.docforia.Document;
 import se.lth.cs.docforia.DocumentStorageLevel;
 import se.lth.cs.docforia.io.DocumentWriter;
 import se.lth.cs.docforia.io.mem.Output;
+import se.lth.cs.docforia.memstore.MemoryBinary;
+import se.lth.cs.docforia.memstore.MemoryBinaryV1L2Codec;
+import se.lth.cs.docforia.memstore.MemoryDocument;
+import se.lth.cs.docforia.memstore.encoders.SharedStringDictionary;
 
 import java.io.File;
 import java.io.IOError;
@@ -26,15 +30,20 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /** Thread-safe block based document writer
+ * <p>
+ * Blocks can be written concurrently by many threads using {@link #writeAsync(Collection)}, blocks are then
+ * serialized and filtered in parallel and written without the caller waiting for I/O.
  *
  * @see DocumentBlockFileReader
  */
@@ -69,6 +78,16 @@ public class DocumentBlockFileWriter implements DocumentWriter {
     private final AtomicLong allocatedSpace = new AtomicLong();
     private final DataFilter filter;
 
+    //Concurrent writes
+    private final Executor encoders;
+    private final int maxPending;
+    private final Semaphore pending;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private DocumentIndexWriter index;
+    private boolean sharedStrings;
+    private boolean numericColumns;
+
     /**
      * Simplified Constructor, Level 2 storage level
      * @param output output file
@@ -90,14 +109,32 @@ public class DocumentBlockFileWriter implements DocumentWriter {
     }
 
     /**
-     * Primary constructor
+     * Constructor, asynchronous writes are encoded in the common fork join pool.
      * @param output output file
      * @throws IOException Thrown if there is an I/O error when creating file.
      */
     public DocumentBlockFileWriter(File output, DocumentStorageLevel level, DataFilter filter) throws IOException {
+        this(output, level, filter, ForkJoinPool.commonPool(), 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Primary constructor
+     * @param output output file
+     * @param encoders executor that serializes and filters blocks of asynchronous writes
+     * @param maxPending maximum number of pending asynchronous writes, further writes wait for one to complete.
+     * @throws IOException Thrown if there is an I/O error when creating file.
+     */
+    public DocumentBlockFileWriter(File output, DocumentStorageLevel level, DataFilter filter, Executor encoders, int maxPending) throws IOException {
+        if(maxPending < 1)
+            throw new IllegalArgumentException("maxPending must be at least 1");
+
         this.output = output;
         this.storageLevel = level;
         this.filter = filter;
+        this.encoders = encoders;
+        this.maxPending = maxPending;
+        //Fair, otherwise flush waiting for all permits can be starved by concurrent writers
+        this.pending = new Semaphore(maxPending, true);
 
         this.fileChannel = AsynchronousFileChannel.open(Paths.get(output.toURI()), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
 
@@ -113,6 +150,60 @@ public class DocumentBlockFileWriter implements DocumentWriter {
         }
     }
 
+    /**
+     * Write a {@link DocumentIndex} sidecar file when closed, must be set before the first write.
+     * @see IndexedDocumentReader
+     */
+    public DocumentBlockFileWriter setIndexed(boolean indexed) {
+        this.index = indexed ? new DocumentIndexWriter() : null;
+        return this;
+    }
+
+    /**
+     * Store the values of low-cardinality string properties once per block, must be set before the first write.
+     * <p>
+     * Every block starts with a {@link SharedStringDictionary} of the block and string columns of the documents refer
+     * to it, decoded documents of a block share the string instances. Requires level 2 storage and memory documents,
+     * other blocks are written without a dictionary.
+     */
+    public DocumentBlockFileWriter setSharedStrings(boolean sharedStrings) {
+        this.sharedStrings = sharedStrings;
+        return this;
+    }
+
+    /**
+     * Store numeric properties and numeric strings as compressed columns, must be set before the first write.
+     * <p>
+     * Requires level 2 storage and memory documents. The documents are tagged with a new format version, readers
+     * without numeric column support can not read them.
+     * @see MemoryBinaryV1L2Codec#encode(MemoryDocument, Output, MemoryBinary.DocumentIndex, SharedStringDictionary, boolean)
+     */
+    public DocumentBlockFileWriter setNumericColumns(boolean numericColumns) {
+        this.numericColumns = numericColumns;
+        return this;
+    }
+
+    /** Shared dictionary of block, null if not used */
+    private SharedStringDictionary sharedDictionary(Collection<Document> block) {
+        if(!sharedStrings || MemoryBinary.latest(storageLevel) != MemoryBinaryV1L2Codec.INSTANCE)
+            return null;
+
+        for (Document document : block) {
+            if(!(document instanceof MemoryDocument))
+                return null;
+        }
+
+        SharedStringDictionary dictionary = SharedStringDictionary.build(block);
+        return dictionary.size() > 0 ? dictionary : null;
+    }
+
+    private void addToIndex(Collection<Document> block, BlockInfo info) {
+        int k = 0;
+        for (Document document : block) {
+            index.add(document.id(), info.blockStart, info.blockLength, info.dataStart[k++]);
+        }
+    }
+
     /**
      * Compress data for storage
      * @param data the data to comrpess
@@ -132,6 +223,77 @@ public class DocumentBlockFileWriter implements DocumentWriter {
         write(docs, null);
     }
 
+    private static void emptyBlock(BlockInfo outBlockInfo) {
+        outBlockInfo.blockLength = -1;
+        outBlockInfo.blockStart = -1;
+        outBlockInfo.unfilteredLength = -1;
+        outBlockInfo.dataStart = null;
+    }
+
+    /**
+     * Serialize and filter a block
+     * @return the frame to write
+     */
+    private ByteBuffer encode(Collection<Document> block, BlockInfo outBlockInfo) {
+        int[] dataStarts = new int[block.size()];
+        int unfilteredTotalLength = 0;
+
+        int k = 0;
+
+        ArrayList<ByteBuffer> uncompressedData = new ArrayList<>(block.size()+1);
+        SharedStringDictionary dictionary = sharedDictionary(block);
+        if(dictionary != null) {
+            Output dictionaryWriter = new Output(512, 2<<29);
+            dictionary.write(dictionaryWriter);
+            ByteBuffer uncompressed = ByteBuffer.wrap(dictionaryWriter.toBytes());
+            uncompressedData.add(uncompressed);
+            unfilteredTotalLength += uncompressed.remaining() + Output.intLength(uncompressed.remaining(), true);
+        }
+
+        for (Document document : block) {
+            ByteBuffer uncompressed;
+            if(dictionary != null || (numericColumns && document instanceof MemoryDocument)) {
+                Output docWriter = new Output(512, 2<<29);
+                MemoryBinary.encode(storageLevel, (MemoryDocument)document, docWriter, dictionary, numericColumns);
+                uncompressed = ByteBuffer.wrap(docWriter.toBytes());
+            }
+            else
+                uncompressed = ByteBuffer.wrap(document.toBytes(storageLevel));
+
+            uncompressedData.add(uncompressed);
+
+            dataStarts[k++] = unfilteredTotalLength;
+            unfilteredTotalLength += uncompressed.remaining() + Output.intLength(uncompressed.remaining(), true);
+        }
+
+        ByteBuffer compressed;
+
+        {
+            ByteBuffer toCompress = ByteBuffer.allocate(unfilteredTotalLength);
+
+            for (ByteBuffer buffer : uncompressedData) {
+                Output.writeVarInt(toCompress, buffer.remaining(), true);
+                toCompress.put(buffer);
+            }
+
+            toCompress.flip();
+            compressed = filter(toCompress);
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(Output.intLength(compressed.remaining(), true)+compressed.remaining());
+        Output.writeVarInt(frame, compressed.remaining(), true);
+        frame.put(compressed);
+        frame.flip();
+
+        if(outBlockInfo != null) {
+            outBlockInfo.blockLength = frame.remaining();
+            outBlockInfo.unfilteredLength = unfilteredTotalLength;
+            outBlockInfo.dataStart = dataStarts;
+        }
+
+        return frame;
+    }
+
     /**
      * Write documents
      *
@@ -142,68 +304,123 @@ public class DocumentBlockFileWriter implements DocumentWriter {
      */
     public void write(Collection<Document> block, BlockInfo outBlockInfo) {
         if(block.isEmpty()) {
-            if(outBlockInfo != null) {
-                outBlockInfo.blockLength = -1;
-                outBlockInfo.blockStart = -1;
-                outBlockInfo.unfilteredLength = -1;
-                outBlockInfo.dataStart = null;
-            }
+            if(outBlockInfo != null)
+                emptyBlock(outBlockInfo);
             return;
         }
 
-        int[] dataStarts = new int[block.size()];
-        int unfilteredTotalLength = 0;
+        if(outBlockInfo == null && index != null)
+            outBlockInfo = new BlockInfo();
 
-        ByteBuffer frame;
-        {
-            int k = 0;
+        ByteBuffer frame = encode(block, outBlockInfo);
+        long allocatedPosition = allocatedSpace.getAndAdd(frame.remaining());
 
-            ArrayList<ByteBuffer> uncompressedData = new ArrayList<>(block.size());
-            for (Document document : block) {
-                ByteBuffer uncompressed = ByteBuffer.wrap(document.toBytes(storageLevel));
-                uncompressedData.add(uncompressed);
+        if(outBlockInfo != null) {
+            outBlockInfo.blockStart = allocatedPosition;
+        }
 
-                dataStarts[k] += unfilteredTotalLength;
-                unfilteredTotalLength += uncompressed.remaining() + Output.intLength(uncompressed.remaining(), true);
+        try {
+            while(frame.hasRemaining()) {
+                fileChannel.write(frame, allocatedPosition + frame.position()).get();
             }
+        } catch (ExecutionException | InterruptedException e) {
+            throw new IOError(e);
+        }
 
-            ByteBuffer compressed;
-
-            {
-                ByteBuffer toCompress = ByteBuffer.allocate(unfilteredTotalLength);
-
-                for (ByteBuffer buffer : uncompressedData) {
-                    Output.writeVarInt(toCompress, buffer.remaining(), true);
-                    toCompress.put(buffer);
-                }
+        if(index != null)
+            addToIndex(block, outBlockInfo);
+    }
 
-                toCompress.flip();
-                compressed = filter(toCompress);
+    /** Write frame at the allocated position, the future completes when all bytes have been written */
+    private CompletableFuture<BlockInfo> writeFrame(final ByteBuffer frame, final BlockInfo info) {
+        final CompletableFuture<BlockInfo> written = new CompletableFuture<>();
+        final long allocatedPosition = allocatedSpace.getAndAdd(frame.remaining());
+        info.blockStart = allocatedPosition;
+
+        fileChannel.write(frame, allocatedPosition, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer result, Void attachment) {
+                if(frame.hasRemaining())
+                    fileChannel.write(frame, allocatedPosition + frame.position(), null, this);
+                else
+                    written.complete(info);
             }
 
-            frame = ByteBuffer.allocate(Output.intLength(compressed.remaining(), true)+compressed.remaining());
-            Output.writeVarInt(frame, compressed.remaining(), true);
-            frame.put(compressed);
-            frame.flip();
-        }
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                written.completeExceptionally(exc);
+            }
+        });
 
-        long allocatedPosition = allocatedSpace.getAndAdd(frame.remaining());
+        return written;
+    }
 
-        if(outBlockInfo != null) {
-            outBlockInfo.blockStart = allocatedPosition;
-            outBlockInfo.blockLength = frame.remaining();
-            outBlockInfo.unfilteredLength = unfilteredTotalLength;
-            outBlockInfo.dataStart = dataStarts;
+    /**
+     * Write documents asynchronously
+     * <p>
+     * The block is serialized and filtered by the encoder executor, space is allocated in the file when the block
+     * has been encoded. Documents must not be modified until the returned future has completed.
+     * <p>
+     * <b>Remarks: </b>Waits if the maximum number of pending writes has been reached.
+     * @param block the batch of documents to write
+     * @return future completed with the block information when the block has been written
+     */
+    public CompletableFuture<BlockInfo> writeAsync(Collection<Document> block) {
+        if(block.isEmpty()) {
+            BlockInfo info = new BlockInfo();
+            emptyBlock(info);
+            return CompletableFuture.completedFuture(info);
         }
 
         try {
-            fileChannel.write(frame, allocatedPosition).get();
-        } catch (ExecutionException | InterruptedException e) {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new IOError(e);
         }
+
+        CompletableFuture<BlockInfo> result;
+        try {
+            result = CompletableFuture.supplyAsync(() -> {
+                BlockInfo info = new BlockInfo();
+                return writeFrame(encode(block, info), info);
+            }, encoders).thenCompose(written -> written).thenApply(info -> {
+                if(index != null)
+                    addToIndex(block, info);
+
+                return info;
+            });
+        } catch (RejectedExecutionException e) {
+            pending.release();
+            throw e;
+        }
+
+        result.whenComplete((info, exc) -> {
+            if(exc != null)
+                failure.compareAndSet(null, exc);
+
+            pending.release();
+        });
+
+        return result;
+    }
+
+    /**
+     * Wait for all pending asynchronous writes
+     * @throws IOError if any asynchronous write has failed
+     */
+    public void flush() {
+        pending.acquireUninterruptibly(maxPending);
+        pending.release(maxPending);
+
+        Throwable exc = failure.get();
+        if(exc != null)
+            throw new IOError(exc);
     }
 
     public void close() {
+        flush();
+
         try {
             fileChannel.write(ByteBuffer.wrap(new byte[] {0}),allocatedSpace.get()).get();
             allocatedSpace.addAndGet(1);
@@ -216,5 +433,8 @@ public class DocumentBlockFileWriter implements DocumentWriter {
         if(this.output.length() != allocatedSpace.get()) {
             throw new IOError(new IOException("The result was not written to disk!"));
         }
+
+        if(index != null)
+            index.write(DocumentIndex.indexFile(output));
     }
 }
@@ -33,11 +33,19 @@ public class DocumentFileReader implements DocumentReader {
     private DataFilter filter;
     private boolean eof;
 
+    /**
+     * Reader with the filter detected from the file header
+     * @see DataFilters
+     */
     public DocumentFileReader(File input) {
-        this(input, GzipFilter.getInstance());
+        this(input, null, true);
     }
 
     public DocumentFileReader(File input, DataFilter filter) {
+        this(input, filter, false);
+    }
+
+    private DocumentFileReader(File input, DataFilter filter, boolean detect) {
         try {
             if(!input.exists())
                 throw new IOError(new FileNotFoundException(input.getAbsolutePath()));
@@ -46,7 +54,6 @@ public class DocumentFileReader implements DocumentReader {
                 throw new IOError(new IOException("File is too small to be valid."));
 
             this.input = new Input(new FileInputStream(input));
-            this.filter = filter;
 
             byte[] header = new byte[4];
             byte[] filterid = new byte[2];
@@ -58,9 +65,7 @@ public class DocumentFileReader implements DocumentReader {
                 throw new IOError(new IOException("Invalid magic header!"));
             }
 
-            if(!Arrays.equals(filterid, filter == null ? DocumentFileWriter.FILTER_NA : filter.id())) {
-                throw new IOError(new IOException("Invalid filter!"));
-            }
+            this.filter = DataFilters.resolve(filterid, filter, detect);
         } catch (FileNotFoundException e) {
             throw new IOError(e);
         }
@@ -39,9 +39,14 @@ import java.util.concurrent.atomic.AtomicLong;
  * @see DocumentFileReader
  **/
 public class DocumentFileWriter implements DocumentWriter {
-    private static class EntryInfo {
+    public static class EntryInfo {
+        /** Where in the file does the frame start */
         public long frameStart;
+
+        /** Where in the file does the filtered document start */
         public long dataStart;
+
+        /** The length of the filtered document */
         public int length;
 
         public EntryInfo() {
@@ -61,6 +66,8 @@ public class DocumentFileWriter implements DocumentWriter {
     private final AtomicLong writtenDocuments = new AtomicLong();
     private final DataFilter filter;
 
+    private DocumentIndexWriter index;
+
     static final byte[] FILTER_NA = new byte[] {'N', 'A'}; //N/A, no filter
     static final byte[] MAGIC_V1 = new byte[] {
             'D', 'S', '1', '0' //Document Storage v1
@@ -114,6 +121,15 @@ public class DocumentFileWriter implements DocumentWriter {
         }
     }
 
+    /**
+     * Write a {@link DocumentIndex} sidecar file when closed, must be set before the first write.
+     * @see IndexedDocumentReader
+     */
+    public DocumentFileWriter setIndexed(boolean indexed) {
+        this.index = indexed ? new DocumentIndexWriter() : null;
+        return this;
+    }
+
     @Override
     public void write(Document doc) {
         write(doc, null);
@@ -168,6 +184,7 @@ public class DocumentFileWriter implements DocumentWriter {
         ByteBuffer frame = ByteBuffer.allocate(frameOverhead+compressedLength);
         long allocatedPosition = allocatedSpace.getAndAdd(frameOverhead+compressedLength);
 
+        ArrayList<EntryInfo> entries = outEntryInfos != null || index != null ? new ArrayList<>(batch.size()) : null;
         for (ByteBuffer buffer : filteredData) {
             long frameStart = frame.position()+allocatedPosition;
 
@@ -177,17 +194,30 @@ public class DocumentFileWriter implements DocumentWriter {
 
             frame.put(buffer);
 
-            if(outEntryInfos != null)
-                outEntryInfos.add(new EntryInfo(frameStart, dataStart, dataLength));
+            if(entries != null)
+                entries.add(new EntryInfo(frameStart, dataStart, dataLength));
         }
 
         try {
             frame.flip();
-            fileChannel.write(frame, allocatedPosition).get();
+            while(frame.hasRemaining()) {
+                fileChannel.write(frame, allocatedPosition + frame.position()).get();
+            }
             writtenDocuments.addAndGet(batch.size());
         } catch (ExecutionException | InterruptedException e) {
             throw new IOError(e);
         }
+
+        if(outEntryInfos != null)
+            outEntryInfos.addAll(entries);
+
+        if(index != null) {
+            int k = 0;
+            for (Document document : batch) {
+                EntryInfo entry = entries.get(k++);
+                index.add(document.id(), entry.frameStart, (int)(entry.dataStart - entry.frameStart) + entry.length, -1);
+            }
+        }
     }
 
     /**
@@ -205,5 +235,8 @@ public class DocumentFileWriter implements DocumentWriter {
         if(this.output.length() != allocatedSpace.get()) {
             throw new IOError(new IOException("The result was not written to disk!"));
         }
+
+        if(index != null)
+            index.write(DocumentIndex.indexFile(output));
     }
 }
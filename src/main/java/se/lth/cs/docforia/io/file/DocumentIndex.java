@@ -0,0 +1,167 @@
+package se.lth.cs.docforia.io.file;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import se.lth.cs.docforia.io.mem.Output;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOError;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Memory mapped document index sidecar file.
+ * <p>
+ * Maps document ordinals, the position of the document in the data file, and document ids to the location of the
+ * document. Lookups by ordinal are direct, lookups by id use an open addressing hash table stored in the file.
+ * <p>
+ * File format, all numbers are big-endian:
+ * <pre>
+ * 'D' 'I' 'X' '1'
+ * long numEntries, int tableCapacity
+ * entries, per ordinal: long blockStart, int blockLength, int dataStart, long idOffset (-1 if no id)
+ * table, per slot: int ordinal + 1, 0 if empty
+ * ids: varint length, utf-8 bytes
+ * </pre>
+ *
+ * @see DocumentIndexWriter
+ * @see IndexedDocumentReader
+ */
+public class DocumentIndex implements Closeable {
+    static final byte[] MAGIC_V1 = new byte[] {'D', 'I', 'X', '1'};
+
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 24;
+
+    private MappedFile mapped;
+    private final long numEntries;
+    private final int capacity;
+    private final long tableStart;
+    private final long idStart;
+
+    /** The sidecar index file of a data file */
+    public static File indexFile(File dataFile) {
+        return new File(dataFile.getPath() + ".idx");
+    }
+
+    static int hash(String id) {
+        int h = id.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    public DocumentIndex(File indexFile) {
+        if(!indexFile.exists())
+            throw new IOError(new IOException("Index not found: " + indexFile.getAbsolutePath()));
+
+        this.mapped = new MappedFile(indexFile);
+        if(mapped.length() < HEADER_SIZE) {
+            mapped.close();
+            throw new IOError(new IOException("File is too small to be valid."));
+        }
+
+        byte[] header = new byte[4];
+        mapped.slice(0, 4).get(header);
+        if(!Arrays.equals(header, MAGIC_V1)) {
+            mapped.close();
+            throw new IOError(new IOException("Invalid magic header!"));
+        }
+
+        this.numEntries = mapped.getLong(4);
+        this.capacity = mapped.getInt(12);
+        this.tableStart = HEADER_SIZE + numEntries * ENTRY_SIZE;
+        this.idStart = tableStart + (long)capacity * 4;
+    }
+
+    /** Number of documents */
+    public long size() {
+        return numEntries;
+    }
+
+    private long entry(long ordinal) {
+        if(ordinal < 0 || ordinal >= numEntries)
+            throw new IndexOutOfBoundsException("ordinal: " + ordinal + ", size: " + numEntries);
+
+        return HEADER_SIZE + ordinal * ENTRY_SIZE;
+    }
+
+    /** Start of the block or frame containing the document */
+    public long blockStart(long ordinal) {
+        return mapped.getLong(entry(ordinal));
+    }
+
+    /** Length of the block or frame containing the document */
+    public int blockLength(long ordinal) {
+        return mapped.getInt(entry(ordinal) + 8);
+    }
+
+    /** Position of the document in the unfiltered block, -1 if the frame contains a single document */
+    public int dataStart(long ordinal) {
+        return mapped.getInt(entry(ordinal) + 12);
+    }
+
+    private ByteBuffer idBytes(long idOffset) {
+        long position = idStart + idOffset;
+        int length = mapped.readVarInt(position, true);
+        return mapped.slice(position + Output.intLength(length, true), length);
+    }
+
+    /**
+     * Get document id
+     * @return null if the document has no id
+     */
+    public String id(long ordinal) {
+        long idOffset = mapped.getLong(entry(ordinal) + 16);
+        if(idOffset == -1)
+            return null;
+
+        ByteBuffer utf8 = idBytes(idOffset);
+        byte[] data = new byte[utf8.remaining()];
+        utf8.get(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Find the ordinal of the first document with the given id
+     * @return ordinal or -1 if not found
+     */
+    public long ordinal(String id) {
+        ByteBuffer utf8 = ByteBuffer.wrap(id.getBytes(StandardCharsets.UTF_8));
+
+        int slot = hash(id) & (capacity - 1);
+        int entry;
+        while((entry = mapped.getInt(tableStart + (long)slot * 4)) != 0) {
+            long ordinal = entry - 1;
+            long idOffset = mapped.getLong(entry(ordinal) + 16);
+            if(idBytes(idOffset).equals(utf8))
+                return ordinal;
+
+            slot = (slot + 1) & (capacity - 1);
+        }
+
+        return -1;
+    }
+
+    @Override
+    public void close() {
+        if(mapped != null) {
+            mapped.close();
+            mapped = null;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package se.lth.cs.docforia.io.file;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import se.lth.cs.docforia.io.mem.Output;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Thread-safe builder of document index sidecar files.
+ * <p>
+ * Entries can be added in any order, ordinals are assigned by file position when the index is written.
+ *
+ * @see DocumentIndex
+ */
+public class DocumentIndexWriter {
+    private final LongArrayList blockStarts = new LongArrayList();
+    private final IntArrayList blockLengths = new IntArrayList();
+    private final IntArrayList dataStarts = new IntArrayList();
+    private final ArrayList<String> ids = new ArrayList<>();
+
+    /**
+     * Add entry
+     * @param id document id, null if none
+     * @param blockStart start of the block or frame in the data file
+     * @param blockLength length of the block or frame including its length prefix
+     * @param dataStart position of the document in the unfiltered block, -1 if the frame contains a single document
+     */
+    public synchronized void add(String id, long blockStart, int blockLength, int dataStart) {
+        blockStarts.add(blockStart);
+        blockLengths.add(blockLength);
+        dataStarts.add(dataStart);
+        ids.add(id);
+    }
+
+    public synchronized int size() {
+        return ids.size();
+    }
+
+    private static int tableCapacity(int numEntries) {
+        int capacity = 2;
+        while(capacity < numEntries * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /** Write the index */
+    public synchronized void write(File indexFile) {
+        final int numEntries = ids.size();
+        int[] order = new int[numEntries];
+        for (int i = 0; i < numEntries; i++) {
+            order[i] = i;
+        }
+
+        IntArrays.quickSort(order, new AbstractIntComparator() {
+            @Override
+            public int compare(int k1, int k2) {
+                int cmp = Long.compare(blockStarts.getLong(k1), blockStarts.getLong(k2));
+                return cmp != 0 ? cmp : Integer.compare(dataStarts.getInt(k1), dataStarts.getInt(k2));
+            }
+        });
+
+        //Open addressing hash table from id to ordinal + 1, first ordinal wins for duplicate ids.
+        int capacity = tableCapacity(numEntries);
+        int[] table = new int[capacity];
+        long[] idOffsets = new long[numEntries];
+        Output heap = new Output(1024, -1);
+
+        for (int ordinal = 0; ordinal < numEntries; ordinal++) {
+            String id = ids.get(order[ordinal]);
+            if(id == null) {
+                idOffsets[ordinal] = -1;
+                continue;
+            }
+
+            idOffsets[ordinal] = heap.position();
+            byte[] utf8 = id.getBytes(StandardCharsets.UTF_8);
+            heap.writeVarInt(utf8.length, true);
+            heap.writeBytes(utf8);
+
+            int slot = DocumentIndex.hash(id) & (capacity - 1);
+            while(table[slot] != 0) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            table[slot] = ordinal + 1;
+        }
+
+        try (Output output = new Output(new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16))) {
+            output.writeBytes(DocumentIndex.MAGIC_V1);
+            output.writeLong(numEntries);
+            output.writeInt(capacity);
+
+            for (int ordinal = 0; ordinal < numEntries; ordinal++) {
+                int k = order[ordinal];
+                output.writeLong(blockStarts.getLong(k));
+                output.writeInt(blockLengths.getInt(k));
+                output.writeInt(dataStarts.getInt(k));
+                output.writeLong(idOffsets[ordinal]);
+            }
+
+            for (int slot : table) {
+                output.writeInt(slot);
+            }
+
+            output.writeBytes(heap.getBuffer(), 0, heap.position());
+        } catch (FileNotFoundException e) {
+            throw new IOError(e);
+        }
+    }
+}
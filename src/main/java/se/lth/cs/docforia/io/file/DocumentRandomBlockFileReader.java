@@ -18,7 +18,7 @@ package se.lth.cs.docforia.io.file;
 import se.lth.cs.docforia.Document;
 import se.lth.cs.docforia.io.DocumentReader;
 import se.lth.cs.docforia.io.mem.Input;
-import se.lth.cs.docforia.memstore.MemoryBinary;
+import se.lth.cs.docforia.io.mem.Output;
 import se.lth.cs.docforia.memstore.MemoryDocument;
 
 import java.io.*;
@@ -35,11 +35,43 @@ public class DocumentRandomBlockFileReader implements DocumentReader {
     private DataFilter filter;
     private ArrayDeque<MemoryDocument> currentBlock = new ArrayDeque<>();
 
+    //Memory mapped mode
+    private MappedFile mapped;
+    private long mappedPosition;
+
+    /**
+     * Reader with the filter detected from the file header
+     * @see DataFilters
+     */
     public DocumentRandomBlockFileReader(File input) {
-        this(input, GzipFilter.getInstance());
+        this(input, false);
+    }
+
+    /**
+     * Reader with the filter detected from the file header
+     * @param input the block file
+     * @param memoryMapped read blocks from a memory mapped file
+     * @see DataFilters
+     */
+    public DocumentRandomBlockFileReader(File input, boolean memoryMapped) {
+        this(input, null, true, memoryMapped);
     }
 
     public DocumentRandomBlockFileReader(File input, DataFilter filter) {
+        this(input, filter, false);
+    }
+
+    /**
+     * Primary constructor
+     * @param input the block file
+     * @param filter the filter used when writing, null if none
+     * @param memoryMapped read blocks from a memory mapped file, unfiltered documents are decoded without copying.
+     */
+    public DocumentRandomBlockFileReader(File input, DataFilter filter, boolean memoryMapped) {
+        this(input, filter, false, memoryMapped);
+    }
+
+    private DocumentRandomBlockFileReader(File input, DataFilter filter, boolean detect, boolean memoryMapped) {
         try {
             this.filter = filter;
             this.reader = new RandomAccessFile(input, "r");
@@ -52,11 +84,18 @@ public class DocumentRandomBlockFileReader implements DocumentReader {
             byte[] filterId = new byte[2];
             reader.readFully(filterId);
 
+            if(memoryMapped) {
+                this.mapped = new MappedFile(input);
+                this.mappedPosition = 6;
+            }
+
             if (!Arrays.equals(header, DocumentFileWriter.MAGIC_V1)) {
                 throw new IOException("Magic bytes does not match, actual: " + new String(header, "ISO-8859-1"));
             }
 
-            if(filter != null && !Arrays.equals(filterId, filter.id()))
+            if(detect)
+                this.filter = DataFilters.forId(filterId);
+            else if(filter != null && !Arrays.equals(filterId, filter.id()))
             {
                 throw new IOException("Incorrect filter, expected: " + new String(filter.id(), "ISO-8859-1") + ", actual: " + new String(filterId, "ISO-8859-1"));
             }
@@ -68,7 +107,11 @@ public class DocumentRandomBlockFileReader implements DocumentReader {
     public void seek(long start) {
         try {
             currentBlock.clear();
-            reader.seek(start);
+            if(mapped != null)
+                mappedPosition = start;
+            else
+                reader.seek(start);
+
             eof = start == reader.length();
         } catch (IOException e) {
             throw new IOError(e);
@@ -88,6 +131,19 @@ public class DocumentRandomBlockFileReader implements DocumentReader {
         if(eof)
             return false;
 
+        if(mapped != null) {
+            int frameLength = mapped.readVarInt(mappedPosition, true);
+            long frameStart = mappedPosition + Output.intLength(frameLength, true);
+            if(frameLength == 0) {
+                eof = true;
+                return false;
+            }
+
+            mappedPosition = frameStart + frameLength;
+            readMapped(documentCollection, frameStart, frameLength);
+            return true;
+        }
+
         try {
             int frameLength = Input.readVarInt(reader, true);
             if(frameLength == 0) {
@@ -101,15 +157,10 @@ public class DocumentRandomBlockFileReader implements DocumentReader {
             Input input = new Input(data);
             int length = input.readVarInt(true);
             if (data.length - length == input.position()) {
-                ByteBuffer block = ByteBuffer.wrap(data, input.position(), input.limit());
+                ByteBuffer block = ByteBuffer.wrap(data, input.position(), length);
                 block = filter != null ? filter.unapply(block) : block;
 
-                Input blockReader = new Input(block);
-                while(!blockReader.eof()) {
-                    int frameSize = blockReader.readVarInt(true);
-                    documentCollection.add(MemoryBinary.decode(new Input(blockReader.getBuffer(), blockReader.position(), frameSize)));
-                    blockReader.skip(frameSize);
-                }
+                DocumentBlockFileReader.decodeBlock(block, documentCollection);
 
                 return true;
             } else {
@@ -130,6 +181,11 @@ public class DocumentRandomBlockFileReader implements DocumentReader {
         if(reader == null)
             throw new IllegalStateException("Reader is closed!");
 
+        if(mapped != null) {
+            readMapped(documentCollection, frameStart, frameLength);
+            return;
+        }
+
         try {
             reader.seek(frameStart);
             byte[] data = new byte[frameLength];
@@ -138,15 +194,10 @@ public class DocumentRandomBlockFileReader implements DocumentReader {
             Input input = new Input(data);
             int length = input.readVarInt(true);
             if (data.length - length == input.position()) {
-                ByteBuffer block = ByteBuffer.wrap(data, input.position(), input.limit());
+                ByteBuffer block = ByteBuffer.wrap(data, input.position(), length);
                 block = filter != null ? filter.unapply(block) : block;
 
-                Input blockReader = new Input(block);
-                while(!blockReader.eof()) {
-                    int frameSize = blockReader.readVarInt(true);
-                    documentCollection.add(MemoryBinary.decode(new Input(blockReader.getBuffer(), blockReader.position(), frameSize)));
-                    blockReader.skip(frameSize);
-                }
+                DocumentBlockFileReader.decodeBlock(block, documentCollection);
             } else {
                 throw new IOError(new IOException("Incorrect position, expected a frame size of " + length + " but got " + (frameLength - input.position())));
             }
@@ -155,6 +206,17 @@ public class DocumentRandomBlockFileReader implements DocumentReader {
         }
     }
 
+    private void readMapped(Collection<? super MemoryDocument> documentCollection, long frameStart, int frameLength) {
+        int length = mapped.readVarInt(frameStart, true);
+        int headerLength = Output.intLength(length, true);
+        if(frameLength - length == headerLength) {
+            ByteBuffer block = mapped.slice(frameStart + headerLength, length);
+            DocumentBlockFileReader.decodeBlock(filter != null ? filter.unapply(block) : block, documentCollection);
+        } else {
+            throw new IOError(new IOException("Incorrect position, expected a frame size of " + length + " but got " + (frameLength - headerLength)));
+        }
+    }
+
     @Override
     public MemoryDocument next() {
         if(reader == null)
@@ -178,6 +240,21 @@ public class DocumentRandomBlockFileReader implements DocumentReader {
             throw new IllegalStateException("Reader is closed!");
 
         try {
+            if(mapped != null) {
+                if(mappedPosition == mapped.length())
+                    throw new EOFException("At end of file!");
+
+                while (numBlocks > 0) {
+                    int frameSize = mapped.readVarInt(mappedPosition, true);
+                    if (frameSize == 0)
+                        throw new EOFException("Reached the end while skipping!");
+
+                    mappedPosition += Output.intLength(frameSize, true) + frameSize;
+                    numBlocks--;
+                }
+                return;
+            }
+
             if (reader.getFilePointer() == reader.length())
                 throw new EOFException("At end of file!");
 
@@ -199,6 +276,10 @@ public class DocumentRandomBlockFileReader implements DocumentReader {
         try {
             reader.close();
             reader = null;
+            if(mapped != null) {
+                mapped.close();
+                mapped = null;
+            }
         } catch (IOException e) {
             throw new IOError(e);
         }
@@ -0,0 +1,239 @@
+package se.lth.cs.docforia.io.file;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import se.lth.cs.docforia.io.mem.ByteBufferInput;
+import se.lth.cs.docforia.io.mem.Input;
+import se.lth.cs.docforia.io.mem.Output;
+import se.lth.cs.docforia.memstore.MemoryBinary;
+import se.lth.cs.docforia.memstore.MemoryDocument;
+import se.lth.cs.docforia.memstore.encoders.SharedStringDictionary;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Random access reader of single documents using a {@link DocumentIndex} sidecar file.
+ * <p>
+ * Supports files written by {@link DocumentBlockFileWriter} and {@link DocumentFileWriter} with indexing enabled,
+ * the filter is detected from the file header. A document is read with a single read of its block.
+ */
+public class IndexedDocumentReader implements Closeable {
+    private final DocumentIndex index;
+    private final DataFilter filter;
+
+    private RandomAccessFile reader;
+    private MappedFile mapped;
+
+    /** Decoded shared string dictionaries of recently read blocks by block start, null for blocks without */
+    private final LinkedHashMap<Long,SharedStringDictionary> dictionaries = new LinkedHashMap<Long,SharedStringDictionary>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, SharedStringDictionary> eldest) {
+            return size() > MAX_CACHED_DICTIONARIES;
+        }
+    };
+
+    private static final int MAX_CACHED_DICTIONARIES = 16;
+
+    /**
+     * Reader using the sidecar index of the file
+     * @param input the data file
+     */
+    public IndexedDocumentReader(File input) {
+        this(input, false);
+    }
+
+    /**
+     * Reader using the sidecar index of the file
+     * @param input the data file
+     * @param memoryMapped memory map the data file
+     */
+    public IndexedDocumentReader(File input, boolean memoryMapped) {
+        this(input, DocumentIndex.indexFile(input), memoryMapped);
+    }
+
+    /**
+     * Primary constructor
+     * @param input the data file
+     * @param indexFile the index file
+     * @param memoryMapped memory map the data file
+     */
+    public IndexedDocumentReader(File input, File indexFile, boolean memoryMapped) {
+        try {
+            if(!input.exists())
+                throw new IOError(new FileNotFoundException(input.getAbsolutePath()));
+
+            if(input.length() < 6)
+                throw new IOError(new IOException("File is too small to be valid."));
+
+            this.reader = new RandomAccessFile(input, "r");
+            byte[] header = new byte[4];
+            byte[] filterid = new byte[2];
+            reader.readFully(header);
+            reader.readFully(filterid);
+
+            if(!Arrays.equals(header, DocumentBlockFileWriter.MAGIC_V1) && !Arrays.equals(header, DocumentFileWriter.MAGIC_V1))
+                throw new IOError(new IOException("Invalid magic header!"));
+
+            this.filter = DataFilters.forId(filterid);
+
+            if(memoryMapped) {
+                this.mapped = new MappedFile(input);
+                this.reader.close();
+                this.reader = null;
+            }
+
+            this.index = new DocumentIndex(indexFile);
+        } catch (IOException e) {
+            IOError error = new IOError(e);
+            abort(error);
+            throw error;
+        } catch (RuntimeException | Error e) {
+            abort(e);
+            throw e;
+        }
+    }
+
+    /** Close the data file after a failed open */
+    private void abort(Throwable cause) {
+        try {
+            closeData();
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    private void closeData() throws IOException {
+        if(reader != null) {
+            reader.close();
+            reader = null;
+        }
+        if(mapped != null) {
+            mapped.close();
+            mapped = null;
+        }
+    }
+
+    public DocumentIndex getIndex() {
+        return index;
+    }
+
+    /** Number of documents */
+    public long size() {
+        return index.size();
+    }
+
+    private ByteBuffer readFrame(long start, int length) {
+        if(mapped != null)
+            return mapped.slice(start, length);
+
+        byte[] data = new byte[length];
+        try {
+            synchronized (this) {
+                reader.seek(start);
+                reader.readFully(data);
+            }
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+        return ByteBuffer.wrap(data);
+    }
+
+    private static Input input(ByteBuffer buffer) {
+        return buffer.hasArray()
+                ? new Input(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining())
+                : new ByteBufferInput(buffer);
+    }
+
+    private static Input frame(ByteBuffer data, Input blockReader, int length) {
+        return data.hasArray()
+                ? new Input(blockReader.getBuffer(), blockReader.position(), length)
+                : ((ByteBufferInput)blockReader).slice(length);
+    }
+
+    /** Read the shared string dictionary at the start of a block, null if there is none */
+    private static SharedStringDictionary readDictionary(ByteBuffer data) {
+        Input blockReader = input(data);
+        int dictLength = blockReader.readVarInt(true);
+        Input dictReader = frame(data, blockReader, dictLength);
+        return SharedStringDictionary.isDictionary(dictReader) ? SharedStringDictionary.read(dictReader) : null;
+    }
+
+    /**
+     * Read document by ordinal, the position of the document in the data file
+     */
+    public MemoryDocument get(long ordinal) {
+        if(reader == null && mapped == null)
+            throw new IllegalStateException("Reader is closed!");
+
+        int dataStart = index.dataStart(ordinal);
+        ByteBuffer frame = readFrame(index.blockStart(ordinal), index.blockLength(ordinal));
+
+        int length = input(frame).readVarInt(true);
+        int headerLength = Output.intLength(length, true);
+        if(headerLength + length != frame.remaining())
+            throw new IOError(new IOException("Index does not match the data file."));
+
+        frame.position(frame.position() + headerLength);
+        ByteBuffer data = frame.slice();
+        data = filter != null ? filter.unapply(data) : data;
+
+        if(dataStart == -1)
+            return MemoryBinary.decode(input(data));
+
+        SharedStringDictionary dictionary = null;
+        if(dataStart > 0) {
+            //Blocks written with shared strings start with the dictionary. Any document after the first one of a
+            //block has a data start > 0, the magic of the dictionary tells it apart from the first document.
+            long blockStart = index.blockStart(ordinal);
+            synchronized (dictionaries) {
+                if(dictionaries.containsKey(blockStart)) {
+                    dictionary = dictionaries.get(blockStart);
+                } else {
+                    dictionary = readDictionary(data);
+                    dictionaries.put(blockStart, dictionary);
+                }
+            }
+        }
+
+        Input blockReader = input(data);
+        blockReader.skip(dataStart);
+        int docLength = blockReader.readVarInt(true);
+        return MemoryBinary.decode(frame(data, blockReader, docLength), dictionary);
+    }
+
+    /**
+     * Read document by id
+     * @return the first document with the id or null if not found
+     */
+    public MemoryDocument getById(String id) {
+        long ordinal = index.ordinal(id);
+        return ordinal == -1 ? null : get(ordinal);
+    }
+
+    @Override
+    public void close() {
+        try {
+            index.close();
+            closeData();
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+}
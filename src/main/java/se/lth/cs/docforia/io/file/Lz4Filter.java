@@ -0,0 +1,343 @@
+package se.lth.cs.docforia.io.file;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOError;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Fast LZ4 block compression filter, pure java implementation.
+ * <p>
+ * Data is stored as varint uncompressed size followed by a LZ4 block. Decompression is considerably faster than GZIP
+ * at the cost of a lower compression ratio.
+ * <p>
+ * A filter with a dictionary, see {@link #withDictionary(byte[])} and {@link DictionaryTrainer}, uses the dictionary
+ * as history preceding the data which improves the ratio of small blocks. Dictionary filters have their own id and
+ * stores a 4 byte dictionary checksum after the size, data must be read with the same dictionary.
+ */
+public class Lz4Filter implements DataFilter {
+    static final byte[] FILTER_ID = new byte[] {'L', '4'};
+    static final byte[] FILTER_DICT_ID = new byte[] {'L', 'D'};
+
+    private static final int MAX_OFFSET = 65535;
+
+    /** Largest usable dictionary, limited by the 16-bit match offset */
+    public static final int MAX_DICTIONARY_SIZE = MAX_OFFSET;
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int HASH_LOG = 14;
+    private static final int SKIP_TRIGGER = 6;
+
+    private final byte[] dictionary;
+    private final int dictionaryId;
+    private final int[] dictionaryTable;
+
+    private Lz4Filter(byte[] dictionary) {
+        this.dictionary = dictionary;
+        this.dictionaryId = dictionary.length > 0 ? dictionaryId(dictionary) : 0;
+
+        //Hash table of dictionary positions, copied for every compressed block
+        this.dictionaryTable = new int[1 << HASH_LOG];
+        Arrays.fill(dictionaryTable, -1);
+        for (int i = 0; i + MIN_MATCH <= dictionary.length; i++) {
+            dictionaryTable[hash(dictionary, i)] = i;
+        }
+    }
+
+    private static final Lz4Filter INSTANCE = new Lz4Filter(new byte[0]);
+
+    public static Lz4Filter getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Create a filter using a dictionary
+     * @param dictionary the dictionary, only the last {@link #MAX_DICTIONARY_SIZE} bytes are used.
+     */
+    public static Lz4Filter withDictionary(byte[] dictionary) {
+        if(dictionary.length == 0)
+            return INSTANCE;
+
+        int start = Math.max(0, dictionary.length - MAX_DICTIONARY_SIZE);
+        return new Lz4Filter(Arrays.copyOfRange(dictionary, start, dictionary.length));
+    }
+
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+
+    private static int dictionaryId(byte[] dictionary) {
+        CRC32 crc = new CRC32();
+        crc.update(dictionary, 0, dictionary.length);
+        return (int)crc.getValue();
+    }
+
+    @Override
+    public byte[] id() {
+        return dictionary.length > 0 ? FILTER_DICT_ID : FILTER_ID;
+    }
+
+    @Override
+    public ByteBuffer unapply(ByteBuffer data) {
+        byte[] decompressed;
+        if(data.hasArray())
+            decompressed = decompress(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        else {
+            byte[] copy = new byte[data.remaining()];
+            data.duplicate().get(copy);
+            decompressed = decompress(copy, 0, copy.length);
+        }
+
+        data.position(data.limit());
+        return ByteBuffer.wrap(decompressed);
+    }
+
+    @Override
+    public byte[] unapply(byte[] data) {
+        return decompress(data, 0, data.length);
+    }
+
+    @Override
+    public ByteBuffer apply(ByteBuffer data) {
+        byte[] compressed;
+        if(data.hasArray())
+            compressed = compress(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        else {
+            byte[] copy = new byte[data.remaining()];
+            data.duplicate().get(copy);
+            compressed = compress(copy, 0, copy.length);
+        }
+
+        data.position(data.limit());
+        return ByteBuffer.wrap(compressed);
+    }
+
+    @Override
+    public byte[] apply(byte[] data) {
+        return compress(data, 0, data.length);
+    }
+
+    private static int readInt(byte[] buf, int pos) {
+        return (buf[pos] & 0xFF) | (buf[pos+1] & 0xFF) << 8 | (buf[pos+2] & 0xFF) << 16 | (buf[pos+3] & 0xFF) << 24;
+    }
+
+    private static int hash(byte[] buf, int pos) {
+        return (readInt(buf, pos) * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int writeVarInt(byte[] out, int pos, int value) {
+        while((value & ~0x7F) != 0) {
+            out[pos++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte)value;
+        return pos;
+    }
+
+    private static int writeLength(byte[] out, int pos, int length) {
+        while(length >= 255) {
+            out[pos++] = (byte)255;
+            length -= 255;
+        }
+        out[pos++] = (byte)length;
+        return pos;
+    }
+
+    /** Write a sequence, a match length of 0 indicates the last literals only sequence */
+    private static int writeSequence(byte[] out, int pos, byte[] buf, int literalStart, int numLiterals, int offset, int matchLength) {
+        int tokenPos = pos++;
+        int token = numLiterals >= 15 ? 0xF0 : numLiterals << 4;
+        if(numLiterals >= 15)
+            pos = writeLength(out, pos, numLiterals - 15);
+
+        System.arraycopy(buf, literalStart, out, pos, numLiterals);
+        pos += numLiterals;
+
+        if(matchLength > 0) {
+            out[pos++] = (byte)offset;
+            out[pos++] = (byte)(offset >>> 8);
+
+            int ml = matchLength - MIN_MATCH;
+            if(ml >= 15) {
+                token |= 0x0F;
+                pos = writeLength(out, pos, ml - 15);
+            }
+            else
+                token |= ml;
+        }
+
+        out[tokenPos] = (byte)token;
+        return pos;
+    }
+
+    protected byte[] compress(byte[] data, int offset, int length) {
+        final int dictLength = dictionary.length;
+        final byte[] buf;
+        final int base;
+        if(dictLength == 0) {
+            buf = data;
+            base = offset;
+        } else {
+            buf = new byte[dictLength + length];
+            System.arraycopy(dictionary, 0, buf, 0, dictLength);
+            System.arraycopy(data, offset, buf, dictLength, length);
+            base = dictLength;
+        }
+
+        //First byte matches may refer to, the data may be preceded by unrelated bytes in the array
+        final int historyStart = base - dictLength;
+        final int end = base + length;
+        final int matchLimit = end - LAST_LITERALS;
+        final int mfLimit = end - MF_LIMIT;
+
+        byte[] out = new byte[9 + length + length / 255 + 16];
+        int pos = writeVarInt(out, 0, length);
+        if(dictLength > 0) {
+            out[pos++] = (byte)dictionaryId;
+            out[pos++] = (byte)(dictionaryId >>> 8);
+            out[pos++] = (byte)(dictionaryId >>> 16);
+            out[pos++] = (byte)(dictionaryId >>> 24);
+        }
+
+        int[] table = dictionaryTable.clone();
+
+        int anchor = base;
+        int i = base;
+        int misses = 0;
+        while(i < mfLimit) {
+            int h = hash(buf, i);
+            int ref = table[h];
+            table[h] = i;
+
+            if(ref < 0 || i - ref > MAX_OFFSET || readInt(buf, ref) != readInt(buf, i)) {
+                //Accelerate through incompressible data
+                i += 1 + (misses++ >>> SKIP_TRIGGER);
+                continue;
+            }
+
+            misses = 0;
+            while(i > anchor && ref > historyStart && buf[i-1] == buf[ref-1]) {
+                i--;
+                ref--;
+            }
+
+            int matchLength = MIN_MATCH;
+            while(i + matchLength < matchLimit && buf[ref + matchLength] == buf[i + matchLength]) {
+                matchLength++;
+            }
+
+            pos = writeSequence(out, pos, buf, anchor, i - anchor, i - ref, matchLength);
+            i += matchLength;
+            anchor = i;
+
+            if(i < mfLimit)
+                table[hash(buf, i - 2)] = i - 2;
+        }
+
+        pos = writeSequence(out, pos, buf, anchor, end - anchor, 0, 0);
+        return Arrays.copyOf(out, pos);
+    }
+
+    protected byte[] decompress(byte[] data, int offset, int length) {
+        try {
+            final int end = offset + length;
+            int ip = offset;
+
+            int size = 0;
+            for(int shift = 0; ; shift += 7) {
+                int b = data[ip++];
+                size |= (b & 0x7F) << shift;
+                if((b & 0x80) == 0)
+                    break;
+            }
+
+            final int dictLength = dictionary.length;
+            if(dictLength > 0) {
+                int id = readInt(data, ip);
+                ip += 4;
+                if(id != dictionaryId)
+                    throw new IOError(new IOException("Data was compressed with another dictionary."));
+            }
+
+            final byte[] out = new byte[dictLength + size];
+            System.arraycopy(dictionary, 0, out, 0, dictLength);
+            int op = dictLength;
+
+            while(ip < end) {
+                int token = data[ip++] & 0xFF;
+
+                int numLiterals = token >>> 4;
+                if(numLiterals == 15) {
+                    int b;
+                    do {
+                        b = data[ip++] & 0xFF;
+                        numLiterals += b;
+                    } while(b == 255);
+                }
+
+                if(ip + numLiterals > end || op + numLiterals > out.length)
+                    throw new IOError(new IOException("Corrupt LZ4 block."));
+
+                System.arraycopy(data, ip, out, op, numLiterals);
+                ip += numLiterals;
+                op += numLiterals;
+
+                if(ip >= end)
+                    break;
+
+                int matchOffset = (data[ip] & 0xFF) | (data[ip+1] & 0xFF) << 8;
+                ip += 2;
+
+                int matchLength = token & 0x0F;
+                if(matchLength == 15) {
+                    int b;
+                    do {
+                        b = data[ip++] & 0xFF;
+                        matchLength += b;
+                    } while(b == 255);
+                }
+                matchLength += MIN_MATCH;
+
+                int ref = op - matchOffset;
+                if(matchOffset == 0 || ref < 0 || op + matchLength > out.length)
+                    throw new IOError(new IOException("Corrupt LZ4 block."));
+
+                if(matchOffset >= matchLength) {
+                    System.arraycopy(out, ref, out, op, matchLength);
+                    op += matchLength;
+                }
+                else {
+                    //Overlapping copy, repeats the pattern
+                    for (int k = 0; k < matchLength; k++) {
+                        out[op++] = out[ref++];
+                    }
+                }
+            }
+
+            if(op != out.length)
+                throw new IOError(new IOException("Corrupt LZ4 block, size does not match."));
+
+            return dictLength == 0 ? out : Arrays.copyOfRange(out, dictLength, out.length);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOError(new IOException("Corrupt LZ4 block.", e));
+        }
+    }
+}
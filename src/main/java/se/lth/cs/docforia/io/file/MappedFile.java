@@ -0,0 +1,163 @@
+package se.lth.cs.docforia.io.file;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import se.lth.cs.docforia.io.mem.ByteBufferInput;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOError;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only memory mapped file.
+ * <p>
+ * A single mapping is limited to 2 GB, larger files are mapped in segments. Reads within a segment return slices of
+ * the mapping without copying, reads crossing a segment boundary are copied.
+ */
+public class MappedFile implements Closeable {
+    /** Default segment size, 1 GB */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+    private final RandomAccessFile file;
+    private final long length;
+    private final int segmentSize;
+    private MappedByteBuffer[] segments;
+
+    public MappedFile(File file) {
+        this(file, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public MappedFile(File file, int segmentSize) {
+        if(segmentSize <= 0)
+            throw new IllegalArgumentException("segmentSize must be positive: " + segmentSize);
+
+        try {
+            this.file = new RandomAccessFile(file, "r");
+            this.length = this.file.length();
+            this.segmentSize = segmentSize;
+
+            FileChannel channel = this.file.getChannel();
+            int numSegments = (int)((length + segmentSize - 1) / segmentSize);
+            this.segments = new MappedByteBuffer[numSegments];
+            for (int i = 0; i < numSegments; i++) {
+                long start = (long)i * segmentSize;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, length - start));
+            }
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    public long length() {
+        return length;
+    }
+
+    private void checkRange(long position, int count) {
+        if(segments == null)
+            throw new IllegalStateException("File is closed!");
+
+        if(position < 0 || count < 0 || position + count > length)
+            throw new IOError(new IOException("Read outside of file, position: " + position + ", count: " + count + ", length: " + length));
+    }
+
+    /** Read a single byte */
+    public byte get(long position) {
+        checkRange(position, 1);
+        return segments[(int)(position / segmentSize)].get((int)(position % segmentSize));
+    }
+
+    /** Read a variable length int, see {@link se.lth.cs.docforia.io.mem.Output#intLength(int, boolean)} for its length */
+    public int readVarInt(long position, boolean optimizePositive) {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = get(position++);
+            result |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+                break;
+        }
+        return optimizePositive ? result : ((result >>> 1) ^ -(result & 1));
+    }
+
+    /** Read a big-endian int */
+    public int getInt(long position) {
+        checkRange(position, 4);
+        int offset = (int)(position % segmentSize);
+        MappedByteBuffer segment = segments[(int)(position / segmentSize)];
+        return offset + 4 <= segment.limit() ? segment.getInt(offset) : slice(position, 4).getInt();
+    }
+
+    /** Read a big-endian long */
+    public long getLong(long position) {
+        checkRange(position, 8);
+        int offset = (int)(position % segmentSize);
+        MappedByteBuffer segment = segments[(int)(position / segmentSize)];
+        return offset + 8 <= segment.limit() ? segment.getLong(offset) : slice(position, 8).getLong();
+    }
+
+    /**
+     * Get a read-only view of a region of the file
+     * @return slice of the mapping with position 0 and limit count, or a copy if the region spans multiple segments.
+     */
+    public ByteBuffer slice(long position, int count) {
+        checkRange(position, count);
+
+        int segment = (int)(position / segmentSize);
+        int offset = (int)(position % segmentSize);
+        if(offset + count <= segments[segment].limit()) {
+            ByteBuffer view = segments[segment].duplicate();
+            view.position(offset);
+            view.limit(offset + count);
+            return view.slice();
+        }
+
+        ByteBuffer copy = ByteBuffer.allocate(count);
+        while(copy.hasRemaining()) {
+            ByteBuffer view = segments[segment].duplicate();
+            view.position(offset);
+            view.limit(Math.min(view.limit(), offset + copy.remaining()));
+            copy.put(view);
+            segment++;
+            offset = 0;
+        }
+
+        copy.flip();
+        return copy;
+    }
+
+    /** Input over a region of the file, see {@link #slice(long, int)} */
+    public ByteBufferInput input(long position, int count) {
+        return new ByteBufferInput(slice(position, count));
+    }
+
+    /**
+     * Closes the file, mappings are released when garbage collected.
+     */
+    @Override
+    public void close() {
+        try {
+            segments = null;
+            file.close();
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package se.lth.cs.docforia.io.file;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import se.lth.cs.docforia.Document;
+import se.lth.cs.docforia.io.DocumentReader;
+import se.lth.cs.docforia.memstore.MemoryDocument;
+
+import java.io.File;
+import java.io.IOError;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Parallel document reader of block files.
+ * <p>
+ * Blocks are read by a single I/O thread and unfiltered and decoded by a pool of workers. At most
+ * {@code maxInFlight} blocks are read ahead of the consumer which bounds memory use.
+ * In ordered mode documents are returned in file order, otherwise in the order blocks finish decoding.
+ *
+ * @see DocumentBlockFileReader
+ */
+public class ParallelDocumentBlockFileReader implements DocumentReader {
+    private static final Future<List<MemoryDocument>> END = CompletableFuture.completedFuture(null);
+    private static final AtomicInteger readerCounter = new AtomicInteger();
+
+    private final DocumentBlockFileReader reader;
+    private final DataFilter filter;
+    private final ExecutorService workers;
+    private final boolean ownsWorkers;
+    private final boolean ordered;
+    private final int maxInFlight;
+
+    private final Semaphore inFlight;
+    private final LinkedBlockingQueue<Future<List<MemoryDocument>>> blocks = new LinkedBlockingQueue<>();
+    private final Thread ioThread;
+
+    private ArrayDeque<MemoryDocument> currentBlock = new ArrayDeque<>();
+    private volatile boolean closed;
+    private boolean eof;
+
+    /**
+     * Ordered reader with the filter detected from the file header
+     * @param input the block file
+     * @param numWorkers number of decoding threads
+     */
+    public ParallelDocumentBlockFileReader(File input, int numWorkers) {
+        this(input, numWorkers, 2 * numWorkers, true);
+    }
+
+    /**
+     * Reader with the filter detected from the file header
+     * @param input the block file
+     * @param numWorkers number of decoding threads
+     * @param maxInFlight maximum number of blocks read ahead of the consumer
+     * @param ordered return documents in file order
+     */
+    public ParallelDocumentBlockFileReader(File input, int numWorkers, int maxInFlight, boolean ordered) {
+        this(new DocumentBlockFileReader(input), createWorkers(numWorkers), true, maxInFlight, ordered);
+    }
+
+    /**
+     * Primary constructor
+     * @param reader opened block reader, this reader takes ownership of it
+     * @param workers executor used to unfilter and decode blocks, not shutdown by close
+     * @param maxInFlight maximum number of blocks read ahead of the consumer
+     * @param ordered return documents in file order
+     */
+    public ParallelDocumentBlockFileReader(DocumentBlockFileReader reader, ExecutorService workers, int maxInFlight, boolean ordered) {
+        this(reader, workers, false, maxInFlight, ordered);
+    }
+
+    private ParallelDocumentBlockFileReader(DocumentBlockFileReader reader, ExecutorService workers, boolean ownsWorkers, int maxInFlight, boolean ordered) {
+        if(maxInFlight < 1)
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+
+        this.reader = reader;
+        this.filter = reader.getFilter();
+        this.workers = workers;
+        this.ownsWorkers = ownsWorkers;
+        this.maxInFlight = maxInFlight;
+        this.ordered = ordered;
+        this.inFlight = new Semaphore(maxInFlight);
+
+        this.ioThread = new Thread(this::readBlocks, "docforia-block-reader-" + readerCounter.incrementAndGet());
+        this.ioThread.setDaemon(true);
+        this.ioThread.start();
+    }
+
+    private static ExecutorService createWorkers(int numWorkers) {
+        if(numWorkers < 1)
+            throw new IllegalArgumentException("numWorkers must be at least 1");
+
+        final AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(numWorkers, r -> {
+            Thread thread = new Thread(r, "docforia-block-decoder-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private List<MemoryDocument> decode(ByteBuffer block) {
+        ArrayList<MemoryDocument> documents = new ArrayList<>();
+        DocumentBlockFileReader.decodeBlock(filter != null ? filter.unapply(block) : block, documents);
+        return documents;
+    }
+
+    /** I/O thread, reads blocks and submits them to the workers */
+    private void readBlocks() {
+        try {
+            while(!closed) {
+                inFlight.acquire();
+
+                ByteBuffer block = reader.readBlock();
+                if(block == null) {
+                    inFlight.release();
+                    break;
+                }
+
+                if(ordered) {
+                    blocks.add(workers.submit(() -> decode(block)));
+                } else {
+                    workers.execute(new FutureTask<List<MemoryDocument>>(() -> decode(block)) {
+                        @Override
+                        protected void done() {
+                            blocks.add(this);
+                        }
+                    });
+                }
+            }
+
+            //All blocks have been consumed when every permit has been returned
+            inFlight.acquire(maxInFlight);
+        } catch (InterruptedException e) {
+            return;
+        } catch (Throwable e) {
+            CompletableFuture<List<MemoryDocument>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            blocks.add(failed);
+        }
+
+        blocks.add(END);
+    }
+
+    /**
+     * Get the next decoded block
+     * @return null if there are no more blocks
+     */
+    public List<MemoryDocument> nextBlock() {
+        if(eof)
+            return null;
+
+        try {
+            Future<List<MemoryDocument>> block = blocks.take();
+            if(block == END) {
+                eof = true;
+                return null;
+            }
+
+            try {
+                return block.get();
+            } finally {
+                inFlight.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOError(e);
+        } catch (ExecutionException e) {
+            eof = true;
+            if(e.getCause() instanceof IOError)
+                throw (IOError)e.getCause();
+            else
+                throw new IOError(e.getCause());
+        }
+    }
+
+    @Override
+    public MemoryDocument next() {
+        while(currentBlock.isEmpty()) {
+            List<MemoryDocument> block = nextBlock();
+            if(block == null)
+                return null;
+
+            currentBlock.addAll(block);
+        }
+
+        return currentBlock.removeFirst();
+    }
+
+    /**
+     * Spliterator of all remaining documents, splits at block boundaries.
+     * <p>
+     * The reader is closed when all documents have been consumed.
+     */
+    public Spliterator<Document> spliterator() {
+        return new Spliterator<Document>() {
+            @Override
+            public boolean tryAdvance(Consumer<? super Document> action) {
+                MemoryDocument doc = next();
+                if(doc == null) {
+                    close();
+                    return false;
+                }
+
+                action.accept(doc);
+                return true;
+            }
+
+            @Override
+            public Spliterator<Document> trySplit() {
+                ArrayList<Document> prefix = new ArrayList<>(currentBlock);
+                currentBlock.clear();
+                if(prefix.isEmpty()) {
+                    List<MemoryDocument> block = nextBlock();
+                    if(block == null)
+                        return null;
+
+                    prefix.addAll(block);
+                }
+
+                return Spliterators.spliterator(prefix, characteristics());
+            }
+
+            @Override
+            public long estimateSize() {
+                return Long.MAX_VALUE;
+            }
+
+            @Override
+            public int characteristics() {
+                return (ordered ? ORDERED : 0) | NONNULL;
+            }
+        };
+    }
+
+    /**
+     * Stream of all remaining documents, closing the stream closes the reader.
+     */
+    public Stream<Document> stream() {
+        return StreamSupport.stream(spliterator(), false).onClose(this::close);
+    }
+
+    @Override
+    public void close() {
+        if(closed)
+            return;
+
+        closed = true;
+        eof = true;
+        currentBlock.clear();
+        ioThread.interrupt();
+        try {
+            ioThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if(ownsWorkers)
+            workers.shutdownNow();
+
+        reader.close();
+    }
+}
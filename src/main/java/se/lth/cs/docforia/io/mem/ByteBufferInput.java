@@ -0,0 +1,359 @@
+package se.lth.cs.docforia.io.mem;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.io.IOError;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Input reading directly from a ByteBuffer without copying, e.g. a slice of a memory mapped file.
+ * <p>
+ * Position and limit are absolute indices into the buffer, the position of the ByteBuffer itself is never modified.
+ * {@link #getBuffer()} is not supported as there is no backing array.
+ */
+public class ByteBufferInput extends Input {
+    protected ByteBuffer byteBuffer;
+
+    /** Reads the remaining bytes of buffer */
+    public ByteBufferInput(ByteBuffer buffer) {
+        this(buffer, buffer.position(), buffer.remaining());
+    }
+
+    /** Reads count bytes starting at the absolute offset of buffer */
+    public ByteBufferInput(ByteBuffer buffer, int offset, int count) {
+        setByteBuffer(buffer, offset, count);
+    }
+
+    public void setByteBuffer(ByteBuffer buffer, int offset, int count) {
+        if(buffer == null) throw new IllegalArgumentException("buffer cannot be null.");
+        if(offset < 0 || count < 0 || offset + count > buffer.limit())
+            throw new IndexOutOfBoundsException("offset: " + offset + ", count: " + count + ", limit: " + buffer.limit());
+
+        this.byteBuffer = buffer;
+        this.position = offset;
+        this.limit = offset + count;
+        this.capacity = buffer.capacity();
+        this.total = 0;
+    }
+
+    public ByteBuffer getByteBuffer() {
+        return byteBuffer;
+    }
+
+    /** Input over the next count bytes sharing the same buffer, the position of this input is not changed */
+    public ByteBufferInput slice(int count) {
+        require(count);
+        return new ByteBufferInput(byteBuffer, position, count);
+    }
+
+    @Override
+    public byte[] getBuffer() {
+        throw new UnsupportedOperationException("ByteBufferInput has no backing array, use getByteBuffer()");
+    }
+
+    @Override
+    public void setBuffer(byte[] bytes, int offset, int count) {
+        throw new UnsupportedOperationException("ByteBufferInput has no backing array, use setByteBuffer()");
+    }
+
+    @Override
+    public void skip(int count) {
+        require(count);
+        position += count;
+    }
+
+    @Override
+    protected int require(int required) {
+        int remaining = limit - position;
+        if(remaining < required)
+            throw new IOError(new IOException("Buffer underflow."));
+
+        return remaining;
+    }
+
+    @Override
+    public boolean eof() {
+        return position >= limit;
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    @Override
+    public int read() {
+        if(position >= limit) return -1;
+        return byteBuffer.get(position++) & 0xFF;
+    }
+
+    @Override
+    public int read(ByteBuffer buffer) {
+        if(buffer == null) throw new IllegalArgumentException("buffer cannot be null.");
+        if(position >= limit) return -1;
+
+        int count = Math.min(buffer.capacity() - buffer.position(), limit - position);
+        for (int i = 0; i < count; i++) {
+            buffer.put(byteBuffer.get(position++));
+        }
+        return count;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int count) {
+        if(bytes == null) throw new IllegalArgumentException("bytes cannot be null.");
+        if(position >= limit) return -1;
+
+        count = Math.min(count, limit - position);
+        copy(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /** Bulk copy without modifying the ByteBuffer position */
+    private void copy(byte[] bytes, int offset, int count) {
+        ByteBuffer view = byteBuffer.duplicate();
+        view.position(position);
+        view.get(bytes, offset, count);
+        position += count;
+    }
+
+    @Override
+    public byte readByte() {
+        require(1);
+        return byteBuffer.get(position++);
+    }
+
+    @Override
+    public int readByteUnsigned() {
+        require(1);
+        return byteBuffer.get(position++) & 0xFF;
+    }
+
+    @Override
+    public void readByteBuffer(ByteBuffer buffer) {
+        if(buffer == null) throw new IllegalArgumentException("buffer cannot be null.");
+        int count = buffer.capacity() - buffer.position();
+        require(count);
+
+        ByteBuffer view = byteBuffer.duplicate();
+        view.position(position);
+        view.limit(position + count);
+        buffer.put(view);
+        position += count;
+    }
+
+    @Override
+    public void readBytes(byte[] bytes, int offset, int count) {
+        if(bytes == null) throw new IllegalArgumentException("bytes cannot be null.");
+        require(count);
+        copy(bytes, offset, count);
+    }
+
+    @Override
+    public int readInt() {
+        require(4);
+        ByteBuffer buffer = this.byteBuffer;
+        int position = this.position;
+        this.position = position + 4;
+        return (buffer.get(position) & 0xFF) << 24
+             | (buffer.get(position + 1) & 0xFF) << 16
+             | (buffer.get(position + 2) & 0xFF) << 8
+             | buffer.get(position + 3) & 0xFF;
+    }
+
+    @Override
+    public int readVarInt(boolean optimizePositive) {
+        int b = readByte();
+        int result = b & 0x7F;
+        if((b & 0x80) != 0) {
+            b = readByte();
+            result |= (b & 0x7F) << 7;
+            if((b & 0x80) != 0) {
+                b = readByte();
+                result |= (b & 0x7F) << 14;
+                if((b & 0x80) != 0) {
+                    b = readByte();
+                    result |= (b & 0x7F) << 21;
+                    if((b & 0x80) != 0) {
+                        b = readByte();
+                        result |= (b & 0x7F) << 28;
+                    }
+                }
+            }
+        }
+        return optimizePositive ? result : ((result >>> 1) ^ -(result & 1));
+    }
+
+    @Override
+    public boolean canReadInt() {
+        return canReadVar(5);
+    }
+
+    @Override
+    public boolean canReadLong() {
+        return canReadVar(9);
+    }
+
+    private boolean canReadVar(int maxLength) {
+        if(limit - position >= maxLength) return true;
+        for (int p = position; p < limit; p++) {
+            if((byteBuffer.get(p) & 0x80) == 0)
+                return true;
+        }
+        return false;
+    }
+
+    /** Length of a string written by {@link Output#writeString(String)}, the first byte is b */
+    private int readUtf8Length(int b) {
+        int result = b & 0x3F; // Mask all but first 6 bits.
+        if((b & 0x40) != 0) { // Bit 7 means another byte, bit 8 means UTF8.
+            b = readByte();
+            result |= (b & 0x7F) << 6;
+            if((b & 0x80) != 0) {
+                b = readByte();
+                result |= (b & 0x7F) << 13;
+                if((b & 0x80) != 0) {
+                    b = readByte();
+                    result |= (b & 0x7F) << 20;
+                    if((b & 0x80) != 0) {
+                        b = readByte();
+                        result |= (b & 0x7F) << 27;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private void readUtf8(int charCount) {
+        ByteBuffer buffer = this.byteBuffer;
+        char[] chars = this.chars;
+        for (int charIndex = 0; charIndex < charCount; charIndex++) {
+            require(1);
+            int b = buffer.get(position++) & 0xFF;
+            switch (b >> 4) {
+                case 12:
+                case 13:
+                    require(1);
+                    chars[charIndex] = (char)((b & 0x1F) << 6 | buffer.get(position++) & 0x3F);
+                    break;
+                case 14:
+                    require(2);
+                    chars[charIndex] = (char)((b & 0x0F) << 12 | (buffer.get(position++) & 0x3F) << 6 | buffer.get(position++) & 0x3F);
+                    break;
+                default:
+                    chars[charIndex] = (char)b;
+                    break;
+            }
+        }
+    }
+
+    private String readAscii() {
+        //First byte is already read, the last byte has the high bit set
+        int start = position - 1;
+        int end = position;
+        while(true) {
+            require(end - position + 1);
+            if((byteBuffer.get(end++) & 0x80) != 0)
+                break;
+        }
+
+        int charCount = end - start;
+        if(chars.length < charCount) chars = new char[charCount];
+        char[] chars = this.chars;
+        for (int i = start, k = 0; i < end; i++, k++) {
+            chars[k] = (char)(byteBuffer.get(i) & 0x7F);
+        }
+
+        position = end;
+        return new String(chars, 0, charCount);
+    }
+
+    @Override
+    public String readString() {
+        int b = readByte();
+        if((b & 0x80) == 0) return readAscii(); // ASCII.
+        // Null, empty, or UTF8.
+        int charCount = readUtf8Length(b);
+        switch (charCount) {
+            case 0:
+                return null;
+            case 1:
+                return "";
+        }
+        charCount--;
+        if(chars.length < charCount) chars = new char[charCount];
+        readUtf8(charCount);
+        return new String(chars, 0, charCount);
+    }
+
+    @Override
+    public StringBuilder readStringBuilder() {
+        String value = readString();
+        return value == null ? null : new StringBuilder(value);
+    }
+
+    @Override
+    public short readShort() {
+        require(2);
+        return (short)(((byteBuffer.get(position++) & 0xFF) << 8) | (byteBuffer.get(position++) & 0xFF));
+    }
+
+    @Override
+    public int readShortUnsigned() {
+        require(2);
+        return ((byteBuffer.get(position++) & 0xFF) << 8) | (byteBuffer.get(position++) & 0xFF);
+    }
+
+    @Override
+    public long readLong() {
+        require(8);
+        long high = readInt();
+        return high << 32 | (readInt() & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public long readVarLong(boolean optimizePositive) {
+        long result = 0;
+        for (int shift = 0; shift < 56; shift += 7) {
+            int b = readByte();
+            result |= (long)(b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+                return optimizePositive ? result : (result >>> 1) ^ -(result & 1);
+        }
+
+        result |= (long)readByte() << 56;
+        return optimizePositive ? result : (result >>> 1) ^ -(result & 1);
+    }
+
+    @Override
+    public boolean readBoolean() {
+        require(1);
+        return byteBuffer.get(position++) == 1;
+    }
+
+    @Override
+    public char readChar() {
+        require(2);
+        return (char)(((byteBuffer.get(position++) & 0xFF) << 8) | (byteBuffer.get(position++) & 0xFF));
+    }
+}
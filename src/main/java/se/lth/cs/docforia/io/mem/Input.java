@@ -78,8 +78,14 @@ public class Input extends InputStream {
 		this.inputStream = inputStream;
 	}
 
+    /** Creates a new Input reading the remaining bytes of buffer without copying, buffers without an accessible
+     * backing array, e.g. direct or read-only buffers, are read by {@link ByteBufferInput}. */
+    public static Input wrap(ByteBuffer buffer) {
+        return buffer.hasArray() ? new Input(buffer) : new ByteBufferInput(buffer);
+    }
+
     /** Creates a new Input for reading from a Bytebuffer
-     * <b>Remarks:</b> Uses ByteBufferInputStream if it does not have backing array. */
+     * <b>Remarks:</b> Uses ByteBufferInputStream if it does not have backing array, see {@link #wrap(ByteBuffer)}. */
     public Input(ByteBuffer inputBuffer) {
         if(inputBuffer.hasArray()) {
             setBuffer(inputBuffer.array(), inputBuffer.arrayOffset()+inputBuffer.position(), inputBuffer.remaining());
@@ -0,0 +1,270 @@
+package se.lth.cs.docforia.io.multipart;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import se.lth.cs.docforia.io.mem.Input;
+import se.lth.cs.docforia.io.mem.Output;
+
+import java.io.*;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Layer-partitioned corpus, a directory where the text and every layer of the documents are stored in column files of
+ * their own, the n:th record of every column belongs to the n:th document.
+ * <p>
+ * Layers can be added to an existing corpus without rewriting the documents, see {@link MultipartCorpusLayerWriter},
+ * and any subset of layers can be read, see {@link MultipartCorpusReader}. The layers of the corpus and the number
+ * of documents are kept in a manifest which is written when a writer is closed.
+ * <p>
+ * Node layers are numbered in the order they were added to the corpus, the number is the layer index used by edge
+ * layers to refer to nodes, see {@link MultipartWriterV1}.
+ */
+public class MultipartCorpus {
+    protected static final byte[] MAGIC = new byte[] { 'D', 'M', 'C', '1'};
+    protected static final String MANIFEST = "layers";
+
+    protected final File dir;
+    protected final ObjectArrayList<String> nodeLayers = new ObjectArrayList<>();
+    protected final Object2ObjectLinkedOpenHashMap<String,ObjectArrayList<String>> edgeLayers = new Object2ObjectLinkedOpenHashMap<>();
+    protected int numDocuments;
+    protected boolean exists;
+
+    /**
+     * Open corpus, the directory is created when the first writer is closed
+     * @param dir corpus directory
+     */
+    public MultipartCorpus(File dir) {
+        this.dir = dir;
+
+        File manifest = new File(dir, MANIFEST);
+        if(manifest.exists()) {
+            exists = true;
+            try {
+                for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+                    String[] fields = line.split("\t");
+                    switch (fields[0]) {
+                        case "documents":
+                            numDocuments = Integer.parseInt(fields[1]);
+                            break;
+                        case "node":
+                            nodeLayers.add(fields[1]);
+                            break;
+                        case "edge":
+                            edgeLayers.put(fields[1], new ObjectArrayList<>(Arrays.asList(fields).subList(2, fields.length)));
+                            break;
+                        default:
+                            throw new IOError(new IOException("Invalid corpus manifest entry: " + line));
+                    }
+                }
+            } catch (IOException e) {
+                throw new IOError(e);
+            }
+        }
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    /** True if documents have been written to the corpus */
+    public boolean exists() {
+        return exists;
+    }
+
+    /** Number of documents */
+    public int size() {
+        return numDocuments;
+    }
+
+    /** Node layers in order of their layer index */
+    public List<String> nodeLayers() {
+        return Collections.unmodifiableList(nodeLayers);
+    }
+
+    public List<String> edgeLayers() {
+        return Collections.unmodifiableList(new ObjectArrayList<>(edgeLayers.keySet()));
+    }
+
+    public boolean hasLayer(String layer) {
+        return nodeLayers.contains(layer) || edgeLayers.containsKey(layer);
+    }
+
+    /** Node layers referred to by the edges of the edge layer */
+    public List<String> edgeLayerDependencies(String edgeLayer) {
+        ObjectArrayList<String> deps = edgeLayers.get(edgeLayer);
+        if(deps == null)
+            throw new IllegalArgumentException("Edge layer " + edgeLayer + " does not exist in corpus " + dir);
+
+        return Collections.unmodifiableList(deps);
+    }
+
+    private static String fileName(String layer) {
+        try {
+            return URLEncoder.encode(layer, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IOError(e);
+        }
+    }
+
+    protected File textFile() {
+        return new File(dir, "text.col");
+    }
+
+    protected File nodeLayerFile(String nodeLayer) {
+        return new File(dir, "node-" + fileName(nodeLayer) + ".col");
+    }
+
+    protected File edgeLayerFile(String edgeLayer) {
+        return new File(dir, "edge-" + fileName(edgeLayer) + ".col");
+    }
+
+    /** Messages with a header that assigns the corpus layer indices, followed by extra node layers */
+    protected MultipartMessages seed(List<String> extraNodeLayers) {
+        MultipartMessages messages = new MultipartMessages();
+        messages.header = MultipartBinary.Header.newBuilder()
+                                                .addAllNodeLayer(nodeLayers)
+                                                .addAllNodeLayer(extraNodeLayers)
+                                                .buildPartial();
+        return messages;
+    }
+
+    /** Node layers referred to by the edges of the layer, layer indices are resolved by header */
+    protected static ObjectArrayList<String> dependencies(MultipartBinary.Header header, MultipartBinary.EdgeLayer edgeLayer) {
+        ObjectArrayList<String> deps = new ObjectArrayList<>();
+        for (MultipartBinary.EdgeLayer.Variant variant : edgeLayer.getVariantsList()) {
+            for (Integer idx : variant.getNodelayersList()) {
+                String nodeLayer = header.getNodeLayer(idx);
+                if(!deps.contains(nodeLayer))
+                    deps.add(nodeLayer);
+            }
+        }
+        return deps;
+    }
+
+    /** Write the manifest, replacing the previous */
+    protected void save() {
+        if(!dir.exists() && !dir.mkdirs())
+            throw new IOError(new IOException("Could not create corpus directory: " + dir));
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("documents\t").append(numDocuments).append('\n');
+        for (String nodeLayer : nodeLayers) {
+            sb.append("node\t").append(nodeLayer).append('\n');
+        }
+
+        for (Object2ObjectLinkedOpenHashMap.Entry<String, ObjectArrayList<String>> entry : edgeLayers.object2ObjectEntrySet()) {
+            sb.append("edge\t").append(entry.getKey());
+            for (String dep : entry.getValue()) {
+                sb.append('\t').append(dep);
+            }
+            sb.append('\n');
+        }
+
+        try {
+            File tmp = new File(dir, MANIFEST + ".tmp");
+            Files.write(tmp.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), new File(dir, MANIFEST).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+
+        exists = true;
+    }
+
+    /** Column file writer, records are length prefixed and an empty record is a missing value */
+    protected static class ColumnWriter implements Closeable {
+        private final Output output;
+        private int count;
+
+        public ColumnWriter(File file) {
+            if(!file.getParentFile().exists() && !file.getParentFile().mkdirs())
+                throw new IOError(new IOException("Could not create corpus directory: " + file.getParentFile()));
+
+            try {
+                this.output = new Output(new FileOutputStream(file), 64 << 10);
+            } catch (FileNotFoundException e) {
+                throw new IOError(e);
+            }
+            output.writeBytes(MAGIC);
+        }
+
+        /** Number of records written */
+        public int count() {
+            return count;
+        }
+
+        public void write(byte[] data) {
+            output.writeVarInt(data.length, true);
+            output.writeBytes(data);
+            count++;
+        }
+
+        /** Write missing values until the column has n records */
+        public void pad(int n) {
+            while(count < n) {
+                output.writeVarInt(0, true);
+                count++;
+            }
+        }
+
+        @Override
+        public void close() {
+            output.close();
+        }
+    }
+
+    /** Sequential column file reader */
+    protected static class ColumnReader implements Closeable {
+        private final Input input;
+
+        public ColumnReader(File file) {
+            try {
+                this.input = new Input(new FileInputStream(file), 64 << 10);
+            } catch (FileNotFoundException e) {
+                throw new IOError(e);
+            }
+
+            byte[] magic = new byte[4];
+            input.readBytes(magic);
+            if(!Arrays.equals(MAGIC, magic))
+                throw new IOError(new IOException("Invalid column file: " + file));
+        }
+
+        /**
+         * Read next record
+         * @return null if no more records, empty array for missing values
+         */
+        public byte[] next() {
+            if(input.eof())
+                return null;
+
+            return input.readBytes(input.readVarInt(true));
+        }
+
+        @Override
+        public void close() {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package se.lth.cs.docforia.io.multipart;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import se.lth.cs.docforia.Document;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Adds layers to an existing layer-partitioned corpus, only the column files of the added layers are written.
+ * <p>
+ * Documents must be written in corpus order, typically read by a {@link MultipartCorpusReader} and annotated.
+ * Added edge layers may refer to nodes of layers in the corpus, those layers must be read with the document.
+ * The layers are part of the corpus when the writer is closed.
+ */
+public class MultipartCorpusLayerWriter extends MultipartCorpusWriter {
+    protected final ObjectOpenHashSet<String> layers;
+
+    public MultipartCorpusLayerWriter(MultipartCorpus corpus, String...layers) {
+        this(corpus, new MultipartWriterV1(), Arrays.asList(layers));
+    }
+
+    /**
+     * @param corpus existing corpus
+     * @param writer the encoder
+     * @param layers names of the node and edge layers to add
+     */
+    public MultipartCorpusLayerWriter(MultipartCorpus corpus, MultipartWriterV1 writer, Collection<String> layers) {
+        super(corpus, writer, false);
+        if(!corpus.exists())
+            throw new IllegalArgumentException("Corpus does not exist: " + corpus.getDirectory());
+
+        for (String layer : layers) {
+            if(corpus.hasLayer(layer))
+                throw new IllegalArgumentException("Layer " + layer + " already exists in corpus " + corpus.getDirectory());
+        }
+
+        this.layers = new ObjectOpenHashSet<>(layers);
+    }
+
+    @Override
+    protected boolean accept(String layer) {
+        return layers.contains(layer);
+    }
+
+    @Override
+    public void write(Document doc) {
+        if(count == corpus.size())
+            throw new IllegalStateException("All " + corpus.size() + " documents of the corpus have been written");
+
+        super.write(doc);
+    }
+
+    @Override
+    protected int numDocuments() {
+        return corpus.size();
+    }
+}
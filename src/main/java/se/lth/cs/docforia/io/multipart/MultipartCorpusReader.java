@@ -0,0 +1,143 @@
+package se.lth.cs.docforia.io.multipart;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
+import se.lth.cs.docforia.Document;
+import se.lth.cs.docforia.DocumentFactory;
+import se.lth.cs.docforia.io.DocumentReader;
+import se.lth.cs.docforia.memstore.MemoryDocumentFactory;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Reads documents with a subset of the layers of a layer-partitioned corpus, only the column files of the selected
+ * layers are read.
+ * <p>
+ * The node layers the selected edge layers refer to are always read.
+ *
+ * @see MultipartCorpus
+ */
+public class MultipartCorpusReader implements DocumentReader {
+    private final DocumentFactory factory;
+    private final MultipartCorpus.ColumnReader text;
+    private final Object2ObjectLinkedOpenHashMap<String,MultipartCorpus.ColumnReader> nodeLayers = new Object2ObjectLinkedOpenHashMap<>();
+    private final Object2ObjectLinkedOpenHashMap<String,MultipartCorpus.ColumnReader> edgeLayers = new Object2ObjectLinkedOpenHashMap<>();
+
+    /** Read documents with all layers */
+    public MultipartCorpusReader(MultipartCorpus corpus) {
+        this(corpus, MemoryDocumentFactory.getInstance(), null);
+    }
+
+    /** Read documents with given layers */
+    public MultipartCorpusReader(MultipartCorpus corpus, String...layers) {
+        this(corpus, MemoryDocumentFactory.getInstance(), Arrays.asList(layers));
+    }
+
+    /**
+     * @param corpus the corpus to read
+     * @param factory document factory
+     * @param layers node and edge layers to read, null for all layers
+     */
+    public MultipartCorpusReader(MultipartCorpus corpus, DocumentFactory factory, Collection<String> layers) {
+        if(!corpus.exists())
+            throw new IllegalArgumentException("Corpus does not exist: " + corpus.getDirectory());
+
+        this.factory = factory;
+
+        ObjectLinkedOpenHashSet<String> selectedNodes = new ObjectLinkedOpenHashSet<>();
+        ObjectLinkedOpenHashSet<String> selectedEdges = new ObjectLinkedOpenHashSet<>();
+        if(layers == null) {
+            selectedNodes.addAll(corpus.nodeLayers());
+            selectedEdges.addAll(corpus.edgeLayers());
+        } else {
+            for (String layer : layers) {
+                if(corpus.nodeLayers.contains(layer))
+                    selectedNodes.add(layer);
+                else if(corpus.edgeLayers.containsKey(layer)) {
+                    selectedEdges.add(layer);
+                    selectedNodes.addAll(corpus.edgeLayerDependencies(layer));
+                }
+                else
+                    throw new IllegalArgumentException("Layer " + layer + " does not exist in corpus " + corpus.getDirectory());
+            }
+        }
+
+        this.text = new MultipartCorpus.ColumnReader(corpus.textFile());
+        for (String nodeLayer : selectedNodes) {
+            nodeLayers.put(nodeLayer, new MultipartCorpus.ColumnReader(corpus.nodeLayerFile(nodeLayer)));
+        }
+
+        for (String edgeLayer : selectedEdges) {
+            edgeLayers.put(edgeLayer, new MultipartCorpus.ColumnReader(corpus.edgeLayerFile(edgeLayer)));
+        }
+    }
+
+    /** Node layers read, including the dependencies of the selected edge layers */
+    public Set<String> nodeLayers() {
+        return nodeLayers.keySet();
+    }
+
+    public Set<String> edgeLayers() {
+        return edgeLayers.keySet();
+    }
+
+    /**
+     * Read the messages of the next document, layers are parsed when decoded
+     * @return null if no more documents
+     */
+    public MultipartMessages nextMessages() {
+        byte[] base = text.next();
+        if(base == null)
+            return null;
+
+        MultipartMessages messages = MultipartMessages.fromBytes(base);
+        for (MultipartCorpus.ColumnReader column : nodeLayers.values()) {
+            byte[] layer = column.next();
+            if(layer.length > 0)
+                messages.addNodeLayer(layer);
+        }
+
+        for (MultipartCorpus.ColumnReader column : edgeLayers.values()) {
+            byte[] layer = column.next();
+            if(layer.length > 0)
+                messages.addEdgeLayer(layer);
+        }
+
+        return messages;
+    }
+
+    @Override
+    public Document next() {
+        MultipartMessages messages = nextMessages();
+        return messages != null ? MultipartReaderV1.decode(messages, factory) : null;
+    }
+
+    @Override
+    public void close() {
+        text.close();
+        for (MultipartCorpus.ColumnReader column : nodeLayers.values()) {
+            column.close();
+        }
+
+        for (MultipartCorpus.ColumnReader column : edgeLayers.values()) {
+            column.close();
+        }
+    }
+}
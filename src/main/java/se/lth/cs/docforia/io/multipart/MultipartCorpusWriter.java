@@ -0,0 +1,166 @@
+package se.lth.cs.docforia.io.multipart;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import se.lth.cs.docforia.Document;
+import se.lth.cs.docforia.io.DocumentWriter;
+
+import java.io.File;
+
+/**
+ * Writes documents to a new layer-partitioned corpus, the text and every layer go to a column file of their own.
+ *
+ * @see MultipartCorpus
+ * @see MultipartCorpusReader
+ */
+public class MultipartCorpusWriter implements DocumentWriter {
+    protected final MultipartCorpus corpus;
+    protected final MultipartWriterV1 writer;
+    protected final MultipartCorpus.ColumnWriter text;
+    protected final Object2ObjectLinkedOpenHashMap<String,MultipartCorpus.ColumnWriter> columns = new Object2ObjectLinkedOpenHashMap<>();
+
+    /** Node layers added by this writer, in order of their layer index */
+    protected final ObjectArrayList<String> nodeLayers = new ObjectArrayList<>();
+    protected final Object2ObjectLinkedOpenHashMap<String,ObjectArrayList<String>> edgeLayers = new Object2ObjectLinkedOpenHashMap<>();
+    protected int count;
+
+    public MultipartCorpusWriter(MultipartCorpus corpus) {
+        this(corpus, new MultipartWriterV1());
+    }
+
+    /**
+     * @param corpus the corpus to create, must not exist
+     * @param writer the encoder
+     */
+    public MultipartCorpusWriter(MultipartCorpus corpus, MultipartWriterV1 writer) {
+        this(corpus, writer, true);
+        if(corpus.exists())
+            throw new IllegalArgumentException("Corpus already exists: " + corpus.getDirectory());
+    }
+
+    protected MultipartCorpusWriter(MultipartCorpus corpus, MultipartWriterV1 writer, boolean writeText) {
+        this.corpus = corpus;
+        this.writer = writer;
+        this.text = writeText ? new MultipartCorpus.ColumnWriter(corpus.textFile()) : null;
+    }
+
+    /** True if layer is written by this writer */
+    protected boolean accept(String layer) {
+        return true;
+    }
+
+    private boolean isNodeLayer(String layer) {
+        return corpus.nodeLayers.contains(layer) || nodeLayers.contains(layer);
+    }
+
+    private MultipartCorpus.ColumnWriter column(String layer, File file) {
+        MultipartCorpus.ColumnWriter column = columns.get(layer);
+        if(column == null) {
+            columns.put(layer, column = new MultipartCorpus.ColumnWriter(file));
+        }
+
+        column.pad(count);
+        return column;
+    }
+
+    @Override
+    public void write(Document doc) {
+        MultipartMessages messages = writer.encode(doc, corpus.seed(nodeLayers));
+
+        //Layers added by this document must have their final layer index before they are written
+        ObjectArrayList<String> added = new ObjectArrayList<>();
+        for (String nodeLayer : messages.header.getNodeLayerList()) {
+            if(messages.nodeLayers.containsKey(nodeLayer) && accept(nodeLayer) && !isNodeLayer(nodeLayer))
+                added.add(nodeLayer);
+        }
+
+        if(!added.isEmpty()) {
+            nodeLayers.addAll(added);
+            messages = writer.encode(doc, corpus.seed(nodeLayers));
+        }
+
+        //Edge layers are checked before anything is written
+        Object2ObjectLinkedOpenHashMap<String,MultipartBinary.EdgeLayer> edges = new Object2ObjectLinkedOpenHashMap<>();
+        for (String edgeLayer : messages.header.getEdgeLayerList()) {
+            if(!messages.edgeLayers.containsKey(edgeLayer) || !accept(edgeLayer))
+                continue;
+
+            MultipartBinary.EdgeLayer message = messages.getEdgeLayerMessage(edgeLayer);
+            for (String dep : MultipartCorpus.dependencies(messages.header, message)) {
+                if(!isNodeLayer(dep))
+                    throw new IllegalArgumentException("Edge layer " + edgeLayer + " refers to node layer " + dep + " which is neither in the corpus nor written");
+            }
+
+            edges.put(edgeLayer, message);
+        }
+
+        for (Object2ObjectMap.Entry<String, MultipartBinary.EdgeLayer> entry : edges.object2ObjectEntrySet()) {
+            ObjectArrayList<String> deps = edgeLayers.get(entry.getKey());
+            if(deps == null)
+                edgeLayers.put(entry.getKey(), deps = new ObjectArrayList<>());
+
+            for (String dep : MultipartCorpus.dependencies(messages.header, entry.getValue())) {
+                if(!deps.contains(dep))
+                    deps.add(dep);
+            }
+        }
+
+        if(text != null) {
+            MultipartMessages base = new MultipartMessages();
+            base.header = messages.header;
+            base.text = messages.text;
+            base.properties = messages.properties;
+            text.write(base.toBytes());
+        }
+
+        for (String nodeLayer : messages.header.getNodeLayerList()) {
+            if(messages.nodeLayers.containsKey(nodeLayer) && accept(nodeLayer))
+                column(nodeLayer, corpus.nodeLayerFile(nodeLayer)).write(messages.getNodeLayer(nodeLayer));
+        }
+
+        for (Object2ObjectMap.Entry<String, MultipartBinary.EdgeLayer> entry : edges.object2ObjectEntrySet()) {
+            column(entry.getKey(), corpus.edgeLayerFile(entry.getKey())).write(entry.getValue().toByteArray());
+        }
+
+        count++;
+    }
+
+    /** Number of documents in the corpus when the writer is closed */
+    protected int numDocuments() {
+        return count;
+    }
+
+    /** Close the columns and update the corpus manifest */
+    @Override
+    public void close() {
+        int numDocuments = numDocuments();
+        if(text != null)
+            text.close();
+
+        for (MultipartCorpus.ColumnWriter column : columns.values()) {
+            column.pad(numDocuments);
+            column.close();
+        }
+
+        corpus.numDocuments = numDocuments;
+        corpus.nodeLayers.addAll(nodeLayers);
+        corpus.edgeLayers.putAll(edgeLayers);
+        corpus.save();
+    }
+}
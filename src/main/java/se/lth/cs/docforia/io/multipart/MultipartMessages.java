@@ -16,7 +16,10 @@ package se.lth.cs.docforia.io.multipart;
  */
 
 
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
 import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.ObjectSet;
@@ -26,17 +29,86 @@ import se.lth.cs.docforia.memstore.MemoryCoreEdgeLayer;
 import se.lth.cs.docforia.memstore.MemoryCoreNodeLayer;
 
 import java.io.IOError;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
  * Multipart Message container - contains the intermediate encoded form of multipart encoding
+ * <p>
+ * Layers read from bytes are kept as views of the encoded data and parsed when they are decoded, unparsed layers are
+ * written back and returned without being serialized again.
  */
 public class MultipartMessages {
     protected static final byte[] MAGIC = new byte[] { 'D', 'M', 'P', '1'};
 
+    /**
+     * Layer message, either encoded or parsed.
+     * <p>
+     * Encoded data is a view of the bytes it was read from and is parsed on use.
+     */
+    protected static class Part<T extends MessageLite> {
+        private final Parser<T> parser;
+        private final ByteBuffer data;
+        private final T message;
+
+        /** Encoded message, data must have an accessible backing array */
+        public Part(Parser<T> parser, ByteBuffer data) {
+            this.parser = parser;
+            this.data = data;
+            this.message = null;
+        }
+
+        public Part(T message) {
+            this.parser = null;
+            this.data = null;
+            this.message = message;
+        }
+
+        public boolean isParsed() {
+            return message != null;
+        }
+
+        /** Parse the message, the result is not kept */
+        public T parse() {
+            if(message != null)
+                return message;
+
+            try {
+                return parser.parseFrom(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            } catch (InvalidProtocolBufferException e) {
+                throw new IOError(e);
+            }
+        }
+
+        /** Read-only view of the encoded message */
+        public ByteBuffer data() {
+            return data != null ? data.asReadOnlyBuffer() : ByteBuffer.wrap(message.toByteArray()).asReadOnlyBuffer();
+        }
+
+        public byte[] toBytes() {
+            if(data == null)
+                return message.toByteArray();
+
+            return Arrays.copyOfRange(data.array(), data.arrayOffset() + data.position(), data.arrayOffset() + data.limit());
+        }
+
+        public void write(Output output) {
+            if(data == null) {
+                byte[] messageData = message.toByteArray();
+                output.writeVarInt(messageData.length, true);
+                output.writeBytes(messageData);
+            }
+            else {
+                output.writeVarInt(data.remaining(), true);
+                output.writeBytes(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            }
+        }
+    }
+
     protected MultipartBinary.Header header;
-    protected Object2ObjectOpenHashMap<String,MultipartBinary.NodeLayer> nodeLayers = new Object2ObjectOpenHashMap<>();
-    protected Object2ObjectOpenHashMap<String,MultipartBinary.EdgeLayer> edgeLayers = new Object2ObjectOpenHashMap<>();
+    protected Object2ObjectOpenHashMap<String,Part<MultipartBinary.NodeLayer>> nodeLayers = new Object2ObjectOpenHashMap<>();
+    protected Object2ObjectOpenHashMap<String,Part<MultipartBinary.EdgeLayer>> edgeLayers = new Object2ObjectOpenHashMap<>();
     protected MultipartBinary.Properties properties;
     protected String text;
 
@@ -81,43 +153,98 @@ public class MultipartMessages {
     }
 
     public byte[] getNodeLayer(String nodeLayer) {
-        return nodeLayers.get(nodeLayer).toByteArray();
+        return nodeLayers.get(nodeLayer).toBytes();
     }
 
     public byte[] getEdgeLayer(String edgeLayer) {
-        return edgeLayers.get(edgeLayer).toByteArray();
+        return edgeLayers.get(edgeLayer).toBytes();
     }
 
-    public void addNodeLayer(byte[] layer) {
+    /** Read-only view of the encoded node layer, layers read from bytes are not copied */
+    public ByteBuffer getNodeLayerData(String nodeLayer) {
+        return nodeLayers.get(nodeLayer).data();
+    }
+
+    /** Read-only view of the encoded edge layer, layers read from bytes are not copied */
+    public ByteBuffer getEdgeLayerData(String edgeLayer) {
+        return edgeLayers.get(edgeLayer).data();
+    }
+
+    /** Parse node layer */
+    public MultipartBinary.NodeLayer getNodeLayerMessage(String nodeLayer) {
+        return nodeLayers.get(nodeLayer).parse();
+    }
+
+    /** Parse edge layer */
+    public MultipartBinary.EdgeLayer getEdgeLayerMessage(String edgeLayer) {
+        return edgeLayers.get(edgeLayer).parse();
+    }
+
+    protected void putNodeLayer(String nodeLayer, MultipartBinary.NodeLayer message) {
+        nodeLayers.put(nodeLayer, new Part<>(message));
+    }
+
+    protected void putEdgeLayer(String edgeLayer, MultipartBinary.EdgeLayer message) {
+        edgeLayers.put(edgeLayer, new Part<>(message));
+    }
+
+    /**
+     * Name of an encoded layer, only the id and name fields are read
+     * @param nodeLayer true for node layers, false for edge layers
+     */
+    private static String layerName(ByteBuffer data, boolean nodeLayer) {
+        CodedInputStream input = CodedInputStream.newInstance(data.array(), data.arrayOffset() + data.position(), data.remaining());
         try {
-            MultipartBinary.NodeLayer nodeLayer = MultipartBinary.NodeLayer.parseFrom(layer);
-            if(nodeLayer.hasId()) {
-                nodeLayers.put(MemoryCoreNodeLayer.fromId(nodeLayer.getId()).layer, nodeLayer);
-            } else {
-                nodeLayers.put(nodeLayer.getUserdefined(), nodeLayer);
+            int tag;
+            String userdefined = null;
+            while((tag = input.readTag()) != 0) {
+                int field = tag >>> 3;
+                if(field == MultipartBinary.NodeLayer.ID_FIELD_NUMBER) {
+                    int id = input.readUInt32();
+                    return nodeLayer ? MemoryCoreNodeLayer.fromId(id).layer : MemoryCoreEdgeLayer.fromId(id).layer;
+                }
+                else if(field == MultipartBinary.NodeLayer.USERDEFINED_FIELD_NUMBER)
+                    userdefined = input.readString();
+                else
+                    input.skipField(tag);
             }
-        } catch (InvalidProtocolBufferException e) {
+            return userdefined != null ? userdefined : "";
+        } catch (IOException e) {
             throw new IOError(e);
         }
     }
 
+    private void addNodeLayer(ByteBuffer data) {
+        nodeLayers.put(layerName(data, true), new Part<>(MultipartBinary.NodeLayer.PARSER, data));
+    }
+
+    private void addEdgeLayer(ByteBuffer data) {
+        edgeLayers.put(layerName(data, false), new Part<>(MultipartBinary.EdgeLayer.PARSER, data));
+    }
+
+    /** Add encoded node layer, the layer is parsed when used and layer must not be modified */
+    public void addNodeLayer(byte[] layer) {
+        addNodeLayer(ByteBuffer.wrap(layer));
+    }
+
+    /** Add encoded edge layer, the layer is parsed when used and layer must not be modified */
     public void addEdgeLayer(byte[] layer) {
-        try {
-            MultipartBinary.EdgeLayer edgeLayer = MultipartBinary.EdgeLayer.parseFrom(layer);
-            if(edgeLayer.hasId()) {
-                edgeLayers.put(MemoryCoreEdgeLayer.fromId(edgeLayer.getId()).layer, edgeLayer);
-            } else {
-                edgeLayers.put(edgeLayer.getUserdefined(), edgeLayer);
-            }
-        } catch (InvalidProtocolBufferException e) {
-            throw new IOError(e);
-        }
+        addEdgeLayer(ByteBuffer.wrap(layer));
     }
 
     public static MultipartMessages fromBytes(byte[] bytes) {
+        return fromBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Read messages, layers are kept as views of bytes and parsed when used.
+     * <p>
+     * <b>Remarks:</b> bytes must not be modified while the messages are in use.
+     */
+    public static MultipartMessages fromBytes(byte[] bytes, int offset, int length) {
         MultipartMessages messages = new MultipartMessages();
 
-        Input input = new Input(bytes);
+        Input input = new Input(bytes, offset, length);
         byte[] header = new byte[4];
         input.readBytes(header);
         if(!Arrays.equals(MAGIC, header)) {
@@ -126,14 +253,17 @@ public class MultipartMessages {
 
         try {
             int headerSize = input.readVarInt(true);
-            messages.header = MultipartBinary.Header.parseFrom(input.readBytes(headerSize));
+            messages.header = MultipartBinary.Header.PARSER.parseFrom(bytes, input.position(), headerSize);
+            input.skip(headerSize);
+
             messages.text = input.readString();
             if(messages.text.equals(""))
                 messages.text = null;
 
             int propertySize = input.readVarInt(true);
             if(propertySize > 0) {
-                messages.properties = MultipartBinary.Properties.parseFrom(input.readBytes(propertySize));
+                messages.properties = MultipartBinary.Properties.PARSER.parseFrom(bytes, input.position(), propertySize);
+                input.skip(propertySize);
             }
 
             int numNodeLayers = input.readVarInt(true);
@@ -141,22 +271,14 @@ public class MultipartMessages {
 
             for (int i = 0; i < numNodeLayers; i++) {
                 int layerSize = input.readVarInt(true);
-                MultipartBinary.NodeLayer nodeLayer = MultipartBinary.NodeLayer.parseFrom(input.readBytes(layerSize));
-                if(nodeLayer.hasId()) {
-                    messages.nodeLayers.put(MemoryCoreNodeLayer.fromId(nodeLayer.getId()).layer, nodeLayer);
-                } else {
-                    messages.nodeLayers.put(nodeLayer.getUserdefined(), nodeLayer);
-                }
+                messages.addNodeLayer(ByteBuffer.wrap(bytes, input.position(), layerSize).slice());
+                input.skip(layerSize);
             }
 
             for (int i = 0; i < numEdgeLayers; i++) {
                 int layerSize = input.readVarInt(true);
-                MultipartBinary.EdgeLayer edgeLayer = MultipartBinary.EdgeLayer.parseFrom(input.readBytes(layerSize));
-                if(edgeLayer.hasId()) {
-                    messages.edgeLayers.put(MemoryCoreEdgeLayer.fromId(edgeLayer.getId()).layer, edgeLayer);
-                } else {
-                    messages.edgeLayers.put(edgeLayer.getUserdefined(), edgeLayer);
-                }
+                messages.addEdgeLayer(ByteBuffer.wrap(bytes, input.position(), layerSize).slice());
+                input.skip(layerSize);
             }
 
         } catch (InvalidProtocolBufferException e) {
@@ -190,18 +312,12 @@ public class MultipartMessages {
         output.writeVarInt(nodeLayers.size(), true);
         output.writeVarInt(edgeLayers.size(), true);
 
-        for (Object2ObjectMap.Entry<String, MultipartBinary.NodeLayer> entry : nodeLayers.object2ObjectEntrySet()) {
-            MultipartBinary.NodeLayer layer = entry.getValue();
-            byte[] layerData = layer.toByteArray();
-            output.writeVarInt(layerData.length, true);
-            output.writeBytes(layerData);
+        for (Object2ObjectMap.Entry<String, Part<MultipartBinary.NodeLayer>> entry : nodeLayers.object2ObjectEntrySet()) {
+            entry.getValue().write(output);
         }
 
-        for (Object2ObjectMap.Entry<String, MultipartBinary.EdgeLayer> entry : edgeLayers.object2ObjectEntrySet()) {
-            MultipartBinary.EdgeLayer layer = entry.getValue();
-            byte[] layerData = layer.toByteArray();
-            output.writeVarInt(layerData.length, true);
-            output.writeBytes(layerData);
+        for (Object2ObjectMap.Entry<String, Part<MultipartBinary.EdgeLayer>> entry : edgeLayers.object2ObjectEntrySet()) {
+            entry.getValue().write(output);
         }
 
         return output.toBytes();
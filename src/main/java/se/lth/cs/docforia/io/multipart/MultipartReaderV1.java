@@ -28,6 +28,8 @@ import java.util.Arrays;
 
 /**
  * Customizable Memory Document decoder
+ * <p>
+ * Property columns and encoded values are read directly from the parsed messages without copying.
  */
 public class MultipartReaderV1 {
 
@@ -49,7 +51,7 @@ public class MultipartReaderV1 {
             case BOOLEAN:
                 return value.getBoolValue() ? BooleanRef.TRUE : BooleanRef.FALSE;
             default:
-                BinaryCoreReader reader = new BinaryCoreReader(new Input(value.getBinaryValue().toByteArray()));
+                BinaryCoreReader reader = new BinaryCoreReader(Input.wrap(value.getBinaryValue().asReadOnlyByteBuffer()));
                 return reader.read((byte)type.getNumber());
         }
     }
@@ -62,7 +64,7 @@ public class MultipartReaderV1 {
     private static void decodePropertyColumn(MultipartBinary.PropertyColumn column, ObjectArrayList<? extends StoreRef> entries) {
         final String key = column.getKey();
         Int2ObjectArrayMap<DataRef> outputs = new Int2ObjectArrayMap<>();
-        Input input = new Input(column.getData().toByteArray());
+        Input input = Input.wrap(column.getData().asReadOnlyByteBuffer());
         CoreRefType type = BinaryCoreReader.fromByteValue((byte)column.getType().getNumber());
         BinaryCoreReader propreader = new BinaryCoreReader(input);
         int i = 0;
@@ -111,14 +113,19 @@ public class MultipartReaderV1 {
 
             int lastPos = 0;
             final int numRanges = variant.getRangesCount()>>1;
+            int[] starts = new int[numRanges];
+            int[] ends = new int[numRanges];
             for (int i = 0; i < numRanges; i++) {
                 int start = variant.getRanges(i*2) + lastPos;
                 lastPos = start;
                 int end = variant.getRanges(i*2+1) + lastPos;
                 lastPos = end;
 
-                nodeRefs.add(nodeLayerStore.create(start,end));
+                starts[i] = start;
+                ends[i] = end;
             }
+
+            nodeRefs.addElements(nodeRefs.size(), nodeLayerStore.create(starts, ends, numRanges));
         }
 
         for (MultipartBinary.PropertyColumn propertyColumn : nodeLayer.getPropertiesList()) {
@@ -221,13 +228,14 @@ public class MultipartReaderV1 {
         if(messages.properties != null)
             decodeProperties(messages.properties, doc);
 
+        //Layers are parsed one at a time, only one parsed layer is kept in memory
         DecodeContext context = new DecodeContext();
-        for (MultipartBinary.NodeLayer nodeLayer : messages.nodeLayers.values()) {
-            decodeNodeLayer(nodeLayer, doc, context);
+        for (MultipartMessages.Part<MultipartBinary.NodeLayer> nodeLayer : messages.nodeLayers.values()) {
+            decodeNodeLayer(nodeLayer.parse(), doc, context);
         }
 
-        for (MultipartBinary.EdgeLayer edgeLayer : messages.edgeLayers.values()) {
-            decodeEdgeLayer(edgeLayer, doc, context);
+        for (MultipartMessages.Part<MultipartBinary.EdgeLayer> edgeLayer : messages.edgeLayers.values()) {
+            decodeEdgeLayer(edgeLayer.parse(), doc, context);
         }
 
         return doc;
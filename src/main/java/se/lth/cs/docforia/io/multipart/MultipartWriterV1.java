@@ -522,12 +522,12 @@ public class MultipartWriterV1 implements Serializable {
 
         for (String nodeLayer : nodeLayers(doc)) {
             MultipartBinary.NodeLayer nodeLayerMessage = buildNodeLayer(doc, context, nodeLayer);
-            output.nodeLayers.put(nodeLayer, nodeLayerMessage);
+            output.putNodeLayer(nodeLayer, nodeLayerMessage);
         }
 
         for (String edgeLayer : edgeLayers(doc)) {
             MultipartBinary.EdgeLayer edgeLayerMessage = buildEdgeLayer(doc, context, edgeLayer);
-            output.edgeLayers.put(edgeLayer, edgeLayerMessage);
+            output.putEdgeLayer(edgeLayer, edgeLayerMessage);
         }
 
         return output;
@@ -0,0 +1,80 @@
+package se.lth.cs.docforia.io.stream;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import se.lth.cs.docforia.io.DocumentReader;
+import se.lth.cs.docforia.memstore.MemoryDocument;
+import se.lth.cs.docforia.memstore.MemoryJson;
+
+import java.io.IOError;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * JSON lines document reader, one JSON document per line.
+ * <p>
+ * Documents are decoded token by token from the stream, see {@link MemoryJson#decodeJson(JsonParser)}, only the
+ * document being decoded is kept in memory.
+ *
+ * @see DocumentJsonLinesWriter
+ */
+public class DocumentJsonLinesReader implements DocumentReader {
+    private final JsonParser parser;
+    private boolean eof = false;
+
+    public DocumentJsonLinesReader(InputStream inputStream) {
+        try {
+            this.parser = new JsonFactory().createParser(inputStream);
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    /**
+     * Read document
+     * @return non-null document if success, null if no more.
+     */
+    @Override
+    public MemoryDocument next() {
+        if(eof)
+            return null;
+
+        try {
+            JsonToken token = parser.nextToken();
+            if(token == null) {
+                eof = true;
+                return null;
+            }
+
+            return MemoryJson.decodeJson(parser);
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        eof = true;
+        try {
+            parser.close();
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+}
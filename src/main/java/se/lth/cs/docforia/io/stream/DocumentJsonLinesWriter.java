@@ -0,0 +1,74 @@
+package se.lth.cs.docforia.io.stream;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import se.lth.cs.docforia.Document;
+import se.lth.cs.docforia.io.DocumentWriter;
+import se.lth.cs.docforia.memstore.MemoryDocument;
+import se.lth.cs.docforia.memstore.MemoryJsonLevel0Codec;
+
+import java.io.IOError;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * JSON lines document writer, writes every document as JSON on a line of its own.
+ * <p>
+ * Documents are written token by token to the stream as UTF-8.
+ *
+ * @see DocumentJsonLinesReader
+ */
+public class DocumentJsonLinesWriter implements DocumentWriter {
+    private final JsonGenerator generator;
+
+    public DocumentJsonLinesWriter(OutputStream outputStream) {
+        try {
+            this.generator = new JsonFactory().createGenerator(outputStream, JsonEncoding.UTF8);
+            this.generator.setRootValueSeparator(null);
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    /**
+     * Write document
+     * @param document the document to write
+     */
+    @Override
+    public void write(Document document) {
+        if(!(document instanceof MemoryDocument))
+            throw new IllegalArgumentException("doc is not a MemoryDocument, it is a: " + document.getClass().getName());
+
+        try {
+            MemoryJsonLevel0Codec.INSTANCE.encode((MemoryDocument)document, generator);
+            generator.writeRaw('\n');
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            generator.close();
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+}
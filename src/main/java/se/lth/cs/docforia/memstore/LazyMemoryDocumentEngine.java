@@ -0,0 +1,170 @@
+package se.lth.cs.docforia.memstore;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import se.lth.cs.docforia.EdgeRef;
+import se.lth.cs.docforia.NodeRef;
+import se.lth.cs.docforia.util.AnnotationNavigator;
+import se.lth.cs.docforia.util.DocumentIterable;
+
+import java.util.Optional;
+
+/**
+ * Memory Document Database implementation for {@link LazyMemoryDocumentStore}, layers are decoded before they are queried.
+ */
+public class LazyMemoryDocumentEngine extends MemoryDocumentEngine {
+    protected LazyMemoryDocumentStore lazyStore;
+
+    public LazyMemoryDocumentEngine(LazyMemoryDocumentStore store) {
+        super(store);
+        this.lazyStore = store;
+    }
+
+    @Override
+    public DocumentIterable<EdgeRef> edges(boolean onlyDefaultVariant) {
+        lazyStore.materialize();
+        return super.edges(onlyDefaultVariant);
+    }
+
+    @Override
+    public DocumentIterable<EdgeRef> edges(String edgeLayer, boolean onlyDefaultVariant) {
+        lazyStore.requireEdgeLayer(edgeLayer);
+        return super.edges(edgeLayer, onlyDefaultVariant);
+    }
+
+    @Override
+    public DocumentIterable<EdgeRef> edges(String edgeLayer, String edgeVariant) {
+        lazyStore.requireEdgeLayer(edgeLayer);
+        return super.edges(edgeLayer, edgeVariant);
+    }
+
+    @Override
+    public DocumentIterable<NodeRef> nodes(String nodeLayer) {
+        lazyStore.requireNodeLayer(nodeLayer);
+        return super.nodes(nodeLayer);
+    }
+
+    @Override
+    public DocumentIterable<NodeRef> nodes(String nodeLayer, String variant) {
+        lazyStore.requireNodeLayer(nodeLayer);
+        return super.nodes(nodeLayer, variant);
+    }
+
+    @Override
+    public int numNodes(String nodeLayer, String variant) {
+        if(nodeLayer != null)
+            lazyStore.requireNodeLayer(nodeLayer);
+
+        return super.numNodes(nodeLayer, variant);
+    }
+
+    @Override
+    public boolean createPropertyIndex(String nodeLayer, String nodeVariant, String key) {
+        lazyStore.requireNodeLayer(nodeLayer);
+        return super.createPropertyIndex(nodeLayer, nodeVariant, key);
+    }
+
+    @Override
+    public boolean dropPropertyIndex(String nodeLayer, String nodeVariant, String key) {
+        lazyStore.requireNodeLayer(nodeLayer);
+        return super.dropPropertyIndex(nodeLayer, nodeVariant, key);
+    }
+
+    @Override
+    public boolean hasPropertyIndex(String nodeLayer, String nodeVariant, String key) {
+        if(nodeLayer != null)
+            lazyStore.requireNodeLayer(nodeLayer);
+
+        return super.hasPropertyIndex(nodeLayer, nodeVariant, key);
+    }
+
+    @Override
+    public DocumentIterable<NodeRef> nodesWithProperty(String nodeLayer, String nodeVariant, String key, String value) {
+        if(nodeLayer != null)
+            lazyStore.requireNodeLayer(nodeLayer);
+        return super.nodesWithProperty(nodeLayer, nodeVariant, key, value);
+    }
+
+    @Override
+    public int numNodesWithProperty(String nodeLayer, String nodeVariant, String key, String value) {
+        if(nodeLayer != null)
+            lazyStore.requireNodeLayer(nodeLayer);
+        return super.numNodesWithProperty(nodeLayer, nodeVariant, key, value);
+    }
+
+    @Override
+    public int numEdges(String edgeLayer, String edgeVariant) {
+        if(edgeLayer != null)
+            lazyStore.requireEdgeLayer(edgeLayer);
+
+        return super.numEdges(edgeLayer, edgeVariant);
+    }
+
+    @Override
+    public DocumentIterable<String> nodeLayers() {
+        lazyStore.materialize();
+        return super.nodeLayers();
+    }
+
+    @Override
+    public DocumentIterable<String> edgeLayers() {
+        lazyStore.materialize();
+        return super.edgeLayers();
+    }
+
+    @Override
+    public DocumentIterable<NodeRef> coveredAnnotation(String nodeLayer, String nodeVariant, int from, int to) {
+        lazyStore.requireNodeLayer(nodeLayer);
+        return super.coveredAnnotation(nodeLayer, nodeVariant, from, to);
+    }
+
+    @Override
+    public DocumentIterable<NodeRef> overlappingAnnotations(String nodeLayer, String nodeVariant, int from, int to) {
+        lazyStore.requireNodeLayer(nodeLayer);
+        return super.overlappingAnnotations(nodeLayer, nodeVariant, from, to);
+    }
+
+    @Override
+    public AnnotationNavigator<NodeRef> annotations(String nodeLayer, String nodeVariant) {
+        lazyStore.requireNodeLayer(nodeLayer);
+        return super.annotations(nodeLayer, nodeVariant);
+    }
+
+    @Override
+    public DocumentIterable<String> nodeLayerVariants(String nodeLayer) {
+        lazyStore.requireNodeLayer(nodeLayer);
+        return super.nodeLayerVariants(nodeLayer);
+    }
+
+    @Override
+    public DocumentIterable<String> edgeLayerVariants(String edgeLayer) {
+        lazyStore.requireEdgeLayer(edgeLayer);
+        return super.edgeLayerVariants(edgeLayer);
+    }
+
+    @Override
+    public DocumentIterable<Optional<String>> nodeLayerAllVariants(String nodeLayer) {
+        lazyStore.requireNodeLayer(nodeLayer);
+        return super.nodeLayerAllVariants(nodeLayer);
+    }
+
+    @Override
+    public DocumentIterable<Optional<String>> edgeLayerAllVariants(String edgeLayer) {
+        lazyStore.requireEdgeLayer(edgeLayer);
+        return super.edgeLayerAllVariants(edgeLayer);
+    }
+}
@@ -0,0 +1,151 @@
+package se.lth.cs.docforia.memstore;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import se.lth.cs.docforia.DocumentEdgeLayer;
+import se.lth.cs.docforia.DocumentNodeLayer;
+import se.lth.cs.docforia.EdgeRef;
+import se.lth.cs.docforia.NodeRef;
+
+/**
+ * Memory Document Storage which decodes layers on first use.
+ * <p>
+ * A node layer is decoded together with all edge layers touching it, see {@link MemoryBinaryV1L2Codec#decodeLazy}.
+ */
+public class LazyMemoryDocumentStore extends MemoryDocumentStore {
+    protected MemoryBinaryV1L2Codec.LazyLayers lazy;
+
+    /** Release raw data when all layers are decoded */
+    private void decoded() {
+        if(lazy.isDone())
+            lazy = null;
+    }
+
+    protected void requireNodeLayer(String nodeLayer) {
+        if(lazy != null && lazy.requireNodeLayer(nodeLayer))
+            decoded();
+    }
+
+    protected void requireEdgeLayer(String edgeLayer) {
+        if(lazy != null && lazy.requireEdgeLayer(edgeLayer))
+            decoded();
+    }
+
+    @Override
+    protected void materialize() {
+        if(lazy != null && lazy.requireAll())
+            decoded();
+    }
+
+    /** True if all layers have been decoded */
+    public boolean isMaterialized() {
+        return lazy == null;
+    }
+
+    public boolean isNodeLayerDecoded(String nodeLayer) {
+        return lazy == null || lazy.isNodeLayerDecoded(nodeLayer);
+    }
+
+    public boolean isEdgeLayerDecoded(String edgeLayer) {
+        return lazy == null || lazy.isEdgeLayerDecoded(edgeLayer);
+    }
+
+    @Override
+    public void freeze() {
+        if(lazy != null)
+            lazy.setFreeze(true);
+
+        super.freeze();
+    }
+
+    @Override
+    public Iterable<EdgeRef> edges() {
+        materialize();
+        return super.edges();
+    }
+
+    @Override
+    public Iterable<NodeRef> nodes() {
+        materialize();
+        return super.nodes();
+    }
+
+    @Override
+    public DocumentNodeLayer nodeLayer(String nodeLayer, String nodeVariant) {
+        requireNodeLayer(nodeLayer);
+        return super.nodeLayer(nodeLayer, nodeVariant);
+    }
+
+    @Override
+    public DocumentEdgeLayer edgeLayer(String edgeLayer, String edgeVariant) {
+        requireEdgeLayer(edgeLayer);
+        return super.edgeLayer(edgeLayer, edgeVariant);
+    }
+
+    @Override
+    public EdgeRef createEdge(String edgeLayer, String edgeVariant) {
+        requireEdgeLayer(edgeLayer);
+        return super.createEdge(edgeLayer, edgeVariant);
+    }
+
+    @Override
+    public NodeRef createNode(String nodeLayer, String nodeVariant) {
+        requireNodeLayer(nodeLayer);
+        return super.createNode(nodeLayer, nodeVariant);
+    }
+
+    @Override
+    public Iterable<? extends DocumentNodeLayer> nodeLayers() {
+        materialize();
+        return super.nodeLayers();
+    }
+
+    @Override
+    public Iterable<? extends DocumentEdgeLayer> edgeLayers() {
+        materialize();
+        return super.edgeLayers();
+    }
+
+    @Override
+    public void migrateNodesToVariant(String nodeLayer, String prevVariant, String newVariant) {
+        requireNodeLayer(nodeLayer);
+        super.migrateNodesToVariant(nodeLayer, prevVariant, newVariant);
+    }
+
+    @Override
+    public void migrateEdgesToVariant(String edgeLayer, String prevVariant, String newVariant) {
+        requireEdgeLayer(edgeLayer);
+        super.migrateEdgesToVariant(edgeLayer, prevVariant, newVariant);
+    }
+
+    @Override
+    public void migradeNodesToVariant(String nodeLayer, String targetVariant, Iterable<NodeRef> nodes) {
+        requireNodeLayer(nodeLayer);
+        super.migradeNodesToVariant(nodeLayer, targetVariant, nodes);
+    }
+
+    @Override
+    public void migradeEdgesToVariant(String edgeLayer, String targetVariant, Iterable<EdgeRef> edges) {
+        requireEdgeLayer(edgeLayer);
+        super.migradeEdgesToVariant(edgeLayer, targetVariant, edges);
+    }
+
+    @Override
+    public String toString() {
+        return lazy == null ? super.toString() : "Lazy " + super.toString();
+    }
+}
@@ -20,6 +20,7 @@ import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import se.lth.cs.docforia.DocumentStorageLevel;
 import se.lth.cs.docforia.io.mem.Input;
 import se.lth.cs.docforia.io.mem.Output;
+import se.lth.cs.docforia.memstore.encoders.SharedStringDictionary;
 
 /**
  * Memory Binary I/O
@@ -29,16 +30,28 @@ public class MemoryBinary {
         SPLITTABLE
     }
 
+    /**
+     * Layer directory of an encoded document, layer offsets are relative to body.
+     */
     public static class DocumentIndex {
         public IntArrayList splitPoints;
         public int head;
         public int body;
 
-        public IntArrayList nodeLayers;
-        public ObjectArrayList<String> nodeLayerName;
+        public IntArrayList nodeLayers = new IntArrayList();
+        public ObjectArrayList<String> nodeLayerName = new ObjectArrayList<>();
 
-        public IntArrayList edgeLayers;
-        public ObjectArrayList<String> edgeLayerName;
+        /** Number of nodes in each node layer, node ids are assigned in layer order */
+        public IntArrayList nodeLayerSizes = new IntArrayList();
+
+        public IntArrayList edgeLayers = new IntArrayList();
+        public ObjectArrayList<String> edgeLayerName = new ObjectArrayList<>();
+
+        /** Start and end offset pairs of the head/tail block of each variant in an edge layer */
+        public ObjectArrayList<int[]> edgeLayerConnections = new ObjectArrayList<>();
+
+        /** Node layers referenced by an edge layer */
+        public ObjectArrayList<int[]> edgeLayerNodeLayers = new ObjectArrayList<>();
     }
 
     public static MemoryDocument decode(byte[] data) {
@@ -46,6 +59,14 @@ public class MemoryBinary {
     }
 
     public static MemoryDocument decode(Input data) {
+        return decode(data, null);
+    }
+
+    /**
+     * Decode document
+     * @param dictionary the shared dictionary the document was encoded with, may be null
+     */
+    public static MemoryDocument decode(Input data, SharedStringDictionary dictionary) {
         if(data.available() < 4)
             throw new IllegalArgumentException("Invalid format, smaller than header! Length: " + data.available());
 
@@ -55,7 +76,7 @@ public class MemoryBinary {
         int lvl = Byte.toUnsignedInt(data.readByte());
 
         if(b0 == 'D' && b1 == 'M') {
-            if(ver != '1') {
+            if(ver != MemoryBinaryV1L2Codec.VERSION && !(ver == MemoryBinaryV1L2Codec.NUMERIC_VERSION && lvl == '2')) {
                 throw new UnsupportedOperationException("Unsupported format, Version = " + (char)ver);
             }
 
@@ -65,7 +86,7 @@ public class MemoryBinary {
                 case '1':
                     return MemoryBinaryV1L1Codec.INSTANCE.decode(data);
                 case '2':
-                    return MemoryBinaryV1L2Codec.INSTANCE.decode(data);
+                    return MemoryBinaryV1L2Codec.INSTANCE.decode(data, dictionary);
                 default:
                     throw new UnsupportedOperationException("Level not implemented.");
             }
@@ -74,6 +95,37 @@ public class MemoryBinary {
         }
     }
 
+    /**
+     * Decode document, layers are decoded on first use if the data contains a layer directory.
+     * <p>
+     * <b>Remarks:</b> The data is kept by the document until all layers are decoded and must not be modified.
+     */
+    public static MemoryDocument decodeLazy(byte[] data) {
+        return decodeLazy(data, 0, data.length);
+    }
+
+    /**
+     * Decode document, layers are decoded on first use if the data contains a layer directory.
+     * @see #decodeLazy(byte[])
+     */
+    public static MemoryDocument decodeLazy(byte[] data, int offset, int length) {
+        return decodeLazy(data, offset, length, null);
+    }
+
+    /**
+     * Decode document, layers are decoded on first use if the data contains a layer directory.
+     * @param dictionary the shared dictionary the document was encoded with, may be null
+     * @see #decodeLazy(byte[])
+     */
+    public static MemoryDocument decodeLazy(byte[] data, int offset, int length, SharedStringDictionary dictionary) {
+        if(length >= 4 && data[offset] == 'D' && data[offset+1] == 'M' && data[offset+3] == '2'
+           && (data[offset+2] == MemoryBinaryV1L2Codec.VERSION || data[offset+2] == MemoryBinaryV1L2Codec.NUMERIC_VERSION)) {
+            return MemoryBinaryV1L2Codec.INSTANCE.decodeLazy(data, offset, length, dictionary);
+        }
+        else
+            return decode(new Input(data, offset, length), dictionary);
+    }
+
     public static MemoryBinaryCodec latest(DocumentStorageLevel level) {
         switch (level) {
             case LEVEL_0:
@@ -100,4 +152,26 @@ public class MemoryBinary {
         DocumentIndex idx = new DocumentIndex();
         latest(level).encode(doc, writer, idx);
     }
+
+    /**
+     * Encode document, levels below 2 do not use the dictionary
+     * @param dictionary shared dictionary, may be null
+     */
+    public static void encode(DocumentStorageLevel level, MemoryDocument doc, Output writer, SharedStringDictionary dictionary) {
+        encode(level, doc, writer, dictionary, false);
+    }
+
+    /**
+     * Encode document, levels below 2 do not use the dictionary or numeric columns
+     * @param dictionary shared dictionary, may be null
+     * @param numericColumns store numeric properties as columns, older level 2 readers can not read the document
+     */
+    public static void encode(DocumentStorageLevel level, MemoryDocument doc, Output writer, SharedStringDictionary dictionary, boolean numericColumns) {
+        DocumentIndex idx = new DocumentIndex();
+        MemoryBinaryCodec codec = latest(level);
+        if(codec == MemoryBinaryV1L2Codec.INSTANCE)
+            MemoryBinaryV1L2Codec.INSTANCE.encode(doc, writer, idx, dictionary, numericColumns);
+        else
+            codec.encode(doc, writer, idx);
+    }
 }
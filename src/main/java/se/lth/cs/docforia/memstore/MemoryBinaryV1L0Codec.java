@@ -205,6 +205,7 @@ public class MemoryBinaryV1L0Codec extends MemoryBinaryCodec {
 
     @Override
     public void encode(MemoryDocument doc, Output writer, MemoryBinary.DocumentIndex index) {
+        doc.store.materialize();
         writeMagic(writer);
         writeProperties(doc.store.properties, writer);
 
@@ -247,13 +248,19 @@ public class MemoryBinaryV1L0Codec extends MemoryBinaryCodec {
             nodeRefs.put(nodeRefs.size(), node);
         }
 
+        int[] starts = new int[numRangeNodes];
+        int[] ends = new int[numRangeNodes];
+        ArrayList<Object2ObjectOpenHashMap<String,DataRef>> properties = new ArrayList<>(numRangeNodes);
         for(int i = 0; i < numRangeNodes; i++) {
-            int start = reader.readInt();
-            int end = reader.readInt();
+            starts[i] = reader.readInt();
+            ends[i] = reader.readInt();
+            properties.add(readProperties(reader));
+        }
 
-            MemoryNode node = collection.create(start, end);
-            node.properties = readProperties(reader);
-            nodeRefs.put(nodeRefs.size(), node);
+        MemoryNode[] nodes = collection.create(starts, ends, numRangeNodes);
+        for(int i = 0; i < numRangeNodes; i++) {
+            nodes[i].properties = properties.get(i);
+            nodeRefs.put(nodeRefs.size(), nodes[i]);
         }
     }
 
@@ -26,6 +26,7 @@ import se.lth.cs.docforia.io.mem.Input;
 import se.lth.cs.docforia.io.mem.Output;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
 
 /**
@@ -370,18 +371,23 @@ public class MemoryBinaryV1L1Codec extends MemoryBinaryCodec {
 
             int last = 0;
 
-            ArrayList<MemoryNode> memoryNodes = new ArrayList<>(numPureNodes+numRangeNodes);
+            int[] starts = new int[numRangeNodes];
+            int[] ends = new int[numRangeNodes];
             for(int i = 0; i < numRangeNodes; i++) {
                 int start = reader.readVarInt(true)+last;
                 int end = reader.readVarInt(true)+start;
                 last = end;
 
-                MemoryNode node = collection.create(start, end);
+                starts[i] = start;
+                ends[i] = end;
+            }
+
+            MemoryNode[] nodes = collection.create(starts, ends, numRangeNodes);
+            for (MemoryNode node : nodes) {
                 nodeRefs.put(nodeRefs.size(), node);
-                memoryNodes.add(node);
             }
 
-            readAllProperties(memoryNodes);
+            readAllProperties(Arrays.asList(nodes));
         }
 
         private void readNodeLayer(int id, MemoryDocumentStore store, Int2ReferenceOpenHashMap<NodeRef> nodeRefs) {
@@ -437,6 +443,7 @@ public class MemoryBinaryV1L1Codec extends MemoryBinaryCodec {
 
     @Override
     public void encode(MemoryDocument doc, Output output, MemoryBinary.DocumentIndex index) {
+        doc.store.materialize();
         Writer writer = new Writer(output, doc);
         writer.writeMagic();
         writer.writeProperties(doc.store.properties);
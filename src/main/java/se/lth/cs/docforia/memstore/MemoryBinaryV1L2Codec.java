@@ -16,11 +16,14 @@ package se.lth.cs.docforia.memstore;
  */
 
 import it.unimi.dsi.fastutil.ints.*;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.objects.*;
 import se.lth.cs.docforia.*;
 import se.lth.cs.docforia.data.*;
 import se.lth.cs.docforia.io.mem.Input;
 import se.lth.cs.docforia.io.mem.Output;
+import se.lth.cs.docforia.memstore.encoders.NumericColumnCodec;
+import se.lth.cs.docforia.memstore.encoders.SharedStringDictionary;
 import se.lth.cs.docforia.memstore.encoders.StringFieldDecoder;
 import se.lth.cs.docforia.memstore.encoders.StringFieldEncoder;
 import se.lth.cs.docforia.util.Iterables;
@@ -38,6 +41,25 @@ import java.util.stream.StreamSupport;
 public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
     public static final MemoryBinaryV1L2Codec INSTANCE = new MemoryBinaryV1L2Codec();
 
+    /** Property type flag, the values of the property are stored as a numeric column, see {@link NumericColumnCodec} */
+    private static final int NUMERIC_COLUMN = 0x80;
+
+    /** Format version of documents without numeric columns, readable by all level 2 readers */
+    public static final byte VERSION = '1';
+
+    /** Format version of documents with numeric columns, older readers reject it as an unsupported version */
+    public static final byte NUMERIC_VERSION = '2';
+
+    private static PropertyKey readPropertyKey(String key, byte typeValue) {
+        if(typeValue != CoreRefType.RESERVED.value && (typeValue & NUMERIC_COLUMN) != 0) {
+            PropertyKey propertyKey = new PropertyKey(key, BinaryCoreReader.fromByteValue((byte)(typeValue & ~NUMERIC_COLUMN)));
+            propertyKey.columnar = true;
+            return propertyKey;
+        }
+        else
+            return new PropertyKey(key, BinaryCoreReader.fromByteValue(typeValue));
+    }
+
     public static class Reporter {
         private Node root;
 
@@ -141,6 +163,15 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
         private Output writer;
         private BinaryCoreWriter propwriter;
         private MemoryDocument doc;
+        private SharedStringDictionary dictionary;
+        private boolean numericColumns;
+
+        //Layer directory
+        private MemoryBinary.DocumentIndex index = new MemoryBinary.DocumentIndex();
+        private IntArrayList nodeLayerBases = new IntArrayList();
+        private int numNodes;
+        private IntArrayList connections;
+        private IntAVLTreeSet touched;
 
         public Writer(Output writer, MemoryDocument doc) {
             this.writer = writer;
@@ -151,10 +182,26 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
         private void writeMagic() {
             writer.writeByte((byte)'D');
             writer.writeByte((byte)'M');
-            writer.writeByte((byte)'1');
+            writer.writeByte(numericColumns ? NUMERIC_VERSION : VERSION);
             writer.writeByte((byte)'2');
         }
 
+        /** Type byte of a property key */
+        private byte typeValue(CoreRefType type) {
+            if(!numericColumns)
+                return type.value;
+
+            switch (type) {
+                case INT:
+                case LONG:
+                case FLOAT:
+                case DOUBLE:
+                    return (byte)(type.value | NUMERIC_COLUMN);
+                default:
+                    return type.value;
+            }
+        }
+
         protected void beginReport(String name, Object...args) {
 
         }
@@ -196,13 +243,43 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
 
             switch (key.type) {
                 case STRING:
-                    StringFieldEncoder encoder = new StringFieldEncoder();
+                    StringFieldEncoder encoder = new StringFieldEncoder(dictionary, numericColumns);
                     if(node)
                         encoder.encodeNodeProperties(writer, key.key, text, entries);
                     else
                         encoder.encodeEdgeProperties(writer, key.key, text, entries);
 
                     break;
+                case INT:
+                case LONG:
+                case FLOAT:
+                case DOUBLE: {
+                    if(numericColumns) {
+                        LongArrayList values = new LongArrayList();
+                        for (StoreRef storeRef : entries) {
+                            DataRef property = storeRef.get().getRefProperty(key.key);
+                            switch (key.type) {
+                                case INT:
+                                    values.add(property.intValue());
+                                    break;
+                                case LONG:
+                                    values.add(property.longValue());
+                                    break;
+                                case FLOAT:
+                                    values.add(Float.floatToRawIntBits(property.floatValue()));
+                                    break;
+                                default:
+                                    values.add(Double.doubleToRawLongBits(property.doubleValue()));
+                                    break;
+                            }
+                        }
+
+                        NumericColumnCodec.encode(writer, values.elements(), values.size());
+                        break;
+                    }
+
+                    //Encoded one value at a time without numeric columns
+                }
                 default:
                     for (StoreRef storeRef : entries) {
                         DataRef property = storeRef.get().getRefProperty(key.key);
@@ -233,7 +310,7 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
 
                 for (Object2IntMap.Entry<PropertyKey> propertyKeyEntry : propertyLayerData.propertyKeyId.object2IntEntrySet()) {
                     if(propertyKeyEntry.getKey().type != CoreRefType.NULL) {
-                        typeIds.writeByte(propertyKeyEntry.getKey().type.value);
+                        typeIds.writeByte(typeValue(propertyKeyEntry.getKey().type));
                     }
                 }
 
@@ -320,6 +397,11 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
                 beginReport("Node layer %s", layerGroup.get(0).key.getLayer());
             }
 
+            int base = idcounter;
+            index.nodeLayers.add(writer.position() - index.body);
+            index.nodeLayerName.add(layerGroup.get(0).getKey().layer);
+            nodeLayerBases.add(base);
+
             int id = MemoryCoreNodeLayer.fromLayerName(layerGroup.get(0).getKey().layer).id;
             if(id == -1) {
                 writer.writeByte(0x7F);
@@ -335,6 +417,7 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
                 idcounter = writeNodes(doc.store.text, idcounter, collection, refs);
             }
 
+            index.nodeLayerSizes.add(idcounter - base);
             endReport();
             return idcounter;
         }
@@ -354,7 +437,7 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
                 Output keys = new Output(32,2<<29);
 
                 for (Object2IntMap.Entry<PropertyKey> propertyKeyEntry : propertyLayerData.propertyKeyId.object2IntEntrySet()) {
-                    typeIds.writeByte(propertyKeyEntry.getKey().type.value);
+                    typeIds.writeByte(typeValue(propertyKeyEntry.getKey().type));
                 }
 
                 for (Object2IntMap.Entry<PropertyKey> propertyKeyEntry : propertyLayerData.propertyKeyId.object2IntEntrySet()) {
@@ -383,6 +466,7 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
 
             beginReport("edge connections");
 
+            connections.add(writer.position() - index.body);
             for (ArrayList<EdgeRef> edgeRefs : propertyLayerData.propertyNodes.values()) {
                 writer.writeVarInt(edgeRefs.size(), true);
 
@@ -394,8 +478,11 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
 
                     writer.writeVarInt(headId, true);
                     writer.writeVarInt(tailId, true);
+                    touch(headId);
+                    touch(tailId);
                 }
             }
+            connections.add(writer.position() - index.body);
 
             endReport();
 
@@ -416,6 +503,8 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
                 beginReport("Edge layer %s", layerGroup.get(0).key.getLayer());
             }
 
+            beginEdgeLayer(layerGroup.get(0).getKey().layer);
+
             int id = MemoryCoreEdgeLayer.fromLayerName(layerGroup.get(0).getKey().layer).id;
             if(id == -1) {
                 writer.writeByte(0xFF);
@@ -430,9 +519,123 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
                 writeEdges(collection, refs);
             }
 
+            endEdgeLayer();
             endReport();
         }
 
+        private void touch(int nodeId) {
+            int layer = nodeLayerOf(nodeLayerBases.elements(), nodeLayerBases.size(), numNodes, nodeId);
+            if(layer != -1)
+                touched.add(layer);
+        }
+
+        private void beginEdgeLayer(String layer) {
+            index.edgeLayers.add(writer.position() - index.body);
+            index.edgeLayerName.add(layer);
+            connections = new IntArrayList();
+            touched = new IntAVLTreeSet();
+        }
+
+        private void endEdgeLayer() {
+            index.edgeLayerConnections.add(connections.toIntArray());
+            index.edgeLayerNodeLayers.add(touched.toIntArray());
+        }
+
+        /**
+         * Copy node layers of a lazily decoded document which has not been decoded.
+         * @return next node id
+         */
+        private int copyNodeLayers(LazyLayers lazy, int[] newBases) {
+            int idcounter = 0;
+            for (int i = 0; i < lazy.nodeOffsets.length; i++) {
+                if(lazy.nodeDecoded[i])
+                    continue;
+
+                newBases[i] = idcounter;
+                index.nodeLayers.add(writer.position() - index.body);
+                index.nodeLayerName.add(lazy.nodeNames[i]);
+                index.nodeLayerSizes.add(lazy.nodeSizes[i]);
+                nodeLayerBases.add(idcounter);
+
+                writer.writeBytes(lazy.buffer, lazy.body + lazy.nodeOffsets[i], lazy.nodeEnds[i] - lazy.nodeOffsets[i]);
+                idcounter += lazy.nodeSizes[i];
+            }
+
+            return idcounter;
+        }
+
+        /**
+         * Copy edge layers of a lazily decoded document which has not been decoded, node ids are remapped.
+         */
+        private void copyEdgeLayers(LazyLayers lazy, int[] newBases) {
+            Input reader = new Input(lazy.buffer);
+            for (int i = 0; i < lazy.edgeOffsets.length; i++) {
+                if(lazy.edgeDecoded[i])
+                    continue;
+
+                beginEdgeLayer(lazy.edgeNames[i]);
+
+                int pos = lazy.body + lazy.edgeOffsets[i];
+                int[] conns = lazy.edgeConnections[i];
+                for (int k = 0; k < conns.length; k += 2) {
+                    int connStart = lazy.body + conns[k];
+                    int connEnd = lazy.body + conns[k+1];
+                    writer.writeBytes(lazy.buffer, pos, connStart - pos);
+
+                    connections.add(writer.position() - index.body);
+                    reader.setPosition(connStart);
+                    while(reader.position() < connEnd) {
+                        int numEdges = reader.readVarInt(true);
+                        writer.writeVarInt(numEdges, true);
+                        for (int e = 0; e < numEdges; e++) {
+                            int headId = lazy.remap(reader.readVarInt(true), newBases);
+                            int tailId = lazy.remap(reader.readVarInt(true), newBases);
+                            writer.writeVarInt(headId, true);
+                            writer.writeVarInt(tailId, true);
+                            touch(headId);
+                            touch(tailId);
+                        }
+                    }
+                    connections.add(writer.position() - index.body);
+                    pos = connEnd;
+                }
+
+                writer.writeBytes(lazy.buffer, pos, lazy.body + lazy.edgeEnds[i] - pos);
+                endEdgeLayer();
+            }
+        }
+
+        /**
+         * Write layer directory, placed after the layer section.
+         */
+        private void writeDirectory() {
+            writer.writeByte((byte)'D');
+            writer.writeByte((byte)'X');
+
+            writer.writeVarInt(index.nodeLayers.size(), true);
+            for (int i = 0; i < index.nodeLayers.size(); i++) {
+                writer.writeVarInt(index.nodeLayers.getInt(i), true);
+                writer.writeVarInt(index.nodeLayerSizes.getInt(i), true);
+            }
+
+            writer.writeVarInt(index.edgeLayers.size(), true);
+            for (int i = 0; i < index.edgeLayers.size(); i++) {
+                writer.writeVarInt(index.edgeLayers.getInt(i), true);
+
+                int[] conns = index.edgeLayerConnections.get(i);
+                writer.writeVarInt(conns.length / 2, true);
+                for (int conn : conns) {
+                    writer.writeVarInt(conn, true);
+                }
+
+                int[] layers = index.edgeLayerNodeLayers.get(i);
+                writer.writeVarInt(layers.length, true);
+                for (int layer : layers) {
+                    writer.writeVarInt(layer, true);
+                }
+            }
+        }
+
         private void writeEdgeLayers(Reference2IntOpenHashMap<NodeRef> refs) {
             String lastLayer = "";
             ArrayList<MemoryEdgeCollection> layerCollections = new ArrayList<>();
@@ -458,10 +661,9 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
             }
         }
 
-        private int writeNodeLayers(Reference2IntOpenHashMap<NodeRef> refs) {
+        private int writeNodeLayers(int idcounter, Reference2IntOpenHashMap<NodeRef> refs) {
             String lastLayer = "";
             ArrayList<MemoryNodeCollection> layerCollections = new ArrayList<>();
-            int idcounter = 0;
 
             for (Object2ReferenceMap.Entry<MemoryNodeCollection.Key, MemoryNodeCollection> entry : doc.store.nodes.object2ReferenceEntrySet()) {
                 if(lastLayer.equals("")) {
@@ -493,10 +695,15 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
     private static class Reader {
         private Input reader;
         private BinaryCoreReader propreader;
+        private SharedStringDictionary dictionary;
+
+        /** Node id of the next node read, ids are assigned in stream order */
+        private int nextNodeId;
 
-        public Reader(Input reader) {
+        public Reader(Input reader, SharedStringDictionary dictionary) {
             this.reader = reader;
             this.propreader = new BinaryCoreReader(reader);
+            this.dictionary = dictionary;
         }
 
         private Object2ObjectOpenHashMap<String,DataRef> readProperties() {
@@ -525,7 +732,7 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
 
             //Read strings
             for(int i = 0; i < count; i++) {
-                propertyKeys[i+1] = new PropertyKey(reader.readString(), BinaryCoreReader.fromByteValue(types[i+1]));
+                propertyKeys[i+1] = readPropertyKey(reader.readString(), types[i+1]);
             }
 
             return propertyKeys;
@@ -542,7 +749,7 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
 
             //Read strings
             for(int i = 0; i < count; i++) {
-                propertyKeys[i] = new PropertyKey(reader.readString(), BinaryCoreReader.fromByteValue(types[i]));
+                propertyKeys[i] = readPropertyKey(reader.readString(), types[i]);
             }
 
             return propertyKeys;
@@ -598,9 +805,33 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
 
             switch (propertyKey.type) {
                 case STRING: {
-                    StringFieldDecoder.decode(reader, text, propertyKey.key, count, propertySetMapping, psets, refs);
+                    StringFieldDecoder.decode(reader, text, propertyKey.key, count, propertySetMapping, psets, refs, dictionary);
                     break;
                 }
+                case INT:
+                case LONG:
+                case FLOAT:
+                case DOUBLE: {
+                    if(propertyKey.columnar) {
+                        //Decode the whole column, then create the values
+                        long[] values = NumericColumnCodec.decode(reader, count);
+                        int k = 0;
+
+                        IntListIterator noderange = psets.iterator();
+                        while (noderange.hasNext()) {
+                            int psetid = noderange.nextInt();
+                            final int start = propertySetMapping[psetid];
+                            final int end = propertySetMapping[psetid + 1];
+
+                            for (int i = start; i < end; i++) {
+                                refs.get(i).get().putProperty(propertyKey.key, numericRef(propertyKey.type, values[k++]));
+                            }
+                        }
+                        break;
+                    }
+
+                    //Encoded one value at a time before numeric columns
+                }
                 default:
                 {
                     IntListIterator noderange = psets.iterator();
@@ -618,6 +849,19 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
             }
         }
 
+        private DataRef numericRef(CoreRefType type, long value) {
+            switch (type) {
+                case INT:
+                    return new IntRef((int)value);
+                case LONG:
+                    return new LongRef(value);
+                case FLOAT:
+                    return new FloatRef(Float.intBitsToFloat((int)value));
+                default:
+                    return new DoubleRef(Double.longBitsToDouble(value));
+            }
+        }
+
         private void readNodes(String text, MemoryNodeCollection collection, Int2ReferenceOpenHashMap<NodeRef> nodeRefs)
         {
             Int2ObjectOpenHashMap<IntArrayList> pkey2pset = new Int2ObjectOpenHashMap<>();
@@ -625,15 +869,20 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
             PropertySet[] propertySets = readPropertySets(propertyKeys, pkey2pset);
             int[] propertySetNodeMapping = new int[propertySets.length+1];
 
-            //Read ranges
+            //Read ranges, annotations are created in bulk when all ranges are known
+            int numRefs = nextNodeId;
+            IntArrayList rangeRefs = new IntArrayList();
+            IntArrayList starts = new IntArrayList();
+            IntArrayList ends = new IntArrayList();
+
             for (int k = 0; k < propertySets.length; k++) {
-                propertySetNodeMapping[k] = nodeRefs.size();
+                propertySetNodeMapping[k] = numRefs;
                 int numNodes = reader.readVarInt(true);
 
                 if(propertySets[k].keys.length > 0 && propertySets[k].keys[0].type == CoreRefType.NULL) {
                     for(int i = 0; i < numNodes; i++) {
                         MemoryNode node = collection.create();
-                        nodeRefs.put(nodeRefs.size(), node);
+                        nodeRefs.put(numRefs++, node);
                     }
                 } else {
                     int last = 0;
@@ -643,13 +892,20 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
                         int end = reader.readVarInt(true)+start;
                         last = end;
 
-                        MemoryNode node = collection.create(start, end);
-                        nodeRefs.put(nodeRefs.size(), node);
+                        starts.add(start);
+                        ends.add(end);
+                        rangeRefs.add(numRefs++);
                     }
                 }
             }
 
-            propertySetNodeMapping[propertySets.length] = nodeRefs.size();
+            MemoryNode[] annotations = collection.create(starts.elements(), ends.elements(), starts.size());
+            for (int i = 0; i < annotations.length; i++) {
+                nodeRefs.put(rangeRefs.getInt(i), annotations[i]);
+            }
+
+            propertySetNodeMapping[propertySets.length] = numRefs;
+            nextNodeId = numRefs;
 
             //Read properties
             for (int i = 1; i < propertyKeys.length; i++) {
@@ -782,6 +1038,9 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
         private String key;
         private CoreRefType type;
 
+        /** Values are stored as a numeric column, not part of the identity */
+        private boolean columnar;
+
         public PropertyKey(String key, CoreRefType type) {
             this.key = key;
             this.type = type;
@@ -870,9 +1129,317 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
         }
     }
 
+    /** Ordinal of the node layer containing a node id, bases are the first node id of each layer */
+    private static int nodeLayerOf(int[] bases, int numLayers, int numNodes, int nodeId) {
+        if(nodeId < 0 || nodeId >= numNodes)
+            return -1;
+
+        //Last layer with base <= nodeId, empty layers share base with the next layer
+        int lo = 0;
+        int hi = numLayers;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(bases[mid] <= nodeId)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return lo - 1;
+    }
+
+    /**
+     * Raw layers of a lazily decoded document, layers are decoded on demand using the layer directory.
+     * <p>
+     * Node ids are global, a node layer can therefore only be decoded together with all edge layers touching it,
+     * and the node layers touched by those edge layers.
+     */
+    static class LazyLayers {
+        private final Input input;
+        private final Reader reader;
+        private final MemoryDocumentStore store;
+        private final Int2ReferenceOpenHashMap<NodeRef> nodeRefs = new Int2ReferenceOpenHashMap<>();
+
+        /** Dictionary the layers were encoded with, null if none */
+        final SharedStringDictionary dictionary;
+
+        /** The layers may contain numeric columns */
+        final boolean numericColumns;
+
+        final byte[] buffer;
+        final String text;
+        final int body;
+        final int numNodes;
+
+        final String[] nodeNames;
+        final int[] nodeOffsets;
+        final int[] nodeEnds;
+        final int[] nodeBases;
+        final int[] nodeSizes;
+        final boolean[] nodeDecoded;
+        final IntArrayList[] nodeEdgeLayers;
+
+        final String[] edgeNames;
+        final int[] edgeOffsets;
+        final int[] edgeEnds;
+        final int[][] edgeConnections;
+        final int[][] edgeNodeLayers;
+        final boolean[] edgeDecoded;
+
+        private int numRemaining;
+        private boolean freeze;
+
+        private LazyLayers(byte[] buffer, Input input, MemoryDocumentStore store, int body, int layerEnd, SharedStringDictionary dictionary, boolean numericColumns) {
+            this.input = input;
+            this.reader = new Reader(input, dictionary);
+            this.dictionary = dictionary;
+            this.numericColumns = numericColumns;
+            this.store = store;
+            this.buffer = buffer;
+            this.text = store.text;
+            this.body = body;
+
+            int numNodeLayers = input.readVarInt(true);
+            nodeNames = new String[numNodeLayers];
+            nodeOffsets = new int[numNodeLayers];
+            nodeEnds = new int[numNodeLayers];
+            nodeBases = new int[numNodeLayers];
+            nodeSizes = new int[numNodeLayers];
+            nodeDecoded = new boolean[numNodeLayers];
+            nodeEdgeLayers = new IntArrayList[numNodeLayers];
+
+            int idcounter = 0;
+            for (int i = 0; i < numNodeLayers; i++) {
+                nodeOffsets[i] = input.readVarInt(true);
+                nodeSizes[i] = input.readVarInt(true);
+                nodeBases[i] = idcounter;
+                nodeEdgeLayers[i] = new IntArrayList();
+                idcounter += nodeSizes[i];
+            }
+            numNodes = idcounter;
+
+            int numEdgeLayers = input.readVarInt(true);
+            edgeNames = new String[numEdgeLayers];
+            edgeOffsets = new int[numEdgeLayers];
+            edgeEnds = new int[numEdgeLayers];
+            edgeConnections = new int[numEdgeLayers][];
+            edgeNodeLayers = new int[numEdgeLayers][];
+            edgeDecoded = new boolean[numEdgeLayers];
+
+            for (int i = 0; i < numEdgeLayers; i++) {
+                edgeOffsets[i] = input.readVarInt(true);
+
+                int[] conns = new int[input.readVarInt(true)*2];
+                for (int k = 0; k < conns.length; k++) {
+                    conns[k] = input.readVarInt(true);
+                }
+                edgeConnections[i] = conns;
+
+                int[] layers = new int[input.readVarInt(true)];
+                for (int k = 0; k < layers.length; k++) {
+                    layers[k] = input.readVarInt(true);
+                    nodeEdgeLayers[layers[k]].add(i);
+                }
+                edgeNodeLayers[i] = layers;
+            }
+
+            //Layers are stored back to back, node layers first
+            for (int i = 0; i < numNodeLayers; i++) {
+                nodeEnds[i] = i + 1 < numNodeLayers ? nodeOffsets[i+1] : (numEdgeLayers > 0 ? edgeOffsets[0] : layerEnd - body);
+                input.setPosition(body + nodeOffsets[i]);
+                String layer = MemoryCoreNodeLayer.fromId(Byte.toUnsignedInt(input.readByte())).layer;
+                nodeNames[i] = layer != null ? layer : input.readString();
+            }
+
+            for (int i = 0; i < numEdgeLayers; i++) {
+                edgeEnds[i] = i + 1 < numEdgeLayers ? edgeOffsets[i+1] : layerEnd - body;
+                input.setPosition(body + edgeOffsets[i]);
+                String layer = MemoryCoreEdgeLayer.fromId(Byte.toUnsignedInt(input.readByte()) & ~0x80).layer;
+                edgeNames[i] = layer != null ? layer : input.readString();
+            }
+
+            numRemaining = numNodeLayers + numEdgeLayers;
+        }
+
+        /** True if all layers have been decoded */
+        public boolean isDone() {
+            return numRemaining == 0;
+        }
+
+        /** Freeze node layers when decoded */
+        public void setFreeze(boolean freeze) {
+            this.freeze = freeze;
+        }
+
+        public boolean isNodeLayerDecoded(String layer) {
+            for (int i = 0; i < nodeNames.length; i++) {
+                if(!nodeDecoded[i] && nodeNames[i].equals(layer))
+                    return false;
+            }
+
+            return true;
+        }
+
+        public boolean isEdgeLayerDecoded(String layer) {
+            for (int i = 0; i < edgeNames.length; i++) {
+                if(!edgeDecoded[i] && edgeNames[i].equals(layer))
+                    return false;
+            }
+
+            return true;
+        }
+
+        /** Map a node id of the raw data to the node id of a copy, see {@link Writer#copyNodeLayers(LazyLayers, int[])} */
+        int remap(int nodeId, int[] newBases) {
+            int layer = nodeLayerOf(nodeBases, nodeBases.length, numNodes, nodeId);
+            return layer == -1 ? nodeId : newBases[layer] + nodeId - nodeBases[layer];
+        }
+
+        /**
+         * Decode node layer, with all connected layers
+         * @return true if any layer was decoded
+         */
+        public boolean requireNodeLayer(String layer) {
+            IntArrayList nodeLayers = new IntArrayList();
+            for (int i = 0; i < nodeNames.length; i++) {
+                if(!nodeDecoded[i] && nodeNames[i].equals(layer))
+                    nodeLayers.add(i);
+            }
+
+            return decode(nodeLayers, new IntArrayList());
+        }
+
+        /**
+         * Decode edge layer, with all connected layers
+         * @return true if any layer was decoded
+         */
+        public boolean requireEdgeLayer(String layer) {
+            IntArrayList edgeLayers = new IntArrayList();
+            for (int i = 0; i < edgeNames.length; i++) {
+                if(!edgeDecoded[i] && edgeNames[i].equals(layer))
+                    edgeLayers.add(i);
+            }
+
+            return decode(new IntArrayList(), edgeLayers);
+        }
+
+        /**
+         * Decode all remaining layers
+         * @return true if any layer was decoded
+         */
+        public boolean requireAll() {
+            if(isDone())
+                return false;
+
+            IntArrayList nodeLayers = new IntArrayList();
+            for (int i = 0; i < nodeNames.length; i++) {
+                nodeLayers.add(i);
+            }
+
+            IntArrayList edgeLayers = new IntArrayList();
+            for (int i = 0; i < edgeNames.length; i++) {
+                edgeLayers.add(i);
+            }
+
+            return decode(nodeLayers, edgeLayers);
+        }
+
+        private boolean decode(IntArrayList nodeStack, IntArrayList edgeStack) {
+            if(nodeStack.isEmpty() && edgeStack.isEmpty())
+                return false;
+
+            //1. Find connected layers
+            boolean[] nodeMarked = nodeDecoded.clone();
+            boolean[] edgeMarked = edgeDecoded.clone();
+            IntAVLTreeSet nodeLayers = new IntAVLTreeSet();
+            IntAVLTreeSet edgeLayers = new IntAVLTreeSet();
+
+            while(!nodeStack.isEmpty() || !edgeStack.isEmpty()) {
+                if(!nodeStack.isEmpty()) {
+                    int layer = nodeStack.popInt();
+                    if(nodeMarked[layer])
+                        continue;
+
+                    nodeMarked[layer] = true;
+                    nodeLayers.add(layer);
+                    edgeStack.addAll(nodeEdgeLayers[layer]);
+                } else {
+                    int layer = edgeStack.popInt();
+                    if(edgeMarked[layer])
+                        continue;
+
+                    edgeMarked[layer] = true;
+                    edgeLayers.add(layer);
+                    for (int nodeLayer : edgeNodeLayers[layer]) {
+                        nodeStack.add(nodeLayer);
+                    }
+                }
+            }
+
+            //2. Decode nodes before edges, edges refer to nodes by id
+            for (int layer : nodeLayers) {
+                input.setPosition(body + nodeOffsets[layer]);
+                int id = Byte.toUnsignedInt(input.readByte());
+                reader.nextNodeId = nodeBases[layer];
+                reader.readNodeLayer(id, text, store, nodeRefs);
+                nodeDecoded[layer] = true;
+
+                if(freeze) {
+                    String name = nodeNames[layer];
+                    for (MemoryNodeCollection collection : store.nodes.tailMap(new MemoryNodeCollection.Key(name, null)).values()) {
+                        if(!collection.key.layer.equals(name))
+                            break;
+
+                        collection.freeze();
+                    }
+                }
+            }
+
+            for (int layer : edgeLayers) {
+                input.setPosition(body + edgeOffsets[layer]);
+                int id = Byte.toUnsignedInt(input.readByte());
+                reader.readEdgeLayer(id & ~0x80, store, nodeRefs);
+                edgeDecoded[layer] = true;
+            }
+
+            numRemaining -= nodeLayers.size() + edgeLayers.size();
+            return !nodeLayers.isEmpty() || !edgeLayers.isEmpty();
+        }
+    }
+
     @Override
     public void encode(MemoryDocument doc, Output output, MemoryBinary.DocumentIndex index) {
+        encode(doc, output, index, null);
+    }
+
+    /**
+     * Encode document, string columns with all values in dictionary are stored as ids of the dictionary
+     * @param dictionary shared dictionary, may be null. The same dictionary is required to decode the document.
+     */
+    public void encode(MemoryDocument doc, Output output, MemoryBinary.DocumentIndex index, SharedStringDictionary dictionary) {
+        encode(doc, output, index, dictionary, false);
+    }
+
+    /**
+     * Encode document
+     * @param dictionary shared dictionary, may be null. The same dictionary is required to decode the document.
+     * @param numericColumns store numeric properties and numeric strings as columns, see {@link NumericColumnCodec}.
+     *                       The document is tagged with {@link #NUMERIC_VERSION} and can not be read by readers
+     *                       without numeric column support.
+     */
+    public void encode(MemoryDocument doc, Output output, MemoryBinary.DocumentIndex index, SharedStringDictionary dictionary, boolean numericColumns) {
+        LazyLayers lazy = doc.store instanceof LazyMemoryDocumentStore ? ((LazyMemoryDocumentStore) doc.store).lazy : null;
+        if(lazy != null && (!lazy.text.equals(doc.store.text) || lazy.dictionary != dictionary || (lazy.numericColumns && !numericColumns))) {
+            //Ranges of raw layers are only valid for the original text, dictionary ids for the original dictionary and
+            //raw numeric columns only for readers of the numeric version
+            doc.store.materialize();
+            lazy = null;
+        }
+
         Writer writer = new Writer(output, doc);
+        writer.index = index;
+        writer.dictionary = dictionary;
+        writer.numericColumns = numericColumns;
         writer.writeMagic();
         writer.writeProperties(doc.store.properties);
 
@@ -881,28 +1448,40 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
         Reference2IntOpenHashMap<NodeRef> refs = new Reference2IntOpenHashMap<>();
 
         int layerStart = output.reserve(4);
-        writer.writeNodeLayers(refs);
+        index.body = output.position();
+
+        int idcounter = 0;
+        int[] newBases = null;
+        if(lazy != null) {
+            newBases = new int[lazy.nodeOffsets.length];
+            idcounter = writer.copyNodeLayers(lazy, newBases);
+        }
+
+        writer.numNodes = writer.writeNodeLayers(idcounter, refs);
+
+        if(lazy != null)
+            writer.copyEdgeLayers(lazy, newBases);
+
         writer.writeEdgeLayers(refs);
         int currentPos = output.position();
 
         output.setPosition(layerStart);
         output.writeInt(currentPos-layerStart-4);
         output.setPosition(currentPos);
+
+        writer.writeDirectory();
         writer.done();
     }
 
-    @Override
-    public MemoryDocument decode(Input input) {
-        Reader reader = new Reader(input);
-        MemoryDocumentStore store = new MemoryDocumentStore();
+    private static MemoryDocumentStore readHeader(Reader reader, Input input, MemoryDocumentStore store) {
         store.properties = reader.readProperties();
         store.text = input.readString();
+        return store;
+    }
 
+    private static void readLayers(Reader reader, Input input, MemoryDocumentStore store, int layerEnd) {
         Int2ReferenceOpenHashMap<NodeRef> nodeRefs = new Int2ReferenceOpenHashMap<>();
 
-        int layerEnd = input.readInt();
-        layerEnd += input.position();
-
         while(input.position() < layerEnd) {
             int id = Byte.toUnsignedInt(input.readByte());
             if((id & 0x80) == 0) {
@@ -911,7 +1490,57 @@ public class MemoryBinaryV1L2Codec extends MemoryBinaryCodec {
                 reader.readEdgeLayer(id & ~0x80, store, nodeRefs);
             }
         }
+    }
+
+    @Override
+    public MemoryDocument decode(Input input) {
+        return decode(input, null);
+    }
+
+    /**
+     * Decode document
+     * @param dictionary the shared dictionary the document was encoded with, may be null
+     */
+    public MemoryDocument decode(Input input, SharedStringDictionary dictionary) {
+        Reader reader = new Reader(input, dictionary);
+        MemoryDocumentStore store = readHeader(reader, input, new MemoryDocumentStore());
 
+        int layerEnd = input.readInt();
+        layerEnd += input.position();
+
+        readLayers(reader, input, store, layerEnd);
         return new MemoryDocument(store);
     }
+
+    /**
+     * Decode document header, layers are decoded on first use.
+     * <p>
+     * Data without a layer directory is decoded directly.
+     * <p>
+     * <b>Remarks:</b> The data is kept by the document until all layers are decoded and must not be modified.
+     * @param data the encoded document including the magic header
+     * @param dictionary the shared dictionary the document was encoded with, may be null
+     */
+    public MemoryDocument decodeLazy(byte[] data, int offset, int length, SharedStringDictionary dictionary) {
+        Input input = new Input(data, offset, length);
+        input.skip(4);
+
+        Reader reader = new Reader(input, dictionary);
+        LazyMemoryDocumentStore store = (LazyMemoryDocumentStore)readHeader(reader, input, new LazyMemoryDocumentStore());
+
+        int layerEnd = input.readInt();
+        int body = input.position();
+        layerEnd += body;
+
+        if(layerEnd + 2 <= input.limit() && data[layerEnd] == 'D' && data[layerEnd+1] == 'X') {
+            input.setPosition(layerEnd + 2);
+            LazyLayers lazy = new LazyLayers(data, input, store, body, layerEnd, dictionary, data[offset+2] == NUMERIC_VERSION);
+            if(!lazy.isDone())
+                store.lazy = lazy;
+        } else {
+            readLayers(reader, input, store, layerEnd);
+        }
+
+        return new MemoryDocument(store, new LazyMemoryDocumentEngine(store));
+    }
 }
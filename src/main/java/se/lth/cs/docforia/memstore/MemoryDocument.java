@@ -39,6 +39,12 @@ public class MemoryDocument extends Document implements Externalizable {
         this.engine = new MemoryDocumentEngine(store);
     }
 
+    protected MemoryDocument(MemoryDocumentStore store, MemoryDocumentEngine engine) {
+        this.store = store;
+        this.store.doc = this;
+        this.engine = engine;
+    }
+
     public MemoryDocument() {
         this.store = new MemoryDocumentStore();
         this.store.doc = this;
@@ -109,6 +115,15 @@ public class MemoryDocument extends Document implements Externalizable {
         return MemoryDocumentFactory.getInstance();
     }
 
+    /**
+     * Pack all annotation indices into read-only arrays for faster queries and lower memory use.
+     * <p>
+     * <b>Remarks:</b> The document can still be modified, a layer is converted back on its first write.
+     */
+    public void freeze() {
+        store.freeze();
+    }
+
     /**
      * Read document from bytes
      */
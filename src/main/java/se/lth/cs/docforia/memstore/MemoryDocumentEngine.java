@@ -227,6 +227,69 @@ public class MemoryDocumentEngine extends DocumentEngine {
         };
     }
 
+    @Override
+    public int numNodes(String nodeLayer, String variant) {
+        if(nodeLayer == null)
+            return super.numNodes(nodeLayer, variant);
+
+        MemoryNodeCollection nodeRefs = store.nodes.get(new MemoryNodeCollection.Key(nodeLayer, variant));
+        return nodeRefs == null ? 0 : nodeRefs.size();
+    }
+
+    @Override
+    public boolean createPropertyIndex(String nodeLayer, String nodeVariant, String key) {
+        store.getNodeCollection(nodeLayer, nodeVariant).createPropertyIndex(key);
+        return true;
+    }
+
+    @Override
+    public boolean dropPropertyIndex(String nodeLayer, String nodeVariant, String key) {
+        MemoryNodeCollection nodeRefs = store.nodes.get(new MemoryNodeCollection.Key(nodeLayer, nodeVariant));
+        return nodeRefs != null && nodeRefs.dropPropertyIndex(key);
+    }
+
+    @Override
+    public boolean hasPropertyIndex(String nodeLayer, String nodeVariant, String key) {
+        return propertyIndex(nodeLayer, nodeVariant, key) != null;
+    }
+
+    private MemoryPropertyIndex propertyIndex(String nodeLayer, String nodeVariant, String key) {
+        if(nodeLayer == null)
+            return null;
+
+        MemoryNodeCollection nodeRefs = store.nodes.get(new MemoryNodeCollection.Key(nodeLayer, nodeVariant));
+        return nodeRefs == null ? null : nodeRefs.propertyIndex(key);
+    }
+
+    @Override
+    public DocumentIterable<NodeRef> nodesWithProperty(String nodeLayer, String nodeVariant, String key, String value) {
+        MemoryPropertyIndex index = propertyIndex(nodeLayer, nodeVariant, key);
+        if(index == null)
+            return super.nodesWithProperty(nodeLayer, nodeVariant, key, value);
+
+        return new DocumentIterableBase<NodeRef>() {
+            @Override
+            public Iterator<NodeRef> iterator() {
+                return Collections.<NodeRef>unmodifiableList(index.get(value)).iterator();
+            }
+        };
+    }
+
+    @Override
+    public int numNodesWithProperty(String nodeLayer, String nodeVariant, String key, String value) {
+        MemoryPropertyIndex index = propertyIndex(nodeLayer, nodeVariant, key);
+        return index == null ? super.numNodesWithProperty(nodeLayer, nodeVariant, key, value) : index.count(value);
+    }
+
+    @Override
+    public int numEdges(String edgeLayer, String edgeVariant) {
+        if(edgeLayer == null)
+            return super.numEdges(edgeLayer, edgeVariant);
+
+        MemoryEdgeCollection edgeRefs = store.edges.get(new MemoryEdgeCollection.Key(edgeLayer, edgeVariant));
+        return edgeRefs == null ? 0 : edgeRefs.size();
+    }
+
     @Override
     public String toString(Range range) {
         return store.text.substring(range.getStart(), range.getEnd());
@@ -242,7 +305,7 @@ public class MemoryDocumentEngine extends DocumentEngine {
             return new DocumentIterableBase<NodeRef>() {
                 @Override
                 public Iterator<NodeRef> iterator() {
-                    return (Iterator)collection.annotations.cover(from, to);
+                    return (Iterator)collection.cover(from, to);
                 }
             };
     }
@@ -257,7 +320,7 @@ public class MemoryDocumentEngine extends DocumentEngine {
             return new DocumentIterableBase<NodeRef>() {
                 @Override
                 public Iterator<NodeRef> iterator() {
-                    return (Iterator)collection.annotations.overlap(from, to);
+                    return (Iterator)collection.overlap(from, to);
                 }
             };
     }
@@ -272,7 +335,7 @@ public class MemoryDocumentEngine extends DocumentEngine {
         if(nodeRefs == null)
             return emptyNavigator;
         else
-            return (AnnotationNavigator)nodeRefs.annotations.navigator(node.entry);
+            return (AnnotationNavigator)nodeRefs.navigator(node);
     }
 
     private static final AnnotationNavigator<NodeRef> emptyNavigator = new AnnotationNavigator<NodeRef>() {
@@ -322,13 +385,18 @@ public class MemoryDocumentEngine extends DocumentEngine {
         }
     };
 
+    @Override
+    public boolean hasRangeOrderedAnnotations() {
+        return true;
+    }
+
     @Override
     public AnnotationNavigator<NodeRef> annotations(String nodeLayer, String nodeVariant) {
         MemoryNodeCollection nodeRefs = store.nodes.get(new MemoryNodeCollection.Key(nodeLayer, nodeVariant));
         if(nodeRefs == null)
             return emptyNavigator;
         else {
-            return (AnnotationNavigator) nodeRefs.annotations.navigator();
+            return (AnnotationNavigator) nodeRefs.navigator();
         }
     }
 
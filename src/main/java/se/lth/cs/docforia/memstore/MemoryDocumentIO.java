@@ -66,6 +66,20 @@ public class MemoryDocumentIO implements DocumentIO {
         return MemoryBinary.decode(new Input(bytes, offset, length));
     }
 
+    /**
+     * Read document from bytes, layers are decoded on first use, see {@link MemoryBinary#decodeLazy(byte[])}
+     */
+    public MemoryDocument fromBytesLazy(byte[] bytes) {
+        return MemoryBinary.decodeLazy(bytes);
+    }
+
+    /**
+     * Read document from bytes, layers are decoded on first use, see {@link MemoryBinary#decodeLazy(byte[])}
+     */
+    public MemoryDocument fromBytesLazy(byte[] bytes, int offset, int length) {
+        return MemoryBinary.decodeLazy(bytes, offset, length);
+    }
+
     @Override
     public MemoryDocument fromBuffer(ByteBuffer buffer) {
         return buffer.hasArray() ? fromBytes(buffer.array(), buffer.arrayOffset(), buffer.remaining()) : null;
@@ -33,11 +33,6 @@ import java.util.NoSuchElementException;
 public class MemoryDocumentStore extends DocumentStore {
     protected MemoryDocument doc;
 
-    /* TODO: Property Index
-    protected Object2ReferenceOpenHashMap<String,ReferenceOpenHashSet<NodeRef>> nodesWithProperty;
-    protected Object2ReferenceOpenHashMap<String,ReferenceOpenHashSet<NodeRef>> edgesWithProperty;
-    */
-
     @Override
     public Document getDocument() {
         return doc;
@@ -62,6 +57,22 @@ public class MemoryDocumentStore extends DocumentStore {
         properties = new Object2ObjectOpenHashMap<>();
     }
 
+    /**
+     * Freeze the annotation index of all node layers, see {@link MemoryNodeCollection#freeze()}
+     */
+    public void freeze() {
+        for (MemoryNodeCollection collection : nodes.values()) {
+            collection.freeze();
+        }
+    }
+
+    /**
+     * Decode all layers not yet decoded, called by encoders that read the collections directly.
+     */
+    protected void materialize() {
+
+    }
+
     @Override
     public Iterable<EdgeRef> edges() {
         return edgeIterable;
@@ -15,18 +15,23 @@ package se.lth.cs.docforia.memstore;
  * limitations under the License.
  */
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.IOError;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Iterator;
 
 /**
  * Memory Document JSON Codec
+ * <p>
+ * Documents are decoded directly from the tokens of a {@link JsonParser}, no intermediate tree is built.
  */
 public class MemoryJson {
-    private static final ObjectMapper mapper = new ObjectMapper();
+    static final JsonFactory jsonFactory = new JsonFactory();
 
     public static MemoryDocument decodeJson(JsonNode jsonNode) {
         if(!jsonNode.isObject()) {
@@ -49,12 +54,52 @@ public class MemoryJson {
         }
     }
 
-    public static MemoryDocument decodeJson(String json) {
+    /**
+     * Decode the document starting at the current token, or the next token if there is no current token.
+     * <p>
+     * The parser is left at the end of the document object.
+     */
+    public static MemoryDocument decodeJson(JsonParser parser) {
         try {
-            JsonNode jsonNode = mapper.readTree(json);
-            return decodeJson(jsonNode);
+            JsonToken token = parser.getCurrentToken() == null ? parser.nextToken() : parser.getCurrentToken();
+            if(token != JsonToken.START_OBJECT || parser.nextToken() != JsonToken.FIELD_NAME)
+                throw new IllegalArgumentException("This is not a document model JSON, at " + parser.getCurrentLocation());
+
+            String version = parser.getCurrentName();
+            parser.nextToken();
+
+            MemoryDocument doc;
+            switch (version) {
+                case "DM10":
+                    doc = MemoryJsonLevel0Codec.INSTANCE.decode(parser);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Cannot decode " + version + " format.");
+            }
+
+            if(parser.nextToken() != JsonToken.END_OBJECT)
+                throw new IllegalArgumentException("This is not a document model JSON, at " + parser.getCurrentLocation());
+
+            return doc;
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    public static MemoryDocument decodeJson(String json) {
+        try(JsonParser parser = jsonFactory.createParser(json)) {
+            return decodeJson(parser);
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    /** Decode a single document from a stream, the stream is not closed */
+    public static MemoryDocument decodeJson(InputStream input) {
+        try(JsonParser parser = jsonFactory.createParser(input)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            return decodeJson(parser);
         } catch (IOException e) {
-            //System.out.println(json.substring(3817700, json.length()));
             throw new IOError(e);
         }
     }
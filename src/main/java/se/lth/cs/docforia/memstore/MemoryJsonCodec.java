@@ -16,6 +16,7 @@ package se.lth.cs.docforia.memstore;
  */
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
 
 /**
@@ -25,4 +26,10 @@ public abstract class MemoryJsonCodec {
     public abstract void encode(MemoryDocument doc, JsonGenerator jsonWriter);
     public abstract String encode(MemoryDocument doc);
     public abstract MemoryDocument decode(JsonNode node);
+
+    /**
+     * Decode the data object of a document, the parser is positioned at its start and left at its end
+     * @see MemoryJson#decodeJson(JsonParser)
+     */
+    public abstract MemoryDocument decode(JsonParser parser);
 }
@@ -15,11 +15,13 @@ package se.lth.cs.docforia.memstore;
  * limitations under the License.
  */
 
-import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import it.unimi.dsi.fastutil.ints.Int2ReferenceOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2ReferenceMap;
@@ -29,10 +31,12 @@ import se.lth.cs.docforia.NodeRef;
 import se.lth.cs.docforia.data.CoreRef;
 import se.lth.cs.docforia.data.DataRef;
 import se.lth.cs.docforia.data.JsonCoreReader;
+import se.lth.cs.docforia.data.JsonCoreStreamReader;
 import se.lth.cs.docforia.data.JsonCoreWriter;
 
 import java.io.IOError;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -40,6 +44,9 @@ import java.util.Map;
 
 /**
  * Memory Document JSON Level 0 codec
+ * <p>
+ * Documents are written and read token by token, see {@link #encode(MemoryDocument, OutputStream)} and
+ * {@link #decode(JsonParser)}.
  */
 public class MemoryJsonLevel0Codec extends MemoryJsonCodec {
 
@@ -261,12 +268,15 @@ public class MemoryJsonLevel0Codec extends MemoryJsonCodec {
                 memoryNode.properties = readProperties(propIter.next());
             }
 
+            int[] starts = new int[numNodes];
+            int[] ends = new int[numNodes];
             for(int i = 0; i < numNodes; i++) {
-                int start = ranges.get(i*2).asInt();
-                int end = ranges.get(i*2+1).asInt();
+                starts[i] = ranges.get(i*2).asInt();
+                ends[i] = ranges.get(i*2+1).asInt();
+            }
 
-                MemoryNode memoryNode;
-                nodeRefs.put(nodeRefs.size(), memoryNode = collection.create(start, end));
+            for (MemoryNode memoryNode : collection.create(starts, ends, numNodes)) {
+                nodeRefs.put(nodeRefs.size(), memoryNode);
 
                 memoryNode.properties = readProperties(propIter.next());
             }
@@ -336,11 +346,292 @@ public class MemoryJsonLevel0Codec extends MemoryJsonCodec {
         }
     }
 
+    /** Reads documents token by token, nodes and edges are created as their data is read */
+    private static class StreamReader {
+        private final JsonParser parser;
+        private final JsonCoreStreamReader reader;
+
+        public StreamReader(JsonParser parser) {
+            this.parser = parser;
+            this.reader = new JsonCoreStreamReader(parser);
+        }
+
+        private IllegalArgumentException unexpected(String expected) {
+            return new IllegalArgumentException("Expected " + expected + " at " + parser.getCurrentLocation());
+        }
+
+        private void expect(JsonToken token) {
+            if(parser.getCurrentToken() != token)
+                throw unexpected(token.toString());
+        }
+
+        /** Move to the next element of the current array, false at the end of the array */
+        private boolean nextElement() throws IOException {
+            JsonToken token = parser.nextToken();
+            if(token == null)
+                throw new IOError(new IOException("Unexpected end of input"));
+
+            return token != JsonToken.END_ARRAY;
+        }
+
+        private IntArrayList readInts() throws IOException {
+            expect(JsonToken.START_ARRAY);
+            IntArrayList values = new IntArrayList();
+            while(nextElement()) {
+                values.add(parser.getIntValue());
+            }
+            return values;
+        }
+
+        private ArrayList<String> readStrings() throws IOException {
+            expect(JsonToken.START_ARRAY);
+            ArrayList<String> values = new ArrayList<>();
+            while(nextElement()) {
+                values.add(parser.getText());
+            }
+            return values;
+        }
+
+        public Object2ObjectOpenHashMap<String,DataRef> readProperties() throws IOException {
+            expect(JsonToken.START_OBJECT);
+            Object2ObjectOpenHashMap<String,DataRef> map = new Object2ObjectOpenHashMap<>();
+            while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                String key = parser.getCurrentName();
+                parser.nextToken();
+                map.put(key, reader.read());
+            }
+            return map;
+        }
+
+        /** Create the nodes of a collection in id order, bare nodes first */
+        private ArrayList<MemoryNode> createNodes(MemoryNodeCollection collection, IntArrayList ranges, int numBare, ArrayList<NodeRef> nodeRefs) {
+            ArrayList<MemoryNode> created = new ArrayList<>(numBare + ranges.size()/2);
+            for(int i = 0; i < numBare; i++) {
+                created.add(collection.create());
+            }
+
+            int numNodes = ranges.size()/2;
+            int[] starts = new int[numNodes];
+            int[] ends = new int[numNodes];
+            for(int i = 0; i < numNodes; i++) {
+                starts[i] = ranges.getInt(i*2);
+                ends[i] = ranges.getInt(i*2+1);
+            }
+
+            for (MemoryNode memoryNode : collection.create(starts, ends, numNodes)) {
+                created.add(memoryNode);
+            }
+
+            nodeRefs.addAll(created);
+            return created;
+        }
+
+        public void readNodes(MemoryNodeCollection collection, ArrayList<NodeRef> nodeRefs) throws IOException {
+            expect(JsonToken.START_OBJECT);
+            IntArrayList ranges = new IntArrayList();
+            int numBare = 0;
+            ArrayList<MemoryNode> created = null;
+            while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if(created != null && !field.equals("properties")) {
+                    throw unexpected("properties last");
+                }
+
+                switch (field) {
+                    case "ranges":
+                        ranges = readInts();
+                        break;
+                    case "numBare":
+                        numBare = parser.getIntValue();
+                        break;
+                    case "properties":
+                        created = createNodes(collection, ranges, numBare, nodeRefs);
+                        expect(JsonToken.START_ARRAY);
+                        int i = 0;
+                        while(nextElement()) {
+                            if(i == created.size())
+                                throw unexpected("at most " + created.size() + " properties");
+
+                            created.get(i++).properties = readProperties();
+                        }
+                        break;
+                    default:
+                        parser.skipChildren();
+                        break;
+                }
+            }
+
+            if(created == null)
+                createNodes(collection, ranges, numBare, nodeRefs);
+        }
+
+        public void readNodeLayers(MemoryDocumentStore store, ArrayList<NodeRef> nodeRefs) throws IOException {
+            expect(JsonToken.START_ARRAY);
+            while(nextElement()) {
+                expect(JsonToken.START_OBJECT);
+                String layer = null;
+                ArrayList<String> variants = null;
+                while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    switch (field) {
+                        case "layer":
+                            layer = parser.getText();
+                            break;
+                        case "variants":
+                            variants = readStrings();
+                            break;
+                        case "nodes":
+                            if(layer == null || variants == null)
+                                throw unexpected("layer and variants before nodes");
+
+                            expect(JsonToken.START_ARRAY);
+                            int k = 0;
+                            while(nextElement()) {
+                                if(k == variants.size()) {
+                                    parser.skipChildren();
+                                    continue;
+                                }
+
+                                String variant = variants.get(k++);
+                                readNodes(store.getNodeCollection(layer, variant.length() == 0 ? null : variant), nodeRefs);
+                            }
+                            break;
+                        default:
+                            parser.skipChildren();
+                            break;
+                    }
+                }
+            }
+        }
+
+        private NodeRef node(ArrayList<NodeRef> nodeRefs, int id) {
+            if(id < 0 || id >= nodeRefs.size())
+                throw new IllegalArgumentException("Edge references node " + id + " which is not defined before it, at " + parser.getCurrentLocation());
+
+            return nodeRefs.get(id);
+        }
+
+        public void readEdges(MemoryEdgeCollection collection, ArrayList<NodeRef> nodeRefs) throws IOException {
+            expect(JsonToken.START_OBJECT);
+            ArrayList<MemoryEdge> created = null;
+            while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "connections":
+                        if(created != null)
+                            throw unexpected("connections before properties");
+
+                        expect(JsonToken.START_ARRAY);
+                        created = new ArrayList<>();
+                        while(nextElement()) {
+                            int head = parser.getIntValue();
+                            if(!nextElement())
+                                throw unexpected("tail of edge");
+
+                            int tail = parser.getIntValue();
+                            MemoryEdge memoryEdge = collection.create();
+                            memoryEdge.connect(node(nodeRefs, tail), node(nodeRefs, head));
+                            created.add(memoryEdge);
+                        }
+                        break;
+                    case "properties":
+                        if(created == null)
+                            throw unexpected("connections before properties");
+
+                        expect(JsonToken.START_ARRAY);
+                        int i = 0;
+                        while(nextElement()) {
+                            if(i == created.size())
+                                throw unexpected("at most " + created.size() + " properties");
+
+                            created.get(i++).properties = readProperties();
+                        }
+                        break;
+                    default:
+                        parser.skipChildren();
+                        break;
+                }
+            }
+        }
+
+        public void readEdgeLayers(MemoryDocumentStore store, ArrayList<NodeRef> nodeRefs) throws IOException {
+            expect(JsonToken.START_ARRAY);
+            while(nextElement()) {
+                expect(JsonToken.START_OBJECT);
+                String layer = null;
+                ArrayList<String> variants = null;
+                while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    switch (field) {
+                        case "layer":
+                            layer = parser.getText();
+                            break;
+                        case "variants":
+                            variants = readStrings();
+                            break;
+                        case "edges":
+                            if(layer == null || variants == null)
+                                throw unexpected("layer and variants before edges");
+
+                            expect(JsonToken.START_ARRAY);
+                            int k = 0;
+                            while(nextElement()) {
+                                if(k == variants.size()) {
+                                    parser.skipChildren();
+                                    continue;
+                                }
+
+                                String variant = variants.get(k++);
+                                readEdges(store.getEdgeCollection(layer, variant.length() == 0 ? null : variant), nodeRefs);
+                            }
+                            break;
+                        default:
+                            parser.skipChildren();
+                            break;
+                    }
+                }
+            }
+        }
+
+        public MemoryDocument read() throws IOException {
+            expect(JsonToken.START_OBJECT);
+            MemoryDocumentStore store = new MemoryDocumentStore();
+            ArrayList<NodeRef> nodeRefs = new ArrayList<>();
+            while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "properties":
+                        store.properties = readProperties();
+                        break;
+                    case "text":
+                        store.text = parser.getText();
+                        break;
+                    case "nodes":
+                        readNodeLayers(store, nodeRefs);
+                        break;
+                    case "edges":
+                        readEdgeLayers(store, nodeRefs);
+                        break;
+                    default:
+                        parser.skipChildren();
+                        break;
+                }
+            }
+
+            expect(JsonToken.END_OBJECT);
+            return new MemoryDocument(store);
+        }
+    }
+
     public String encode(MemoryDocument doc) {
         try {
             StringWriter writer = new StringWriter();
-            JsonFactory jsonFactory = new JsonFactory();
-            JsonGenerator generator = jsonFactory.createGenerator(writer);
+            JsonGenerator generator = MemoryJson.jsonFactory.createGenerator(writer);
             encode(doc, generator);
             generator.flush();
             return writer.toString();
@@ -349,8 +640,21 @@ public class MemoryJsonLevel0Codec extends MemoryJsonCodec {
         }
     }
 
+    /** Encode document as UTF-8 directly to output, the output is flushed but not closed */
+    public void encode(MemoryDocument doc, OutputStream output) {
+        try {
+            JsonGenerator generator = MemoryJson.jsonFactory.createGenerator(output, JsonEncoding.UTF8);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            encode(doc, generator);
+            generator.close();
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
 
     public void encode(MemoryDocument doc, JsonGenerator jsonWriter) {
+        doc.store.materialize();
         try {
             Writer writer = new Writer(jsonWriter);
             Reference2IntOpenHashMap<NodeRef> refs = new Reference2IntOpenHashMap<>();
@@ -391,8 +695,6 @@ public class MemoryJsonLevel0Codec extends MemoryJsonCodec {
         }
     }
 
-    private static final ObjectMapper mapper = new ObjectMapper();
-
     @Override
     public MemoryDocument decode(JsonNode jsonNode) {
         if(!jsonNode.isObject()) {
@@ -430,4 +732,13 @@ public class MemoryJsonLevel0Codec extends MemoryJsonCodec {
 
         return new MemoryDocument(store);
     }
+
+    @Override
+    public MemoryDocument decode(JsonParser parser) {
+        try {
+            return new StreamReader(parser).read();
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
 }
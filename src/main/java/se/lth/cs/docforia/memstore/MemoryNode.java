@@ -119,17 +119,21 @@ public class MemoryNode extends NodeStore {
 
     @Override
     public void putProperty(String key, String value) {
-        properties.put(key, new StringRef(value));
+        putProperty(key, new StringRef(value));
     }
 
     @Override
     public void removeProperty(String key) {
-        properties.remove(key);
+        DataRef old = properties.remove(key);
+        if(storage != null && storage.propertyIndexes != null)
+            storage.propertyChanged(this, key, old, null);
     }
 
     @Override
     public void putProperty(String key, DataRef ref) {
-        properties.put(key, ref);
+        DataRef old = properties.put(key, ref);
+        if(storage != null && storage.propertyIndexes != null)
+            storage.propertyChanged(this, key, old, ref);
     }
 
     @Override
@@ -15,27 +15,44 @@ package se.lth.cs.docforia.memstore;
  * limitations under the License.
  */
 
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
 import se.lth.cs.docforia.DocumentNodeLayer;
 import se.lth.cs.docforia.LayerRef;
 import se.lth.cs.docforia.NodeRef;
+import se.lth.cs.docforia.data.DataRef;
 import se.lth.cs.docforia.util.AnnotationIndex;
+import se.lth.cs.docforia.util.AnnotationNavigator;
 import se.lth.cs.docforia.util.DocumentIterable;
 import se.lth.cs.docforia.util.DocumentIterableBase;
+import se.lth.cs.docforia.util.FrozenAnnotationIndex;
 import se.lth.cs.docforia.util.Iterables;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 
 /**
  * Memory Node Collection
+ * <p>
+ * Annotations are kept in an {@link AnnotationIndex}, or in a {@link FrozenAnnotationIndex} after {@link #freeze()}.
+ * A frozen collection is thawed on the first write.
+ * <p>
+ * Property values can be indexed per key, see {@link #createPropertyIndex(String)}, indexes are kept up to date
+ * on changes to nodes in this layer.
  */
 public class MemoryNodeCollection extends DocumentIterableBase<NodeRef> implements DocumentIterable<NodeRef>, DocumentNodeLayer {
     protected final MemoryDocumentStore store;
     protected AnnotationIndex<MemoryNode> annotations = new AnnotationIndex<>();
+    protected FrozenAnnotationIndex<MemoryNode> frozen;
     protected ReferenceOpenHashSet<MemoryNode> nodes = new ReferenceOpenHashSet<>();
     protected Key key;
+    protected Object2ObjectOpenHashMap<String,MemoryPropertyIndex> propertyIndexes;
 
     public static class Key implements Comparable<Key>, LayerRef {
         protected final String layer;
@@ -125,15 +142,74 @@ public class MemoryNodeCollection extends DocumentIterableBase<NodeRef> implemen
     }
 
     public int size() {
-        return nodes.size() + annotations.size();
+        return nodes.size() + numAnnotations();
+    }
+
+    public int numAnnotations() {
+        return frozen != null ? frozen.size() : annotations.size();
+    }
+
+    /** All annotations in range order */
+    public Iterable<MemoryNode> annotations() {
+        return frozen != null ? frozen : annotations;
+    }
+
+    public boolean isFrozen() {
+        return frozen != null;
+    }
+
+    /**
+     * Replace the annotation tree with a read-only array index, the tree is rebuilt on the first write.
+     */
+    public void freeze() {
+        if(frozen != null || annotations.isEmpty())
+            return;
+
+        frozen = new FrozenAnnotationIndex<>(annotations);
+        for (MemoryNode node : frozen) {
+            node.entry = null;
+        }
+
+        annotations = null;
+    }
+
+    /** Get the mutable annotation index, thaws if frozen */
+    protected AnnotationIndex<MemoryNode> mutableAnnotations() {
+        if(frozen != null) {
+            annotations = frozen.thaw();
+            linkEntries();
+            frozen = null;
+        }
+
+        return annotations;
+    }
+
+    public Iterator<MemoryNode> cover(int from, int to) {
+        return frozen != null ? frozen.cover(from, to) : annotations.cover(from, to);
+    }
+
+    public Iterator<MemoryNode> overlap(int from, int to) {
+        return frozen != null ? frozen.overlap(from, to) : annotations.overlap(from, to);
+    }
+
+    public AnnotationNavigator<MemoryNode> navigator() {
+        return frozen != null ? frozen.navigator() : annotations.navigator();
+    }
+
+    /** Navigator positioned at given annotation */
+    public AnnotationNavigator<MemoryNode> navigator(MemoryNode node) {
+        if(frozen != null)
+            return frozen.navigator(frozen.indexOf(node.start, node.end, node));
+        else
+            return annotations.navigator(node.entry);
     }
 
     @Override
     public Iterator<NodeRef> iterator() {
-        if(nodes.isEmpty() && annotations.isEmpty())
+        if(isEmpty())
             return Collections.emptyIterator();
 
-        return Iterables.<NodeRef>concat((Iterable)nodes, (Iterable)annotations).iterator();
+        return Iterables.<NodeRef>concat((Iterable)nodes, (Iterable)annotations()).iterator();
     }
 
     public MemoryNode create() {
@@ -154,13 +230,133 @@ public class MemoryNodeCollection extends DocumentIterableBase<NodeRef> implemen
         return memoryNode;
     }
 
+    private void linkEntries() {
+        for (AnnotationIndex<MemoryNode>.Entry entry : annotations.entries()) {
+            entry.get().entry = entry;
+        }
+    }
+
+    @Override
+    public MemoryNode[] create(int[] starts, int[] ends, int count) {
+        MemoryNode[] created = new MemoryNode[count];
+        boolean sorted = true;
+        for (int i = 0; i < count; i++) {
+            MemoryNode memoryNode = new MemoryNode(this);
+            memoryNode.start = starts[i];
+            memoryNode.end = ends[i];
+            created[i] = memoryNode;
+
+            sorted &= i == 0 || RANGE_ORDER.compare(created[i-1], memoryNode) <= 0;
+        }
+
+        MemoryNode[] nodes = created;
+        if(!sorted) {
+            nodes = Arrays.copyOf(created, count);
+            Arrays.sort(nodes, RANGE_ORDER);
+        }
+
+        if(mutableAnnotations().isEmpty()) {
+            int[] sortedStarts = new int[count];
+            int[] sortedEnds = new int[count];
+            for (int i = 0; i < count; i++) {
+                sortedStarts[i] = nodes[i].start;
+                sortedEnds[i] = nodes[i].end;
+            }
+
+            annotations.bulkLoad(sortedStarts, sortedEnds, nodes, count);
+            linkEntries();
+        } else {
+            for (MemoryNode node : nodes) {
+                node.entry = annotations.add(node.start, node.end, node);
+            }
+        }
+
+        return created;
+    }
+
+    /**
+     * Copy a subset of the nodes in this layer, in the order of {@link #iterator()}
+     * @param subset nodes belonging to this layer
+     */
+    protected List<MemoryNode> inLayerOrder(Collection<MemoryNode> subset) {
+        ArrayList<MemoryNode> ordered = new ArrayList<>(subset.size());
+        if(subset.isEmpty())
+            return ordered;
+
+        //Filtering the layer is cheaper than sorting for large subsets
+        if(subset.size() * 8L >= size()) {
+            for (MemoryNode node : nodes) {
+                if(subset.contains(node))
+                    ordered.add(node);
+            }
+            for (MemoryNode node : annotations()) {
+                if(subset.contains(node))
+                    ordered.add(node);
+            }
+            return ordered;
+        }
+
+        ArrayList<MemoryNode> ranged = new ArrayList<>(subset.size());
+        for (MemoryNode node : subset) {
+            if(node.isAnnotation())
+                ranged.add(node);
+        }
+
+        if(ranged.size() < subset.size()) {
+            for (MemoryNode node : nodes) {
+                if(subset.contains(node))
+                    ordered.add(node);
+            }
+        }
+
+        ranged.sort(RANGE_ORDER);
+        for (int i = 0; i < ranged.size();) {
+            MemoryNode first = ranged.get(i);
+            int k = i + 1;
+            while(k < ranged.size() && RANGE_ORDER.compare(first, ranged.get(k)) == 0)
+                k++;
+
+            if(k - i == 1) {
+                ordered.add(first);
+            } else {
+                //Equal positions, the order is decided by the index
+                AnnotationNavigator<MemoryNode> navigator = navigator(first);
+                while(navigator.prev() && RANGE_ORDER.compare(first, navigator.current()) == 0);
+
+                int found = 0;
+                while(found < k - i && navigator.next()) {
+                    if(subset.contains(navigator.current())) {
+                        ordered.add(navigator.current());
+                        found++;
+                    }
+                }
+            }
+
+            i = k;
+        }
+
+        return ordered;
+    }
+
+    /** Annotation index order, by start and then center */
+    private static final Comparator<MemoryNode> RANGE_ORDER = (x, y) -> {
+        int compare = Integer.compare(x.start, y.start);
+        return compare != 0 ? compare : Integer.compare(x.start + (x.end - x.start) / 2, y.start + (y.end - y.start) / 2);
+    };
+
     public void add(MemoryNode node) {
         node.storage = this;
         if(node.isAnnotation()) {
-            node.entry = annotations.add(node.getStart(), node.getEnd(), node);
+            node.entry = mutableAnnotations().add(node.getStart(), node.getEnd(), node);
         } else {
             nodes.add(node);
         }
+
+        if(propertyIndexes != null) {
+            for (MemoryPropertyIndex index : propertyIndexes.values()) {
+                index.add(node, node.properties.get(index.key));
+            }
+        }
     }
 
     @Override
@@ -178,7 +374,7 @@ public class MemoryNodeCollection extends DocumentIterableBase<NodeRef> implemen
             node.instance = null;
         }
 
-        for (MemoryNode memoryNode : annotations) {
+        for (MemoryNode memoryNode : annotations()) {
             memoryNode.instance = null;
         }
 
@@ -201,10 +397,68 @@ public class MemoryNodeCollection extends DocumentIterableBase<NodeRef> implemen
 
     protected void unlink(MemoryNode node) {
         if(node.isAnnotation()) {
-            annotations.remove(node.entry);
+            mutableAnnotations().remove(node.entry);
         } else {
             nodes.remove(node);
         }
+
+        if(propertyIndexes != null) {
+            for (MemoryPropertyIndex index : propertyIndexes.values()) {
+                index.remove(node, node.properties.get(index.key));
+            }
+        }
+    }
+
+    /** Called by nodes in this layer when a property value changes */
+    protected void propertyChanged(MemoryNode node, String key, DataRef oldValue, DataRef newValue) {
+        MemoryPropertyIndex index = propertyIndexes.get(key);
+        if(index != null) {
+            index.remove(node, oldValue);
+            index.add(node, newValue);
+        }
+    }
+
+    /**
+     * Index the values of a property, speeds up lookup of nodes by property value
+     * @param key the property key
+     * @return the index, existing or new
+     */
+    public MemoryPropertyIndex createPropertyIndex(String key) {
+        if(propertyIndexes == null)
+            propertyIndexes = new Object2ObjectOpenHashMap<>();
+
+        MemoryPropertyIndex index = propertyIndexes.get(key);
+        if(index == null) {
+            index = new MemoryPropertyIndex(this, key);
+            for (MemoryNode node : nodes) {
+                index.add(node, node.properties.get(key));
+            }
+            for (MemoryNode node : annotations()) {
+                index.add(node, node.properties.get(key));
+            }
+            propertyIndexes.put(key, index);
+        }
+
+        return index;
+    }
+
+    /**
+     * Remove a property index
+     * @return true if the index existed
+     */
+    public boolean dropPropertyIndex(String key) {
+        if(propertyIndexes == null || propertyIndexes.remove(key) == null)
+            return false;
+
+        if(propertyIndexes.isEmpty())
+            propertyIndexes = null;
+
+        return true;
+    }
+
+    /** Get property index or null if the key is not indexed */
+    public MemoryPropertyIndex propertyIndex(String key) {
+        return propertyIndexes == null ? null : propertyIndexes.get(key);
     }
 
     @Override
@@ -225,7 +479,7 @@ public class MemoryNodeCollection extends DocumentIterableBase<NodeRef> implemen
     }
 
     public boolean isEmpty() {
-        return nodes.isEmpty() && annotations.isEmpty();
+        return nodes.isEmpty() && numAnnotations() == 0;
     }
 
     public void variantChanged(MemoryNode node, String variant) {
@@ -244,6 +498,6 @@ public class MemoryNodeCollection extends DocumentIterableBase<NodeRef> implemen
 
     @Override
     public String toString() {
-        return nodes.size() + " nodes and " + annotations.size() + " annotations in node layer " + key.layer;
+        return nodes.size() + " nodes and " + numAnnotations() + " annotations in node layer " + key.layer;
     }
 }
@@ -0,0 +1,87 @@
+package se.lth.cs.docforia.memstore;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import se.lth.cs.docforia.data.DataRef;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hash index of the string values of one property in a node layer.
+ * <p>
+ * Maintained by {@link MemoryNodeCollection}, see {@link MemoryNodeCollection#createPropertyIndex(String)}.
+ */
+public class MemoryPropertyIndex {
+    protected final MemoryNodeCollection layer;
+    protected final String key;
+    protected final Object2ObjectOpenHashMap<String,ReferenceOpenHashSet<MemoryNode>> index = new Object2ObjectOpenHashMap<>();
+
+    public MemoryPropertyIndex(MemoryNodeCollection layer, String key) {
+        this.layer = layer;
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    protected void add(MemoryNode node, DataRef value) {
+        if(value == null)
+            return;
+
+        String strValue = value.stringValue();
+        ReferenceOpenHashSet<MemoryNode> nodes = index.get(strValue);
+        if(nodes == null) {
+            nodes = new ReferenceOpenHashSet<>();
+            index.put(strValue, nodes);
+        }
+
+        nodes.add(node);
+    }
+
+    protected void remove(MemoryNode node, DataRef value) {
+        if(value == null)
+            return;
+
+        String strValue = value.stringValue();
+        ReferenceOpenHashSet<MemoryNode> nodes = index.get(strValue);
+        if(nodes != null) {
+            nodes.remove(node);
+            if(nodes.isEmpty())
+                index.remove(strValue);
+        }
+    }
+
+    /** Snapshot of the nodes with property equal to value, in layer order */
+    public List<MemoryNode> get(String value) {
+        ReferenceOpenHashSet<MemoryNode> nodes = index.get(value);
+        return nodes == null ? Collections.emptyList() : layer.inLayerOrder(nodes);
+    }
+
+    /** Number of nodes with property equal to value */
+    public int count(String value) {
+        ReferenceOpenHashSet<MemoryNode> nodes = index.get(value);
+        return nodes == null ? 0 : nodes.size();
+    }
+
+    /** Number of distinct values */
+    public int numValues() {
+        return index.size();
+    }
+}
@@ -0,0 +1,252 @@
+package se.lth.cs.docforia.memstore.encoders;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import se.lth.cs.docforia.io.mem.Input;
+import se.lth.cs.docforia.io.mem.Output;
+
+import java.io.IOError;
+import java.io.IOException;
+
+/**
+ * Column encoding of 64-bit values, the smallest of the following encodings is chosen per column:
+ * <ul>
+ *     <li>Delta: zigzag varint of the difference to the previous value</li>
+ *     <li>Frame of reference: the minimum followed by the bit packed differences to it</li>
+ *     <li>Run-length: varint value and run length pairs</li>
+ *     <li>Dictionary: up to 256 distinct values followed by bit packed value indices</li>
+ * </ul>
+ * The number of values is not stored, it is given when decoding. Values are decoded into an array in one pass.
+ */
+public class NumericColumnCodec {
+    public static final int DELTA = 0;
+    public static final int FRAME_OF_REFERENCE = 1;
+    public static final int RUN_LENGTH = 2;
+    public static final int DICTIONARY = 3;
+
+    private static final int MAX_DICTIONARY = 256;
+
+    /** Length of a zigzag encoded varlong */
+    private static int varLongLength(long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        int bits = 64 - Long.numberOfLeadingZeros(zigzag);
+        return bits <= 7 ? 1 : Math.min(9, (bits + 6) / 7);
+    }
+
+    /** Number of bits required for the unsigned value */
+    private static int bitWidth(long value) {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    private static long packedLength(int n, int bits) {
+        return ((long)n * bits + 7) / 8;
+    }
+
+    /**
+     * Encode the first n values
+     */
+    public static void encode(Output writer, long[] values, int n) {
+        if(n == 0) {
+            writer.writeByte(DELTA);
+            return;
+        }
+
+        long min = values[0];
+        long max = values[0];
+        long deltaSize = 0;
+        long runSize = 0;
+        int runs = 0;
+        long last = 0;
+        int runLength = 0;
+
+        Long2IntOpenHashMap distinct = new Long2IntOpenHashMap();
+        distinct.defaultReturnValue(-1);
+        LongArrayList dictionary = new LongArrayList();
+        long dictionarySize = 0;
+
+        for (int i = 0; i < n; i++) {
+            long value = values[i];
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            deltaSize += varLongLength(value - last);
+
+            if(i > 0 && value == values[i-1]) {
+                runLength++;
+            } else {
+                if(i > 0)
+                    runSize += Output.intLength(runLength, true);
+
+                runs++;
+                runSize += varLongLength(value);
+                runLength = 1;
+            }
+
+            if(dictionary != null && !distinct.containsKey(value)) {
+                if(dictionary.size() == MAX_DICTIONARY) {
+                    dictionary = null;
+                } else {
+                    distinct.put(value, dictionary.size());
+                    dictionary.add(value);
+                    dictionarySize += varLongLength(value);
+                }
+            }
+
+            last = value;
+        }
+        runSize += Output.intLength(runLength, true) + Output.intLength(runs, true);
+
+        //max - min is exact as an unsigned value
+        int bits = bitWidth(max - min);
+        long forSize = varLongLength(min) + 1 + packedLength(n, bits);
+
+        int indexBits = dictionary != null ? bitWidth(dictionary.size() - 1) : 64;
+        if(dictionary != null)
+            dictionarySize += Output.intLength(dictionary.size(), true) + packedLength(n, indexBits);
+        else
+            dictionarySize = Long.MAX_VALUE;
+
+        long best = Math.min(Math.min(deltaSize, forSize), Math.min(runSize, dictionarySize));
+        if(best == deltaSize) {
+            writer.writeByte(DELTA);
+            last = 0;
+            for (int i = 0; i < n; i++) {
+                writer.writeVarLong(values[i] - last, false);
+                last = values[i];
+            }
+        }
+        else if(best == forSize) {
+            writer.writeByte(FRAME_OF_REFERENCE);
+            writer.writeVarLong(min, false);
+            writer.writeByte(bits);
+            pack(writer, values, n, min, bits);
+        }
+        else if(best == runSize) {
+            writer.writeByte(RUN_LENGTH);
+            writer.writeVarInt(runs, true);
+            int start = 0;
+            for (int i = 1; i <= n; i++) {
+                if(i == n || values[i] != values[start]) {
+                    writer.writeVarLong(values[start], false);
+                    writer.writeVarInt(i - start, true);
+                    start = i;
+                }
+            }
+        }
+        else {
+            writer.writeByte(DICTIONARY);
+            writer.writeVarInt(dictionary.size(), true);
+            for (int i = 0; i < dictionary.size(); i++) {
+                writer.writeVarLong(dictionary.getLong(i), false);
+            }
+
+            long[] indices = new long[n];
+            for (int i = 0; i < n; i++) {
+                indices[i] = distinct.get(values[i]);
+            }
+            pack(writer, indices, n, 0, indexBits);
+        }
+    }
+
+    /** Pack value - base with the given number of bits, least significant bit first */
+    private static void pack(Output writer, long[] values, int n, long base, int bits) {
+        byte[] packed = new byte[(int)packedLength(n, bits)];
+        long bitPos = 0;
+        for (int i = 0; i < n; i++) {
+            long value = values[i] - base;
+            int b = 0;
+            while(b < bits) {
+                int idx = (int)(bitPos >>> 3);
+                int offset = (int)(bitPos & 7);
+                int take = Math.min(8 - offset, bits - b);
+                packed[idx] |= (byte)(((value >>> b) & ((1 << take) - 1)) << offset);
+                b += take;
+                bitPos += take;
+            }
+        }
+        writer.writeBytes(packed);
+    }
+
+    private static void unpack(Input reader, long[] values, int n, long base, int bits) {
+        byte[] packed = reader.readBytes((int)packedLength(n, bits));
+        long bitPos = 0;
+        for (int i = 0; i < n; i++) {
+            long value = 0;
+            int b = 0;
+            while(b < bits) {
+                int idx = (int)(bitPos >>> 3);
+                int offset = (int)(bitPos & 7);
+                int take = Math.min(8 - offset, bits - b);
+                value |= (long)(((packed[idx] & 0xFF) >>> offset) & ((1 << take) - 1)) << b;
+                b += take;
+                bitPos += take;
+            }
+            values[i] = base + value;
+        }
+    }
+
+    /**
+     * Decode n values
+     */
+    public static long[] decode(Input reader, int n) {
+        long[] values = new long[n];
+        int format = Byte.toUnsignedInt(reader.readByte());
+        switch (format) {
+            case DELTA: {
+                long last = 0;
+                for (int i = 0; i < n; i++) {
+                    last += reader.readVarLong(false);
+                    values[i] = last;
+                }
+                break;
+            }
+            case FRAME_OF_REFERENCE: {
+                long min = reader.readVarLong(false);
+                int bits = Byte.toUnsignedInt(reader.readByte());
+                unpack(reader, values, n, min, bits);
+                break;
+            }
+            case RUN_LENGTH: {
+                int runs = reader.readVarInt(true);
+                int pos = 0;
+                for (int i = 0; i < runs; i++) {
+                    long value = reader.readVarLong(false);
+                    int end = pos + reader.readVarInt(true);
+                    while(pos < end) {
+                        values[pos++] = value;
+                    }
+                }
+                break;
+            }
+            case DICTIONARY: {
+                long[] dictionary = new long[reader.readVarInt(true)];
+                for (int i = 0; i < dictionary.length; i++) {
+                    dictionary[i] = reader.readVarLong(false);
+                }
+
+                unpack(reader, values, n, 0, 32 - Integer.numberOfLeadingZeros(dictionary.length - 1));
+                for (int i = 0; i < n; i++) {
+                    values[i] = dictionary[(int)values[i]];
+                }
+                break;
+            }
+            default:
+                throw new IOError(new IOException("Unknown numeric column format: " + format));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,75 @@
+package se.lth.cs.docforia.memstore.encoders;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.ints.Int2ReferenceOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntListIterator;
+import it.unimi.dsi.fastutil.longs.Long2ReferenceOpenHashMap;
+import se.lth.cs.docforia.StoreRef;
+import se.lth.cs.docforia.data.DataRef;
+import se.lth.cs.docforia.data.StringRef;
+import se.lth.cs.docforia.io.mem.Input;
+import se.lth.cs.docforia.io.mem.Output;
+
+/**
+ * Numeric string codec, canonical decimal numbers are stored as a numeric column, see {@link NumericColumnCodec}
+ */
+public class NumericStringCodec extends StringCodec {
+
+    public static final NumericStringCodec INSTANCE = new NumericStringCodec();
+
+    @Override
+    public void encode(Output writer, String text, String key, StringFieldEncoder prober, Iterable<? extends StoreRef> entries) {
+        writer.writeByte(StringCodecs.NUMERIC);
+
+        long[] values = new long[prober.count];
+        int n = 0;
+        for (StoreRef storeRef : entries) {
+            DataRef property = storeRef.get().getRefProperty(key);
+            values[n++] = Long.parseLong(property.stringValue());
+        }
+
+        NumericColumnCodec.encode(writer, values, n);
+    }
+
+    @Override
+    public void decode(Input reader, String text, String key, int count, int[] propertySetMapping, IntArrayList psets, Int2ReferenceOpenHashMap<? extends StoreRef> refs) {
+        long[] values = NumericColumnCodec.decode(reader, count);
+
+        //Equal numbers share one string
+        Long2ReferenceOpenHashMap<StringRef> strings = new Long2ReferenceOpenHashMap<>();
+        int k = 0;
+
+        IntListIterator noderange = psets.iterator();
+        while (noderange.hasNext()) {
+            int psetid = noderange.nextInt();
+            final int start = propertySetMapping[psetid];
+            final int end = propertySetMapping[psetid + 1];
+
+            for (int i = start; i < end; i++) {
+                long value = values[k++];
+                StringRef ref = strings.get(value);
+                if(ref == null) {
+                    ref = new StringRef(String.valueOf(value));
+                    strings.put(value, ref);
+                }
+
+                refs.get(i).get().putProperty(key, ref);
+            }
+        }
+    }
+}
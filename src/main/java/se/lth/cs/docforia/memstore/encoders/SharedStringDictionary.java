@@ -0,0 +1,182 @@
+package se.lth.cs.docforia.memstore.encoders;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import se.lth.cs.docforia.*;
+import se.lth.cs.docforia.data.DataRef;
+import se.lth.cs.docforia.data.StringRef;
+import se.lth.cs.docforia.io.mem.ByteBufferInput;
+import se.lth.cs.docforia.io.mem.Input;
+import se.lth.cs.docforia.io.mem.Output;
+
+import java.util.Map;
+
+/**
+ * String dictionary shared by many documents, e.g. all documents of a block.
+ * <p>
+ * Contains the values of low-cardinality string properties such as part of speech tags and dependency labels,
+ * string columns with all values in the dictionary are stored as ids, see {@link SharedDictStringCodec}.
+ * Decoded values are interned, documents decoded with the same dictionary share their value instances.
+ */
+public class SharedStringDictionary {
+    public static final byte[] MAGIC = new byte[] {'D', 'S', 'D', '1'};
+
+    /** Default maximum number of unique values of a property to include it */
+    public static final int DEFAULT_MAX_UNIQUE = 127;
+
+    protected final StringRef[] entries;
+    protected final Object2IntOpenHashMap<String> ids = new Object2IntOpenHashMap<>();
+    protected final SharedDictStringCodec codec = new SharedDictStringCodec(this);
+
+    public SharedStringDictionary(String[] values) {
+        this.entries = new StringRef[values.length];
+        this.ids.defaultReturnValue(-1);
+        for (int i = 0; i < values.length; i++) {
+            entries[i] = new StringRef(values[i].intern());
+            ids.put(values[i], i);
+        }
+    }
+
+    /** Number of entries */
+    public int size() {
+        return entries.length;
+    }
+
+    /** Id of value or -1 if not in the dictionary */
+    public int id(String value) {
+        return ids.getInt(value);
+    }
+
+    public boolean contains(String value) {
+        return ids.containsKey(value);
+    }
+
+    public StringRef get(int id) {
+        return entries[id];
+    }
+
+    /** Codec for string columns using this dictionary */
+    public StringCodec codec() {
+        return codec;
+    }
+
+    private static void count(Object2ObjectOpenHashMap<String,Object2IntOpenHashMap<String>> counts,
+                              ObjectOpenHashSet<String> excluded,
+                              int maxUnique,
+                              PropertyStore store)
+    {
+        for (Map.Entry<String, DataRef> entry : store.properties()) {
+            if(!(entry.getValue() instanceof StringRef) || excluded.contains(entry.getKey()))
+                continue;
+
+            Object2IntOpenHashMap<String> values = counts.get(entry.getKey());
+            if(values == null)
+                counts.put(entry.getKey(), values = new Object2IntOpenHashMap<>());
+
+            String value = entry.getValue().stringValue();
+            values.put(value, values.getInt(value) + 1);
+            if(values.size() > maxUnique) {
+                counts.remove(entry.getKey());
+                excluded.add(entry.getKey());
+            }
+        }
+    }
+
+    /** Build dictionary of the values of string properties with at most {@link #DEFAULT_MAX_UNIQUE} unique values */
+    public static SharedStringDictionary build(Iterable<? extends Document> docs) {
+        return build(docs, DEFAULT_MAX_UNIQUE);
+    }
+
+    /**
+     * Build dictionary of node and edge string properties, entries are ordered by descending frequency
+     * @param docs the documents sharing the dictionary
+     * @param maxUnique maximum number of unique values of a property key in all documents to include its values
+     */
+    public static SharedStringDictionary build(Iterable<? extends Document> docs, int maxUnique) {
+        Object2ObjectOpenHashMap<String,Object2IntOpenHashMap<String>> counts = new Object2ObjectOpenHashMap<>();
+        ObjectOpenHashSet<String> excluded = new ObjectOpenHashSet<>();
+
+        for (Document doc : docs) {
+            for (DocumentNodeLayer nodeLayer : doc.store().nodeLayers()) {
+                for (NodeRef nodeRef : nodeLayer) {
+                    count(counts, excluded, maxUnique, nodeRef.get());
+                }
+            }
+
+            for (DocumentEdgeLayer edgeLayer : doc.store().edgeLayers()) {
+                for (EdgeRef edgeRef : edgeLayer) {
+                    count(counts, excluded, maxUnique, edgeRef.get());
+                }
+            }
+        }
+
+        Object2IntOpenHashMap<String> frequencies = new Object2IntOpenHashMap<>();
+        for (Object2IntOpenHashMap<String> values : counts.values()) {
+            for (Object2IntOpenHashMap.Entry<String> entry : values.object2IntEntrySet()) {
+                frequencies.put(entry.getKey(), frequencies.getInt(entry.getKey()) + entry.getIntValue());
+            }
+        }
+
+        ObjectArrayList<String> values = new ObjectArrayList<>(frequencies.keySet());
+        values.sort((x, y) -> {
+            int result = Integer.compare(frequencies.getInt(y), frequencies.getInt(x));
+            return result != 0 ? result : x.compareTo(y);
+        });
+
+        return new SharedStringDictionary(values.toArray(new String[values.size()]));
+    }
+
+    public void write(Output writer) {
+        writer.writeBytes(MAGIC);
+        writer.writeVarInt(entries.length, true);
+        for (StringRef entry : entries) {
+            writer.writeString(entry.stringValue());
+        }
+    }
+
+    /** True if input is positioned at a dictionary, nothing is read */
+    public static boolean isDictionary(Input input) {
+        if(input.limit() - input.position() < MAGIC.length)
+            return false;
+
+        for (int i = 0; i < MAGIC.length; i++) {
+            byte b = input instanceof ByteBufferInput
+                    ? ((ByteBufferInput)input).getByteBuffer().get(input.position() + i)
+                    : input.getBuffer()[input.position() + i];
+
+            if(b != MAGIC[i])
+                return false;
+        }
+        return true;
+    }
+
+    public static SharedStringDictionary read(Input reader) {
+        if(!isDictionary(reader))
+            throw new IllegalArgumentException("Invalid format, not a shared string dictionary");
+
+        reader.skip(MAGIC.length);
+        String[] values = new String[reader.readVarInt(true)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = reader.readString();
+        }
+
+        return new SharedStringDictionary(values);
+    }
+}
@@ -24,10 +24,16 @@ public class StringCodecs {
     public static final int VARIABLE_LEN_DICT = 2;
     public static final int EQUAL_LEN_DICT = 3;
 
+    /** Ids of a shared dictionary, the codec is given by the dictionary, see {@link SharedStringDictionary#codec()} */
+    public static final int SHARED_DICT = 4;
+    public static final int NUMERIC = 5;
+
     static final StringCodec[] codecs = new StringCodec[] {
             BaselineStringCodec.INSTANCE,
             EqualLenStringCodec.INSTANCE,
             VariableLenDictStringCodec.INSTANCE,
-            EqualLenDictStringCodec.INSTANCE
+            EqualLenDictStringCodec.INSTANCE,
+            null,
+            NumericStringCodec.INSTANCE
     };
 }
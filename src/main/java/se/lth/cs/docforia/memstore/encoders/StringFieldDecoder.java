@@ -20,6 +20,9 @@ import it.unimi.dsi.fastutil.ints.IntArrayList;
 import se.lth.cs.docforia.StoreRef;
 import se.lth.cs.docforia.io.mem.Input;
 
+import java.io.IOError;
+import java.io.IOException;
+
 /**
  * String field decoder
  */
@@ -29,7 +32,26 @@ public class StringFieldDecoder {
                               int[] propertySetMapping,
                               IntArrayList psets,
                               Int2ReferenceOpenHashMap<? extends StoreRef> refs) {
+        decode(reader, text, key, count, propertySetMapping, psets, refs, null);
+    }
+
+    /**
+     * Decode string column
+     * @param dictionary the shared dictionary the document was encoded with, may be null
+     */
+    public static void decode(Input reader, String text, String key, int count,
+                              int[] propertySetMapping,
+                              IntArrayList psets,
+                              Int2ReferenceOpenHashMap<? extends StoreRef> refs,
+                              SharedStringDictionary dictionary) {
         int id = Byte.toUnsignedInt(reader.readByte());
-        StringCodecs.codecs[id].decode(reader, text, key, count, propertySetMapping, psets, refs);
+        if(id == StringCodecs.SHARED_DICT) {
+            if(dictionary == null)
+                throw new IOError(new IOException("Property " + key + " requires a shared string dictionary"));
+
+            dictionary.codec().decode(reader, text, key, count, propertySetMapping, psets, refs);
+        }
+        else
+            StringCodecs.codecs[id].decode(reader, text, key, count, propertySetMapping, psets, refs);
     }
 }
@@ -26,14 +26,38 @@ import se.lth.cs.docforia.io.mem.Output;
 public class StringFieldEncoder {
     boolean equalLength = true;
     boolean tooManyUnique = false;
-    boolean numbers = true;
+    boolean numbers;
     int lastlen = -1;
     int count = 0;
     int fullReuse = 0;
     int prefixReuse = 0;
+    boolean shared;
+
+    final SharedStringDictionary dictionary;
 
     Object2IntLinkedOpenHashMap<String> uniqueTokens = new Object2IntLinkedOpenHashMap<>();
 
+    public StringFieldEncoder() {
+        this(null);
+    }
+
+    /**
+     * @param dictionary shared dictionary used if it contains all values, may be null
+     */
+    public StringFieldEncoder(SharedStringDictionary dictionary) {
+        this(dictionary, false);
+    }
+
+    /**
+     * @param dictionary shared dictionary used if it contains all values, may be null
+     * @param numbers use {@link NumericStringCodec} if all values are numbers
+     */
+    public StringFieldEncoder(SharedStringDictionary dictionary, boolean numbers) {
+        this.dictionary = dictionary;
+        this.shared = dictionary != null;
+        this.numbers = numbers;
+    }
+
     public static int comparePrefixSubstring(String text, int start, int end, String property) {
         int i = 0;
         int k = start;
@@ -61,12 +85,22 @@ public class StringFieldEncoder {
     }
 
 
+    /** Canonical non-negative decimal number that fits in a long, i.e. no sign and no leading zeros */
     public static boolean isNumber(String str) {
-        return str.chars().allMatch(i -> i >= '\u0030' && i <='\u0039') && !(str.length() > 1 && str.charAt(0) != '0');
+        if(str.isEmpty() || str.length() > 18 || (str.length() > 1 && str.charAt(0) == '0'))
+            return false;
+
+        return str.chars().allMatch(i -> i >= '\u0030' && i <='\u0039');
     }
 
     private StringCodec getEncoder() {
-        if(!tooManyUnique && count > 3 && uniqueTokens.size() != count) {
+        if(numbers && count >= 3) {
+            return NumericStringCodec.INSTANCE;
+        }
+        else if(shared && count > 0) {
+            return dictionary.codec();
+        }
+        else if(!tooManyUnique && count > 3 && uniqueTokens.size() != count) {
             if(equalLength) {
                 return EqualLenDictStringCodec.INSTANCE;
 
@@ -90,6 +124,8 @@ public class StringFieldEncoder {
             }
 
             equalLength &= property.stringValue().length() == lastlen;
+            shared &= dictionary != null && dictionary.contains(property.stringValue());
+            numbers &= isNumber(property.stringValue());
             count++;
 
             if (uniqueTokens.size() < 127) {
@@ -123,6 +159,8 @@ public class StringFieldEncoder {
             }
 
             equalLength &= property.stringValue().length() == lastlen;
+            shared &= dictionary != null && dictionary.contains(property.stringValue());
+            numbers &= isNumber(property.stringValue());
             count++;
 
             if (uniqueTokens.size() < 127) {
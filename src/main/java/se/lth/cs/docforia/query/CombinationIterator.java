@@ -15,6 +15,7 @@ package se.lth.cs.docforia.query;
  * limitations under the License.
  */
 
+import se.lth.cs.docforia.DocumentEngine;
 import se.lth.cs.docforia.query.filter.Filter;
 import se.lth.cs.docforia.query.predicates.StoreRefPropositionIterator;
 
@@ -32,7 +33,7 @@ public class CombinationIterator implements PropositionIterator
     private boolean first = true;
     private int dynamicLen = 0;
 
-    public CombinationIterator(QueryContext context, Var[] vars, Filter[] filters, boolean[] constant)
+    public CombinationIterator(QueryContext context, DocumentEngine engine, Var[] vars, Filter[] filters, boolean[] constant)
     {
         this.iterators = new ResetablePropositionIterator[vars.length];
 
@@ -46,11 +47,11 @@ public class CombinationIterator implements PropositionIterator
                 final Filter filter = filters[i];
 
                 this.iterators[startIndex] = new ResetablePropositionIterator() {
-                    private PropositionIterator iter = new StoreRefPropositionIterator(context, var, filter.newIterator());
+                    private PropositionIterator iter = new StoreRefPropositionIterator(context, var, filter.newIterator(engine));
 
                     @Override
                     public void reset() {
-                        iter = new StoreRefPropositionIterator(context, var, filter.newIterator());
+                        iter = new StoreRefPropositionIterator(context, var, filter.newIterator(engine));
                     }
 
                     @Override
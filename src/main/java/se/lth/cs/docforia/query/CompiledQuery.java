@@ -14,31 +14,313 @@ package se.lth.cs.docforia.query;
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import se.lth.cs.docforia.Document;
 import se.lth.cs.docforia.util.DocumentIterable;
 import se.lth.cs.docforia.util.DocumentIterableBase;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collector;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 /**
  * Represents a compiled query, that can be used to create many streams from.
+ * <p>
+ * Results are streamed in evaluation order unless the query is ordered, see {@link QueryModifiers}. A limit stops
+ * the evaluation as soon as enough results are found. Ordered and limited queries keep the best results in a bounded
+ * heap, when the outermost predicate binds the first order var its bindings are evaluated in range order and the
+ * evaluation stops once no later match can enter the heap. The bindings are streamed when the engine navigates
+ * annotations in range order, otherwise they are enumerated and sorted first.
  */
 public class CompiledQuery extends DocumentIterableBase<Proposition> implements DocumentIterable<Proposition> {
     private final QueryContext context;
+    private final Document doc;
     private final Set<Var> outputVars;
     private final Predicate[] predicates;
+    private final QueryPlan plan;
+    private final QueryModifiers modifiers;
 
+    /**
+     * Compile query, the predicates are reordered by the cost based planner, see {@link QueryPlan}
+     */
     public CompiledQuery(QueryContext context, Set<Var> outputVars, Predicate[] predicates) {
+        this(context, outputVars, QueryPlan.optimize(context, predicates));
+    }
+
+    public CompiledQuery(QueryContext context, Set<Var> outputVars, QueryPlan plan) {
+        this(context, context.doc, outputVars, plan);
+    }
+
+    /**
+     * Query bound to doc, the predicates of the plan must not depend on the document of the context
+     */
+    public CompiledQuery(QueryContext context, Document doc, Set<Var> outputVars, QueryPlan plan) {
+        this(context, doc, outputVars, plan, QueryModifiers.NONE);
+    }
+
+    public CompiledQuery(QueryContext context, Document doc, Set<Var> outputVars, QueryPlan plan, QueryModifiers modifiers) {
         this.context = context;
+        this.doc = doc;
         this.outputVars = outputVars;
-        this.predicates = predicates;
+        this.plan = plan;
+        this.predicates = plan.predicates();
+        this.modifiers = modifiers;
     }
 
+    /** Get the chosen execution plan */
+    public QueryPlan getPlan() {
+        return plan;
+    }
+
+    public QueryModifiers getModifiers() {
+        return modifiers;
+    }
+
+    /** Describe the chosen execution plan: predicate order, access paths and estimates */
+    public String explain() {
+        StringBuilder sb = new StringBuilder(plan.explain());
+        if(modifiers.isDistinct())
+            sb.append(String.format(Locale.ROOT, "Distinct%n"));
+
+        if(modifiers.isOrdered()) {
+            StringBuilder vars = new StringBuilder();
+            for (NodeVar var : modifiers.getOrderByRange()) {
+                if(vars.length() > 0)
+                    vars.append(", ");
+
+                vars.append(QueryPlan.describe(context, var));
+            }
+
+            NodeVar first = modifiers.getOrderByRange()[0];
+            String method;
+            if(!modifiers.isLimited())
+                method = "sort";
+            else if(predicates.length > 0 && contains(predicates[0].varIndex, context.indexOf(first)))
+                method = "top " + modifiers.getLimit() + (doc.engine().hasRangeOrderedAnnotations() ? " streamed" : " sorted")
+                         + " in range order of " + QueryPlan.describe(context, first);
+            else
+                method = "top " + modifiers.getLimit();
+
+            sb.append(String.format(Locale.ROOT, "Order by range %s: %s%n", vars, method));
+        }
+        else if(modifiers.isLimited())
+            sb.append(String.format(Locale.ROOT, "Limit %d%n", modifiers.getLimit()));
+
+        return sb.toString();
+    }
+
+    private static boolean contains(int[] items, int item) {
+        for (int i : items) {
+            if(i == item)
+                return true;
+        }
+        return false;
+    }
+
+    private SpliteratableQuery newQuery(long estimate) {
+        return newQuery(estimate, null);
+    }
+
+    private SpliteratableQuery newQuery(long estimate, QueryProfile profile) {
+        return new SpliteratableQuery(context, doc, outputVars, predicates, estimate, profile);
+    }
+
+    /**
+     * Stream of results, use {@link Stream#parallel()} to evaluate splits of the outermost predicate concurrently
+     * <p>
+     * Ordered queries are evaluated before the stream is returned.
+     */
     public Stream<Proposition> stream() {
-        return StreamSupport.stream(new SpliteratableQuery(context, outputVars, predicates), false);
+        if(modifiers.isOrdered())
+            return ordered(null).stream();
+
+        //Plans in written order are not estimated, the size is unknown
+        double rows = plan.isEstimated() ? plan.estimatedRows() : Double.POSITIVE_INFINITY;
+        if(modifiers.isLimited())
+            rows = Math.min(rows, modifiers.getLimit());
+
+        long estimate = (long)Math.ceil(Math.min(Long.MAX_VALUE, Math.max(1.0, rows)));
+        Stream<Proposition> stream = StreamSupport.stream(newQuery(estimate), false);
+        if(modifiers.isDistinct())
+            stream = stream.distinct();
+
+        if(modifiers.isLimited())
+            stream = stream.limit(modifiers.getLimit());
+
+        return stream;
+    }
+
+    /**
+     * Evaluate the query and pass every match to consumer without allocating a proposition per match.
+     * <p>
+     * The proposition passed to the consumer is reused, see {@link PropositionConsumer}. Distinct queries copy
+     * every new result, ordered queries copy the results they keep.
+     */
+    public void forEachMatch(PropositionConsumer consumer) {
+        forEachMatch(consumer, null);
+    }
+
+    /**
+     * Evaluate the query like {@link #forEachMatch(PropositionConsumer)} and record counters and time per predicate
+     * @return the profile of this evaluation
+     */
+    public QueryProfile profile(PropositionConsumer consumer) {
+        QueryProfile profile = new QueryProfile(context, plan);
+        long start = System.nanoTime();
+        forEachMatch(proposition -> {
+            profile.results++;
+            consumer.accept(proposition);
+        }, profile);
+        profile.nanos = System.nanoTime() - start;
+        return profile;
+    }
+
+    /**
+     * Evaluate the query, discarding the results, and record counters and time per predicate
+     * @see #profile(PropositionConsumer)
+     */
+    public QueryProfile profile() {
+        return profile(proposition -> {});
+    }
+
+    private void forEachMatch(PropositionConsumer consumer, QueryProfile profile) {
+        if(modifiers.isOrdered()) {
+            for (Proposition proposition : ordered(profile)) {
+                consumer.accept(proposition);
+            }
+            return;
+        }
+
+        SpliteratableQuery query = newQuery(Long.MAX_VALUE, profile);
+        Proposition cursor = query.newCursor();
+        ObjectOpenHashSet<Proposition> seen = modifiers.isDistinct() ? new ObjectOpenHashSet<>() : null;
+        int remaining = modifiers.getLimit();
+        while(remaining != 0 && query.nextMatch(cursor)) {
+            if(seen != null) {
+                if(seen.contains(cursor))
+                    continue;
+
+                seen.add(cursor.copy());
+            }
+
+            consumer.accept(cursor);
+            if(remaining > 0)
+                remaining--;
+        }
+    }
+
+    /**
+     * Stream of groups of results with equal keys, the values of a group are the results.
+     * <p>
+     * When the first key is a node var bound by the outermost predicate, its bindings are evaluated in range order
+     * and groups are streamed as soon as they are complete, in range order of the first key, see
+     * {@link RangeGroupSpliterator} and {@link SpliteratableQuery#orderRootsByRange(NodeVar)}. Otherwise all results are grouped in a hash table before the first group is
+     * returned. Groups are ordered by the range of the first key, values are ordered by orderByRange if given.
+     * A limit applies to the results, not to the groups.
+     * @param keys selected vars
+     */
+    public Stream<PropositionGroup> groupBy(Var...keys) {
+        if(keys.length == 0)
+            throw new IllegalArgumentException("At least 1 key is required");
+
+        for (Var key : keys) {
+            if(!outputVars.contains(key))
+                throw new IllegalArgumentException(key.toString() + " is not selected!");
+        }
+
+        Function<Proposition,Proposition> keyFunction = StreamUtils.subset(doc, keys);
+        Comparator<Proposition> valueComparator = modifiers.isOrdered() ? new PropositionStartComparator(modifiers.getOrderByRange()) : null;
+
+        if(keys[0] instanceof NodeVar && !modifiers.isLimited()) {
+            SpliteratableQuery query = newQuery(Long.MAX_VALUE);
+            if(query.orderRootsByRange((NodeVar)keys[0])) {
+                return StreamSupport.stream(new RangeGroupSpliterator(query, (NodeVar)keys[0], keyFunction, p -> p, valueComparator, modifiers.isDistinct()), false);
+            }
+        }
+
+        Collector<Proposition,?,List<PropositionGroup>> collector;
+        if(keys[0] instanceof NodeVar && valueComparator != null)
+            collector = QueryCollectors.toSortedListGroups(keyFunction, p -> p, new PropositionStartComparator((NodeVar)keys[0]), valueComparator);
+        else if(keys[0] instanceof NodeVar)
+            collector = QueryCollectors.toSortedKeyListGroups(keyFunction, p -> p, new PropositionStartComparator((NodeVar)keys[0]));
+        else if(valueComparator != null)
+            collector = QueryCollectors.toSortedListGroups(keyFunction, p -> p, valueComparator);
+        else
+            collector = QueryCollectors.toListGroups(keyFunction, p -> p);
+
+        return stream().collect(collector).stream();
+    }
+
+    /** Evaluate an ordered query */
+    private List<Proposition> ordered(QueryProfile profile) {
+        NodeVar[] orderBy = modifiers.getOrderByRange();
+        PropositionStartComparator comparator = new PropositionStartComparator(orderBy);
+        SpliteratableQuery query = newQuery(Long.MAX_VALUE, profile);
+        Proposition cursor = query.newCursor();
+        int limit = modifiers.getLimit();
+
+        if(!modifiers.isLimited()) {
+            ObjectOpenHashSet<Proposition> seen = modifiers.isDistinct() ? new ObjectOpenHashSet<>() : null;
+            ArrayList<Proposition> result = new ArrayList<>();
+            while(query.nextMatch(cursor)) {
+                if(seen == null || !seen.contains(cursor)) {
+                    Proposition copy = cursor.copy();
+                    result.add(copy);
+                    if(seen != null)
+                        seen.add(copy);
+                }
+            }
+
+            result.sort(comparator);
+            return result;
+        }
+
+        ArrayList<Proposition> result = new ArrayList<>();
+        if(limit == 0)
+            return result;
+
+        //Matches are produced in range order of the first var, no later match can beat the worst kept once its first var is ordered after it.
+        //Range ordered engines bind the first var lazily, only the roots up to that point are evaluated.
+        boolean inOrder = query.orderRootsByRange(orderBy[0]);
+
+        //Top-k: the worst kept result is at the head, the contents are tracked for distinct queries
+        PriorityQueue<Proposition> heap = new PriorityQueue<>(Math.min(limit, 1024) + 1, comparator.reversed());
+        ObjectOpenHashSet<Proposition> kept = modifiers.isDistinct() ? new ObjectOpenHashSet<>() : null;
+        while(query.nextMatch(cursor)) {
+            if(heap.size() == limit) {
+                if(inOrder && comparator.compare(cursor, heap.peek(), 1) > 0)
+                    break;
+
+                if(comparator.compare(cursor, heap.peek()) >= 0)
+                    continue;
+            }
+
+            if(kept != null && kept.contains(cursor))
+                continue;
+
+            Proposition copy = cursor.copy();
+            heap.add(copy);
+            if(kept != null)
+                kept.add(copy);
+
+            if(heap.size() > limit) {
+                Proposition worst = heap.poll();
+                if(kept != null)
+                    kept.remove(worst);
+            }
+        }
+
+        result.addAll(heap);
+        result.sort(comparator);
+        return result;
     }
 
     @Override
@@ -15,15 +15,23 @@ package se.lth.cs.docforia.query;
  * limitations under the License.
  */
 
+import se.lth.cs.docforia.Document;
 import se.lth.cs.docforia.query.filter.BasicEdgeFilter;
 import se.lth.cs.docforia.query.filter.BasicNodeFilter;
 import se.lth.cs.docforia.query.filter.Filter;
 
 /**
  * Base class for all predicates
+ * <p>
+ * Predicates do not depend on a document, the queried document is given by the context of the evaluated
+ * proposition, see {@link #document(Proposition)}. All evaluation state is kept in {@link PredicateState}, which
+ * allows a predicate to be shared by concurrent evaluations, see {@link PreparedQuery}.
  */
 public abstract class Predicate
 {
+    /** Selectivity used when it cannot be estimated, e.g. for user functions */
+    public static final double DEFAULT_SELECTIVITY = 0.1;
+
     protected final QueryContext context;
     protected final Var[] vars;
     protected final int[] varIndex;
@@ -42,9 +50,9 @@ public abstract class Predicate
 
         for (int i = 0; i < vars.length; i++) {
             if(vars[i] instanceof NodeVar)
-                filters[i] = new BasicNodeFilter(context.doc.engine(), ((NodeVar)vars[i]).type, ((NodeVar)vars[i]).variant);
+                filters[i] = new BasicNodeFilter(((NodeVar)vars[i]).type, ((NodeVar)vars[i]).variant);
             else if(vars[i] instanceof EdgeVar)
-                filters[i] = new BasicEdgeFilter(context.doc.engine(), ((EdgeVar)vars[i]).type, ((EdgeVar)vars[i]).variant);
+                filters[i] = new BasicEdgeFilter(((EdgeVar)vars[i]).type, ((EdgeVar)vars[i]).variant);
             else
                 throw new UnsupportedOperationException("Unsupported variable!");
 
@@ -52,6 +60,11 @@ public abstract class Predicate
         }
     }
 
+    /** The queried document */
+    protected static Document document(Proposition proposition) {
+        return proposition.context.getDocument();
+    }
+
     public Var[] vars() {
         return vars;
     }
@@ -61,35 +74,69 @@ public abstract class Predicate
     }
 
     protected PropositionIterator suggest(PredicateState state, Proposition proposition) {
-        return new CombinationIterator(context, vars, filters, state.constant);
+        return new CombinationIterator(context, document(proposition).engine(), vars, filters, state.constant);
     }
 
     public final void enter(PredicateState state, Proposition proposition) {
+        PredicateProfile profile = state.profile;
+        long start = profile == null ? 0L : System.nanoTime();
+
         int constants = 0;
         for (int i = 0; i < vars.length; i++) {
             state.constant[i] = proposition.data[varIndex[i]] != null;
             constants += state.constant[i] ? 1 : 0;
         }
 
-        if(constants == vars.length)
-            return;
+        state.iterator = constants != vars.length ? suggest(state, proposition) : null;
 
-        state.iterator = suggest(state, proposition);
+        if(profile != null) {
+            profile.enters++;
+            profile.nanos += System.nanoTime() - start;
+        }
     }
 
     public final boolean next(PredicateState state, Proposition proposition) {
+        PredicateProfile profile = state.profile;
+        if(profile == null)
+            return advance(state, proposition, null);
+
+        long start = System.nanoTime();
+        boolean found = advance(state, proposition, profile);
+        profile.nexts++;
+        if(found)
+            profile.matches++;
+
+        profile.nanos += System.nanoTime() - start;
+        return found;
+    }
+
+    private boolean advance(PredicateState state, Proposition proposition, PredicateProfile profile) {
         if(state.iterator == null) { //special case: all are constants, return one result if true
             if(state.evaluated)
                 return false;
             else {
                 state.evaluated = true;
-                return eval(proposition);
+                boolean accepted = eval(proposition);
+                if(profile != null) {
+                    profile.candidates++;
+                    profile.rejections += accepted ? 0 : 1;
+                }
+                return accepted;
             }
         }
 
         while(state.iterator.next(proposition)) {
-            if(eval(proposition))
+            if(eval(proposition)) {
+                if(profile != null)
+                    profile.candidates++;
+
                 return true;
+            }
+
+            if(profile != null) {
+                profile.candidates++;
+                profile.rejections++;
+            }
         }
 
         return false;
@@ -102,7 +149,60 @@ public abstract class Predicate
             }
         }
         state.evaluated = false;
+
+        if(state.profile != null)
+            state.profile.exits++;
     }
 
     public abstract boolean eval(Proposition proposition);
+
+    /**
+     * Estimated number of candidates enumerated per enter, given which vars are already bound.
+     * <p>
+     * The default is the cartesian product of the layers of all unbound vars.
+     * @param bound per var in {@link #vars()}, true if bound by an earlier predicate
+     */
+    public double estimateCandidates(QueryStatistics stats, boolean[] bound) {
+        double candidates = 1.0;
+        for (int i = 0; i < vars.length; i++) {
+            if(!bound[i])
+                candidates *= stats.size(vars[i]);
+        }
+        return candidates;
+    }
+
+    /**
+     * Estimated fraction of the candidates accepted by {@link #eval(Proposition)}, given which vars are already bound.
+     * @param bound per var in {@link #vars()}, true if bound by an earlier predicate
+     */
+    public double estimateSelectivity(QueryStatistics stats, boolean[] bound) {
+        return DEFAULT_SELECTIVITY;
+    }
+
+    /**
+     * Description of how candidates are found, given which vars are already bound.
+     * @param bound per var in {@link #vars()}, true if bound by an earlier predicate
+     */
+    public String accessPath(QueryStatistics stats, boolean[] bound) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < vars.length; i++) {
+            if(!bound[i]) {
+                sb.append(sb.length() == 0 ? "scan " : " x ").append(QueryPlan.describe(context, vars[i]));
+            }
+        }
+        return sb.length() == 0 ? "filter" : sb.toString();
+    }
+
+    /**
+     * True if the result of this predicate does not depend on which vars are bound by earlier predicates.
+     * Predicates that are not reorderable keep their written position in query plans.
+     */
+    public boolean reorderable() {
+        return true;
+    }
+
+    /** Predicate name used by explain */
+    public String name() {
+        return getClass().isAnonymousClass() ? "Function" : getClass().getSimpleName();
+    }
 }
@@ -0,0 +1,78 @@
+package se.lth.cs.docforia.query;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Evaluation counters of one predicate of a profiled query, see {@link QueryProfile}
+ */
+public class PredicateProfile {
+    protected final Predicate predicate;
+    protected final String accessPath;
+    protected long enters;
+    protected long nexts;
+    protected long exits;
+    protected long candidates;
+    protected long rejections;
+    protected long matches;
+    protected long nanos;
+
+    public PredicateProfile(Predicate predicate, String accessPath) {
+        this.predicate = predicate;
+        this.accessPath = accessPath;
+    }
+
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    /** Access path chosen by the planner */
+    public String getAccessPath() {
+        return accessPath;
+    }
+
+    /** Number of times the predicate was entered, once per proposition from earlier predicates */
+    public long getEnters() {
+        return enters;
+    }
+
+    public long getNexts() {
+        return nexts;
+    }
+
+    public long getExits() {
+        return exits;
+    }
+
+    /** Number of candidates produced by suggest, or evaluated directly when all vars were bound */
+    public long getCandidates() {
+        return candidates;
+    }
+
+    /** Number of candidates rejected by eval */
+    public long getRejections() {
+        return rejections;
+    }
+
+    /** Number of propositions passed on to later predicates */
+    public long getMatches() {
+        return matches;
+    }
+
+    /** Time spent in enter and next of this predicate, later predicates are not included */
+    public long getNanos() {
+        return nanos;
+    }
+}
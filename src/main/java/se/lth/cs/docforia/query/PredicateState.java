@@ -23,6 +23,9 @@ public class PredicateState {
     public PropositionIterator iterator;
     public boolean evaluated = false;
 
+    /** Evaluation counters, null unless the query is profiled */
+    public PredicateProfile profile;
+
     public PredicateState(boolean[] constant, PropositionIterator iterator, boolean evaluated) {
         this.constant = constant;
         this.iterator = iterator;
@@ -0,0 +1,97 @@
+package se.lth.cs.docforia.query;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import se.lth.cs.docforia.Document;
+import se.lth.cs.docforia.query.dsl.CommonClause;
+import se.lth.cs.docforia.query.dsl.QueryClause;
+
+import java.util.Set;
+
+/**
+ * Query compiled once and executed against many documents.
+ * <p>
+ * Predicates are created once when the query is prepared and the evaluation order is planned once, using the
+ * statistics of the first executed document. An execution only allocates its own proposition and predicate states,
+ * a prepared query can be executed by many threads concurrently.
+ * <p>
+ * Example:
+ * <pre>{@code
+ * NodeTVar<Token> T = Token.var();
+ * NodeTVar<NamedEntity> NE = NamedEntity.var();
+ * PreparedQuery query = PreparedQuery.select(T, NE).where(T).coveredBy(NE).prepare();
+ * for(Document doc : corpus) {
+ *     query.execute(doc).forEachMatch(match -> ...);
+ * }
+ * }</pre>
+ * <b>Remarks:</b> constraints resolved against a specific document, e.g. inWindowOf, cannot be prepared.
+ */
+public class PreparedQuery {
+    private final QueryContext context;
+    private final Set<Var> outputVars;
+    private final Predicate[] predicates;
+    private final QueryModifiers modifiers;
+    private volatile QueryPlan plan;
+
+    public PreparedQuery(QueryContext context, Set<Var> outputVars, Predicate[] predicates) {
+        this(context, outputVars, predicates, QueryModifiers.NONE);
+    }
+
+    public PreparedQuery(QueryContext context, Set<Var> outputVars, Predicate[] predicates, QueryModifiers modifiers) {
+        this.context = context;
+        this.outputVars = outputVars;
+        this.predicates = predicates;
+        this.modifiers = modifiers;
+    }
+
+    /**
+     * Start a query template
+     * @param vars the vars that must appear in output
+     */
+    public static CommonClause select(Var...vars) {
+        return new QueryClause(vars);
+    }
+
+    /** Get the plan, null until the first execution */
+    public QueryPlan getPlan() {
+        return plan;
+    }
+
+    private QueryPlan plan(Document doc) {
+        QueryPlan current = plan;
+        if(current == null) {
+            synchronized (this) {
+                current = plan;
+                if(current == null) {
+                    plan = current = QueryPlan.optimize(new QueryStatistics(doc), context, predicates);
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Bind the query to doc
+     * @return query that evaluates against doc, see {@link CompiledQuery#stream()} and
+     *         {@link CompiledQuery#forEachMatch(PropositionConsumer)}
+     */
+    public CompiledQuery execute(Document doc) {
+        if(doc == null)
+            throw new NullPointerException("doc");
+
+        return new CompiledQuery(context, doc, outputVars, plan(doc), modifiers);
+    }
+}
@@ -0,0 +1,27 @@
+package se.lth.cs.docforia.query;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Consumer of query matches, see {@link CompiledQuery#forEachMatch(PropositionConsumer)}.
+ * <p>
+ * The proposition is a cursor that is reused for every match: it must not be modified and it is only valid during
+ * the call. Use {@link Proposition#copy()} to keep a match.
+ */
+@FunctionalInterface
+public interface PropositionConsumer {
+    void accept(Proposition proposition);
+}
@@ -29,7 +29,8 @@ public class PropositionContext {
     public PropositionContext(Document document, Reference2IntOpenHashMap<Var> var2index) {
         this.document = document;
         this.var2index = var2index;
-        this.var2index.defaultReturnValue(-1);
+        if(var2index.defaultReturnValue() != -1)
+            this.var2index.defaultReturnValue(-1);
     }
 
     public Document getDocument() {
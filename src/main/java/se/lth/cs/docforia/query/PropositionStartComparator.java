@@ -0,0 +1,56 @@
+package se.lth.cs.docforia.query;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import se.lth.cs.docforia.NodeStore;
+
+import java.util.Comparator;
+
+/**
+ * Orders propositions by annotation start and then end, var by var. Nodes that are not annotations are ordered last.
+ */
+public class PropositionStartComparator implements Comparator<Proposition> {
+    private final NodeVar[] nodeVars;
+
+    public PropositionStartComparator(NodeVar...nodeVars) {
+        this.nodeVars = nodeVars;
+    }
+
+    public static int compare(NodeStore o1, NodeStore o2) {
+        if(o1.isAnnotation() != o2.isAnnotation())
+            return o1.isAnnotation() ? -1 : 1;
+        else if(!o1.isAnnotation())
+            return 0;
+
+        int result = Integer.compare(o1.getStart(), o2.getStart());
+        return result != 0 ? result : Integer.compare(o1.getEnd(), o2.getEnd());
+    }
+
+    /** Compare by the first numVars vars only */
+    public int compare(Proposition o1, Proposition o2, int numVars) {
+        for (int i = 0; i < numVars; i++) {
+            int result = compare(o1.noderef(nodeVars[i]).get(), o2.noderef(nodeVars[i]).get());
+            if(result != 0)
+                return result;
+        }
+        return 0;
+    }
+
+    @Override
+    public int compare(Proposition o1, Proposition o2) {
+        return compare(o1, o2, nodeVars.length);
+    }
+}
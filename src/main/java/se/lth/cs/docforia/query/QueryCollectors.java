@@ -24,6 +24,8 @@ import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Query collectors
@@ -55,7 +57,7 @@ public class QueryCollectors {
                 List<Proposition> values = data.get(entry.getKey());
                 if(values == null)
                 {
-                    data.put(entry.getKey(), values);
+                    data.put(entry.getKey(), entry.getValue());
                 }
                 else {
                     values.addAll(entry.getValue());
@@ -225,6 +227,19 @@ public class QueryCollectors {
         };
     }
 
+    /**
+     * Streaming group by over propositions ordered by the range of rangeVar, e.g. the results of a query ordered by
+     * range. Groups are emitted as soon as they are complete, see {@link RangeGroupSpliterator}.
+     * @param propositions propositions ordered by the range of rangeVar
+     * @param rangeVar     the first key var
+     * @param keyFunction   key extraction function, the key must include rangeVar
+     * @param valueFunction value extraction function
+     */
+    public static Stream<PropositionGroup> groupByRange(Stream<Proposition> propositions, NodeVar rangeVar, Function<Proposition,Proposition> keyFunction, Function<Proposition,Proposition> valueFunction) {
+        return StreamSupport.stream(new RangeGroupSpliterator(propositions.spliterator(), rangeVar, keyFunction, valueFunction, null, false), false)
+                            .onClose(propositions::close);
+    }
+
     public static class GroupCollectorBuilder {
         private Document document;
         private Var[] keys;
@@ -252,6 +267,23 @@ public class QueryCollectors {
             return this;
         }
 
+        /**
+         * Streaming group by, the first key must be a node var that orders the propositions by range. Groups are
+         * emitted in range order of the first key, orderByKey is not used.
+         * @see QueryCollectors#groupByRange(Stream, NodeVar, Function, Function)
+         */
+        public Stream<PropositionGroup> stream(Stream<Proposition> propositions) {
+            if(!(keys[0] instanceof NodeVar))
+                throw new IllegalArgumentException("The first key must be a NodeVar: " + keys[0]);
+
+            Function<Proposition,Proposition> keyFunction = StreamUtils.subset(document, keys);
+            Function<Proposition,Proposition> valueFunction = values != null ? StreamUtils.subset(document, values) : p -> p;
+            Comparator<Proposition> valueComparator = orderByValue != null ? StreamUtils.orderBy(orderByValue) : null;
+
+            return StreamSupport.stream(new RangeGroupSpliterator(propositions.spliterator(), (NodeVar)keys[0], keyFunction, valueFunction, valueComparator, false), false)
+                                .onClose(propositions::close);
+        }
+
         public Collector<Proposition,?,List<PropositionGroup>> collector() {
             Function<Proposition,Proposition> keyFunction = StreamUtils.subset(document, keys);
             Function<Proposition,Proposition> valueFunction = values != null ? StreamUtils.subset(document, values) : p -> p;
@@ -7,6 +7,8 @@ import java.util.Set;
 
 /**
  * Query Context information
+ * <p>
+ * The document is null for query templates, see {@link PreparedQuery}.
  */
 public class QueryContext {
     public final Document doc;
@@ -15,6 +17,7 @@ public class QueryContext {
     public QueryContext(Document doc) {
         this.doc = doc;
         this.var2index = new Reference2IntOpenHashMap<>();
+        this.var2index.defaultReturnValue(-1);
     }
 
     public Document getDoc() {
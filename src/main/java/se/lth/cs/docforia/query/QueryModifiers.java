@@ -0,0 +1,60 @@
+package se.lth.cs.docforia.query;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Result modifiers applied after evaluation: distinct, range order and limit
+ */
+public class QueryModifiers {
+    /** No modifiers, all matches in evaluation order */
+    public static final QueryModifiers NONE = new QueryModifiers(false, new NodeVar[0], -1);
+
+    protected final boolean distinct;
+    protected final NodeVar[] orderByRange;
+    protected final int limit;
+
+    /**
+     * @param distinct remove duplicate results
+     * @param orderByRange order results by the ranges of these vars, see {@link PropositionStartComparator}
+     * @param limit maximum number of results, -1 if unlimited
+     */
+    public QueryModifiers(boolean distinct, NodeVar[] orderByRange, int limit) {
+        this.distinct = distinct;
+        this.orderByRange = orderByRange;
+        this.limit = limit;
+    }
+
+    public boolean isDistinct() {
+        return distinct;
+    }
+
+    public NodeVar[] getOrderByRange() {
+        return orderByRange;
+    }
+
+    public boolean isOrdered() {
+        return orderByRange.length > 0;
+    }
+
+    /** Maximum number of results, -1 if unlimited */
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean isLimited() {
+        return limit >= 0;
+    }
+}
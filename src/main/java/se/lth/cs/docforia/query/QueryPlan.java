@@ -0,0 +1,297 @@
+package se.lth.cs.docforia.query;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Query execution plan, the evaluation order of predicates.
+ * <p>
+ * The evaluation engine binds variables in predicate order, the first predicate to mention a variable enumerates
+ * its candidates and later predicates only filter or look up relative to bound variables. The planner picks the
+ * order greedily: at every step the predicate producing the fewest estimated propositions given the variables bound
+ * so far, ties are broken by enumeration cost and then by written order. Estimates come from
+ * {@link Predicate#estimateCandidates(QueryStatistics, boolean[])} and
+ * {@link Predicate#estimateSelectivity(QueryStatistics, boolean[])}.
+ * <p>
+ * Predicates that are not reorderable, see {@link Predicate#reorderable()}, act as fences: they keep their written
+ * position relative to all other predicates. When no predicates can be reordered the written order is kept without
+ * planning and the estimates of the steps are computed on first use.
+ */
+public class QueryPlan {
+    /** A single step of the plan */
+    public static class Step {
+        protected final Predicate predicate;
+        protected final boolean[] bound;
+        protected final double candidates;
+        protected final double selectivity;
+        protected final double rowsIn;
+        protected final double rowsOut;
+        protected final String accessPath;
+
+        public Step(Predicate predicate, boolean[] bound, double candidates, double selectivity, double rowsIn, String accessPath) {
+            this.predicate = predicate;
+            this.bound = bound;
+            this.candidates = candidates;
+            this.selectivity = selectivity;
+            this.rowsIn = rowsIn;
+            this.rowsOut = rowsIn * candidates * selectivity;
+            this.accessPath = accessPath;
+        }
+
+        public Predicate getPredicate() {
+            return predicate;
+        }
+
+        /** Estimated number of candidates enumerated per input proposition */
+        public double getCandidates() {
+            return candidates;
+        }
+
+        /** Estimated fraction of candidates accepted */
+        public double getSelectivity() {
+            return selectivity;
+        }
+
+        /** Estimated number of input propositions */
+        public double getRowsIn() {
+            return rowsIn;
+        }
+
+        /** Estimated number of output propositions */
+        public double getRowsOut() {
+            return rowsOut;
+        }
+
+        /** Estimated work of this step */
+        public double getCost() {
+            return rowsIn * candidates;
+        }
+
+        public String getAccessPath() {
+            return accessPath;
+        }
+    }
+
+    protected final QueryContext context;
+    private final QueryStatistics stats;
+    private final Predicate[] predicates;
+    private volatile Step[] steps;
+
+    protected QueryPlan(QueryContext context, Step[] steps) {
+        this.context = context;
+        this.stats = null;
+        this.predicates = null;
+        this.steps = steps;
+    }
+
+    /** Plan in written order, steps are estimated on first use */
+    private QueryPlan(QueryContext context, QueryStatistics stats, Predicate[] predicates) {
+        this.context = context;
+        this.stats = stats;
+        this.predicates = predicates;
+    }
+
+    private static boolean[] bound(Predicate predicate, boolean[] boundVars) {
+        boolean[] bound = new boolean[predicate.vars.length];
+        for (int i = 0; i < bound.length; i++) {
+            bound[i] = boundVars[predicate.varIndex[i]];
+        }
+        return bound;
+    }
+
+    private static Step step(QueryStatistics stats, Predicate predicate, boolean[] boundVars, double rowsIn) {
+        boolean[] bound = bound(predicate, boundVars);
+        return new Step(predicate, bound, predicate.estimateCandidates(stats, bound), predicate.estimateSelectivity(stats, bound), rowsIn,
+                        predicate.accessPath(stats, bound));
+    }
+
+    private static void bind(Predicate predicate, boolean[] boundVars) {
+        for (int index : predicate.varIndex) {
+            boundVars[index] = true;
+        }
+    }
+
+    /**
+     * Plan with predicates in the given order
+     */
+    public static QueryPlan ordered(QueryContext context, Predicate[] predicates) {
+        return new QueryPlan(context, ordered(new QueryStatistics(context.doc), context, predicates));
+    }
+
+    private static Step[] ordered(QueryStatistics stats, QueryContext context, Predicate[] predicates) {
+        boolean[] boundVars = new boolean[context.numVars()];
+        Step[] steps = new Step[predicates.length];
+        double rows = 1.0;
+        for (int i = 0; i < predicates.length; i++) {
+            steps[i] = step(stats, predicates[i], boundVars, rows);
+            bind(predicates[i], boundVars);
+            rows = steps[i].rowsOut;
+        }
+        return steps;
+    }
+
+    /** True if two reorderable predicates are adjacent, i.e. planning can change the order */
+    private static boolean reorderable(Predicate[] predicates) {
+        int run = 0;
+        for (Predicate predicate : predicates) {
+            run = predicate.reorderable() ? run + 1 : 0;
+            if(run > 1)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Cost based plan
+     */
+    public static QueryPlan optimize(QueryContext context, Predicate[] predicates) {
+        return optimize(new QueryStatistics(context.doc), context, predicates);
+    }
+
+    /**
+     * Cost based plan
+     * @param stats statistics of the queried document
+     */
+    public static QueryPlan optimize(QueryStatistics stats, QueryContext context, Predicate[] predicates) {
+        if(!reorderable(predicates))
+            return new QueryPlan(context, stats, predicates);
+
+        boolean[] boundVars = new boolean[context.numVars()];
+        ArrayList<Step> steps = new ArrayList<>(predicates.length);
+        double rows = 1.0;
+
+        int segmentStart = 0;
+        while(segmentStart < predicates.length) {
+            //Segment of reorderable predicates up to the next fence
+            int segmentEnd = segmentStart;
+            while(segmentEnd < predicates.length && predicates[segmentEnd].reorderable()) {
+                segmentEnd++;
+            }
+
+            ArrayList<Predicate> remaining = new ArrayList<>(Arrays.asList(predicates).subList(segmentStart, segmentEnd));
+            while(!remaining.isEmpty()) {
+                Step best = null;
+                int bestIndex = -1;
+                for (int i = 0; i < remaining.size(); i++) {
+                    Step candidate = step(stats, remaining.get(i), boundVars, rows);
+                    if(best == null
+                            || candidate.rowsOut < best.rowsOut
+                            || (candidate.rowsOut == best.rowsOut && candidate.getCost() < best.getCost())) {
+                        best = candidate;
+                        bestIndex = i;
+                    }
+                }
+
+                remaining.remove(bestIndex);
+                steps.add(best);
+                bind(best.predicate, boundVars);
+                rows = best.rowsOut;
+            }
+
+            if(segmentEnd < predicates.length) {
+                Step fence = step(stats, predicates[segmentEnd], boundVars, rows);
+                steps.add(fence);
+                bind(fence.predicate, boundVars);
+                rows = fence.rowsOut;
+            }
+
+            segmentStart = segmentEnd + 1;
+        }
+
+        return new QueryPlan(context, steps.toArray(new Step[steps.size()]));
+    }
+
+    /** Predicates in evaluation order */
+    public Predicate[] predicates() {
+        if(predicates != null)
+            return predicates.clone();
+
+        Predicate[] predicates = new Predicate[steps.length];
+        for (int i = 0; i < steps.length; i++) {
+            predicates[i] = steps[i].predicate;
+        }
+        return predicates;
+    }
+
+    /** True if the steps have been estimated, plans in written order are estimated on first use of the steps */
+    public boolean isEstimated() {
+        return steps != null;
+    }
+
+    public Step[] steps() {
+        Step[] steps = this.steps;
+        if(steps == null) {
+            steps = ordered(stats, context, predicates);
+            this.steps = steps;
+        }
+        return steps;
+    }
+
+    /** Estimated number of results */
+    public double estimatedRows() {
+        Step[] steps = steps();
+        return steps.length == 0 ? 0.0 : steps[steps.length-1].rowsOut;
+    }
+
+    /** Estimated total work */
+    public double estimatedCost() {
+        double cost = 0.0;
+        for (Step step : steps()) {
+            cost += step.getCost();
+        }
+        return cost;
+    }
+
+    /** Short variable description used by explain, e.g. v0:Token */
+    public static String describe(QueryContext context, Var var) {
+        String layer = var.getLayer() == null ? "*" : var.getLayer().substring(var.getLayer().lastIndexOf('.') + 1);
+        String variant = var.getVariant() == null ? "" : "@" + var.getVariant();
+        return "v" + context.indexOf(var) + ":" + layer + variant;
+    }
+
+    /** Human readable description of the plan */
+    public String explain() {
+        Step[] steps = steps();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "Plan: %d steps, estimated cost %.1f, estimated rows %.1f%n",
+                                steps.length, estimatedCost(), estimatedRows()));
+
+        for (int i = 0; i < steps.length; i++) {
+            Step step = steps[i];
+            StringBuilder vars = new StringBuilder();
+            for (Var var : step.predicate.vars) {
+                if(vars.length() > 0)
+                    vars.append(", ");
+
+                vars.append(describe(context, var));
+            }
+
+            sb.append(String.format(Locale.ROOT, "%d. %s(%s): %s, candidates %.1f, selectivity %.4f, rows %.1f%n",
+                                    i + 1, step.predicate.name(), vars, step.getAccessPath(),
+                                    step.candidates, step.selectivity, step.rowsOut));
+        }
+
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return explain();
+    }
+}
@@ -0,0 +1,115 @@
+package se.lth.cs.docforia.query;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import se.lth.cs.docforia.util.StringTable;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * Profile of a query evaluation: counters and time per predicate in plan order.
+ * <p>
+ * Created by {@link CompiledQuery#profile(PropositionConsumer)}, profiling adds a timer read per predicate call and
+ * a counter update per candidate, queries that are not profiled only pay a null check.
+ */
+public class QueryProfile {
+    protected final QueryContext context;
+    protected final PredicateProfile[] predicates;
+    protected long results;
+    protected long nanos;
+
+    public QueryProfile(QueryContext context, QueryPlan plan) {
+        this.context = context;
+        QueryPlan.Step[] steps = plan.steps();
+        this.predicates = new PredicateProfile[steps.length];
+        for (int i = 0; i < steps.length; i++) {
+            predicates[i] = new PredicateProfile(steps[i].getPredicate(), steps[i].getAccessPath());
+        }
+    }
+
+    /** Profiles in plan order */
+    public PredicateProfile[] predicates() {
+        return predicates;
+    }
+
+    public PredicateProfile predicate(int step) {
+        return predicates[step];
+    }
+
+    /** Number of results passed to the consumer */
+    public long getResults() {
+        return results;
+    }
+
+    /** Total evaluation time, including modifiers such as ordering */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /** The predicate where most time was spent */
+    public PredicateProfile slowest() {
+        PredicateProfile slowest = null;
+        for (PredicateProfile predicate : predicates) {
+            if(slowest == null || predicate.nanos > slowest.nanos)
+                slowest = predicate;
+        }
+        return slowest;
+    }
+
+    /** Profile as a table, one row per predicate */
+    public StringTable table() {
+        StringTable table = new StringTable("#", "Predicate", "Access path", "Enter", "Next", "Exit", "Candidates", "Rejected", "Matches", "Time (ms)", "%");
+        for (int i = 3; i < 11; i++) {
+            table.alignRight(i);
+        }
+
+        for (int i = 0; i < predicates.length; i++) {
+            PredicateProfile profile = predicates[i];
+            StringBuilder vars = new StringBuilder();
+            for (Var var : profile.predicate.vars) {
+                if(vars.length() > 0)
+                    vars.append(", ");
+
+                vars.append(QueryPlan.describe(context, var));
+            }
+
+            table.row(i + 1,
+                      profile.predicate.name() + "(" + vars + ")",
+                      profile.accessPath,
+                      profile.enters,
+                      profile.nexts,
+                      profile.exits,
+                      profile.candidates,
+                      profile.rejections,
+                      profile.matches,
+                      String.format(Locale.ROOT, "%.3f", profile.nanos / 1e6),
+                      String.format(Locale.ROOT, "%.1f", nanos == 0 ? 0.0 : 100.0 * profile.nanos / nanos));
+        }
+
+        return table;
+    }
+
+    public void print(PrintStream output) {
+        output.println(String.format(Locale.ROOT, "Results: %d, time %.3f ms", results, nanos / 1e6));
+        table().print(output);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "Results: %d, time %.3f ms%n", results, nanos / 1e6) + table().toString();
+    }
+}
@@ -0,0 +1,206 @@
+package se.lth.cs.docforia.query;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import se.lth.cs.docforia.Document;
+import se.lth.cs.docforia.DocumentEngine;
+import se.lth.cs.docforia.NodeRef;
+import se.lth.cs.docforia.NodeStore;
+import se.lth.cs.docforia.PropertyStore;
+import se.lth.cs.docforia.StoreRef;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Document statistics used by the query planner to estimate cardinalities.
+ * <p>
+ * Layer sizes are exact, so are property frequencies of indexed properties. Other property frequencies and
+ * annotation lengths are estimated from a sample of the first {@link #SAMPLE_SIZE} items in a layer, estimates are
+ * cached for the lifetime of this object.
+ */
+public class QueryStatistics {
+    /** Maximum number of items sampled per layer */
+    public static final int SAMPLE_SIZE = 256;
+
+    private final Document doc;
+    private final Reference2IntOpenHashMap<Var> sizes = new Reference2IntOpenHashMap<>();
+    private final Object2DoubleOpenHashMap<Object> estimates = new Object2DoubleOpenHashMap<>();
+
+    public QueryStatistics(Document doc) {
+        this.doc = doc;
+    }
+
+    private DocumentEngine engine() {
+        return doc.engine();
+    }
+
+    /** Length of the document text */
+    public int textLength() {
+        return Math.max(1, doc.length());
+    }
+
+    /** Number of nodes or edges in the layer of the variable */
+    public int size(Var var) {
+        if(sizes.containsKey(var))
+            return sizes.getInt(var);
+
+        int size;
+        if(var instanceof NodeVar)
+            size = engine().numNodes(var.getLayer(), var.getVariant());
+        else if(var instanceof EdgeVar)
+            size = engine().numEdges(var.getLayer(), var.getVariant());
+        else
+            throw new UnsupportedOperationException("Unsupported variable!");
+
+        sizes.put(var, size);
+        return size;
+    }
+
+    private Iterable<NodeRef> nodes(NodeVar var) {
+        return var.getLayer() == null && var.getVariant() == null
+                ? engine().nodes()
+                : engine().nodes(var.getLayer(), var.getVariant());
+    }
+
+    private Iterable<? extends StoreRef> items(Var var) {
+        if(var instanceof NodeVar)
+            return nodes((NodeVar)var);
+        else
+            return engine().edges(var.getLayer(), var.getVariant());
+    }
+
+    private ArrayList<StoreRef> sample(Var var) {
+        ArrayList<StoreRef> sample = new ArrayList<>();
+        for (StoreRef ref : items(var)) {
+            if(sample.size() == SAMPLE_SIZE)
+                break;
+
+            sample.add(ref);
+        }
+        return sample;
+    }
+
+    /**
+     * Estimated fraction of items in the layer of var matching pred, never 0 unless the layer is empty.
+     * @param key cache key, identifying the predicate
+     */
+    private double fraction(Var var, Object key, Function<PropertyStore,Boolean> pred) {
+        Object cacheKey = Arrays.asList(var.getClass(), var.getLayer(), var.getVariant(), key);
+        if(estimates.containsKey(cacheKey))
+            return estimates.getDouble(cacheKey);
+
+        ArrayList<StoreRef> sample = sample(var);
+        double estimate;
+        if(sample.isEmpty()) {
+            estimate = 0.0;
+        } else {
+            int matches = 0;
+            for (StoreRef ref : sample) {
+                if(pred.apply(ref.get()))
+                    matches++;
+            }
+
+            //Laplace smoothing, a match absent from the sample is rare but possible
+            estimate = (matches + 1.0) / (sample.size() + 2.0);
+        }
+
+        estimates.put(cacheKey, estimate);
+        return estimate;
+    }
+
+    /** Estimated fraction of items with the property */
+    public double propertyExists(Var var, String key) {
+        return fraction(var, Arrays.asList("exists", key), store -> store.hasProperty(key));
+    }
+
+    /** True if the property values of the layer of var are indexed */
+    public boolean indexed(Var var, String key) {
+        return var instanceof NodeVar && var.getLayer() != null && engine().hasPropertyIndex(var.getLayer(), var.getVariant(), key);
+    }
+
+    /** Number of nodes where the property equals any of the values, var must be {@link #indexed(Var, String)} */
+    public int indexedCount(Var var, String key, String...values) {
+        int count = 0;
+        for (String value : values) {
+            count += engine().numNodesWithProperty(var.getLayer(), var.getVariant(), key, value);
+        }
+        return count;
+    }
+
+    /** Estimated fraction of items where the property equals any of the values, exact if indexed */
+    public double propertyEquals(Var var, String key, String...values) {
+        if(indexed(var, key)) {
+            int size = size(var);
+            return size == 0 ? 0.0 : Math.min(1.0, indexedCount(var, key, values) / (double)size);
+        }
+
+        return fraction(var, Arrays.asList("equals", key, Arrays.asList(values)), store -> {
+            if(!store.hasProperty(key))
+                return false;
+
+            String value = store.getProperty(key);
+            for (String target : values) {
+                if(Objects.equals(target, value))
+                    return true;
+            }
+            return false;
+        });
+    }
+
+    /** Estimated average length of annotations in the layer of var, 0 if it contains no annotations */
+    public double averageLength(NodeVar var) {
+        Object cacheKey = Arrays.asList("length", var.getLayer(), var.getVariant());
+        if(estimates.containsKey(cacheKey))
+            return estimates.getDouble(cacheKey);
+
+        long total = 0;
+        int count = 0;
+        for (NodeRef ref : nodes(var)) {
+            if(count == SAMPLE_SIZE)
+                break;
+
+            NodeStore store = ref.get();
+            if(store.isAnnotation()) {
+                total += store.getEnd() - store.getStart();
+                count++;
+            }
+        }
+
+        double estimate = count == 0 ? 0.0 : total / (double)count;
+        estimates.put(cacheKey, estimate);
+        return estimate;
+    }
+
+    /** Estimated probability that an annotation in the layer of var covers a given range of the text */
+    public double coverProbability(NodeVar var) {
+        return Math.min(1.0, averageLength(var) / textLength());
+    }
+
+    /** Estimated number of annotations in the layer of var that cover a given position */
+    public double coverDensity(NodeVar var) {
+        return size(var) * coverProbability(var);
+    }
+
+    /** Estimated number of annotations in the layer of var within a range of the given length */
+    public double withinRange(NodeVar var, int length) {
+        return size(var) * Math.min(1.0, Math.max(0, length) / (double)textLength());
+    }
+}
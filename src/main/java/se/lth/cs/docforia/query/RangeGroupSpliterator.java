@@ -0,0 +1,155 @@
+package se.lth.cs.docforia.query;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import se.lth.cs.docforia.NodeRef;
+import se.lth.cs.docforia.exceptions.QueryException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Streaming group by over propositions ordered by the range of a key var.
+ * <p>
+ * Groups whose range var has the current range are kept open, they are emitted in range order as soon as a
+ * proposition with a later range arrives. Memory is bounded by the groups sharing a range, not by the total
+ * number of propositions. A proposition with an earlier range than the open groups is an error.
+ *
+ * @see PropositionStartComparator
+ */
+public class RangeGroupSpliterator implements Spliterator<PropositionGroup> {
+    private final Spliterator<Proposition> source;
+    private final NodeVar rangeVar;
+    private final Function<Proposition,Proposition> keyFunction;
+    private final Function<Proposition,Proposition> valueFunction;
+    private final Comparator<Proposition> valueComparator;
+    private final boolean distinct;
+
+    private final LinkedHashMap<Proposition,List<Proposition>> open = new LinkedHashMap<>();
+    private final ObjectOpenHashSet<Proposition> seen = new ObjectOpenHashSet<>();
+    private final ArrayDeque<PropositionGroup> ready = new ArrayDeque<>();
+    private NodeRef openRange;
+    private Proposition current;
+    private boolean done = false;
+
+    /**
+     * @param source propositions ordered by the range of rangeVar
+     * @param rangeVar key var that orders the source
+     * @param keyFunction key extraction function, the key must include rangeVar
+     * @param valueFunction value extraction function
+     * @param valueComparator value order within a group, null to keep the source order
+     * @param distinct remove duplicate source propositions
+     */
+    public RangeGroupSpliterator(Spliterator<Proposition> source,
+                                 NodeVar rangeVar,
+                                 Function<Proposition,Proposition> keyFunction,
+                                 Function<Proposition,Proposition> valueFunction,
+                                 Comparator<Proposition> valueComparator,
+                                 boolean distinct) {
+        this.source = source;
+        this.rangeVar = rangeVar;
+        this.keyFunction = keyFunction;
+        this.valueFunction = valueFunction;
+        this.valueComparator = valueComparator;
+        this.distinct = distinct;
+    }
+
+    /** Emit all open groups */
+    private void flush() {
+        for (Map.Entry<Proposition, List<Proposition>> entry : open.entrySet()) {
+            List<Proposition> values = entry.getValue();
+            if(valueComparator != null)
+                Collections.sort(values, valueComparator);
+
+            ready.add(new PropositionGroup(entry.getKey(), values));
+        }
+
+        open.clear();
+        seen.clear();
+        openRange = null;
+    }
+
+    private void add(Proposition proposition) {
+        NodeRef range = proposition.noderef(rangeVar);
+        if(openRange != null) {
+            int order = PropositionStartComparator.compare(range.get(), openRange.get());
+            if(order < 0)
+                throw new QueryException("Propositions are not ordered by the range of " + rangeVar);
+            else if(order > 0)
+                flush();
+        }
+
+        openRange = range;
+
+        //Duplicates have equal ranges, it is enough to remember the open propositions
+        if(distinct && !seen.add(proposition))
+            return;
+
+        Proposition key = keyFunction.apply(proposition);
+        Proposition value = valueFunction.apply(proposition);
+        List<Proposition> values = open.get(key);
+        if(values == null) {
+            values = new ArrayList<>();
+            open.put(key, values);
+        }
+
+        values.add(value);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super PropositionGroup> action) {
+        while(ready.isEmpty()) {
+            if(done)
+                return false;
+
+            if(source.tryAdvance(proposition -> current = proposition)) {
+                add(current);
+                current = null;
+            }
+            else {
+                flush();
+                done = true;
+            }
+        }
+
+        action.accept(ready.poll());
+        return true;
+    }
+
+    @Override
+    public Spliterator<PropositionGroup> trySplit() {
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+}
@@ -16,13 +16,26 @@ package se.lth.cs.docforia.query;
  */
 
 import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import se.lth.cs.docforia.Document;
+import se.lth.cs.docforia.DocumentEngine;
+import se.lth.cs.docforia.NodeRef;
+import se.lth.cs.docforia.StoreRef;
+import se.lth.cs.docforia.util.AnnotationNavigator;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.Spliterator;
 import java.util.function.Consumer;
 
 /**
  * Compiled spliterable query
+ * <p>
+ * The query can be split before it is advanced: the candidates of the outermost predicate are enumerated and
+ * partitioned into ranges, each split evaluates the remaining predicates for its range with its own states and
+ * proposition. Splits can run in parallel as long as the document is not modified.
  */
 public class SpliteratableQuery implements Spliterator<Proposition> {
     private final QueryContext context;
@@ -30,32 +43,103 @@ public class SpliteratableQuery implements Spliterator<Proposition> {
     private final PropositionContext queryPropositionContext;
     private final Predicate[] predicates;
     private final PredicateState[] states;
+    private final long estimate;
+    private final boolean profiled;
+
+    /** Query proposition index of every output var, by output index */
+    private final int[] outputIndex;
+
+    /** Enumerated bindings of the outermost predicate, null until the first split */
+    private StoreRef[][] roots;
+    private int rootPos;
+    private int rootEnd;
+
+    /** Source of the roots when they are streamed in range order, see {@link #orderRootsByRange(NodeVar)} */
+    private RangeOrderedRoots orderedRoots;
 
     public SpliteratableQuery(QueryContext context, Set<Var> outputVars, Predicate[] predicates) {
+        this(context, outputVars, predicates, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param estimate estimated number of results, Long.MAX_VALUE if unknown
+     */
+    public SpliteratableQuery(QueryContext context, Set<Var> outputVars, Predicate[] predicates, long estimate) {
+        this(context, context.doc, outputVars, predicates, estimate);
+    }
+
+    /**
+     * @param doc the queried document, the predicates must not depend on the document of the context
+     * @param estimate estimated number of results, Long.MAX_VALUE if unknown
+     */
+    public SpliteratableQuery(QueryContext context, Document doc, Set<Var> outputVars, Predicate[] predicates, long estimate) {
+        this(context, doc, outputVars, predicates, estimate, null);
+    }
+
+    /**
+     * @param doc the queried document, the predicates must not depend on the document of the context
+     * @param estimate estimated number of results, Long.MAX_VALUE if unknown
+     * @param profile records the evaluation of every predicate, in the same order, null to disable. Profiled
+     *                queries are not split.
+     */
+    public SpliteratableQuery(QueryContext context, Document doc, Set<Var> outputVars, Predicate[] predicates, long estimate, QueryProfile profile) {
         this.context = context;
         Reference2IntOpenHashMap<Var> outputVar2Index = new Reference2IntOpenHashMap<>();
         for (Var outputVar : outputVars) {
             outputVar2Index.put(outputVar, outputVar2Index.size());
         }
 
-        this.queryPropositionContext = new PropositionContext(context.doc, context.var2index);
-        this.outputPropositionContext = new PropositionContext(context.doc, outputVar2Index);
+        this.queryPropositionContext = new PropositionContext(doc, context.var2index);
+        this.outputPropositionContext = new PropositionContext(doc, outputVar2Index);
         this.predicates = predicates;
+        this.estimate = estimate;
+        this.outputIndex = new int[outputVar2Index.size()];
+        for (Var outputVar : outputVars) {
+            outputIndex[outputVar2Index.getInt(outputVar)] = context.indexOf(outputVar);
+        }
         this.current = new Proposition(queryPropositionContext);
-        this.states = new PredicateState[predicates.length];
-        for (int i = 0; i < this.predicates.length; i++) {
-            this.states[i] = predicates[i].createState();
+        this.states = createStates(predicates);
+        this.profiled = profile != null;
+        if(profiled) {
+            for (int i = 0; i < states.length; i++) {
+                states[i].profile = profile.predicate(i);
+            }
         }
 
         this.predicates[0].enter(states[0], current);
     }
 
+    private SpliteratableQuery(SpliteratableQuery parent, int rootPos, int rootEnd) {
+        this.context = parent.context;
+        this.queryPropositionContext = parent.queryPropositionContext;
+        this.outputPropositionContext = parent.outputPropositionContext;
+        this.predicates = parent.predicates;
+        this.estimate = parent.estimate;
+        this.outputIndex = parent.outputIndex;
+        this.profiled = false;
+        this.current = new Proposition(queryPropositionContext);
+        this.states = createStates(predicates);
+        this.roots = parent.roots;
+        this.rootPos = rootPos;
+        this.rootEnd = rootEnd;
+    }
+
+    private static PredicateState[] createStates(Predicate[] predicates) {
+        PredicateState[] states = new PredicateState[predicates.length];
+        for (int i = 0; i < predicates.length; i++) {
+            states[i] = predicates[i].createState();
+        }
+        return states;
+    }
+
     private int p = 0;
     private Proposition current;
+    private boolean started = false;
 
-    private boolean step()
+    /** Backtrack over predicates from p, never below floor */
+    private boolean step(int floor)
     {
-        while(p != -1) {
+        while(p >= floor) {
             Predicate pred = predicates[p];
             PredicateState state = states[p];
 
@@ -82,11 +166,51 @@ public class SpliteratableQuery implements Spliterator<Proposition> {
         return false;
     }
 
+    /** Bind the next root and evaluate the remaining predicates */
+    private boolean stepRoots() {
+        while(true) {
+            if(p == 0) {
+                if(rootPos == rootEnd && (orderedRoots == null || !orderedRoots.next()))
+                    return false;
+
+                StoreRef[] root = roots[rootPos++];
+                int[] varIndex = predicates[0].varIndex;
+                for (int i = 0; i < varIndex.length; i++) {
+                    current.data[varIndex[i]] = root[i];
+                }
+
+                if(predicates.length == 1)
+                    return true;
+
+                p = 1;
+                predicates[1].enter(states[1], current);
+            }
+
+            if(step(1))
+                return true;
+
+            p = 0;
+        }
+    }
+
+    private boolean step() {
+        started = true;
+        return roots == null ? step(0) : stepRoots();
+    }
+
+    /** Copy the output vars of the current match into output */
+    private Proposition output(Proposition output) {
+        for (int i = 0; i < outputIndex.length; i++) {
+            output.data[i] = current.data[outputIndex[i]];
+        }
+        return output;
+    }
+
     @Override
     public boolean tryAdvance(Consumer<? super Proposition> action) {
         boolean retval;
         if(retval = step()) {
-            action.accept(current.subset(outputPropositionContext));
+            action.accept(output(new Proposition(outputPropositionContext)));
         }
         return retval;
     }
@@ -94,18 +218,248 @@ public class SpliteratableQuery implements Spliterator<Proposition> {
     @Override
     public void forEachRemaining(Consumer<? super Proposition> action) {
         while(step()) {
-            action.accept(current.subset(outputPropositionContext));
+            action.accept(output(new Proposition(outputPropositionContext)));
+        }
+    }
+
+    /**
+     * Pass all remaining matches to consumer using a single reused output proposition
+     * @see PropositionConsumer
+     */
+    public void forEachMatch(PropositionConsumer consumer) {
+        Proposition cursor = newCursor();
+        while(nextMatch(cursor)) {
+            consumer.accept(cursor);
+        }
+    }
+
+    /** Create an output proposition for {@link #nextMatch(Proposition)} */
+    public Proposition newCursor() {
+        return new Proposition(outputPropositionContext);
+    }
+
+    /**
+     * Advance to the next match and copy its output vars into cursor
+     * @return false if there are no more matches
+     */
+    public boolean nextMatch(Proposition cursor) {
+        if(!step())
+            return false;
+
+        output(cursor);
+        return true;
+    }
+
+    /**
+     * Evaluate the bindings of the outermost predicate in range order of var, matches are then produced in range
+     * order of var. Must be called before the query is advanced.
+     * <p>
+     * If the engine navigates annotations in range order, see {@link DocumentEngine#hasRangeOrderedAnnotations()},
+     * the nodes of var are bound one start position at a time and the query is no longer split. Otherwise all
+     * bindings are enumerated and sorted.
+     * @return false if var is not bound by the outermost predicate, the order is then unchanged
+     * @see PropositionStartComparator
+     */
+    public boolean orderRootsByRange(NodeVar var) {
+        if(started)
+            throw new IllegalStateException("Query has already been advanced");
+
+        int[] varIndex = predicates[0].varIndex;
+        int index = context.indexOf(var);
+        int pos = -1;
+        for (int i = 0; i < varIndex.length; i++) {
+            if(varIndex[i] == index)
+                pos = i;
+        }
+
+        if(pos == -1)
+            return false;
+
+        DocumentEngine engine = queryPropositionContext.getDocument().engine();
+        if(roots == null && engine.hasRangeOrderedAnnotations()) {
+            requireLayers();
+            orderedRoots = new RangeOrderedRoots(engine, var, index);
+            roots = new StoreRef[0][];
+            rootPos = rootEnd = 0;
+            return true;
+        }
+
+        if(roots == null)
+            enumerateRoots();
+
+        final int k = pos;
+        Arrays.sort(roots, rootPos, rootEnd, (o1, o2) -> PropositionStartComparator.compare(((NodeRef)o1[k]).get(), ((NodeRef)o2[k]).get()));
+        return true;
+    }
+
+    /** Decode all layers used by the query, lazy stores must not decode concurrently */
+    private void requireLayers() {
+        DocumentEngine engine = queryPropositionContext.getDocument().engine();
+        for (Var var : context.vars()) {
+            if(var instanceof NodeVar)
+                engine.numNodes(var.getLayer(), var.getVariant());
+            else if(var instanceof EdgeVar)
+                engine.numEdges(var.getLayer(), var.getVariant());
+        }
+    }
+
+    /** Enumerate all bindings of the outermost predicate */
+    private void enumerateRoots() {
+        requireLayers();
+
+        Predicate pred = predicates[0];
+        ArrayList<StoreRef[]> bindings = new ArrayList<>();
+        while(pred.next(states[0], current)) {
+            StoreRef[] binding = new StoreRef[pred.varIndex.length];
+            for (int i = 0; i < binding.length; i++) {
+                binding[i] = current.data[pred.varIndex[i]];
+            }
+            bindings.add(binding);
+        }
+        pred.exit(states[0], current);
+
+        roots = bindings.toArray(new StoreRef[bindings.size()][]);
+        rootPos = 0;
+        rootEnd = roots.length;
+    }
+
+    /**
+     * Bindings of the outermost predicate in range order of one of its node vars. Annotations with the same start are
+     * bound one group at a time, ordered by end, then the nodes that are not annotations one at a time.
+     */
+    private class RangeOrderedRoots {
+        private final DocumentEngine engine;
+        private final NodeVar var;
+        private final int index;
+        private final AnnotationNavigator<NodeRef> annotations;
+        private final ArrayList<NodeRef> group = new ArrayList<>();
+        private final ArrayList<StoreRef[]> bindings = new ArrayList<>();
+        private NodeRef pending;
+        private boolean annotationsDone;
+        private int numAnnotations;
+        private Iterator<NodeRef> nodes;
+
+        public RangeOrderedRoots(DocumentEngine engine, NodeVar var, int index) {
+            this.engine = engine;
+            this.var = var;
+            this.index = index;
+            this.annotations = engine.annotations(var.getLayer(), var.getVariant());
+        }
+
+        /** Enumerate the bindings of the next group of nodes that has any into roots */
+        public boolean next() {
+            bindings.clear();
+            while(bindings.isEmpty()) {
+                group.clear();
+                if(!nextGroup())
+                    return false;
+
+                for (NodeRef node : group) {
+                    bind(node);
+                }
+            }
+
+            roots = bindings.toArray(new StoreRef[bindings.size()][]);
+            rootPos = 0;
+            rootEnd = roots.length;
+            return true;
+        }
+
+        private NodeRef nextAnnotation() {
+            if(annotationsDone || !annotations.next()) {
+                annotationsDone = true;
+                return null;
+            }
+            return annotations.current();
+        }
+
+        private boolean nextGroup() {
+            if(nodes == null) {
+                if(pending == null)
+                    pending = nextAnnotation();
+
+                if(pending != null) {
+                    int start = pending.get().getStart();
+                    do {
+                        group.add(pending);
+                        pending = nextAnnotation();
+                    } while(pending != null && pending.get().getStart() == start);
+
+                    //The annotation index orders by center, equal centers are not ordered by end
+                    group.sort((x, y) -> PropositionStartComparator.compare(x.get(), y.get()));
+                    numAnnotations += group.size();
+                    return true;
+                }
+
+                nodes = numAnnotations == engine.numNodes(var.getLayer(), var.getVariant())
+                        ? Collections.emptyIterator()
+                        : engine.nodes(var.getLayer(), var.getVariant()).iterator();
+            }
+
+            while(nodes.hasNext()) {
+                NodeRef node = nodes.next();
+                if(!node.get().isAnnotation()) {
+                    group.add(node);
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        /** Evaluate the outermost predicate with var bound to node */
+        private void bind(NodeRef node) {
+            Predicate pred = predicates[0];
+
+            //Clear the previous root
+            for (int i = 0; i < pred.varIndex.length; i++) {
+                current.data[pred.varIndex[i]] = null;
+            }
+
+            current.data[index] = node;
+            pred.enter(states[0], current);
+            while(pred.next(states[0], current)) {
+                StoreRef[] binding = new StoreRef[pred.varIndex.length];
+                for (int i = 0; i < binding.length; i++) {
+                    binding[i] = current.data[pred.varIndex[i]];
+                }
+                bindings.add(binding);
+            }
+            pred.exit(states[0], current);
+            current.data[index] = null;
         }
     }
 
     @Override
     public Spliterator<Proposition> trySplit() {
-        return null;
+        if(profiled || orderedRoots != null)
+            return null;
+
+        if(roots == null) {
+            if(started)
+                return null;
+
+            enumerateRoots();
+        }
+
+        int remaining = rootEnd - rootPos;
+        if(remaining < 2)
+            return null;
+
+        int mid = rootPos + remaining / 2;
+        SpliteratableQuery split = new SpliteratableQuery(this, rootPos, mid);
+        rootPos = mid;
+        return split;
     }
 
     @Override
     public long estimateSize() {
-        return Long.MAX_VALUE;
+        if(roots == null || orderedRoots != null || estimate == Long.MAX_VALUE)
+            return estimate;
+        else if(roots.length == 0)
+            return 0;
+        else
+            return (long)Math.ceil(estimate * (rootEnd - rootPos) / (double)roots.length);
     }
 
     @Override
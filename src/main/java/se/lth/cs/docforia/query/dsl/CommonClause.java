@@ -89,6 +89,36 @@ public abstract class CommonClause {
         root().predicates.add(0, new NonePredicate(root().context));
     }
 
+    /**
+     * Remove duplicate results
+     */
+    public CommonClause distinct() {
+        return root().distinct();
+    }
+
+    /**
+     * Order results by annotation range of the vars, in priority order, see {@link PropositionStartComparator}
+     * @param vars selected vars
+     */
+    public CommonClause orderByRange(NodeVar...vars) {
+        return root().orderByRange(vars);
+    }
+
+    /**
+     * Return at most n results, the evaluation stops when they are found
+     */
+    public CommonClause limit(int n) {
+        return root().limit(n);
+    }
+
+    /**
+     * Group results by keys
+     * @param keys selected vars, groups are streamed incrementally when the first key is range ordered
+     */
+    public GroupQueryClause groupBy(Var...keys) {
+        return root().groupBy(keys);
+    }
+
     /**
      * Compile the query and get a stream
      */
@@ -102,4 +132,11 @@ public abstract class CommonClause {
     public CompiledQuery compile() {
         return root().compile();
     }
+
+    /**
+     * Prepare the query for execution against many documents, see {@link PreparedQuery}
+     */
+    public PreparedQuery prepare() {
+        return root().prepare();
+    }
 }
@@ -23,6 +23,8 @@ import se.lth.cs.docforia.query.Var;
 import se.lth.cs.docforia.query.predicates.EdgeExistsPredicate;
 import se.lth.cs.docforia.query.predicates.EdgeNotExistsPredicate;
 
+import java.util.Objects;
+
 /**
  * Edge Clause with edge specific options
  */
@@ -73,10 +75,15 @@ public class EdgeClause {
 
     public WhereClause fromTo(final NodeVar headOrTail) {
         parent.parent.select(headOrTail);
-        final LayerRef layerRef = this.parent.root().doc.store().nodeLayer(headOrTail.getLayer(), headOrTail.getVariant());
+        final String layer = headOrTail.getLayer();
+        final String variant = headOrTail.getVariant();
 
-        parent.where(edgeVar, in -> layerRef.equal(in.getHead().getRef().layer()) || layerRef.equal(in.getTail().getRef().layer()));
+        parent.where(edgeVar, in -> inLayer(in.getHead().getRef().layer(), layer, variant) || inLayer(in.getTail().getRef().layer(), layer, variant));
 
         return parent;
     }
+
+    private static boolean inLayer(LayerRef ref, String layer, String variant) {
+        return ref.getLayer().equals(layer) && Objects.equals(ref.getVariant(), variant);
+    }
 }
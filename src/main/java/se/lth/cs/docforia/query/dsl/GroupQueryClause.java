@@ -15,9 +15,12 @@ package se.lth.cs.docforia.query.dsl;
  * limitations under the License.
  */
 
-import se.lth.cs.docforia.query.Proposition;
+import se.lth.cs.docforia.query.CompiledQuery;
+import se.lth.cs.docforia.query.PropositionGroup;
 import se.lth.cs.docforia.query.Var;
 
+import java.util.stream.Stream;
+
 /**
  * Group Query Clause
  */
@@ -30,65 +33,10 @@ public class GroupQueryClause {
         this.groupBy = groupBy;
     }
 
-    protected static class Group {
-        protected Proposition key;
-
-        public Group(Proposition key) {
-            this.key = key;
-        }
-
-        public Group copy() {
-            return new Group(key.copy());
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if(obj == null)
-                return false;
-
-            if(obj instanceof Group) {
-                return key.equals(((Group) obj).key);
-            }
-            else
-                return false;
-        }
-
-        @Override
-        public int hashCode() {
-            return key.hashCode();
-        }
+    /**
+     * Compile the query and get a stream of groups, see {@link CompiledQuery#groupBy(Var...)}
+     */
+    public Stream<PropositionGroup> stream() {
+        return parent.compile().groupBy(groupBy);
     }
-/*
-    public DocumentIterable<GroupProposition> query() {
-        HashMap<Group,List<Proposition>> groups = new HashMap<Group, List<Proposition>>();
-        List<Proposition> result = parent.result(-1);
-
-        Group grp = new Group();
-
-        for (Proposition proposition : result) {
-            groupOf(grp, proposition);
-            List<Proposition> propositions = groups.get(grp);
-            if(propositions == null) {
-                propositions = new ArrayList<Proposition>();
-                groups.put(grp.copy(), propositions);
-            }
-
-            propositions.add(proposition);
-        }
-
-        List<GroupProposition> grouplist = new ArrayList<GroupProposition>();
-
-        for (Map.Entry<Group, List<Proposition>> groupListEntry : groups.entrySet()) {
-            GroupProposition groupProposition = new GroupProposition(groupListEntry.getValue().get(0),groupListEntry.getValue());
-            grouplist.add(groupProposition);
-        }
-
-        if(parent.orderByRange.size() > 0) {
-            final Comparator<Proposition> sorter = parent.orderByComparator();
-
-            Collections.sort(grouplist, (o1, o2) -> sorter.compare(o1.key(), o2.key()));
-        }
-
-        return DocumentIterables.wrap(grouplist);
-    }*/
 }
@@ -18,15 +18,16 @@ package se.lth.cs.docforia.query.dsl;
 import se.lth.cs.docforia.Document;
 import se.lth.cs.docforia.Edge;
 import se.lth.cs.docforia.Node;
+import se.lth.cs.docforia.exceptions.QueryException;
 import se.lth.cs.docforia.query.*;
 import se.lth.cs.docforia.query.predicates.AnyPredicate;
+import se.lth.cs.docforia.query.predicates.StructuralJoinPredicate;
 
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.function.Function;
 import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
 
 /**
  * Top Level Query builder clause
@@ -36,17 +37,30 @@ public class QueryClause extends CommonClause {
     protected final HashSet<Var> outputVars = new HashSet<>();
     protected List<Predicate> predicates = new ArrayList<Predicate>();
     protected QueryContext context;
+    protected boolean distinct = false;
+    protected final ArrayList<NodeVar> orderByRange = new ArrayList<>();
+    protected int limit = -1;
 
     protected void select(Var var) {
         context.addVar(var);
     }
 
     public QueryClause(Document doc, Var...vars) {
-        if(vars.length == 0)
-            throw new IllegalArgumentException("At least 1 var must be selected!");
-
+        this(vars, doc);
         if(doc == null)
             throw new NullPointerException("doc");
+    }
+
+    /**
+     * Query template without a document, it can only be prepared, see {@link PreparedQuery}
+     */
+    public QueryClause(Var...vars) {
+        this(vars, null);
+    }
+
+    private QueryClause(Var[] vars, Document doc) {
+        if(vars.length == 0)
+            throw new IllegalArgumentException("At least 1 var must be selected!");
 
         context = new QueryContext(doc);
 
@@ -57,6 +71,12 @@ public class QueryClause extends CommonClause {
         }
     }
 
+    /** Fail if this query is a template, used by constraints that are resolved against the document */
+    protected void requireDocument(String operation) {
+        if(doc == null)
+            throw new QueryException(operation + " requires a document, it is not supported by prepared queries");
+    }
+
     @Override
     protected QueryClause root() {
         return this;
@@ -128,29 +148,52 @@ public class QueryClause extends CommonClause {
         return this;
     }
 
+    /** Remove duplicate results */
+    @Override
+    public QueryClause distinct() {
+        distinct = true;
+        return this;
+    }
+
     /** Specify ordering on vars, will propagate into grouped queries. */
-    /*@Override
+    @Override
     public QueryClause orderByRange(NodeVar...vars) {
         for(NodeVar var : vars) {
-            if(!selectVars.contains(var))
+            if(!outputVars.contains(var))
                 throw new IllegalArgumentException(var.toString() + " is not selected!");
 
             orderByRange.add(var);
         }
         return this;
-    }*/
-/*
-    protected Comparator<Proposition> orderByComparator() {
-        return (o1, o2) -> {
-            for(int i = 0; i < orderByRange.size(); i++) {
-                int result = o1.get(orderByRange.get(i)).compareTo(o2.get(orderByRange.get(i)));
-                if(result != 0)
-                    return result;
-            }
+    }
 
-            return 0;
-        };
-    }*/
+    /** Return at most n results */
+    @Override
+    public QueryClause limit(int n) {
+        if(n < 0)
+            throw new IllegalArgumentException("limit must be non-negative: " + n);
+
+        limit = n;
+        return this;
+    }
+
+    /** Group results by keys */
+    @Override
+    public GroupQueryClause groupBy(Var...keys) {
+        if(keys.length == 0)
+            throw new IllegalArgumentException("At least 1 key must be given!");
+
+        for (Var key : keys) {
+            if(!outputVars.contains(key))
+                throw new IllegalArgumentException(key.toString() + " is not selected!");
+        }
+
+        return new GroupQueryClause(this, keys);
+    }
+
+    protected QueryModifiers modifiers() {
+        return new QueryModifiers(distinct, orderByRange.toArray(new NodeVar[orderByRange.size()]), limit);
+    }
 
     protected void addAnyPredicates() {
         //1. Check that all selectVars have been bound, otherwise infer an always true predicate.
@@ -166,43 +209,27 @@ public class QueryClause extends CommonClause {
             predicates.add(new AnyPredicate(context, remaningVars.toArray(new Var[remaningVars.size()])));
         }
     }
-/*
-    protected List<Proposition> result(int n) {
-        compile();
-        Query q = new Query(doc, new ArrayList<Var>(queryVars), predicates);
-
-        List<Proposition> evaluate;
-        if(n <= 0) {
-            evaluate = q.evaluate();
-        } else {
-            evaluate = q.evaluate(n);
-        }
-
-        if(distinct) {
-            HashSet<Proposition> propositions = new HashSet<>();
-            for (Proposition proposition : evaluate) {
-                propositions.add(proposition);
-            }
-
-            evaluate = new ArrayList<>(propositions);
-        }
-
-        if(orderByRange.size() > 0) {
-            Collections.sort(evaluate, orderByComparator());
-        }
-
-        return evaluate;
-    }*/
 
     public Stream<Proposition> stream() {
+        return compile().stream();
+    }
+
+    private Predicate[] finish() {
         addAnyPredicates();
-        return StreamSupport.stream(new SpliteratableQuery(context, new HashSet<>(outputVars), predicates.toArray(new Predicate[predicates.size()])), false);
+        List<Predicate> joined = StructuralJoinPredicate.joinChains(context, predicates);
+        return joined.toArray(new Predicate[joined.size()]);
     }
 
     @Override
     public CompiledQuery compile() {
-        addAnyPredicates();
-        return new CompiledQuery(context, new HashSet<>(outputVars), predicates.toArray(new Predicate[predicates.size()]));
+        requireDocument("compile");
+        Predicate[] predicates = finish();
+        return new CompiledQuery(context, doc, new HashSet<>(outputVars), QueryPlan.optimize(context, predicates), modifiers());
+    }
+
+    @Override
+    public PreparedQuery prepare() {
+        return new PreparedQuery(context, new HashSet<>(outputVars), finish(), modifiers());
     }
 
     /*
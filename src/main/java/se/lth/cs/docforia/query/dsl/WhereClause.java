@@ -171,6 +171,8 @@ public class WhereClause extends CommonClause {
         if(pre == 0 && post == 0)
             return coveredBy(node);
 
+        parent.requireDocument("inWindowOf");
+
         for(Var childNode : vars) {
             if(!(childNode instanceof NodeVar))
                 throw new QueryException("var in where clause is not a NodeVar: " + childNode.toString());
@@ -24,18 +24,16 @@ import java.util.Iterator;
  * Basic edge type filter
  */
 public class BasicEdgeFilter extends EdgeFilter {
-    private final DocumentEngine engine;
     private final String type;
     private final String variant;
 
-    public BasicEdgeFilter(DocumentEngine engine, String type, String variant) {
-        this.engine = engine;
+    public BasicEdgeFilter(String type, String variant) {
         this.type = type;
         this.variant = variant;
     }
 
     @Override
-    public Iterator<EdgeRef> newIterator() {
+    public Iterator<EdgeRef> newIterator(DocumentEngine engine) {
         if(type == null && variant == null)
             return engine.edges().iterator();
         else
@@ -24,18 +24,16 @@ import java.util.Iterator;
  * Basic node type filter
  */
 public class BasicNodeFilter extends NodeFilter {
-    private final DocumentEngine engine;
     private final String type;
     private final String variant;
 
-    public BasicNodeFilter(DocumentEngine engine, String type, String variant) {
-        this.engine = engine;
+    public BasicNodeFilter(String type, String variant) {
         this.type = type;
         this.variant = variant;
     }
 
     @Override
-    public Iterator<NodeRef> newIterator() {
+    public Iterator<NodeRef> newIterator(DocumentEngine engine) {
         if(type == null && variant == null)
             return engine.nodes().iterator();
         else
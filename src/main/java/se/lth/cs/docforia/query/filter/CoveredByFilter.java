@@ -25,25 +25,21 @@ import java.util.Iterator;
  */
 public class CoveredByFilter extends NodeFilter {
 
-    private final DocumentEngine engine;
-    private Iterable<NodeRef> covered;
     private final String type;
     private final String variant;
     private final int from;
     private final int to;
 
-    public CoveredByFilter(DocumentEngine engine, String type, String variant, int from, int to) {
-        this.engine = engine;
+    public CoveredByFilter(String type, String variant, int from, int to) {
         this.type = type;
         this.variant = variant;
 
         this.from = from;
         this.to = to;
-        this.covered = engine.coveredAnnotation(type, variant, from, to);
     }
 
     @Override
-    public Iterator<NodeRef> newIterator() {
-        return covered.iterator();
+    public Iterator<NodeRef> newIterator(DocumentEngine engine) {
+        return engine.coveredAnnotation(type, variant, from, to).iterator();
     }
 }
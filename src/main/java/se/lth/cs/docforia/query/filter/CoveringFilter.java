@@ -25,26 +25,22 @@ import java.util.Iterator;
  */
 public class CoveringFilter extends NodeFilter {
 
-    private final DocumentEngine engine;
     private final String type;
     private final String variant;
     private final int from;
     private final int to;
-    private final Iterable<NodeRef> covering;
 
-    public CoveringFilter(DocumentEngine engine, String type, String variant, int from, int to) {
-        this.engine = engine;
+    public CoveringFilter(String type, String variant, int from, int to) {
         this.type = type;
         this.variant = variant;
 
         this.from = from;
         this.to = to;
-        this.covering = engine.coveringAnnotation(type, variant, from, to);
     }
 
     @Override
-    public Iterator<NodeRef> newIterator() {
-        return covering.iterator();
+    public Iterator<NodeRef> newIterator(DocumentEngine engine) {
+        return engine.coveringAnnotation(type, variant, from, to).iterator();
     }
 
 }
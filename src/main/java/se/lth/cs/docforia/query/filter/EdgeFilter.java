@@ -15,6 +15,7 @@ package se.lth.cs.docforia.query.filter;
  * limitations under the License.
  */
 
+import se.lth.cs.docforia.DocumentEngine;
 import se.lth.cs.docforia.EdgeRef;
 
 import java.util.Iterator;
@@ -23,5 +24,5 @@ import java.util.Iterator;
  * Abstract base class for edge filters
  */
 public abstract class EdgeFilter extends Filter  {
-    public abstract Iterator<EdgeRef> newIterator();
+    public abstract Iterator<EdgeRef> newIterator(DocumentEngine engine);
 }
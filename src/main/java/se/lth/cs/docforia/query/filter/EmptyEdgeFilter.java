@@ -15,6 +15,7 @@ package se.lth.cs.docforia.query.filter;
  * limitations under the License.
  */
 
+import se.lth.cs.docforia.DocumentEngine;
 import se.lth.cs.docforia.EdgeRef;
 
 import java.util.Collections;
@@ -25,7 +26,7 @@ import java.util.Iterator;
  */
 public class EmptyEdgeFilter extends EdgeFilter {
     @Override
-    public Iterator<EdgeRef> newIterator() {
+    public Iterator<EdgeRef> newIterator(DocumentEngine engine) {
         return Collections.emptyIterator();
     }
 }
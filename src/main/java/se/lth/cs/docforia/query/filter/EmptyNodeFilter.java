@@ -15,6 +15,7 @@ package se.lth.cs.docforia.query.filter;
  * limitations under the License.
  */
 
+import se.lth.cs.docforia.DocumentEngine;
 import se.lth.cs.docforia.NodeRef;
 
 import java.util.Collections;
@@ -25,7 +26,7 @@ import java.util.Iterator;
  */
 public class EmptyNodeFilter extends NodeFilter {
     @Override
-    public Iterator<NodeRef> newIterator() {
+    public Iterator<NodeRef> newIterator(DocumentEngine engine) {
         return Collections.emptyIterator();
     }
 }
@@ -15,6 +15,7 @@ package se.lth.cs.docforia.query.filter;
  * limitations under the License.
  */
 
+import se.lth.cs.docforia.DocumentEngine;
 import se.lth.cs.docforia.StoreRef;
 
 import java.util.Iterator;
@@ -23,5 +24,6 @@ import java.util.Iterator;
  * Abstract base class for filters
  */
 public abstract class Filter {
-    public abstract Iterator<? extends StoreRef> newIterator();
+    /** New iterator over the candidates in the document of engine */
+    public abstract Iterator<? extends StoreRef> newIterator(DocumentEngine engine);
 }
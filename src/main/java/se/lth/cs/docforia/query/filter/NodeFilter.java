@@ -15,6 +15,7 @@ package se.lth.cs.docforia.query.filter;
  * limitations under the License.
  */
 
+import se.lth.cs.docforia.DocumentEngine;
 import se.lth.cs.docforia.NodeRef;
 
 import java.util.Iterator;
@@ -23,5 +24,5 @@ import java.util.Iterator;
  * Abstract base class for node filters
  */
 public abstract class NodeFilter extends Filter {
-    public abstract Iterator<NodeRef> newIterator();
+    public abstract Iterator<NodeRef> newIterator(DocumentEngine engine);
 }
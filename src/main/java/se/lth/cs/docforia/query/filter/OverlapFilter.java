@@ -24,24 +24,20 @@ import java.util.Iterator;
  * Intersection filter
  */
 public class OverlapFilter extends NodeFilter {
-    private final DocumentEngine engine;
-    private final Iterable<NodeRef> overlaps;
     private final String layer;
     private final String variant;
     private final int from;
     private final int to;
 
-    public OverlapFilter(DocumentEngine engine, String layer, String variant, int from, int to) {
-        this.engine = engine;
+    public OverlapFilter(String layer, String variant, int from, int to) {
         this.layer = layer;
         this.variant = variant;
-        this.overlaps = engine.overlappingAnnotations(layer, variant, from, to);
         this.from = from;
         this.to = to;
     }
 
     @Override
-    public Iterator<NodeRef> newIterator() {
-        return overlaps.iterator();
+    public Iterator<NodeRef> newIterator(DocumentEngine engine) {
+        return engine.overlappingAnnotations(layer, variant, from, to).iterator();
     }
 }
@@ -18,6 +18,7 @@ package se.lth.cs.docforia.query.predicates;
 import se.lth.cs.docforia.query.Predicate;
 import se.lth.cs.docforia.query.Proposition;
 import se.lth.cs.docforia.query.QueryContext;
+import se.lth.cs.docforia.query.QueryStatistics;
 import se.lth.cs.docforia.query.Var;
 
 /**
@@ -32,4 +33,9 @@ public class AnyPredicate extends Predicate {
     public boolean eval(Proposition proposition) {
         return true;
     }
+
+    @Override
+    public double estimateSelectivity(QueryStatistics stats, boolean[] bound) {
+        return 1.0;
+    }
 }
@@ -52,4 +52,19 @@ public class ConstantEdgeCandidates extends Predicate {
     public boolean eval(Proposition proposition) {
         return edgeRefs.contains((EdgeRef)proposition.data[varIndex[0]]);
     }
+
+    @Override
+    public double estimateCandidates(QueryStatistics stats, boolean[] bound) {
+        return bound[0] ? 1.0 : edgeRefs.size();
+    }
+
+    @Override
+    public double estimateSelectivity(QueryStatistics stats, boolean[] bound) {
+        return bound[0] ? Math.min(1.0, edgeRefs.size() / (double)Math.max(1, stats.size(vars[0]))) : 1.0;
+    }
+
+    @Override
+    public String accessPath(QueryStatistics stats, boolean[] bound) {
+        return bound[0] ? "filter" : "constant " + QueryPlan.describe(context, vars[0]);
+    }
 }
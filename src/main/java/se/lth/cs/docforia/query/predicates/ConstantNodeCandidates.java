@@ -52,4 +52,19 @@ public class ConstantNodeCandidates extends Predicate {
     public boolean eval(Proposition proposition) {
         return nodeRefs.contains(proposition.noderef(vars[0]));
     }
+
+    @Override
+    public double estimateCandidates(QueryStatistics stats, boolean[] bound) {
+        return bound[0] ? 1.0 : nodeRefs.size();
+    }
+
+    @Override
+    public double estimateSelectivity(QueryStatistics stats, boolean[] bound) {
+        return bound[0] ? Math.min(1.0, nodeRefs.size() / (double)Math.max(1, stats.size(vars[0]))) : 1.0;
+    }
+
+    @Override
+    public String accessPath(QueryStatistics stats, boolean[] bound) {
+        return bound[0] ? "filter" : "constant " + QueryPlan.describe(context, vars[0]);
+    }
 }
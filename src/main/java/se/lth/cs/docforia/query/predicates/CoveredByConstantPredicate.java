@@ -15,6 +15,7 @@ package se.lth.cs.docforia.query.predicates;
  * limitations under the License.
  */
 
+import se.lth.cs.docforia.Document;
 import se.lth.cs.docforia.NodeRef;
 import se.lth.cs.docforia.NodeStore;
 import se.lth.cs.docforia.query.*;
@@ -30,14 +31,14 @@ public class CoveredByConstantPredicate extends Predicate {
 
     public CoveredByConstantPredicate(QueryContext context, NodeVar child, int from, int to) {
         super(context, child);
-        filters[0] = new CoveredByFilter(context.getDoc().engine(), child.getLayer(), child.getVariant(), from, to);
+        filters[0] = new CoveredByFilter(child.getLayer(), child.getVariant(), from, to);
         this.parent_from = from;
         this.parent_to = to;
     }
 
     @Override
     protected PropositionIterator suggest(PredicateState state, Proposition proposition) {
-        return new StoreRefPropositionIterator(context, vars[0], context.getDoc().engine().coveredAnnotation(vars[0].getLayer(),vars[0].getVariant(),parent_from, parent_to));
+        return new StoreRefPropositionIterator(context, vars[0], document(proposition).engine().coveredAnnotation(vars[0].getLayer(),vars[0].getVariant(),parent_from, parent_to));
     }
 
     public boolean coveredBy(int child_start, int child_end, int parent_start, int parent_end) {
@@ -52,7 +53,23 @@ public class CoveredByConstantPredicate extends Predicate {
             return false;
 
         NodeStore store = child.get();
+        Document doc = document(proposition);
 
-        return coveredBy(context.doc.transform(store.getStart()), context.doc.transform(store.getEnd()), parent_from, parent_to);
+        return coveredBy(doc.transform(store.getStart()), doc.transform(store.getEnd()), parent_from, parent_to);
+    }
+
+    @Override
+    public double estimateCandidates(QueryStatistics stats, boolean[] bound) {
+        return bound[0] ? 1.0 : stats.withinRange((NodeVar)vars[0], parent_to - parent_from);
+    }
+
+    @Override
+    public double estimateSelectivity(QueryStatistics stats, boolean[] bound) {
+        return bound[0] ? Math.min(1.0, (parent_to - parent_from) / (double)stats.textLength()) : 1.0;
+    }
+
+    @Override
+    public String accessPath(QueryStatistics stats, boolean[] bound) {
+        return bound[0] ? "filter" : "covered by [" + parent_from + ", " + parent_to + ") lookup " + QueryPlan.describe(context, vars[0]);
     }
 }
@@ -15,10 +15,10 @@ package se.lth.cs.docforia.query.predicates;
  * limitations under the License.
  */
 
+import se.lth.cs.docforia.Document;
 import se.lth.cs.docforia.NodeRef;
 import se.lth.cs.docforia.NodeStore;
 import se.lth.cs.docforia.query.*;
-import se.lth.cs.docforia.util.AnnotationNavigator;
 
 /**
  * Covered by predicate
@@ -32,6 +32,14 @@ public class CoveredByPredicate extends Predicate {
     private static final int PARENT = 0;
     private static final int CHILD = 1;
 
+    public NodeVar parent() {
+        return (NodeVar)vars[PARENT];
+    }
+
+    public NodeVar child() {
+        return (NodeVar)vars[CHILD];
+    }
+
     @Override
     protected PropositionIterator suggest(final PredicateState state, final Proposition proposition) {
         //4 cases:
@@ -39,6 +47,7 @@ public class CoveredByPredicate extends Predicate {
         // * Child constant
         // * Parent constant
         // * None constant
+        Document doc = document(proposition);
 
         if(state.constant[PARENT] && state.constant[CHILD]) {
             throw new RuntimeException("Incorrect behaviour, this case is never supposed to be called!");
@@ -46,15 +55,16 @@ public class CoveredByPredicate extends Predicate {
         else if(state.constant[PARENT] && !state.constant[CHILD]) {
             NodeRef parent = (NodeRef) proposition.data[varIndex[PARENT]];
             if(parent.get().isAnnotation()) {
-                int start = parent.get().getStart();
-                int end = parent.get().getEnd();
+                //coveredAnnotation expects document coordinates, e.g. of a view
+                int start = doc.transform(parent.get().getStart());
+                int end = doc.transform(parent.get().getEnd());
                 String type = vars[CHILD].getLayer();
                 String variant = vars[CHILD].getVariant();
 
                 return new StoreRefPropositionIterator(
                         context,
                         vars[CHILD],
-                        context.doc.engine().coveredAnnotation(type, variant, start, end)
+                        doc.engine().coveredAnnotation(type, variant, start, end)
                 );
             }
             else
@@ -68,77 +78,74 @@ public class CoveredByPredicate extends Predicate {
                 String type = vars[PARENT].getLayer();
                 String variant = vars[PARENT].getVariant();
 
-                return new StoreRefPropositionIterator(context, vars[PARENT], context.doc.engine().coveringAnnotation(type, variant, start, end));
+                return new StoreRefPropositionIterator(context, vars[PARENT], doc.engine().coveringAnnotation(type, variant, start, end));
             }
             else
                 return EmptyPropositionIterator.instance();
         }
         else {
-            final AnnotationNavigator<NodeRef> parentNavigator = context.doc.engine().annotations(vars[PARENT].getLayer(), vars[PARENT].getVariant());
-            final AnnotationNavigator<NodeRef> childNavigator = context.doc.engine().annotations(vars[CHILD].getLayer(), vars[CHILD].getVariant());
-
-            if(!parentNavigator.next())
-                return EmptyPropositionIterator.instance();
-            else {
-                return prop -> {
-                    if(childNavigator.hasReachedEnd() || parentNavigator.hasReachedEnd())
-                        return false;
-
-                    if(!childNavigator.next())
-                        return false;
-
-                    int childStart = childNavigator.start();
-                    int childEnd = childNavigator.end();
-
-                    int parentStart = parentNavigator.start();
-                    int parentEnd = parentNavigator.end();
-
-                    while(!coveredBy(childStart, childEnd, parentStart, parentEnd)) {
-                        if(childEnd >= parentEnd) {
-                            if(!parentNavigator.next())
-                                break;
-
-                            //move parent forward
-                            //if(!parentNavigator.nextFloor(childStart))
-                                //break;
-                        }
-                        else if(parentStart > childStart)
-                        {
-                            //move child forward
-                            if(!childNavigator.next(parentStart))
-                                break;
-                        }
-
-                        childStart = childNavigator.start();
-                        childEnd = childNavigator.end();
-
-                        parentStart = parentNavigator.start();
-                        parentEnd = parentNavigator.end();
-                    }
-
-                    if(parentNavigator.hasReachedEnd() || childNavigator.hasReachedEnd())
-                        return false;
-
-                    prop.data[varIndex[PARENT]] = parentNavigator.current();
-                    prop.data[varIndex[CHILD]] = childNavigator.current();
-                    return true;
-                };
-            }
-
+            return new StructuralJoinIterator(doc.engine(), new NodeVar[] {(NodeVar)vars[PARENT], (NodeVar)vars[CHILD]}, varIndex);
         }
     }
 
     protected boolean coveredBy(int child_start, int child_end, int parent_start, int parent_end) {
-        return parent_start <= child_start && parent_end >= child_end && (child_start != parent_end || child_start == parent_start);
+        return StructuralJoinIterator.coveredBy(child_start, child_end, parent_start, parent_end);
     }
 
     @Override
     public boolean eval(Proposition proposition) {
         NodeStore child = ((NodeRef)proposition.data[varIndex[CHILD]]).get();
         NodeStore parent = ((NodeRef)proposition.data[varIndex[PARENT]]).get();
+        Document doc = document(proposition);
 
         return !(!child.isAnnotation() || !parent.isAnnotation())
-                && coveredBy(context.doc.transform(child.getStart()),  context.doc.transform(child.getEnd()),
-                             context.doc.transform(parent.getStart()), context.doc.transform(parent.getEnd()));
+                && coveredBy(doc.transform(child.getStart()),  doc.transform(child.getEnd()),
+                             doc.transform(parent.getStart()), doc.transform(parent.getEnd()));
+    }
+
+    @Override
+    public double estimateCandidates(QueryStatistics stats, boolean[] bound) {
+        NodeVar parent = (NodeVar)vars[PARENT];
+        NodeVar child = (NodeVar)vars[CHILD];
+
+        if(bound[PARENT] && bound[CHILD])
+            return 1.0;
+        else if(bound[PARENT])
+            return stats.withinRange(child, (int)Math.ceil(stats.averageLength(parent)));
+        else if(bound[CHILD])
+            return stats.coverDensity(parent);
+        else
+            return stats.size(parent) + stats.size(child);
+    }
+
+    @Override
+    public double estimateSelectivity(QueryStatistics stats, boolean[] bound) {
+        NodeVar parent = (NodeVar)vars[PARENT];
+        NodeVar child = (NodeVar)vars[CHILD];
+
+        if(bound[PARENT] && bound[CHILD])
+            return stats.coverProbability(parent);
+        else if(bound[PARENT] || bound[CHILD])
+            return 1.0;
+        else {
+            //Sweep join, candidates is the merge work, every child yields its covering parents
+            double candidates = estimateCandidates(stats, bound);
+            return candidates == 0.0 ? 0.0 : stats.size(child) * stats.coverDensity(parent) / candidates;
+        }
+    }
+
+    @Override
+    public String accessPath(QueryStatistics stats, boolean[] bound) {
+        String parent = QueryPlan.describe(context, vars[PARENT]);
+        String child = QueryPlan.describe(context, vars[CHILD]);
+
+        if(bound[PARENT] && bound[CHILD])
+            return "filter";
+        else if(bound[PARENT])
+            return "covered by " + parent + " lookup " + child;
+        else if(bound[CHILD])
+            return "covering " + child + " lookup " + parent;
+        else
+            return "sweep join " + parent + ", " + child;
     }
 }
@@ -30,7 +30,7 @@ public class CoveringConstantPredicate extends Predicate {
     public CoveringConstantPredicate(QueryContext context, NodeVar parent, int from, int to) {
         super(context, parent);
         NodeVar nodeVar = parent;
-        filters[0] = new CoveringFilter(context.doc.engine(), nodeVar.getLayer(), nodeVar.getVariant(), from, to);
+        filters[0] = new CoveringFilter(nodeVar.getLayer(), nodeVar.getVariant(), from, to);
 
         this.child_from = from;
         this.child_to = to;
@@ -38,7 +38,7 @@ public class CoveringConstantPredicate extends Predicate {
 
     @Override
     protected PropositionIterator suggest(PredicateState state, Proposition proposition) {
-        return new StoreRefPropositionIterator(context, vars[0], context.doc.engine().coveringAnnotation(vars[0].getLayer(), vars[0].getVariant(), child_from, child_to));
+        return new StoreRefPropositionIterator(context, vars[0], document(proposition).engine().coveringAnnotation(vars[0].getLayer(), vars[0].getVariant(), child_from, child_to));
     }
 
     public boolean coveredBy(int child_start, int child_end, int parent_start, int parent_end) {
@@ -52,4 +52,19 @@ public class CoveringConstantPredicate extends Predicate {
         return child.isAnnotation() && coveredBy(child_from, child_to, child.getStart(), child.getEnd());
 
     }
+
+    @Override
+    public double estimateCandidates(QueryStatistics stats, boolean[] bound) {
+        return bound[0] ? 1.0 : stats.coverDensity((NodeVar)vars[0]);
+    }
+
+    @Override
+    public double estimateSelectivity(QueryStatistics stats, boolean[] bound) {
+        return bound[0] ? stats.coverProbability((NodeVar)vars[0]) : 1.0;
+    }
+
+    @Override
+    public String accessPath(QueryStatistics stats, boolean[] bound) {
+        return bound[0] ? "filter" : "covering [" + child_from + ", " + child_to + ") lookup " + QueryPlan.describe(context, vars[0]);
+    }
 }
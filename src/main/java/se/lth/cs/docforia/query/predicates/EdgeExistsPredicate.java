@@ -40,20 +40,12 @@ public class EdgeExistsPredicate extends Predicate {
             NodeRef head = edge.get().getHead();
             NodeRef tail = edge.get().getTail();
 
-            if(state.constant[TAIL]) {
-                if(!tail.equals(proposition.get(vars[TAIL]))) {
-                    return EmptyPropositionIterator.instance();
-                }
+            if(state.constant[TAIL] && !tail.equals(proposition.noderef(vars[TAIL]))) {
+                return EmptyPropositionIterator.instance();
             }
-            else if(state.constant[HEAD]) {
-                if(!head.equals(proposition.get(vars[HEAD]))) {
-                    return EmptyPropositionIterator.instance();
-                }
-            }
-            else {
-                if(!tail.equals(proposition.get(vars[TAIL])) || !head.equals(proposition.get(vars[HEAD]))) {
-                    return EmptyPropositionIterator.instance();
-                }
+
+            if(state.constant[HEAD] && !head.equals(proposition.noderef(vars[HEAD]))) {
+                return EmptyPropositionIterator.instance();
             }
 
             return new SinglePropositionIterator(context, new Var[] {vars[0], vars[1], vars[2]}, new StoreRef[] {tail, head, edge});
@@ -62,18 +54,18 @@ public class EdgeExistsPredicate extends Predicate {
             if(state.constant[TAIL] && state.constant[HEAD]) {
                 NodeRef tail = proposition.noderef(vars[TAIL]);
                 NodeRef head = proposition.noderef(vars[HEAD]);
-                return new StoreRefPropositionIterator(context, vars[EDGE], context.doc.engine().edges(tail, head, vars[EDGE].getLayer(), vars[EDGE].getVariant()));
+                return new StoreRefPropositionIterator(context, vars[EDGE], document(proposition).engine().edges(tail, head, vars[EDGE].getLayer(), vars[EDGE].getVariant()));
             }
             else if(state.constant[TAIL]) {
                 NodeRef tail = proposition.noderef(vars[TAIL]);
-                return new EdgeRefPropositionIterator(context, vars, context.doc.engine().edges(tail, vars[EDGE].getLayer(), vars[EDGE].getVariant(), Direction.OUT).iterator());
+                return new EdgeRefPropositionIterator(context, vars, document(proposition).engine().edges(tail, vars[EDGE].getLayer(), vars[EDGE].getVariant(), Direction.OUT).iterator());
             }
             else if(state.constant[HEAD]) {
                 NodeRef head = proposition.noderef(vars[HEAD]);
-                return new EdgeRefPropositionIterator(context, vars, context.doc.engine().edges(head, vars[EDGE].getLayer(), vars[EDGE].getVariant(), Direction.IN).iterator());
+                return new EdgeRefPropositionIterator(context, vars, document(proposition).engine().edges(head, vars[EDGE].getLayer(), vars[EDGE].getVariant(), Direction.IN).iterator());
             }
             else {
-                return new EdgeRefPropositionIterator(context, vars, context.doc.engine().edges(vars[EDGE].getLayer(), vars[EDGE].getVariant()).iterator());
+                return new EdgeRefPropositionIterator(context, vars, document(proposition).engine().edges(vars[EDGE].getLayer(), vars[EDGE].getVariant()).iterator());
             }
         }
     }
@@ -87,4 +79,47 @@ public class EdgeExistsPredicate extends Predicate {
         return edge.get().getHead().equals(head) &&
                edge.get().getTail().equals(tail);
     }
+
+    @Override
+    public double estimateCandidates(QueryStatistics stats, boolean[] bound) {
+        if(bound[EDGE])
+            return 1.0;
+
+        double edges = stats.size(vars[EDGE]);
+        if(bound[TAIL])
+            return edges / Math.max(1, stats.size(vars[TAIL]));
+        else if(bound[HEAD])
+            return edges / Math.max(1, stats.size(vars[HEAD]));
+        else
+            return edges;
+    }
+
+    @Override
+    public double estimateSelectivity(QueryStatistics stats, boolean[] bound) {
+        if(bound[EDGE]) {
+            double selectivity = 1.0;
+            if(bound[TAIL])
+                selectivity /= Math.max(1, stats.size(vars[TAIL]));
+            if(bound[HEAD])
+                selectivity /= Math.max(1, stats.size(vars[HEAD]));
+
+            return selectivity;
+        }
+        else if(bound[TAIL] && bound[HEAD])
+            return 1.0 / Math.max(1, stats.size(vars[HEAD]));
+        else
+            return 1.0;
+    }
+
+    @Override
+    public String accessPath(QueryStatistics stats, boolean[] bound) {
+        if(bound[EDGE])
+            return bound[TAIL] && bound[HEAD] ? "filter" : "endpoints of " + QueryPlan.describe(context, vars[EDGE]);
+        else if(bound[TAIL])
+            return "outbound " + QueryPlan.describe(context, vars[EDGE]) + " of " + QueryPlan.describe(context, vars[TAIL]);
+        else if(bound[HEAD])
+            return "inbound " + QueryPlan.describe(context, vars[EDGE]) + " of " + QueryPlan.describe(context, vars[HEAD]);
+        else
+            return "scan " + QueryPlan.describe(context, vars[EDGE]);
+    }
 }
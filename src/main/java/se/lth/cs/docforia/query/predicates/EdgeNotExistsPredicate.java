@@ -19,6 +19,7 @@ import se.lth.cs.docforia.query.EdgeVar;
 import se.lth.cs.docforia.query.NodeVar;
 import se.lth.cs.docforia.query.Proposition;
 import se.lth.cs.docforia.query.QueryContext;
+import se.lth.cs.docforia.query.QueryStatistics;
 
 /**
  * Inverted edge exist predicate
@@ -33,4 +34,15 @@ public class EdgeNotExistsPredicate extends EdgeExistsPredicate {
     public boolean eval(Proposition proposition) {
         return !super.eval(proposition);
     }
+
+    @Override
+    public double estimateSelectivity(QueryStatistics stats, boolean[] bound) {
+        return 1.0 - super.estimateSelectivity(stats, bound);
+    }
+
+    /** The result depends on which vars are bound when entered, the written order is kept */
+    @Override
+    public boolean reorderable() {
+        return false;
+    }
 }
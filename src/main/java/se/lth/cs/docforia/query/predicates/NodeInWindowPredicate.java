@@ -29,6 +29,8 @@ import java.util.Set;
 
 /**
  * Node window predicate
+ * <p>
+ * The window is resolved when the predicate is created, it is bound to the document of the query context.
  */
 public class NodeInWindowPredicate extends Predicate {
 
@@ -145,4 +147,19 @@ public class NodeInWindowPredicate extends Predicate {
     public boolean eval(Proposition proposition) {
         return nodes.contains((NodeRef)proposition.data[varIndex[0]]);
     }
+
+    @Override
+    public double estimateCandidates(QueryStatistics stats, boolean[] bound) {
+        return bound[0] ? 1.0 : ordered.size();
+    }
+
+    @Override
+    public double estimateSelectivity(QueryStatistics stats, boolean[] bound) {
+        return bound[0] ? Math.min(1.0, nodes.size() / (double)Math.max(1, stats.size(vars[0]))) : 1.0;
+    }
+
+    @Override
+    public String accessPath(QueryStatistics stats, boolean[] bound) {
+        return bound[0] ? "filter" : "window " + QueryPlan.describe(context, vars[0]);
+    }
 }
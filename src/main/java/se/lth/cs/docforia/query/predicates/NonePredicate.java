@@ -39,4 +39,14 @@ public class NonePredicate extends Predicate {
     public boolean eval(Proposition proposition) {
         return false;
     }
+
+    @Override
+    public double estimateSelectivity(QueryStatistics stats, boolean[] bound) {
+        return 0.0;
+    }
+
+    @Override
+    public String accessPath(QueryStatistics stats, boolean[] bound) {
+        return "none";
+    }
 }
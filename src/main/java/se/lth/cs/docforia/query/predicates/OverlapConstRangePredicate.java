@@ -20,6 +20,8 @@ import se.lth.cs.docforia.query.NodeVar;
 import se.lth.cs.docforia.query.Predicate;
 import se.lth.cs.docforia.query.Proposition;
 import se.lth.cs.docforia.query.QueryContext;
+import se.lth.cs.docforia.query.QueryPlan;
+import se.lth.cs.docforia.query.QueryStatistics;
 import se.lth.cs.docforia.query.filter.OverlapFilter;
 
 /**
@@ -31,7 +33,7 @@ public class OverlapConstRangePredicate extends Predicate {
 
     public OverlapConstRangePredicate(QueryContext context, NodeVar var, int start, int end) {
         super(context, var);
-        this.filters[0] = new OverlapFilter(context.doc.engine(), var.getLayer(), var.getVariant(), start, end);
+        this.filters[0] = new OverlapFilter(var.getLayer(), var.getVariant(), start, end);
         this.start = start;
         this.end = end;
     }
@@ -41,4 +43,25 @@ public class OverlapConstRangePredicate extends Predicate {
         NodeStore nodeStore = proposition.noderef(vars[0]).get();
         return nodeStore.isAnnotation() && nodeStore.getEnd() > start && nodeStore.getStart() < end;
     }
+
+    @Override
+    public double estimateCandidates(QueryStatistics stats, boolean[] bound) {
+        if(bound[0])
+            return 1.0;
+
+        return stats.withinRange((NodeVar)vars[0], end - start + (int)stats.averageLength((NodeVar)vars[0]));
+    }
+
+    @Override
+    public double estimateSelectivity(QueryStatistics stats, boolean[] bound) {
+        if(!bound[0])
+            return 1.0;
+
+        return Math.min(1.0, (end - start + stats.averageLength((NodeVar)vars[0])) / stats.textLength());
+    }
+
+    @Override
+    public String accessPath(QueryStatistics stats, boolean[] bound) {
+        return bound[0] ? "filter" : "overlap [" + start + ", " + end + ") lookup " + QueryPlan.describe(context, vars[0]);
+    }
 }
@@ -15,14 +15,27 @@ package se.lth.cs.docforia.query.predicates;
  * limitations under the License.
  */
 
+import se.lth.cs.docforia.Document;
+import se.lth.cs.docforia.NodeRef;
 import se.lth.cs.docforia.PropertyStoreProxy;
+import se.lth.cs.docforia.query.NodeVar;
 import se.lth.cs.docforia.query.Predicate;
+import se.lth.cs.docforia.query.PredicateState;
 import se.lth.cs.docforia.query.Proposition;
+import se.lth.cs.docforia.query.PropositionIterator;
 import se.lth.cs.docforia.query.QueryContext;
+import se.lth.cs.docforia.query.QueryPlan;
+import se.lth.cs.docforia.query.QueryStatistics;
 import se.lth.cs.docforia.query.Var;
+import se.lth.cs.docforia.util.Iterables;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 
 /**
- * Property equals any in list of values predicate
+ * Property equals any in list of values predicate, candidates are looked up in the property index of the layer
+ * when present
  */
 public class PropertyEqualsAnyPredicate extends Predicate {
     private final String[] values;
@@ -34,6 +47,27 @@ public class PropertyEqualsAnyPredicate extends Predicate {
         this.values = values;
     }
 
+    private boolean indexed(Document doc) {
+        return vars[0] instanceof NodeVar
+                && vars[0].getLayer() != null
+                && doc.engine().hasPropertyIndex(vars[0].getLayer(), vars[0].getVariant(), key);
+    }
+
+    @Override
+    protected PropositionIterator suggest(PredicateState state, Proposition proposition) {
+        Document doc = document(proposition);
+        if(indexed(doc)) {
+            ArrayList<Iterable<NodeRef>> candidates = new ArrayList<>();
+            for (String value : new LinkedHashSet<>(Arrays.asList(values))) {
+                candidates.add(doc.engine().nodesWithProperty(vars[0].getLayer(), vars[0].getVariant(), key, value));
+            }
+
+            return new StoreRefPropositionIterator(context, vars[0], Iterables.concat(candidates));
+        }
+        else
+            return super.suggest(state, proposition);
+    }
+
     @Override
     public boolean eval(Proposition proposition) {
         PropertyStoreProxy propertyStoreProxy = proposition.get(vars[0]);
@@ -49,4 +83,28 @@ public class PropertyEqualsAnyPredicate extends Predicate {
 
         return false;
     }
+
+    @Override
+    public double estimateCandidates(QueryStatistics stats, boolean[] bound) {
+        if(!bound[0] && stats.indexed(vars[0], key))
+            return stats.indexedCount(vars[0], key, new LinkedHashSet<>(Arrays.asList(values)).toArray(new String[0]));
+        else
+            return super.estimateCandidates(stats, bound);
+    }
+
+    @Override
+    public double estimateSelectivity(QueryStatistics stats, boolean[] bound) {
+        if(!bound[0] && stats.indexed(vars[0], key))
+            return 1.0;
+        else
+            return stats.propertyEquals(vars[0], key, values);
+    }
+
+    @Override
+    public String accessPath(QueryStatistics stats, boolean[] bound) {
+        if(!bound[0] && stats.indexed(vars[0], key))
+            return "index " + QueryPlan.describe(context, vars[0]) + "." + key;
+        else
+            return super.accessPath(stats, bound);
+    }
 }
@@ -15,13 +15,19 @@ package se.lth.cs.docforia.query.predicates;
  * limitations under the License.
  */
 
+import se.lth.cs.docforia.Document;
+import se.lth.cs.docforia.query.NodeVar;
 import se.lth.cs.docforia.query.Predicate;
+import se.lth.cs.docforia.query.PredicateState;
 import se.lth.cs.docforia.query.Proposition;
+import se.lth.cs.docforia.query.PropositionIterator;
 import se.lth.cs.docforia.query.QueryContext;
+import se.lth.cs.docforia.query.QueryPlan;
+import se.lth.cs.docforia.query.QueryStatistics;
 import se.lth.cs.docforia.query.Var;
 
 /**
- * Property equals predicate
+ * Property equals predicate, candidates are looked up in the property index of the layer when present
  */
 public class PropertyEqualsPredicate  extends Predicate {
     private final String property;
@@ -33,8 +39,47 @@ public class PropertyEqualsPredicate  extends Predicate {
         this.value = value;
     }
 
+    private boolean indexed(Document doc) {
+        return vars[0] instanceof NodeVar
+                && vars[0].getLayer() != null
+                && doc.engine().hasPropertyIndex(vars[0].getLayer(), vars[0].getVariant(), property);
+    }
+
+    @Override
+    protected PropositionIterator suggest(PredicateState state, Proposition proposition) {
+        Document doc = document(proposition);
+        if(indexed(doc))
+            return new StoreRefPropositionIterator(context, vars[0], doc.engine().nodesWithProperty(vars[0].getLayer(), vars[0].getVariant(), property, value));
+        else
+            return super.suggest(state, proposition);
+    }
+
     @Override
     public boolean eval(Proposition proposition) {
         return value.equals(proposition.get(vars[0]).getProperty(property));
     }
+
+    @Override
+    public double estimateCandidates(QueryStatistics stats, boolean[] bound) {
+        if(!bound[0] && stats.indexed(vars[0], property))
+            return stats.indexedCount(vars[0], property, value);
+        else
+            return super.estimateCandidates(stats, bound);
+    }
+
+    @Override
+    public double estimateSelectivity(QueryStatistics stats, boolean[] bound) {
+        if(!bound[0] && stats.indexed(vars[0], property))
+            return 1.0;
+        else
+            return stats.propertyEquals(vars[0], property, value);
+    }
+
+    @Override
+    public String accessPath(QueryStatistics stats, boolean[] bound) {
+        if(!bound[0] && stats.indexed(vars[0], property))
+            return "index " + QueryPlan.describe(context, vars[0]) + "." + property;
+        else
+            return super.accessPath(stats, bound);
+    }
 }
@@ -18,6 +18,7 @@ package se.lth.cs.docforia.query.predicates;
 import se.lth.cs.docforia.query.Predicate;
 import se.lth.cs.docforia.query.Proposition;
 import se.lth.cs.docforia.query.QueryContext;
+import se.lth.cs.docforia.query.QueryStatistics;
 import se.lth.cs.docforia.query.Var;
 
 /**
@@ -35,4 +36,9 @@ public class PropertyExistsPredicate extends Predicate {
     public boolean eval(Proposition proposition) {
         return proposition.get(vars[0]).hasProperty(property);
     }
+
+    @Override
+    public double estimateSelectivity(QueryStatistics stats, boolean[] bound) {
+        return stats.propertyExists(vars[0], property);
+    }
 }
@@ -17,6 +17,7 @@ package se.lth.cs.docforia.query.predicates;
 
 import se.lth.cs.docforia.query.Proposition;
 import se.lth.cs.docforia.query.QueryContext;
+import se.lth.cs.docforia.query.QueryStatistics;
 import se.lth.cs.docforia.query.Var;
 
 /**
@@ -32,4 +33,9 @@ public class PropertyNotEqualsPredicate extends PropertyEqualsPredicate {
     public boolean eval(Proposition proposition) {
         return !super.eval(proposition);
     }
+
+    @Override
+    public double estimateSelectivity(QueryStatistics stats, boolean[] bound) {
+        return 1.0 - super.estimateSelectivity(stats, bound);
+    }
 }
@@ -19,6 +19,7 @@ import se.lth.cs.docforia.data.DataRef;
 import se.lth.cs.docforia.query.Predicate;
 import se.lth.cs.docforia.query.Proposition;
 import se.lth.cs.docforia.query.QueryContext;
+import se.lth.cs.docforia.query.QueryStatistics;
 import se.lth.cs.docforia.query.Var;
 
 import java.util.function.Function;
@@ -39,4 +40,9 @@ public class PropertyPredicate extends Predicate {
     public boolean eval(Proposition proposition) {
         return proposition.get(vars[0]).hasProperty(property) && pred.apply(proposition.get(vars[0]).getRefProperty(property));
     }
+
+    @Override
+    public double estimateSelectivity(QueryStatistics stats, boolean[] bound) {
+        return stats.propertyExists(vars[0], property) * DEFAULT_SELECTIVITY;
+    }
 }
@@ -0,0 +1,219 @@
+package se.lth.cs.docforia.query.predicates;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import se.lth.cs.docforia.DocumentEngine;
+import se.lth.cs.docforia.NodeRef;
+import se.lth.cs.docforia.query.NodeVar;
+import se.lth.cs.docforia.query.Proposition;
+import se.lth.cs.docforia.query.PropositionIterator;
+import se.lth.cs.docforia.util.AnnotationNavigator;
+
+import java.util.ArrayList;
+
+/**
+ * Structural join of a containment chain, suggests all tuples (outer, ..., inner) where every annotation is covered
+ * by the annotation before it.
+ * <p>
+ * All layers are swept once in start order. Outer annotations stay active until the sweep has passed their end,
+ * every inner annotation is joined with the active annotations covering it.
+ */
+public class StructuralJoinIterator implements PropositionIterator {
+    private static class Level {
+        private final NodeRef[] refs;
+        private final int[] starts;
+        private final int[] ends;
+        private final IntArrayList active = new IntArrayList();
+        private int pos = 0;
+
+        private Level(AnnotationNavigator<NodeRef> navigator) {
+            ArrayList<NodeRef> refList = new ArrayList<>();
+            IntArrayList startList = new IntArrayList();
+            IntArrayList endList = new IntArrayList();
+            boolean sorted = true;
+            while(navigator.next()) {
+                sorted &= startList.isEmpty() || startList.getInt(startList.size()-1) <= navigator.start();
+                refList.add(navigator.current());
+                startList.add(navigator.start());
+                endList.add(navigator.end());
+            }
+
+            if(sorted) {
+                this.refs = refList.toArray(new NodeRef[refList.size()]);
+                this.starts = startList.toIntArray();
+                this.ends = endList.toIntArray();
+            } else {
+                int[] order = new int[refList.size()];
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = i;
+                }
+
+                IntArrays.quickSort(order, new AbstractIntComparator() {
+                    @Override
+                    public int compare(int k1, int k2) {
+                        return Integer.compare(startList.getInt(k1), startList.getInt(k2));
+                    }
+                });
+
+                this.refs = new NodeRef[order.length];
+                this.starts = new int[order.length];
+                this.ends = new int[order.length];
+                for (int i = 0; i < order.length; i++) {
+                    this.refs[i] = refList.get(order[i]);
+                    this.starts[i] = startList.getInt(order[i]);
+                    this.ends[i] = endList.getInt(order[i]);
+                }
+            }
+        }
+
+        private boolean hasNext() {
+            return pos < starts.length;
+        }
+
+        /** Remove active annotations ending before start */
+        private void evict(int start) {
+            int k = 0;
+            for (int i = 0; i < active.size(); i++) {
+                int item = active.getInt(i);
+                if(ends[item] >= start) {
+                    active.set(k++, item);
+                }
+            }
+            active.size(k);
+        }
+    }
+
+    private final int[] varIndex;
+    private final Level[] levels;
+    private final int inner;
+
+    /** Position in the active list of every outer level for the current tuple */
+    private final int[] pos;
+    private int current = -1;
+    private boolean joining = false;
+
+    /**
+     * @param vars chain of variables, outermost first
+     * @param varIndex proposition index of every variable
+     */
+    public StructuralJoinIterator(DocumentEngine engine, NodeVar[] vars, int[] varIndex) {
+        if(vars.length < 2)
+            throw new IllegalArgumentException("At least 2 vars are required for a join");
+
+        this.varIndex = varIndex;
+        this.levels = new Level[vars.length];
+        for (int i = 0; i < vars.length; i++) {
+            levels[i] = new Level(engine.annotations(vars[i].getLayer(), vars[i].getVariant()));
+        }
+        this.inner = vars.length - 1;
+        this.pos = new int[inner];
+    }
+
+    /** Same semantics as the coveredBy predicate */
+    public static boolean coveredBy(int childStart, int childEnd, int parentStart, int parentEnd) {
+        return parentStart <= childStart && parentEnd >= childEnd && (childStart != parentEnd || childStart == parentStart);
+    }
+
+    private int chosen(int level) {
+        return level == inner ? current : levels[level].active.getInt(pos[level]);
+    }
+
+    private boolean covers(int level) {
+        Level parent = levels[level];
+        Level child = levels[level+1];
+        int parentItem = parent.active.getInt(pos[level]);
+        int childItem = chosen(level+1);
+        return coveredBy(child.starts[childItem], child.ends[childItem], parent.starts[parentItem], parent.ends[parentItem]);
+    }
+
+    /** Find the next valid tuple, starting at the current position of level */
+    private boolean search(int level) {
+        while(true) {
+            if(level < 0)
+                return true;
+
+            if(pos[level] == levels[level].active.size()) {
+                //backtrack
+                level++;
+                if(level == inner)
+                    return false;
+
+                pos[level]++;
+            }
+            else if(covers(level)) {
+                level--;
+                if(level >= 0)
+                    pos[level] = 0;
+            }
+            else
+                pos[level]++;
+        }
+    }
+
+    /** Sweep forward to the next inner annotation, ties in start are ordered outer first */
+    private boolean sweep() {
+        while(true) {
+            int next = -1;
+            for (int i = 0; i < levels.length; i++) {
+                if(levels[i].hasNext() && (next == -1 || levels[i].starts[levels[i].pos] < levels[next].starts[levels[next].pos])) {
+                    next = i;
+                }
+            }
+
+            if(next == -1 || !levels[inner].hasNext())
+                return false;
+
+            Level level = levels[next];
+            int item = level.pos++;
+            if(next == inner) {
+                current = item;
+                for (int i = 0; i < inner; i++) {
+                    levels[i].evict(level.starts[item]);
+                }
+                return true;
+            }
+            else
+                level.active.add(item);
+        }
+    }
+
+    @Override
+    public boolean next(Proposition proposition) {
+        while(true) {
+            if(joining) {
+                pos[0]++;
+            }
+            else {
+                if(!sweep())
+                    return false;
+
+                pos[inner-1] = 0;
+            }
+
+            joining = search(joining ? 0 : inner-1);
+            if(joining) {
+                for (int i = 0; i < inner; i++) {
+                    proposition.data[varIndex[i]] = levels[i].refs[levels[i].active.getInt(pos[i])];
+                }
+                proposition.data[varIndex[inner]] = levels[inner].refs[current];
+                return true;
+            }
+        }
+    }
+}
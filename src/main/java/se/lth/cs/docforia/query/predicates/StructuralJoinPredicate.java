@@ -0,0 +1,296 @@
+package se.lth.cs.docforia.query.predicates;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import se.lth.cs.docforia.query.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Containment chain, e.g. tokens covered by sentences covered by paragraphs.
+ * <p>
+ * When no var is bound all tuples are produced by a single {@link StructuralJoinIterator} sweep, otherwise the
+ * chain is evaluated link by link outwards from the bound vars.
+ */
+public class StructuralJoinPredicate extends Predicate {
+    private final NodeVar[] chain;
+    private final CoveredByPredicate[] links;
+
+    /**
+     * @param chain vars, outermost first
+     * @param links coveredBy predicates, link i is chain[i+1] covered by chain[i]
+     */
+    public StructuralJoinPredicate(QueryContext context, NodeVar[] chain, CoveredByPredicate[] links) {
+        super(context, chain);
+        if(links.length != chain.length - 1)
+            throw new IllegalArgumentException("A chain of " + chain.length + " vars requires " + (chain.length-1) + " links");
+
+        this.chain = chain;
+        this.links = links;
+    }
+
+    public NodeVar[] chain() {
+        return chain;
+    }
+
+    public CoveredByPredicate[] links() {
+        return links;
+    }
+
+    /** Order of links where every link has a bound var when entered */
+    private CoveredByPredicate[] order(boolean[] bound) {
+        boolean[] linkBound = Arrays.copyOf(bound, bound.length);
+        boolean[] used = new boolean[links.length];
+        CoveredByPredicate[] order = new CoveredByPredicate[links.length];
+        for (int k = 0; k < order.length; k++) {
+            int best = -1;
+            for (int i = 0; i < links.length; i++) {
+                if(used[i] || !(linkBound[i] || linkBound[i+1]))
+                    continue;
+
+                //Filters first
+                if(best == -1 || (linkBound[i] && linkBound[i+1]))
+                    best = i;
+            }
+
+            if(best == -1) {
+                //Nothing bound, start with the inner link
+                best = links.length - 1;
+            }
+
+            used[best] = true;
+            linkBound[best] = linkBound[best+1] = true;
+            order[k] = links[best];
+        }
+        return order;
+    }
+
+    @Override
+    protected PropositionIterator suggest(PredicateState state, Proposition proposition) {
+        if(!anyBound(state.constant))
+            return new StructuralJoinIterator(document(proposition).engine(), chain, varIndex);
+
+        final CoveredByPredicate[] order = order(state.constant);
+        final PredicateState[] states = new PredicateState[order.length];
+        for (int i = 0; i < order.length; i++) {
+            states[i] = order[i].createState();
+        }
+
+        return new PropositionIterator() {
+            private int p = -1;
+            private boolean done = false;
+
+            @Override
+            public boolean next(Proposition proposition) {
+                if(done)
+                    return false;
+
+                if(p == -1) {
+                    p = 0;
+                    order[0].enter(states[0], proposition);
+                }
+                else
+                    p = order.length - 1;
+
+                while(p >= 0) {
+                    if(!order[p].next(states[p], proposition)) {
+                        order[p].exit(states[p], proposition);
+                        p--;
+                    }
+                    else {
+                        p++;
+                        if(p == order.length)
+                            return true;
+
+                        order[p].enter(states[p], proposition);
+                    }
+                }
+
+                done = true;
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public boolean eval(Proposition proposition) {
+        for (CoveredByPredicate link : links) {
+            if(!link.eval(proposition))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean[] linkBound(boolean[] bound, int link) {
+        return new boolean[] {bound[link], bound[link+1]};
+    }
+
+    /** Estimated number of tuples produced given bound vars, link by link in evaluation order */
+    private double estimateRows(QueryStatistics stats, boolean[] bound) {
+        boolean[] chainBound = Arrays.copyOf(bound, bound.length);
+        double rows = 1.0;
+        List<CoveredByPredicate> linkList = Arrays.asList(links);
+        for (CoveredByPredicate link : order(bound)) {
+            int i = linkList.indexOf(link);
+            boolean[] b = linkBound(chainBound, i);
+            rows *= link.estimateCandidates(stats, b) * link.estimateSelectivity(stats, b);
+            chainBound[i] = chainBound[i+1] = true;
+        }
+        return rows;
+    }
+
+    private static boolean anyBound(boolean[] bound) {
+        for (boolean b : bound) {
+            if(b)
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean allBound(boolean[] bound) {
+        for (boolean b : bound) {
+            if(!b)
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public double estimateCandidates(QueryStatistics stats, boolean[] bound) {
+        if(allBound(bound))
+            return 1.0;
+        else if(anyBound(bound))
+            return estimateRows(stats, bound);
+
+        //Sweep, the work is linear in the size of all layers
+        double candidates = 0.0;
+        for (Var var : vars) {
+            candidates += stats.size(var);
+        }
+        return candidates;
+    }
+
+    @Override
+    public double estimateSelectivity(QueryStatistics stats, boolean[] bound) {
+        if(allBound(bound))
+            return estimateRows(stats, bound);
+        else if(anyBound(bound))
+            return 1.0;
+
+        double candidates = estimateCandidates(stats, bound);
+        return candidates == 0.0 ? 0.0 : Math.min(1.0, estimateRows(stats, bound) / candidates);
+    }
+
+    @Override
+    public String accessPath(QueryStatistics stats, boolean[] bound) {
+        StringBuilder sb = new StringBuilder();
+        for (Var var : vars) {
+            if(sb.length() > 0)
+                sb.append(" > ");
+
+            sb.append(QueryPlan.describe(context, var));
+        }
+
+        if(allBound(bound))
+            return "filter";
+        else
+            return (anyBound(bound) ? "chain lookup " : "structural join ") + sb.toString();
+    }
+
+    /**
+     * Replace chains of at least two coveredBy predicates between node vars with structural joins,
+     * other predicates are kept in place.
+     */
+    public static List<Predicate> joinChains(QueryContext context, List<Predicate> predicates) {
+        Reference2IntOpenHashMap<Var> asChild = new Reference2IntOpenHashMap<>();
+        Reference2IntOpenHashMap<Var> asParent = new Reference2IntOpenHashMap<>();
+        for (Predicate predicate : predicates) {
+            if(predicate instanceof CoveredByPredicate) {
+                CoveredByPredicate link = (CoveredByPredicate)predicate;
+                asChild.put(link.child(), asChild.getInt(link.child()) + 1);
+                asParent.put(link.parent(), asParent.getInt(link.parent()) + 1);
+            }
+        }
+
+        ReferenceOpenHashSet<Predicate> used = new ReferenceOpenHashSet<>();
+        ArrayList<Predicate> result = new ArrayList<>();
+        for (Predicate predicate : predicates) {
+            if(used.contains(predicate))
+                continue;
+
+            if(!(predicate instanceof CoveredByPredicate)) {
+                result.add(predicate);
+                continue;
+            }
+
+            ArrayList<CoveredByPredicate> chain = new ArrayList<>();
+            ReferenceOpenHashSet<Var> chainVars = new ReferenceOpenHashSet<>();
+            CoveredByPredicate start = (CoveredByPredicate)predicate;
+            chain.add(start);
+            chainVars.add(start.parent());
+            chainVars.add(start.child());
+            used.add(start);
+
+            //Extend outwards and inwards through vars that are linked exactly once in each direction
+            boolean extended = true;
+            while(extended) {
+                extended = false;
+                NodeVar outer = chain.get(0).parent();
+                NodeVar inner = chain.get(chain.size()-1).child();
+                for (Predicate candidate : predicates) {
+                    if(!(candidate instanceof CoveredByPredicate) || used.contains(candidate))
+                        continue;
+
+                    CoveredByPredicate link = (CoveredByPredicate)candidate;
+                    if(link.child() == outer && asChild.getInt(outer) == 1 && asParent.getInt(outer) == 1
+                            && !chainVars.contains(link.parent())) {
+                        chain.add(0, link);
+                        chainVars.add(link.parent());
+                    }
+                    else if(link.parent() == inner && asParent.getInt(inner) == 1 && asChild.getInt(inner) == 1
+                            && !chainVars.contains(link.child())) {
+                        chain.add(link);
+                        chainVars.add(link.child());
+                    }
+                    else
+                        continue;
+
+                    used.add(link);
+                    extended = true;
+                    break;
+                }
+            }
+
+            if(chain.size() == 1) {
+                result.add(start);
+            } else {
+                NodeVar[] vars = new NodeVar[chain.size()+1];
+                vars[0] = chain.get(0).parent();
+                for (int i = 0; i < chain.size(); i++) {
+                    vars[i+1] = chain.get(i).child();
+                }
+
+                result.add(new StructuralJoinPredicate(context, vars, chain.toArray(new CoveredByPredicate[chain.size()])));
+            }
+        }
+
+        return result;
+    }
+}
@@ -421,6 +421,79 @@ public class AnnotationIndex<T> implements Collection<T> {
         return entry;
     }
 
+    /**
+     * Add entries sorted by start and then center, builds a balanced tree in O(n) if this index is empty.
+     * <p>
+     * <b>Remarks:</b> The in-order sequence of the index will be the same as the input sequence.
+     * @param starts start positions
+     * @param ends end positions
+     * @param items data
+     * @throws IllegalArgumentException if the input is not sorted
+     */
+    public void bulkLoad(int[] starts, int[] ends, T[] items) {
+        bulkLoad(starts, ends, items, items.length);
+    }
+
+    /** Create an entry array, generic arrays can only be created from the wildcard type */
+    @SuppressWarnings("unchecked")
+    private Entry[] newEntries(int size) {
+        return (Entry[])new AnnotationIndex<?>.Entry[size];
+    }
+
+    /**
+     * Add the first <code>count</code> entries, sorted by start and then center.
+     * @see #bulkLoad(int[], int[], Object[])
+     */
+    public void bulkLoad(int[] starts, int[] ends, T[] items, int count) {
+        Entry[] entries = newEntries(count);
+        for (int i = 0; i < count; i++) {
+            entries[i] = new Entry(starts[i], ends[i], items[i]);
+            if(i > 0 && entries[i-1].compareTo(entries[i]) > 0)
+                throw new IllegalArgumentException("Input is not sorted at position " + i);
+        }
+
+        if(root != null) {
+            for (Entry entry : entries) {
+                add(entry);
+            }
+        } else if(count > 0) {
+            int[] height = new int[1];
+            root = build(entries, 0, count-1, height);
+            root.parent = null;
+            size = count;
+        }
+    }
+
+    /** Build balanced subtree from sorted entries in [lo, hi] */
+    private Entry build(Entry[] entries, int lo, int hi, int[] height) {
+        if(lo > hi) {
+            height[0] = 0;
+            return null;
+        }
+
+        int mid = (lo + hi) >>> 1;
+        Entry node = entries[mid];
+
+        node.left = build(entries, lo, mid-1, height);
+        int leftHeight = height[0];
+        node.right = build(entries, mid+1, hi, height);
+        int rightHeight = height[0];
+
+        node.max = node.end;
+        if(node.left != null) {
+            node.left.parent = node;
+            node.max = Math.max(node.max, node.left.max);
+        }
+        if(node.right != null) {
+            node.right.parent = node;
+            node.max = Math.max(node.max, node.right.max);
+        }
+
+        node.balance = leftHeight - rightHeight;
+        height[0] = Math.max(leftHeight, rightHeight) + 1;
+        return node;
+    }
+
     /**
      * Move a range and make the needed changes in the index
      * @param entry entry to be updated
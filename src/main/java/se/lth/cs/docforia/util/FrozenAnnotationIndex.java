@@ -0,0 +1,514 @@
+package se.lth.cs.docforia.util;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.ints.AbstractIntIterator;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only range index packed into arrays, supporting overlapping and duplicated ranges.
+ * <p>
+ * Entries are sorted in the same order as {@link AnnotationIndex} and addressed by position. Overlap queries use an
+ * implicit interval tree over the sorted arrays: the node at level k has its children at &plusmn;2<sup>k-1</sup> and
+ * the maximum end of every subtree is kept in a separate array.
+ */
+public class FrozenAnnotationIndex<T> implements Iterable<T> {
+    protected final int size;
+    protected final int[] starts;
+    protected final int[] ends;
+    protected final Object[] items;
+
+    protected final int[] maxEnds;
+    protected final int rootLevel;
+
+    /**
+     * Freeze the current state of an index
+     */
+    public FrozenAnnotationIndex(AnnotationIndex<T> index) {
+        this.size = index.size();
+        this.starts = new int[size];
+        this.ends = new int[size];
+        this.items = new Object[size];
+
+        int i = 0;
+        for (AnnotationIndex<T>.Entry entry : index.entries()) {
+            starts[i] = entry.getStart();
+            ends[i] = entry.getEnd();
+            items[i] = entry.get();
+            i++;
+        }
+
+        this.rootLevel = rootLevel(size);
+        this.maxEnds = computeMaxEnds(ends, size, rootLevel);
+    }
+
+    /**
+     * Create index from sorted arrays, the arrays are used as-is and must not be modified afterwards.
+     * @param starts start positions, sorted by start and then center
+     * @param ends end positions
+     * @param items items
+     * @param size number of entries
+     */
+    public FrozenAnnotationIndex(int[] starts, int[] ends, T[] items, int size) {
+        this.size = size;
+        this.starts = starts;
+        this.ends = ends;
+        this.items = items;
+        this.rootLevel = rootLevel(size);
+        this.maxEnds = computeMaxEnds(ends, size, rootLevel);
+    }
+
+    private static int rootLevel(int size) {
+        int k = 0;
+        while((1 << (k+1)) - 1 < size)
+            k++;
+
+        return k;
+    }
+
+    private static int[] computeMaxEnds(int[] ends, int size, int rootLevel) {
+        int[] maxEnds = new int[size == 0 ? 0 : (1 << (rootLevel+1)) - 1];
+        for (int x = 0; x < maxEnds.length; x += 2) {
+            maxEnds[x] = x < size ? ends[x] : Integer.MIN_VALUE;
+        }
+
+        for (int k = 1; k <= rootLevel; k++) {
+            int step = 1 << (k-1);
+            for (int x = (1 << k) - 1; x < maxEnds.length; x += 1 << (k+1)) {
+                int max = Math.max(maxEnds[x - step], maxEnds[x + step]);
+                maxEnds[x] = x < size ? Math.max(ends[x], max) : max;
+            }
+        }
+
+        return maxEnds;
+    }
+
+    /**
+     * Create a mutable index with the same entries and order
+     */
+    @SuppressWarnings("unchecked")
+    public AnnotationIndex<T> thaw() {
+        AnnotationIndex<T> index = new AnnotationIndex<>();
+        index.bulkLoad(starts, ends, (T[])items, size);
+        return index;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Item at position */
+    @SuppressWarnings("unchecked")
+    public T get(int pos) {
+        return (T)items[pos];
+    }
+
+    /** Start at position */
+    public int getStart(int pos) {
+        return starts[pos];
+    }
+
+    /** End at position */
+    public int getEnd(int pos) {
+        return ends[pos];
+    }
+
+    /** First position with a start &gt;= start, or size if none */
+    public int lowerBound(int start) {
+        int lo = 0;
+        int hi = size;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(starts[mid] < start)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return lo;
+    }
+
+    /**
+     * Find position of an item
+     * @return position or -1 if not found
+     */
+    public int indexOf(int start, int end, T item) {
+        for (int i = lowerBound(start); i < size && starts[i] == start; i++) {
+            if(items[i] == item)
+                return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Find the covered ranges by given range
+     * @param start start position (open)
+     * @param end end position (closed)
+     */
+    public Iterator<T> cover(int start, int end) {
+        return new ItemIterator(coverEntries(start, end));
+    }
+
+    /**
+     * Find the positions of covered ranges by given range
+     * @param start start position (open)
+     * @param end end position (closed)
+     */
+    public IntIterator coverEntries(final int start, final int end) {
+        return new AbstractIntIterator() {
+            int pos = lowerBound(start);
+            int next = -1;
+
+            private boolean moveForward() {
+                if(next != -1)
+                    return true;
+
+                while(pos < size) {
+                    int i = pos++;
+                    if(ends[i] <= end) {
+                        next = i;
+                        return true;
+                    } else if(starts[i] >= end) {
+                        pos = size;
+                        return false;
+                    }
+                }
+
+                return false;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return moveForward();
+            }
+
+            @Override
+            public int nextInt() {
+                if(!moveForward())
+                    throw new NoSuchElementException();
+
+                int retval = next;
+                next = -1;
+                return retval;
+            }
+        };
+    }
+
+    /**
+     * Find all overlaps for the given interval
+     * @param start start (closed)
+     * @param end end (open)
+     */
+    public Iterator<T> overlap(int start, int end) {
+        return new ItemIterator(overlapEntries(start, end));
+    }
+
+    /**
+     * Find the positions of all overlaps for the given interval, in sorted order
+     * @param start start (closed)
+     * @param end end (open)
+     */
+    public IntIterator overlapEntries(final int start, final int end) {
+        return new AbstractIntIterator() {
+            final int[] stackPos = new int[rootLevel+1];
+            final int[] stackLevel = new int[rootLevel+1];
+            int top = 0;
+            int next = -1;
+
+            {
+                if(size > 0)
+                    descend((1 << rootLevel) - 1, rootLevel);
+            }
+
+            /** Push the node and its left spine, skipping subtrees that end before start */
+            private void descend(int x, int k) {
+                while(maxEnds[x] > start) {
+                    stackPos[top] = x;
+                    stackLevel[top] = k;
+                    top++;
+                    if(k == 0)
+                        break;
+
+                    k--;
+                    x -= 1 << k;
+                }
+            }
+
+            private boolean moveForward() {
+                if(next != -1)
+                    return true;
+
+                while(top > 0) {
+                    top--;
+                    int x = stackPos[top];
+                    int k = stackLevel[top];
+                    if(x >= size) {
+                        //Imaginary node, only the left subtree contains entries
+                        continue;
+                    }
+
+                    if(starts[x] >= end) {
+                        top = 0;
+                        return false;
+                    }
+
+                    if(k > 0)
+                        descend(x + (1 << (k-1)), k-1);
+
+                    if(ends[x] > start) {
+                        next = x;
+                        return true;
+                    }
+                }
+
+                return false;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return moveForward();
+            }
+
+            @Override
+            public int nextInt() {
+                if(!moveForward())
+                    throw new NoSuchElementException();
+
+                int retval = next;
+                next = -1;
+                return retval;
+            }
+        };
+    }
+
+    private class ItemIterator implements Iterator<T> {
+        private final IntIterator iter;
+
+        public ItemIterator(IntIterator iter) {
+            this.iter = iter;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iter.hasNext();
+        }
+
+        @Override
+        public T next() {
+            return get(iter.nextInt());
+        }
+    }
+
+    /** Internal array navigator */
+    private class Navigator implements AnnotationNavigator<T> {
+        int current;
+        boolean lastNode = false;
+
+        public Navigator(int current) {
+            this.current = current;
+        }
+
+        private boolean moveTo(int pos) {
+            if(pos >= size) {
+                current = -1;
+                lastNode = true;
+                return false;
+            } else {
+                current = pos;
+                return true;
+            }
+        }
+
+        @Override
+        public T current() {
+            return current != -1 ? get(current) : null;
+        }
+
+        @Override
+        public boolean next() {
+            if(current == -1 && !lastNode) {
+                current = 0;
+                return true;
+            } else if(lastNode)
+                return false;
+            else
+                return moveTo(current+1);
+        }
+
+        @Override
+        public boolean next(int start) {
+            if(current == -1 && !lastNode)
+                return moveTo(lowerBound(start));
+            else if(current == -1)
+                return false;
+            else if(starts[current] >= start)
+                return next();
+            else
+                return moveTo(lowerBound(start));
+        }
+
+        @Override
+        public boolean nextFloor(int start) {
+            if(current == -1 && lastNode)
+                return false;
+            else if(current != -1 && starts[current] >= start)
+                return next();
+
+            int pos = lowerBound(start);
+            if(pos < size && starts[pos] == start)
+                current = pos;
+            else if(pos == 0)
+                current = 0;
+            else if(pos-1 != current)
+                current = pos-1;
+            else
+                return moveTo(pos);
+
+            return true;
+        }
+
+        @Override
+        public boolean hasReachedEnd() {
+            return lastNode;
+        }
+
+        @Override
+        public boolean prev() {
+            if(current == -1 && lastNode) {
+                current = size-1;
+                lastNode = false;
+                return true;
+            } else if(current == -1) {
+                return false;
+            } else {
+                current--;
+                return current != -1;
+            }
+        }
+
+        @Override
+        public void reset() {
+            current = -1;
+            lastNode = false;
+        }
+
+        @Override
+        public int start() {
+            return starts[current];
+        }
+
+        @Override
+        public int end() {
+            return ends[current];
+        }
+    }
+
+    private final AnnotationNavigator<T> emptyNavigator = new AnnotationNavigator<T>() {
+        @Override
+        public T current() {
+            return null;
+        }
+
+        @Override
+        public boolean next() {
+            return false;
+        }
+
+        @Override
+        public boolean nextFloor(int start) {
+            return false;
+        }
+
+        @Override
+        public boolean hasReachedEnd() {
+            return true;
+        }
+
+        @Override
+        public boolean prev() {
+            return false;
+        }
+
+        @Override
+        public void reset() {
+
+        }
+
+        @Override
+        public boolean next(int start) {
+            return false;
+        }
+
+        @Override
+        public int start() {
+            throw new NoSuchElementException();
+        }
+
+        @Override
+        public int end() {
+            throw new NoSuchElementException();
+        }
+    };
+
+    /**
+     * A navigator from minimum position or a empty navigator if the size of this index == 0
+     */
+    public AnnotationNavigator<T> navigator() {
+        if(size == 0)
+            return emptyNavigator;
+        else
+            return new Navigator(-1);
+    }
+
+    /**
+     * Get a navigator from a specific position
+     * @param pos the current position in the navigator
+     */
+    public AnnotationNavigator<T> navigator(int pos) {
+        return new Navigator(pos);
+    }
+
+    /**
+     * Forward iterator of all items in this index
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            int pos = 0;
+
+            @Override
+            public boolean hasNext() {
+                return pos < size;
+            }
+
+            @Override
+            public T next() {
+                if(pos >= size)
+                    throw new NoSuchElementException();
+
+                return get(pos++);
+            }
+        };
+    }
+}
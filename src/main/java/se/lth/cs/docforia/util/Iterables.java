@@ -102,6 +102,7 @@ public class Iterables {
                     }
                 } else {
                     next = currIter.next();
+                    return true;
                 }
 
                 return false;
@@ -15,7 +15,10 @@ package se.lth.cs.docforia.util;
  * limitations under the License.
  */
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOError;
 import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Objects;
@@ -148,4 +151,15 @@ public class StringTable {
         }
         output.println(line);
     }
+
+    @Override
+    public String toString() {
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            print(new PrintStream(output, true, "UTF-8"));
+            return output.toString("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IOError(e);
+        }
+    }
 }
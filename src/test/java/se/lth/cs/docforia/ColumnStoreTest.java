@@ -0,0 +1,143 @@
+package se.lth.cs.docforia;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Test;
+import se.lth.cs.docforia.colstore.ColumnDocumentFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+/**
+ * Column store test code
+ */
+public class ColumnStoreTest extends ModelTest {
+
+    @Override
+    public DocumentFactory documentFactory() {
+        return ColumnDocumentFactory.getInstance();
+    }
+
+    @Override
+    protected Document serializeDeserialize(Document doc) {
+        byte[] bytes = documentIO().toBytes(doc, DocumentStorageLevel.LEVEL_2);
+        return documentIO().fromBytes(bytes);
+    }
+
+    private static int count(Iterable<?> iterable) {
+        int count = 0;
+        for (Object ignored : iterable) {
+            count++;
+        }
+        return count;
+    }
+
+    /** Tokens with properties and a chain of edges, created through the store only */
+    private static Document createChain(DocumentFactory factory, int numTokens) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < numTokens; i++) {
+            sb.append("w ");
+        }
+
+        Document doc = factory.createTextFragment(sb.toString());
+        DocumentStore store = doc.store();
+        NodeRef prev = null;
+        for (int i = 0; i < numTokens; i++) {
+            NodeRef token = store.createNode("token");
+            token.get().setRanges(i * 2, i * 2 + 1);
+            token.get().putProperty("pos", i % 2 == 0 ? "NN" : "VB");
+            token.get().putProperty("index", String.valueOf(i));
+
+            if(prev != null) {
+                EdgeRef edge = store.createEdge("next");
+                edge.get().connect(prev, token);
+                edge.get().putProperty("label", "next");
+            }
+            prev = token;
+        }
+
+        return doc;
+    }
+
+    @Test
+    public void testWeakHandles() {
+        Document doc = documentFactory().createTextFragment("a b c");
+        DocumentStore store = doc.store();
+        NodeRef token = store.createNode("token");
+        token.get().setRanges(0, 1);
+        token.get().putProperty("pos", "NN");
+
+        //Reachable handles are reused
+        assertSame(token, store.nodeLayer("token", null).iterator().next());
+
+        //Whether the handle is collected or not, the store must hand out a valid one
+        token = null;
+        System.gc();
+
+        NodeRef again = store.nodeLayer("token", null).iterator().next();
+        assertEquals("NN", again.get().getProperty("pos"));
+        assertEquals(0, again.get().getStart());
+        assertSame(again, store.nodeLayer("token", null).iterator().next());
+    }
+
+    @Test
+    public void testEdgesAfterCompaction() {
+        Document doc = createChain(documentFactory(), 100);
+        DocumentStore store = doc.store();
+        ArrayList<NodeRef> tokens = new ArrayList<>();
+        for (NodeRef token : store.nodeLayer("token", null)) {
+            tokens.add(token);
+        }
+        assertEquals(1, count(store.outboundEdges(tokens.get(0))));
+
+        for (int i = 0; i < 60; i++) {
+            store.remove(tokens.get(i));
+        }
+
+        //Compacts the layer
+        assertEquals(40, count(store.nodeLayer("token", null)));
+
+        for (int i = 60; i < 99; i++) {
+            Iterator<EdgeRef> out = store.outboundEdges(tokens.get(i)).iterator();
+            assertTrue(out.hasNext());
+            EdgeRef edge = out.next();
+            assertFalse(out.hasNext());
+            assertSame(tokens.get(i), edge.get().getTail());
+            assertSame(tokens.get(i + 1), edge.get().getHead());
+            assertSame(edge, store.inboundEdges(tokens.get(i + 1)).iterator().next());
+            assertEquals(String.valueOf(i + 1), edge.get().getHead().get().getProperty("index"));
+        }
+
+        EdgeRef dangling = store.inboundEdges(tokens.get(60)).iterator().next();
+        assertFalse(dangling.get().getTail().valid());
+
+        tokens.get(80).get().setVariant("x");
+        assertEquals("x", tokens.get(80).get().getVariant());
+        assertSame(tokens.get(80), store.outboundEdges(tokens.get(80)).iterator().next().get().getTail());
+        assertSame(tokens.get(80), store.inboundEdges(tokens.get(80)).iterator().next().get().getHead());
+        assertSame(tokens.get(80), store.inboundEdges(tokens.get(81)).iterator().next().get().getTail());
+
+        store.migrateNodesToVariant("token", null, "y");
+        for (int i = 60; i < 99; i++) {
+            EdgeRef edge = store.outboundEdges(tokens.get(i)).iterator().next();
+            assertSame(tokens.get(i + 1), edge.get().getHead());
+            assertEquals(i + 1 == 80 ? "x" : "y", edge.get().getHead().get().getVariant());
+            assertEquals(String.valueOf(i + 1), edge.get().getHead().get().getProperty("index"));
+        }
+    }
+}
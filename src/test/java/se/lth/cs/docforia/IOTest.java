@@ -15,26 +15,74 @@ package se.lth.cs.docforia;
  * limitations under the License.
  */
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
+import se.lth.cs.docforia.data.BooleanArrayRef;
+import se.lth.cs.docforia.data.DataRef;
+import se.lth.cs.docforia.data.PropertyMap;
 import se.lth.cs.docforia.graph.text.DependencyRelation;
+import se.lth.cs.docforia.graph.text.NamedEntity;
 import se.lth.cs.docforia.graph.text.Paragraph;
 import se.lth.cs.docforia.graph.text.Sentence;
 import se.lth.cs.docforia.graph.text.Token;
 import se.lth.cs.docforia.io.DocumentReader;
+import se.lth.cs.docforia.io.file.CorpusMatch;
+import se.lth.cs.docforia.io.file.CorpusQuery;
+import se.lth.cs.docforia.io.file.DataFilter;
+import se.lth.cs.docforia.io.file.DataFilters;
+import se.lth.cs.docforia.io.file.DictionaryTrainer;
 import se.lth.cs.docforia.io.file.DocumentBlockFileReader;
 import se.lth.cs.docforia.io.file.DocumentBlockFileWriter;
 import se.lth.cs.docforia.io.file.DocumentFileReader;
 import se.lth.cs.docforia.io.file.DocumentFileWriter;
+import se.lth.cs.docforia.io.file.DocumentIndex;
+import se.lth.cs.docforia.io.file.DocumentRandomBlockFileReader;
+import se.lth.cs.docforia.io.file.GzipFilter;
+import se.lth.cs.docforia.io.file.IndexedDocumentReader;
+import se.lth.cs.docforia.io.file.Lz4Filter;
+import se.lth.cs.docforia.io.file.MappedFile;
+import se.lth.cs.docforia.io.file.ParallelDocumentBlockFileReader;
+import se.lth.cs.docforia.io.mem.ByteBufferInput;
 import se.lth.cs.docforia.io.mem.GzipUtil;
+import se.lth.cs.docforia.io.mem.Input;
+import se.lth.cs.docforia.io.mem.Output;
+import se.lth.cs.docforia.io.stream.DocumentJsonLinesReader;
+import se.lth.cs.docforia.io.stream.DocumentJsonLinesWriter;
+import se.lth.cs.docforia.memstore.LazyMemoryDocumentStore;
+import se.lth.cs.docforia.memstore.MemoryBinary;
+import se.lth.cs.docforia.memstore.MemoryBinaryV1L2Codec;
 import se.lth.cs.docforia.memstore.MemoryDocument;
+import se.lth.cs.docforia.memstore.MemoryDocumentFactory;
+import se.lth.cs.docforia.memstore.MemoryJson;
+import se.lth.cs.docforia.memstore.MemoryJsonLevel0Codec;
+import se.lth.cs.docforia.memstore.encoders.NumericColumnCodec;
+import se.lth.cs.docforia.query.NodeTVar;
+import se.lth.cs.docforia.query.PreparedQuery;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOError;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.*;
 import static se.lth.cs.docforia.graph.TokenProperties.POS;
@@ -185,4 +233,887 @@ public class IOTest {
             assertEquals("2345678", tok4.text());
         }
     }
+
+    private static List<Document> blockDocuments() {
+        ArrayList<Document> docs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            MemoryDocument document = new MemoryDocument("Dokument nummer " + i + " från Lund, Sverige – åäö.");
+            Token tok1 = new Token(document).setRange(0, 8).putProperty(POS, "NN");
+            Token tok2 = new Token(document).setRange(9, 15).putProperty(POS, "NN");
+            tok2.connect(tok1, new DependencyRelation()).setRelation("AT");
+            new Sentence(document).setRange(0, document.length());
+            docs.add(document);
+        }
+        return docs;
+    }
+
+    private static void assertBlockDocuments(List<Document> docs) {
+        assertEquals(10, docs.size());
+        for (int i = 0; i < docs.size(); i++) {
+            Document doc = docs.get(i);
+            assertEquals("Dokument nummer " + i + " från Lund, Sverige – åäö.", doc.text());
+            assertEquals(2, doc.nodes(Token.class).count());
+            assertEquals("NN", doc.nodes(Token.class).first().getProperty(POS));
+            assertEquals("AT", doc.edges(DependencyRelation.class).first().getRelation());
+            assertEquals(1, doc.nodes(Sentence.class).count());
+        }
+    }
+
+    @Test
+    public void testDocumentBlockReaderMapped() throws Exception {
+        for (DataFilter filter : Arrays.asList(null, GzipFilter.getInstance())) {
+            setUp();
+
+            List<Document> docs = blockDocuments();
+            DocumentBlockFileWriter writer = new DocumentBlockFileWriter(new File("test.docs"), DocumentStorageLevel.LEVEL_2, filter);
+            writer.write(docs.subList(0, 4));
+            writer.write(docs.subList(4, 10));
+            writer.close();
+
+            DocumentBlockFileReader reader = new DocumentBlockFileReader(new File("test.docs"), filter, true);
+            ArrayList<Document> read = new ArrayList<>();
+            Document doc;
+            while((doc = reader.next()) != null) {
+                read.add(doc);
+            }
+            reader.close();
+
+            assertBlockDocuments(read);
+        }
+    }
+
+    @Test
+    public void testDocumentRandomBlockReaderMapped() throws Exception {
+        //Frames of length prefixed blocks without filter
+        List<Document> docs = blockDocuments();
+        Output file = new Output(1024, 1 << 24);
+        file.writeBytes(new byte[] {'D', 'S', '1', '0', 'N', 'A'});
+
+        long[] frameStarts = new long[2];
+        int[] frameLengths = new int[2];
+        List<List<Document>> blocks = Arrays.asList(docs.subList(0, 4), docs.subList(4, 10));
+        for (int i = 0; i < blocks.size(); i++) {
+            Output block = new Output(1024, 1 << 24);
+            for (Document doc : blocks.get(i)) {
+                byte[] data = doc.toBytes();
+                block.writeVarInt(data.length, true);
+                block.writeBytes(data);
+            }
+
+            Output frame = new Output(1024, 1 << 24);
+            frame.writeVarInt(block.position(), true);
+            block.writeTo(frame);
+
+            file.writeVarInt(frame.position(), true);
+            frameStarts[i] = file.position();
+            frameLengths[i] = frame.position();
+            frame.writeTo(file);
+        }
+        file.writeVarInt(0, true);
+        Files.write(new File("test.docs").toPath(), file.toBytes());
+
+        DocumentRandomBlockFileReader reader = new DocumentRandomBlockFileReader(new File("test.docs"), null, true);
+        ArrayList<Document> read = new ArrayList<>();
+        Document doc;
+        while((doc = reader.next()) != null) {
+            read.add(doc);
+        }
+        assertBlockDocuments(read);
+
+        read.clear();
+        read.addAll(reader.read(frameStarts[0], frameLengths[0]));
+        read.addAll(reader.read(frameStarts[1], frameLengths[1]));
+        assertBlockDocuments(read);
+
+        reader.seek(6);
+        reader.skip(2);
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void testMappedFileSegments() throws Exception {
+        byte[] data = new byte[100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)i;
+        }
+        Files.write(new File("test.docs").toPath(), data);
+
+        MappedFile mapped = new MappedFile(new File("test.docs"), 7);
+        assertEquals(100, mapped.length());
+        for (int start = 0; start < data.length; start += 3) {
+            for (int length : new int[] {0, 1, 6, 7, 8, 20}) {
+                if(start + length > data.length)
+                    continue;
+
+                ByteBuffer slice = mapped.slice(start, length);
+                byte[] actual = new byte[slice.remaining()];
+                slice.get(actual);
+                assertArrayEquals(Arrays.copyOfRange(data, start, start + length), actual);
+            }
+        }
+
+        try {
+            mapped.slice(95, 10);
+            fail("Read outside of file");
+        } catch (IOError e) {
+            //Expected
+        }
+
+        mapped.close();
+    }
+
+    @Test
+    public void testByteBufferInput() {
+        Output output = new Output(64, 1 << 20);
+        output.writeString("ascii");
+        output.writeString("åäö – utf8");
+        output.writeString("");
+        output.writeString(null);
+        output.writeVarInt(123456789, true);
+        output.writeVarInt(-5, false);
+        output.writeVarLong(1L << 60, true);
+        output.writeInt(0xCAFEBABE);
+        output.writeLong(-2L);
+
+        byte[] bytes = output.toBytes();
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes);
+        direct.flip();
+
+        ByteBufferInput input = new ByteBufferInput(direct);
+        assertEquals("ascii", input.readString());
+        assertEquals("åäö – utf8", input.readString());
+        assertEquals("", input.readString());
+        assertNull(input.readString());
+        assertEquals(123456789, input.readVarInt(true));
+        assertEquals(-5, input.readVarInt(false));
+        assertEquals(1L << 60, input.readVarLong(true));
+        assertEquals(0xCAFEBABE, input.readInt());
+        assertEquals(-2L, input.readLong());
+        assertTrue(input.eof());
+    }
+
+    private static void assertRoundtrip(DataFilter filter, byte[] data) {
+        assertArrayEquals(data, filter.unapply(filter.apply(data)));
+
+        ByteBuffer compressed = filter.apply(ByteBuffer.wrap(data));
+        ByteBuffer direct = ByteBuffer.allocateDirect(compressed.remaining());
+        direct.put(compressed);
+        direct.flip();
+
+        ByteBuffer decompressed = filter.unapply(direct);
+        byte[] actual = new byte[decompressed.remaining()];
+        decompressed.get(actual);
+        assertArrayEquals(data, actual);
+    }
+
+    @Test
+    public void testLz4Filter() {
+        Random random = new Random(12345);
+        byte[] noise = new byte[100000];
+        random.nextBytes(noise);
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("Token ").append(i % 37).append(" NN ").append(random.nextInt(10)).append(' ');
+        }
+        byte[] text = sb.toString().getBytes();
+
+        byte[] runs = new byte[70000];
+        Arrays.fill(runs, 0, 40000, (byte)7);
+
+        List<byte[]> inputs = Arrays.asList(new byte[0], new byte[] {1}, new byte[] {1,2,3,4,5,6,7,8,9,10,11,12,13},
+                                            noise, text, runs, Arrays.copyOf(text, 13));
+
+        Lz4Filter dictFilter = Lz4Filter.withDictionary(Arrays.copyOf(text, 4096));
+        for (byte[] input : inputs) {
+            assertRoundtrip(Lz4Filter.getInstance(), input);
+            assertRoundtrip(dictFilter, input);
+        }
+
+        assertTrue(Lz4Filter.getInstance().apply(text).length < text.length / 2);
+        assertTrue(dictFilter.apply(Arrays.copyOf(text, 1000)).length < Lz4Filter.getInstance().apply(Arrays.copyOf(text, 1000)).length);
+
+        try {
+            Lz4Filter.withDictionary(new byte[] {1,2,3,4,5}).unapply(dictFilter.apply(text));
+            fail("Dictionary mismatch not detected");
+        } catch (IOError e) {
+            //Expected
+        }
+    }
+
+    @Test
+    public void testLz4FilterOffsetBuffers() {
+        byte[] run = new byte[100];
+        Arrays.fill(run, (byte)'a');
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sb.append("Token ").append(i % 37).append(' ');
+        }
+        byte[] text = sb.toString().getBytes();
+
+        Lz4Filter dictFilter = Lz4Filter.withDictionary(Arrays.copyOf(text, 1024));
+        for (Lz4Filter filter : Arrays.asList(Lz4Filter.getInstance(), dictFilter)) {
+            for (byte[] input : Arrays.asList(run, text)) {
+                //Preceding bytes equal to the data must not be referenced
+                byte[] array = new byte[input.length + 1];
+                array[0] = input[0];
+                System.arraycopy(input, 0, array, 1, input.length);
+
+                ByteBuffer sliced = ByteBuffer.wrap(array, 1, input.length).slice();
+                ByteBuffer positioned = ByteBuffer.wrap(array);
+                positioned.position(1);
+
+                for (ByteBuffer data : Arrays.asList(sliced, positioned)) {
+                    ByteBuffer decompressed = filter.unapply(filter.apply(data));
+                    byte[] actual = new byte[decompressed.remaining()];
+                    decompressed.get(actual);
+                    assertArrayEquals(input, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDictionaryTrainer() throws Exception {
+        List<Document> docs = blockDocuments();
+        byte[] dictionary = new DictionaryTrainer().trainDocuments(docs, DocumentStorageLevel.LEVEL_2, 1024);
+        assertTrue(dictionary.length > 0);
+        assertTrue(dictionary.length <= 1024);
+
+        Lz4Filter filter = Lz4Filter.withDictionary(dictionary);
+        int plain = 0;
+        int trained = 0;
+        for (Document doc : docs) {
+            byte[] data = doc.toBytes(DocumentStorageLevel.LEVEL_2);
+            plain += Lz4Filter.getInstance().apply(data).length;
+            trained += filter.apply(data).length;
+            assertRoundtrip(filter, data);
+        }
+        assertTrue(trained < plain);
+
+        DocumentFileWriter writer = new DocumentFileWriter(new File("test.docs"), DocumentStorageLevel.LEVEL_2, filter);
+        writer.write(docs);
+        writer.close();
+
+        DataFilters.register(filter);
+        DocumentFileReader reader = new DocumentFileReader(new File("test.docs"));
+        ArrayList<Document> read = new ArrayList<>();
+        for (int i = 0; i < docs.size(); i++) {
+            read.add(reader.next());
+        }
+        reader.close();
+        assertBlockDocuments(read);
+    }
+
+    /** File of length prefixed frames of filtered blocks, as read by {@link DocumentRandomBlockFileReader} */
+    private static byte[] randomBlockFile(List<List<Document>> blocks, DataFilter filter) {
+        Output file = new Output(1024, 1 << 24);
+        file.writeBytes(new byte[] {'D', 'S', '1', '0'});
+        file.writeBytes(filter != null ? filter.id() : new byte[] {'N', 'A'});
+
+        for (List<Document> docs : blocks) {
+            Output block = new Output(1024, 1 << 24);
+            for (Document doc : docs) {
+                byte[] data = doc.toBytes();
+                block.writeVarInt(data.length, true);
+                block.writeBytes(data);
+            }
+
+            byte[] data = filter != null ? filter.apply(block.toBytes()) : block.toBytes();
+            Output frame = new Output(1024, 1 << 24);
+            frame.writeVarInt(data.length, true);
+            frame.writeBytes(data);
+
+            file.writeVarInt(frame.position(), true);
+            frame.writeTo(file);
+        }
+        file.writeVarInt(0, true);
+        return file.toBytes();
+    }
+
+    @Test
+    public void testFilterDetection() throws Exception {
+        for (DataFilter filter : Arrays.asList(null, GzipFilter.getInstance(), Lz4Filter.getInstance())) {
+            for (boolean mapped : new boolean[] {false, true}) {
+                setUp();
+
+                List<Document> docs = blockDocuments();
+                DocumentBlockFileWriter writer = new DocumentBlockFileWriter(new File("test.docs"), DocumentStorageLevel.LEVEL_2, filter);
+                writer.write(docs.subList(0, 4));
+                writer.write(docs.subList(4, 10));
+                writer.close();
+
+                DocumentBlockFileReader reader = new DocumentBlockFileReader(new File("test.docs"), mapped);
+                ArrayList<Document> read = new ArrayList<>();
+                Document doc;
+                while((doc = reader.next()) != null) {
+                    read.add(doc);
+                }
+                reader.close();
+
+                assertBlockDocuments(read);
+
+                setUp();
+                Files.write(new File("test.docs").toPath(), randomBlockFile(Arrays.asList(docs.subList(0, 4), docs.subList(4, 10)), filter));
+
+                DocumentRandomBlockFileReader randomReader = new DocumentRandomBlockFileReader(new File("test.docs"), mapped);
+                read.clear();
+                while((doc = randomReader.next()) != null) {
+                    read.add(doc);
+                }
+                randomReader.close();
+
+                assertBlockDocuments(read);
+            }
+        }
+
+        assertNull(DataFilters.forId(new byte[] {'N', 'A'}));
+        assertSame(Lz4Filter.getInstance(), DataFilters.forId(new byte[] {'L', '4'}));
+        try {
+            DataFilters.forId(new byte[] {'?', '?'});
+            fail("Unknown filter id accepted");
+        } catch (IOError e) {
+            //Expected
+        }
+    }
+
+    @Test
+    public void testParallelBlockReader() throws Exception {
+        List<Document> docs = blockDocuments();
+        DocumentBlockFileWriter writer = new DocumentBlockFileWriter(new File("test.docs"), DocumentStorageLevel.LEVEL_2, Lz4Filter.getInstance());
+        for (int i = 0; i < docs.size(); i += 3) {
+            writer.write(docs.subList(i, Math.min(docs.size(), i + 3)));
+        }
+        writer.close();
+
+        for (int maxInFlight : new int[] {1, 2, 8}) {
+            ParallelDocumentBlockFileReader reader = new ParallelDocumentBlockFileReader(new File("test.docs"), 3, maxInFlight, true);
+            ArrayList<Document> read = new ArrayList<>();
+            Document doc;
+            while((doc = reader.next()) != null) {
+                read.add(doc);
+            }
+            reader.close();
+            assertBlockDocuments(read);
+        }
+
+        ParallelDocumentBlockFileReader unordered = new ParallelDocumentBlockFileReader(new File("test.docs"), 4, 2, false);
+        List<Document> read = unordered.stream().collect(Collectors.toList());
+        read.sort((x, y) -> Integer.compare(x.text().length(), y.text().length()) != 0
+                            ? Integer.compare(x.text().length(), y.text().length())
+                            : x.text().compareTo(y.text()));
+        assertBlockDocuments(read);
+
+        ParallelDocumentBlockFileReader parallel = new ParallelDocumentBlockFileReader(new File("test.docs"), 2);
+        assertEquals(20, parallel.stream().parallel().mapToLong(d -> d.nodes(Token.class).count()).sum());
+
+        //Closing before all blocks are consumed
+        ParallelDocumentBlockFileReader early = new ParallelDocumentBlockFileReader(new File("test.docs"), 2, 1, true);
+        assertNotNull(early.next());
+        early.close();
+        assertNull(early.next());
+    }
+
+    @Test
+    public void testCorpusQuery() throws Exception {
+        File second = new File("test2.docs");
+        try {
+            List<File> files = Arrays.asList(new File("test.docs"), second);
+            for (int f = 0; f < files.size(); f++) {
+                List<Document> docs = blockDocuments();
+                for (int i = 0; i < docs.size(); i++) {
+                    docs.get(i).setId(f + "-" + i);
+                    new NamedEntity(docs.get(i)).setRange(17, 21).setLabel("Location");
+                }
+
+                DocumentBlockFileWriter writer = new DocumentBlockFileWriter(files.get(f), DocumentStorageLevel.LEVEL_2, f == 0 ? null : Lz4Filter.getInstance());
+                for (int i = 0; i < docs.size(); i += 3) {
+                    writer.write(docs.subList(i, Math.min(docs.size(), i + 3)));
+                }
+                writer.close();
+            }
+
+            NodeTVar<Token> T = Token.var();
+            NodeTVar<Sentence> S = Sentence.var();
+            PreparedQuery query = PreparedQuery.select(T, S)
+                                               .where(T).coveredBy(S)
+                                               .where(T).property(POS).equals("NN")
+                                               .prepare();
+
+            for (boolean mapped : new boolean[] {false, true}) {
+                CorpusQuery corpusQuery = new CorpusQuery(query, files).setMemoryMapped(mapped);
+                assertEquals(40, corpusQuery.count());
+
+                List<CorpusMatch> matches;
+                try(Stream<CorpusMatch> stream = corpusQuery.stream()) {
+                    matches = stream.collect(Collectors.toList());
+                }
+
+                assertEquals(40, matches.size());
+                for (int i = 0; i < matches.size(); i++) {
+                    CorpusMatch match = matches.get(i);
+                    assertEquals((i / 20) + "-" + ((i % 20) / 2), match.documentId());
+                    assertEquals("NN", match.get(T).getProperty(POS));
+                    assertEquals(match.document().length(), match.get(S).getEnd());
+
+                    //Only the layers of the query are decoded
+                    LazyMemoryDocumentStore store = (LazyMemoryDocumentStore)((MemoryDocument)match.document()).store();
+                    assertFalse(store.isNodeLayerDecoded(Document.nodeLayer(NamedEntity.class)));
+                }
+
+                Set<String> ids = corpusQuery.stream().sequential().map(CorpusMatch::documentId).collect(Collectors.toSet());
+                assertEquals(20, ids.size());
+            }
+
+            //Modifiers apply per document
+            PreparedQuery first = PreparedQuery.select(T).where(T).property(POS).equals("NN").limit(1).prepare();
+            assertEquals(20, new CorpusQuery(first, files).count());
+        } finally {
+            if(second.exists() && !second.delete())
+                throw new IOError(new IOException("Failed to delete file: " + second.getAbsolutePath()));
+        }
+    }
+
+    @Test
+    public void testJsonLines() throws Exception {
+        List<Document> docs = blockDocuments();
+        PropertyMap map = new PropertyMap();
+        map.putProperty("key", "value");
+        docs.get(0).putProperty("bools", new boolean[] {true, false});
+        docs.get(0).putProperty("map", map);
+        docs.get(0).putProperty("docs", new MemoryDocument[] {new MemoryDocument("Inner")});
+        docs.get(0).putProperty("ints", new int[] {1, 2});
+        docs.get(0).putProperty("long", 1L << 40);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DocumentJsonLinesWriter writer = new DocumentJsonLinesWriter(bytes);
+        writer.write(docs);
+        writer.close();
+
+        String[] lines = new String(bytes.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(10, lines.length);
+
+        //Token streaming and tree decoding agree
+        for (int i = 0; i < lines.length; i++) {
+            MemoryDocument streamed = MemoryJson.decodeJson(lines[i]);
+            MemoryDocument tree = MemoryJson.decodeJson(new ObjectMapper().readTree(lines[i]));
+            assertEquals(lines[i], MemoryJsonLevel0Codec.INSTANCE.encode(streamed));
+            assertEquals(lines[i], MemoryJsonLevel0Codec.INSTANCE.encode(tree));
+        }
+
+        DocumentJsonLinesReader reader = new DocumentJsonLinesReader(new ByteArrayInputStream(bytes.toByteArray()));
+        ArrayList<Document> read = new ArrayList<>();
+        Document doc;
+        while((doc = reader.next()) != null) {
+            read.add(doc);
+        }
+        reader.close();
+        assertBlockDocuments(read);
+
+        Document first = read.get(0);
+        assertArrayEquals(new int[] {1, 2}, first.getIntArrayProperty("ints"));
+        assertEquals(1L << 40, first.getLongProperty("long"));
+        assertEquals("value", first.getPropertyMapProperty("map").getProperty("key"));
+        assertEquals("Inner", first.getDocumentArrayProperty("docs")[0].text());
+        assertTrue(Arrays.equals(new boolean[] {true, false}, first.getRefProperty("bools", BooleanArrayRef.class).arrayValue()));
+
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        MemoryJsonLevel0Codec.INSTANCE.encode((MemoryDocument)docs.get(1), single);
+        MemoryDocument decoded = MemoryJson.decodeJson(new ByteArrayInputStream(single.toByteArray()));
+        assertEquals(docs.get(1).text(), decoded.text());
+        assertEquals("AT", decoded.edges(DependencyRelation.class).first().getRelation());
+    }
+
+    @Test
+    public void testConcurrentBlockWriter() throws Exception {
+        final List<Document> docs = blockDocuments();
+        ExecutorService encoders = Executors.newFixedThreadPool(3);
+        final DocumentBlockFileWriter writer = new DocumentBlockFileWriter(new File("test.docs"), DocumentStorageLevel.LEVEL_2,
+                                                                            Lz4Filter.getInstance(), encoders, 2);
+
+        final List<CompletableFuture<DocumentBlockFileWriter.BlockInfo>> futures = Collections.synchronizedList(new ArrayList<>());
+        ArrayList<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < 4; p++) {
+            final int producer = p;
+            Thread thread = new Thread(() -> {
+                for (int i = producer; i < 20; i += 4) {
+                    int start = (i * 3) % docs.size();
+                    futures.add(writer.writeAsync(new ArrayList<>(docs.subList(start, Math.min(docs.size(), start + 1 + i % 3)))));
+                }
+            });
+            producers.add(thread);
+            thread.start();
+        }
+
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        assertTrue(writer.writeAsync(Collections.emptyList()).get().blockStart == -1);
+        writer.close();
+        encoders.shutdown();
+
+        //Blocks are contiguous
+        ArrayList<DocumentBlockFileWriter.BlockInfo> infos = new ArrayList<>();
+        int numDocuments = 0;
+        for (CompletableFuture<DocumentBlockFileWriter.BlockInfo> future : futures) {
+            assertTrue(future.isDone());
+            infos.add(future.get());
+            numDocuments += future.get().dataStart.length;
+        }
+        infos.sort((x, y) -> Long.compare(x.blockStart, y.blockStart));
+        long position = 6;
+        for (DocumentBlockFileWriter.BlockInfo info : infos) {
+            assertEquals(position, info.blockStart);
+            assertEquals(0, info.dataStart[0]);
+            for (int i = 1; i < info.dataStart.length; i++) {
+                assertTrue(info.dataStart[i] > info.dataStart[i-1]);
+            }
+            position += info.blockLength;
+        }
+        assertEquals(position + 1, new File("test.docs").length());
+
+        DocumentBlockFileReader reader = new DocumentBlockFileReader(new File("test.docs"));
+        int[] counts = new int[docs.size()];
+        Document doc;
+        int read = 0;
+        while((doc = reader.next()) != null) {
+            for (int i = 0; i < docs.size(); i++) {
+                if(doc.text().equals(docs.get(i).text()))
+                    counts[i]++;
+            }
+            read++;
+        }
+        reader.close();
+        assertEquals(numDocuments, read);
+
+        int[] expected = new int[docs.size()];
+        for (int i = 0; i < 20; i++) {
+            int start = (i * 3) % docs.size();
+            for (int k = start; k < Math.min(docs.size(), start + 1 + i % 3); k++) {
+                expected[k]++;
+            }
+        }
+        assertArrayEquals(expected, counts);
+    }
+
+    private static void assertIndexed(File file, List<Document> docs) {
+        for (boolean mapped : new boolean[] {false, true}) {
+            IndexedDocumentReader reader = new IndexedDocumentReader(file, mapped);
+            assertEquals(docs.size(), reader.size());
+            for (int i = docs.size() - 1; i >= 0; i--) {
+                assertEquals(docs.get(i).text(), reader.get(i).text());
+                assertEquals(docs.get(i).id(), reader.getIndex().id(i));
+            }
+
+            assertEquals("Dokument nummer 7 från Lund, Sverige – åäö.", reader.getById("doc-7").text());
+            assertEquals(2, reader.getById("doc-7").nodes(Token.class).count());
+            assertEquals(docs.get(3).text(), reader.getById("dup").text());
+            assertNull(reader.getById("doc-70"));
+            assertEquals(-1, reader.getIndex().ordinal("doc-"));
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testDocumentIndex() throws Exception {
+        File file = new File("test.docs");
+        File indexFile = DocumentIndex.indexFile(file);
+        try {
+            List<Document> docs = blockDocuments();
+            for (int i = 0; i < docs.size(); i++) {
+                docs.get(i).setId(i == 3 || i == 8 ? "dup" : i == 5 ? null : "doc-" + i);
+            }
+
+            //Blocks written out of order by concurrent writes are indexed in file order
+            DocumentBlockFileWriter writer = new DocumentBlockFileWriter(file, DocumentStorageLevel.LEVEL_2, GzipFilter.getInstance()).setIndexed(true);
+            writer.write(docs.subList(0, 4));
+            writer.writeAsync(docs.subList(4, 5)).get();
+            writer.write(docs.subList(5, 10), null);
+            writer.close();
+            assertIndexed(file, docs);
+
+            assertTrue(file.delete());
+            assertTrue(indexFile.delete());
+
+            DocumentFileWriter fileWriter = new DocumentFileWriter(file, DocumentStorageLevel.LEVEL_2, Lz4Filter.getInstance()).setIndexed(true);
+            fileWriter.write(docs.subList(0, 6));
+            fileWriter.write(docs.get(6));
+            fileWriter.write(docs.subList(7, 10));
+            fileWriter.close();
+            assertIndexed(file, docs);
+        } finally {
+            indexFile.delete();
+        }
+    }
+
+    private static List<Document> sharedStringDocuments() {
+        ArrayList<Document> docs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Document doc = new Conny_Andersson().createDocument(MemoryDocumentFactory.getInstance());
+            doc.setId("c-" + i);
+            docs.add(doc);
+        }
+        return docs;
+    }
+
+    private static void assertSameTokens(Document expected, Document actual) {
+        assertEquals(expected.id(), actual.id());
+        List<Token> expectedTokens = expected.annotations(Token.class).toList();
+        List<Token> actualTokens = actual.annotations(Token.class).toList();
+        assertEquals(expectedTokens.size(), actualTokens.size());
+        for (int i = 0; i < expectedTokens.size(); i++) {
+            for (Map.Entry<String, DataRef> entry : expectedTokens.get(i).properties()) {
+                assertEquals(entry.getValue().stringValue(), actualTokens.get(i).getProperty(entry.getKey()));
+            }
+        }
+        assertEquals(expected.edges(DependencyRelation.class).count(), actual.edges(DependencyRelation.class).count());
+    }
+
+    @Test
+    public void testSharedStrings() throws Exception {
+        File file = new File("test.docs");
+        File plain = new File("test2.docs");
+        File indexFile = DocumentIndex.indexFile(file);
+        try {
+            List<Document> docs = sharedStringDocuments();
+            for (File output : Arrays.asList(file, plain)) {
+                DocumentBlockFileWriter writer = new DocumentBlockFileWriter(output, DocumentStorageLevel.LEVEL_2, null)
+                        .setSharedStrings(output == file)
+                        .setNumericColumns(output == file)
+                        .setIndexed(output == file);
+                writer.write(docs.subList(0, 4));
+                writer.write(docs.subList(4, 10));
+                writer.close();
+            }
+
+            //Labels are stored once per block
+            assertTrue(file.length() < plain.length());
+
+            for (boolean mapped : new boolean[] {false, true}) {
+                DocumentBlockFileReader reader = new DocumentBlockFileReader(file, null, mapped);
+                ArrayList<Document> read = new ArrayList<>();
+                Document doc;
+                while((doc = reader.next()) != null) {
+                    read.add(doc);
+                }
+                reader.close();
+
+                assertEquals(docs.size(), read.size());
+                for (int i = 0; i < docs.size(); i++) {
+                    assertSameTokens(docs.get(i), read.get(i));
+                }
+
+                //Documents of a block share the decoded strings
+                Token first = read.get(0).annotations(Token.class).first();
+                Token second = read.get(1).annotations(Token.class).first();
+                assertSame(first.getRefProperty("deprel"), second.getRefProperty("deprel"));
+                assertSame(first.getProperty("deprel"), read.get(5).annotations(Token.class).first().getProperty("deprel"));
+            }
+
+            IndexedDocumentReader indexed = new IndexedDocumentReader(file, false);
+            assertSameTokens(docs.get(0), indexed.get(0));
+            assertSameTokens(docs.get(5), indexed.get(5));
+
+            //The dictionary of a block is decoded once
+            Token second = indexed.get(1).annotations(Token.class).first();
+            Token third = indexed.get(2).annotations(Token.class).first();
+            assertSame(second.getRefProperty("deprel"), third.getRefProperty("deprel"));
+            indexed.close();
+
+            NodeTVar<Token> T = Token.var();
+            PreparedQuery query = PreparedQuery.select(T).where(T).property("ppos").equals("PM").prepare();
+            long expected = docs.get(0).nodes(Token.class).filter(t -> "PM".equals(t.getProperty("ppos"))).count();
+            assertTrue(expected > 0);
+            assertEquals(docs.size() * expected, new CorpusQuery(query, file).count());
+        } finally {
+            if(plain.exists() && !plain.delete())
+                throw new IOError(new IOException("Failed to delete file: " + plain.getAbsolutePath()));
+
+            indexFile.delete();
+        }
+    }
+
+    private static int openFiles() {
+        String[] files = new File("/proc/self/fd").list();
+        return files != null ? files.length : -1;
+    }
+
+    @Test
+    public void testIndexedReaderClosesOnFailure() throws Exception {
+        File file = new File("test.docs");
+        DocumentBlockFileWriter writer = new DocumentBlockFileWriter(file, DocumentStorageLevel.LEVEL_2, null);
+        writer.write(sharedStringDocuments().subList(0, 2));
+        writer.close();
+
+        //Missing index file
+        int before = openFiles();
+        for (boolean mapped : new boolean[] {false, true}) {
+            try {
+                new IndexedDocumentReader(file, mapped);
+                fail("Expected a missing index to fail");
+            } catch (IOError e) {
+                //expected
+            }
+        }
+
+        Assume.assumeTrue(before != -1);
+        assertEquals(before, openFiles());
+    }
+
+    @Test
+    public void testNumericColumnCodec() {
+        Random random = new Random(42);
+        long[][] columns = new long[6][];
+        columns[0] = new long[200];
+        columns[1] = new long[200];
+        columns[2] = new long[200];
+        columns[3] = new long[200];
+        columns[4] = new long[] {Long.MIN_VALUE, Long.MAX_VALUE, 0, -1, 1};
+        columns[5] = new long[0];
+        for (int i = 0; i < 200; i++) {
+            columns[0][i] = 1000000L + i * 7;
+            columns[1][i] = 1000 + random.nextInt(100);
+            columns[2][i] = i / 50;
+            columns[3][i] = (random.nextInt(3) - 1) * 1000000000000L;
+        }
+
+        for (long[] column : columns) {
+            Output output = new Output(64, -1);
+            NumericColumnCodec.encode(output, column, column.length);
+            output.writeByte(0x55);
+
+            Input input = new Input(output.toBytes());
+            assertArrayEquals(column, NumericColumnCodec.decode(input, column.length));
+            assertEquals(0x55, input.readByte());
+        }
+
+        //Runs
+        Output output = new Output(64, -1);
+        NumericColumnCodec.encode(output, columns[2], columns[2].length);
+        assertTrue(output.toBytes().length < 20);
+    }
+
+    @Test
+    public void testNumericColumns() {
+        StringBuilder sb = new StringBuilder();
+        int[] starts = new int[301];
+        for (int i = 0; i < 300; i++) {
+            starts[i] = sb.length();
+            sb.append("w").append(i).append(' ');
+        }
+        starts[300] = sb.length();
+
+        MemoryDocument doc = new MemoryDocument(sb.toString());
+        Token last = null;
+        for (int i = 0; i < 300; i++) {
+            int start = starts[i];
+            Token token = new Token(doc).setRange(start, starts[i+1]-1);
+            token.putProperty("idx", i);
+            token.putProperty("offset", 5000000000L + start);
+            token.putProperty("flag", 1);
+            token.putProperty("score", i * 0.25f - 10.0f);
+            token.putProperty("weight", i % 3 == 0 ? Double.NaN : -i / 7.0);
+            token.putProperty("head", String.valueOf(i == 0 ? 0 : i - 1));
+            if(last != null)
+                last.connect(token, new DependencyRelation()).putProperty("distance", i % 4);
+
+            last = token;
+        }
+
+        Output output = new Output(512, -1);
+        MemoryBinary.encode(DocumentStorageLevel.LEVEL_2, doc, output, null, true);
+        byte[] numeric = output.toBytes();
+        byte[] plain = MemoryBinary.encode(DocumentStorageLevel.LEVEL_2, doc);
+
+        //Numeric columns are opt-in and tagged with their own version, older readers reject the version
+        assertEquals(MemoryBinaryV1L2Codec.NUMERIC_VERSION, numeric[2]);
+        assertEquals(MemoryBinaryV1L2Codec.VERSION, plain[2]);
+        assertTrue(numeric.length < plain.length);
+
+        //Raw layers of a lazy document are decoded when written without numeric columns
+        byte[] reencoded = MemoryBinary.encode(DocumentStorageLevel.LEVEL_2, MemoryBinary.decodeLazy(numeric));
+        assertArrayEquals(plain, reencoded);
+
+        for (MemoryDocument read : Arrays.asList(MemoryBinary.decode(numeric), MemoryBinary.decodeLazy(numeric), MemoryBinary.decode(plain), MemoryBinary.decode(reencoded))) {
+            List<Token> expected = doc.annotations(Token.class).toList();
+            List<Token> actual = read.annotations(Token.class).toList();
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                Token e = expected.get(i);
+                Token a = actual.get(i);
+                assertEquals(e.getRefProperty("idx"), a.getRefProperty("idx"));
+                assertEquals(e.getRefProperty("offset"), a.getRefProperty("offset"));
+                assertEquals(e.getRefProperty("flag"), a.getRefProperty("flag"));
+                assertEquals(e.getRefProperty("score"), a.getRefProperty("score"));
+                assertEquals(Double.doubleToRawLongBits(e.getRefProperty("weight").doubleValue()), Double.doubleToRawLongBits(a.getRefProperty("weight").doubleValue()));
+                assertEquals(e.getProperty("head"), a.getProperty("head"));
+            }
+
+            List<DependencyRelation> expectedEdges = doc.edges(DependencyRelation.class).toList();
+            List<DependencyRelation> actualEdges = read.edges(DependencyRelation.class).toList();
+            assertEquals(expectedEdges.size(), actualEdges.size());
+            int sum = 0;
+            for (DependencyRelation edge : actualEdges) {
+                sum += edge.getRefProperty("distance").intValue();
+            }
+            int expectedSum = 0;
+            for (DependencyRelation edge : expectedEdges) {
+                expectedSum += edge.getRefProperty("distance").intValue();
+            }
+            assertEquals(expectedSum, sum);
+        }
+    }
+
+    /** Level 2 encoding of {@link #preNumericDocument()} written before numeric columns were added */
+    private static final String PRE_NUMERIC_LEVEL_2 = "RE0xMgB3MCB3MSB3MiB3MyB3tAAAAOMAAYEFBAIFAwZvZmZzZfRoZWHkc2NvcuVpZPh3ZWlnaPQBBQECAwQFBQACAQIBAgECAQIAAAABKgXyAAAAAAEqBfIDAAAAASoF8gYAAAABKgXyCQAAAAEqBfIMAwSCMIIxgjKCMwAAAQIDwSAAAMEcAADBGAAAwRQAAMEQAAAAAAAAAAAAAQAAAAIAAAADAAAABAAAAAAAAAAAv8AAAAAAAAC/0AAAAAAAAL/YAAAAAAAAv+AAAAAAAACBAYEBA2Rpc3RhbmPlAQEABAEAAgEDAgQDAAAAAQAAAAIAAAADAAAAAERYAQAFAboBAcoB0wEBAA==";
+
+    private static MemoryDocument preNumericDocument() {
+        MemoryDocument doc = new MemoryDocument("w0 w1 w2 w3 w4");
+        Token last = null;
+        for (int i = 0; i < 5; i++) {
+            Token token = new Token(doc).setRange(i * 3, i * 3 + 2);
+            token.putProperty("idx", i);
+            token.putProperty("offset", 5000000000L + i * 3);
+            token.putProperty("score", i * 0.25f - 10.0f);
+            token.putProperty("weight", -i / 8.0);
+            token.putProperty("head", String.valueOf(i == 0 ? 0 : i - 1));
+            if(last != null)
+                last.connect(token, new DependencyRelation()).putProperty("distance", i % 4);
+
+            last = token;
+        }
+        return doc;
+    }
+
+    @Test
+    public void testPreNumericLevel2() {
+        byte[] stored = Base64.getDecoder().decode(PRE_NUMERIC_LEVEL_2);
+        MemoryDocument expected = preNumericDocument();
+
+        //The default encoding is unchanged
+        assertArrayEquals(stored, MemoryBinary.encode(DocumentStorageLevel.LEVEL_2, expected));
+
+        for (MemoryDocument read : Arrays.asList(MemoryBinary.decode(stored), MemoryBinary.decodeLazy(stored))) {
+            List<Token> expectedTokens = expected.annotations(Token.class).toList();
+            List<Token> actualTokens = read.annotations(Token.class).toList();
+            assertEquals(expectedTokens.size(), actualTokens.size());
+            for (int i = 0; i < expectedTokens.size(); i++) {
+                for (String key : Arrays.asList("idx", "offset", "score", "weight", "head")) {
+                    assertEquals(expectedTokens.get(i).getRefProperty(key), actualTokens.get(i).getRefProperty(key));
+                }
+            }
+
+            List<DependencyRelation> edges = read.edges(DependencyRelation.class).toList();
+            assertEquals(4, edges.size());
+            int sum = 0;
+            for (DependencyRelation edge : edges) {
+                sum += edge.getRefProperty("distance").intValue();
+            }
+            assertEquals(1 + 2 + 3 + 0, sum);
+        }
+    }
 }
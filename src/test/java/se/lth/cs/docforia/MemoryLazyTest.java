@@ -0,0 +1,169 @@
+package se.lth.cs.docforia;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Test;
+import se.lth.cs.docforia.graph.text.DependencyRelation;
+import se.lth.cs.docforia.graph.text.NamedEntity;
+import se.lth.cs.docforia.graph.text.Sentence;
+import se.lth.cs.docforia.graph.text.Token;
+import se.lth.cs.docforia.memstore.LazyMemoryDocumentStore;
+import se.lth.cs.docforia.memstore.MemoryBinary;
+import se.lth.cs.docforia.memstore.MemoryDocument;
+import se.lth.cs.docforia.memstore.MemoryDocumentFactory;
+import se.lth.cs.docforia.memstore.MemoryDocumentIO;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Lazy layer decoding test code
+ */
+public class MemoryLazyTest extends ModelTest {
+
+    @Override
+    public DocumentFactory documentFactory() {
+        return MemoryDocumentFactory.getInstance();
+    }
+
+    @Override
+    protected Document serializeDeserialize(Document doc) {
+        //Re-encode without decoding any layer, all layers are copied
+        byte[] bytes = documentIO().toBytes(doc, DocumentStorageLevel.LEVEL_2);
+        MemoryDocument copy = MemoryDocumentIO.getInstance().fromBytesLazy(bytes);
+        return MemoryDocumentIO.getInstance().fromBytesLazy(copy.toBytes());
+    }
+
+    private static MemoryDocument createDocument() {
+        MemoryDocument doc = new MemoryDocument("Greetings from Lund, Sweden!");
+        //                                       01234567890123456789012345678
+
+        Token greetings = new Token(doc).setRange(0,  9);
+        Token from      = new Token(doc).setRange(10, 14);
+        Token lund      = new Token(doc).setRange(15, 19);
+        new Token(doc).setRange(19, 20);
+        Token sweden    = new Token(doc).setRange(21, 27);
+        new Token(doc).setRange(27, 28);
+
+        from.connect(greetings, new DependencyRelation(doc).setRelation("ADV"));
+        lund.connect(from, new DependencyRelation(doc).setRelation("PA"));
+        sweden.connect(lund, new DependencyRelation(doc).setRelation("APPOS"));
+
+        new Sentence(doc).setRange(0, 28);
+        new NamedEntity(doc).setRange(15, 27).setLabel("Location");
+        return doc;
+    }
+
+    private static List<String> tokens(Document doc) {
+        return doc.nodes(Token.class).stream().map(Token::text).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testDecodeOnDemand() {
+        MemoryDocument doc = MemoryDocumentIO.getInstance().fromBytesLazy(createDocument().toBytes());
+        LazyMemoryDocumentStore store = (LazyMemoryDocumentStore)doc.store();
+
+        assertEquals("Greetings from Lund, Sweden!", doc.text());
+        assertFalse(store.isNodeLayerDecoded(Document.nodeLayer(Token.class)));
+        assertFalse(store.isNodeLayerDecoded(Document.nodeLayer(NamedEntity.class)));
+
+        NamedEntity ne = doc.nodes(NamedEntity.class).first();
+        assertEquals("Lund, Sweden", ne.text());
+        assertEquals("Location", ne.getLabel());
+        assertTrue(store.isNodeLayerDecoded(Document.nodeLayer(NamedEntity.class)));
+        assertFalse(store.isNodeLayerDecoded(Document.nodeLayer(Token.class)));
+        assertFalse(store.isNodeLayerDecoded(Document.nodeLayer(Sentence.class)));
+
+        //Tokens are decoded with the dependency relations touching them
+        assertEquals(6, doc.nodes(Token.class).count());
+        assertTrue(store.isEdgeLayerDecoded(Document.edgeLayer(DependencyRelation.class)));
+        assertFalse(store.isNodeLayerDecoded(Document.nodeLayer(Sentence.class)));
+
+        Token sweden = doc.nodes(Token.class).stream().filter(t -> t.text().equals("Sweden")).findFirst().get();
+        DependencyRelation rel = sweden.outboundEdges(DependencyRelation.class).first();
+        assertEquals("APPOS", rel.getRelation());
+        assertEquals("Lund", rel.getHead().text());
+
+        assertEquals(1, doc.nodes(Sentence.class).count());
+        assertTrue(store.isMaterialized());
+    }
+
+    @Test
+    public void testDecodeAtOffset() {
+        byte[] bytes = createDocument().toBytes();
+        byte[] data = new byte[bytes.length + 16];
+        Arrays.fill(data, (byte)'X');
+        System.arraycopy(bytes, 0, data, 7, bytes.length);
+
+        MemoryDocument doc = MemoryBinary.decodeLazy(data, 7, bytes.length);
+        assertEquals("Location", doc.nodes(NamedEntity.class).first().getLabel());
+
+        //Layers not decoded are copied from the data
+        MemoryDocument copy = MemoryDocument.fromBytes(doc.toBytes());
+        assertEquals(tokens(createDocument()), tokens(copy));
+        assertEquals(3, copy.edges(DependencyRelation.class).count());
+    }
+
+    @Test
+    public void testReencodePartial() {
+        MemoryDocument doc = MemoryDocumentIO.getInstance().fromBytesLazy(createDocument().toBytes());
+
+        //Decode and modify entities, tokens and relations are copied
+        NamedEntity ne = doc.nodes(NamedEntity.class).first();
+        ne.setLabel("Place");
+        new NamedEntity(doc).setRange(0, 9).setLabel("Greeting");
+
+        MemoryDocument copy = MemoryDocument.fromBytes(doc.toBytes());
+        assertEquals(tokens(createDocument()), tokens(copy));
+        assertEquals(2, copy.nodes(NamedEntity.class).count());
+        assertEquals(1, copy.nodes(Sentence.class).count());
+
+        Token sweden = copy.nodes(Token.class).stream().filter(t -> t.text().equals("Sweden")).findFirst().get();
+        DependencyRelation rel = sweden.outboundEdges(DependencyRelation.class).first();
+        assertEquals("APPOS", rel.getRelation());
+        assertEquals("Lund", rel.getHead().text());
+
+        List<String> labels = copy.nodes(NamedEntity.class).stream().map(NamedEntity::getLabel).sorted().collect(Collectors.toList());
+        assertEquals("Greeting", labels.get(0));
+        assertEquals("Place", labels.get(1));
+
+        //Lazy copy of a lazy copy
+        MemoryDocument lazyCopy = MemoryDocumentIO.getInstance().fromBytesLazy(MemoryDocumentIO.getInstance().fromBytesLazy(doc.toBytes()).toBytes());
+        assertEquals(tokens(createDocument()), tokens(lazyCopy));
+        assertEquals(3, lazyCopy.edges(DependencyRelation.class).count());
+    }
+
+    @Test
+    public void testChangedText() {
+        MemoryDocument doc = MemoryDocumentIO.getInstance().fromBytesLazy(createDocument().toBytes());
+        doc.setText("Greetings from Lund, Sweden?");
+
+        MemoryDocument copy = MemoryDocument.fromBytes(doc.toBytes());
+        assertEquals(Arrays.asList("Greetings", "from", "Lund", ",", "Sweden", "?"), tokens(copy));
+        assertEquals(3, copy.edges(DependencyRelation.class).count());
+    }
+
+    @Test
+    public void testLegacyFormat() {
+        //Level 1 has no layer directory and is decoded directly
+        byte[] bytes = createDocument().toBytes(DocumentStorageLevel.LEVEL_1);
+        MemoryDocument doc = MemoryDocumentIO.getInstance().fromBytesLazy(bytes);
+        assertEquals(tokens(createDocument()), tokens(doc));
+    }
+}
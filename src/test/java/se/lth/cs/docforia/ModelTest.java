@@ -17,6 +17,7 @@ package se.lth.cs.docforia;
 
 import org.junit.Test;
 import se.lth.cs.docforia.data.*;
+import se.lth.cs.docforia.exceptions.QueryException;
 import se.lth.cs.docforia.graph.TokenProperties;
 import se.lth.cs.docforia.graph.ast.AstNode;
 import se.lth.cs.docforia.graph.ast.AstTextNode;
@@ -27,6 +28,7 @@ import se.lth.cs.docforia.memstore.MemoryDocument;
 import se.lth.cs.docforia.memstore.MemoryDocumentFactory;
 import se.lth.cs.docforia.query.*;
 import se.lth.cs.docforia.query.Proposition;
+import se.lth.cs.docforia.query.Predicate;
 import se.lth.cs.docforia.util.DocumentIterable;
 import se.lth.cs.docforia.util.DocumentIterables;
 import se.lth.cs.docforia.util.Iterables;
@@ -1692,6 +1694,552 @@ public abstract class ModelTest {
         assertFalse(iter.hasNext());
     }
 
+    @Test
+    public void testQueryPlan() {
+        Conny_Andersson connytest = new Conny_Andersson();
+        Document doc = connytest.createDocument(documentFactory());
+
+        NodeTVar<Token> T1, T2;
+        EdgeTVar<DependencyRelation> E;
+
+        T1 = Token.var(); T2 = Token.var();
+        E = DependencyRelation.var();
+
+        CompiledQuery query = doc.select(T1,T2,E)
+                                 .where(T1).hasEdge(E).to(T2)
+                                 .where(E).property(DependencyRelation.RELATION_PROPERTY).equals("SS")
+                                 .compile();
+
+        //The selective property predicate binds the edge before the edge is followed
+        Predicate[] plan = query.getPlan().predicates();
+        assertEquals(2, plan.length);
+        assertEquals("PropertyEqualsPredicate", plan[0].name());
+        assertEquals("EdgeExistsPredicate", plan[1].name());
+
+        String explain = query.explain();
+        assertTrue(explain.contains("1. PropertyEqualsPredicate"));
+        assertTrue(explain.contains("2. EdgeExistsPredicate"));
+
+        List<Proposition> props = query.stream().collect(Collectors.toList());
+        assertEquals(1, props.size());
+        assertEquals("Conny", props.get(0).get(T1).text());
+        assertEquals("är", props.get(0).get(T2).text());
+        assertEquals("SS", props.get(0).get(E).getRelation());
+    }
+
+    @Test
+    public void testQueryPlanSkipped() {
+        Conny_Andersson connytest = new Conny_Andersson();
+        Document doc = connytest.createDocument(documentFactory());
+
+        NodeTVar<Token> T = Token.var();
+        CompiledQuery query = doc.select(T)
+                                 .where(T).property("ppos").equals("PP")
+                                 .compile();
+
+        //A single predicate cannot be reordered, no statistics are gathered
+        assertFalse(query.getPlan().isEstimated());
+        assertEquals(1, query.getPlan().predicates().length);
+
+        long expected = doc.nodes(Token.class).stream().filter(t -> "PP".equals(t.getProperty("ppos"))).count();
+        assertTrue(expected > 0);
+        assertEquals(expected, query.stream().count());
+        assertFalse(query.getPlan().isEstimated());
+
+        //Estimated on demand
+        assertTrue(query.explain().contains("1. PropertyEqualsPredicate"));
+        assertTrue(query.getPlan().isEstimated());
+    }
+
+    @Test
+    public void testParallelQuery() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("word ");
+        }
+
+        Document doc = documentFactory().createFragment("test", sb.toString());
+        for (int i = 0; i < 2000; i++) {
+            doc.add(new Token()).setRange(i*5, i*5+4).setPartOfSpeech(i % 3 == 0 ? "NN" : "VB");
+        }
+        for (int i = 0; i < 200; i++) {
+            doc.add(new Sentence()).setRange(i*50, i*50+49);
+        }
+
+        NodeTVar<Token> T = Token.var();
+        NodeTVar<Sentence> S = Sentence.var();
+
+        CompiledQuery query = doc.select(T, S)
+                                 .where(T).coveredBy(S)
+                                 .where(T).property(TokenProperties.POS).equals("NN")
+                                 .compile();
+
+        Function<Proposition,String> key = prop -> prop.get(T).getStart() + ":" + prop.get(S).getStart();
+
+        List<String> sequential = query.stream().map(key).sorted().collect(Collectors.toList());
+        List<String> parallel = query.stream().parallel().map(key).sorted().collect(Collectors.toList());
+
+        assertEquals(667, sequential.size());
+        assertEquals(sequential, parallel);
+
+        //Splits partition the results
+        Spliterator<Proposition> first = query.stream().spliterator();
+        assertTrue(first.estimateSize() < Long.MAX_VALUE);
+
+        Spliterator<Proposition> second = first.trySplit();
+        assertNotNull(second);
+
+        ArrayList<String> split = new ArrayList<>();
+        first.forEachRemaining(prop -> split.add(key.apply(prop)));
+        second.forEachRemaining(prop -> split.add(key.apply(prop)));
+        Collections.sort(split);
+
+        assertEquals(sequential, split);
+
+        //Splitting after the query has been advanced is not supported
+        Spliterator<Proposition> advanced = query.stream().spliterator();
+        assertTrue(advanced.tryAdvance(prop -> {}));
+        assertNull(advanced.trySplit());
+    }
+
+    private static boolean covers(Node parent, Node child) {
+        return parent.getStart() <= child.getStart() && parent.getEnd() >= child.getEnd()
+                && (child.getStart() != parent.getEnd() || child.getStart() == parent.getStart());
+    }
+
+    private static String range(Node node) {
+        return node.getStart() + ":" + node.getEnd();
+    }
+
+    @Test
+    public void testStructuralJoin() {
+        Document doc = documentFactory().createFragment("test", "0123456789012345678901234567890123456789");
+        doc.add(new Paragraph()).setRange(0, 20);
+        doc.add(new Paragraph()).setRange(20, 40);
+        doc.add(new Paragraph()).setRange(0, 40);
+
+        //Nested and overlapping sentences
+        doc.add(new Sentence()).setRange(0, 10);
+        doc.add(new Sentence()).setRange(2, 8);
+        doc.add(new Sentence()).setRange(8, 24);
+        doc.add(new Sentence()).setRange(24, 40);
+        doc.add(new Sentence()).setRange(30, 30);
+
+        for (int i = 0; i < 40; i += 2) {
+            doc.add(new Token()).setRange(i, i+2).setPartOfSpeech(i % 6 == 0 ? "NN" : "VB");
+        }
+        doc.add(new Token()).setRange(30, 30).setPartOfSpeech("VB");
+
+        NodeTVar<Token> T = Token.var();
+        NodeTVar<Sentence> S = Sentence.var();
+        NodeTVar<Paragraph> P = Paragraph.var();
+
+        Set<String> expected = new TreeSet<>();
+        Set<String> expectedNouns = new TreeSet<>();
+        for (Paragraph p : doc.nodes(Paragraph.class)) {
+            for (Sentence s : doc.nodes(Sentence.class)) {
+                for (Token t : doc.nodes(Token.class)) {
+                    if(covers(p, s) && covers(s, t)) {
+                        String key = range(p) + "|" + range(s) + "|" + range(t);
+                        expected.add(key);
+                        if(t.getPartOfSpeech().equals("NN"))
+                            expectedNouns.add(key);
+                    }
+                }
+            }
+        }
+
+        Function<Proposition,String> key = prop -> range(prop.get(P)) + "|" + range(prop.get(S)) + "|" + range(prop.get(T));
+
+        CompiledQuery query = doc.select(T, S, P)
+                                 .where(T).coveredBy(S)
+                                 .where(S).coveredBy(P)
+                                 .compile();
+
+        Predicate[] plan = query.getPlan().predicates();
+        assertEquals(1, plan.length);
+        assertEquals("StructuralJoinPredicate", plan[0].name());
+        assertTrue(query.explain().contains("structural join"));
+
+        List<String> result = query.stream().map(key).collect(Collectors.toList());
+        assertEquals(expected.size(), result.size());
+        assertEquals(expected, new TreeSet<>(result));
+
+        //Covering is the same containment seen from the parent
+        result = doc.select(T, S, P)
+                    .where(P).covering(S)
+                    .where(S).covering(T)
+                    .stream().map(key).collect(Collectors.toList());
+        assertEquals(expected, new TreeSet<>(result));
+
+        //A bound token evaluates the chain outwards
+        result = doc.select(T, S, P)
+                    .where(T).coveredBy(S)
+                    .where(S).coveredBy(P)
+                    .where(T).property(TokenProperties.POS).equals("NN")
+                    .stream().map(key).collect(Collectors.toList());
+        assertEquals(expectedNouns.size(), result.size());
+        assertEquals(expectedNouns, new TreeSet<>(result));
+    }
+
+    @Test
+    public void testPropertyIndex() {
+        Document doc = documentFactory().createFragment("test", "0123456789012345678901234567890123456789");
+        ArrayList<Token> tokens = new ArrayList<>();
+        for (int i = 0; i < 40; i += 2) {
+            tokens.add(doc.add(new Token()).setRange(i, i+2).setPartOfSpeech(i % 6 == 0 ? "NN" : "VB"));
+        }
+        doc.add(new Sentence()).setRange(0, 20);
+
+        boolean indexed = doc.createPropertyIndex(Token.class, TokenProperties.POS);
+        assertEquals(indexed, doc.hasPropertyIndex(Token.class, null, TokenProperties.POS));
+
+        NodeTVar<Token> T = Token.var();
+        NodeTVar<Sentence> S = Sentence.var();
+
+        Function<String,Set<Token>> lookup = value -> new HashSet<>(doc.nodesWithProperty(Token.class, TokenProperties.POS, value).toList());
+        Function<String,Set<Token>> scan = value -> tokens.stream().filter(t -> t.valid() && value.equals(t.getPartOfSpeech())).collect(Collectors.toSet());
+
+        assertEquals(7, lookup.apply("NN").size());
+        assertEquals(scan.apply("NN"), lookup.apply("NN"));
+        assertEquals(scan.apply("VB"), lookup.apply("VB"));
+
+        //Index is maintained on put, remove and node removal
+        tokens.get(1).setPartOfSpeech("NN");
+        tokens.get(0).removeProperty(TokenProperties.POS);
+        doc.remove(tokens.get(3));
+        tokens.get(5).setRange(10, 11);
+
+        assertEquals(scan.apply("NN"), lookup.apply("NN"));
+        assertEquals(scan.apply("VB"), lookup.apply("VB"));
+        assertEquals(0, lookup.apply("JJ").size());
+
+        CompiledQuery query = doc.select(T, S)
+                                 .where(T).coveredBy(S)
+                                 .where(T).property(TokenProperties.POS).equals("NN")
+                                 .compile();
+
+        if(indexed)
+            assertTrue(query.explain().contains("index"));
+
+        Set<Token> nouns = query.stream().map(prop -> prop.get(T)).collect(Collectors.toSet());
+        Set<Token> expected = scan.apply("NN").stream().filter(t -> t.getEnd() <= 20).collect(Collectors.toSet());
+        assertEquals(expected, nouns);
+
+        Set<Token> any = doc.select(T)
+                            .where(T).property(TokenProperties.POS).equalsAny("NN", "VB", "NN")
+                            .stream().map(prop -> prop.get(T)).collect(Collectors.toSet());
+        Set<Token> expectedAny = new HashSet<>(scan.apply("NN"));
+        expectedAny.addAll(scan.apply("VB"));
+        assertEquals(expectedAny, any);
+
+        assertEquals(indexed, doc.dropPropertyIndex(Token.class, null, TokenProperties.POS));
+        assertFalse(doc.hasPropertyIndex(Token.class, null, TokenProperties.POS));
+        assertEquals(scan.apply("NN"), lookup.apply("NN"));
+    }
+
+    @Test
+    public void testPropertyIndexOrder() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            text.append("0123456789");
+        }
+
+        Document doc = documentFactory().createFragment("test", text.toString());
+        for (int i = 0; i < 80; i++) {
+            doc.add(new Token()).setRange(i, i+1).setPartOfSpeech(i % 20 == 0 ? "NN" : "VB");
+        }
+        for (int i = 0; i < 6; i++) {
+            doc.add(new Token()).setRange(8, 10).setPartOfSpeech(i % 2 == 0 ? "NN" : "VB");
+        }
+        doc.add(new Token()).setPartOfSpeech("NN");
+
+        doc.createPropertyIndex(Token.class, TokenProperties.POS);
+
+        Function<String,List<Token>> scan = value -> doc.nodes(Token.class).stream().filter(t -> value.equals(t.getPartOfSpeech())).collect(Collectors.toList());
+
+        //Same order as a scan of the layer
+        assertEquals(scan.apply("NN"), doc.nodesWithProperty(Token.class, TokenProperties.POS, "NN").toList());
+        assertEquals(scan.apply("VB"), doc.nodesWithProperty(Token.class, TokenProperties.POS, "VB").toList());
+
+        //Changing the indexed property while iterating visits every node once
+        List<Token> nouns = scan.apply("NN");
+        List<Token> visited = new ArrayList<>();
+        for (Token token : doc.nodesWithProperty(Token.class, TokenProperties.POS, "NN")) {
+            visited.add(token);
+            token.setPartOfSpeech(visited.size() % 2 == 0 ? "NN" : "JJ");
+        }
+
+        assertEquals(nouns, visited);
+        assertEquals(scan.apply("NN"), doc.nodesWithProperty(Token.class, TokenProperties.POS, "NN").toList());
+        assertEquals(scan.apply("JJ"), doc.nodesWithProperty(Token.class, TokenProperties.POS, "JJ").toList());
+    }
+
+    @Test
+    public void testForEachMatch() {
+        Conny_Andersson connytest = new Conny_Andersson();
+        Document doc = connytest.createDocument(documentFactory());
+
+        NodeTVar<Token> T = Token.var();
+        NodeTVar<Sentence> S = Sentence.var();
+
+        CompiledQuery query = doc.select(T).where(T).coveredBy(S).compile();
+
+        Set<Proposition> expected = query.stream().collect(Collectors.toSet());
+        assertTrue(expected.size() > 0);
+
+        Set<Proposition> cursors = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<Proposition> copies = new HashSet<>();
+        query.forEachMatch(prop -> {
+            cursors.add(prop);
+            copies.add(prop.copy());
+            assertNotNull(prop.get(T));
+        });
+
+        //One reused cursor, copies are stable
+        assertEquals(1, cursors.size());
+        assertEquals(expected, copies);
+    }
+
+    @Test
+    public void testQueryModifiers() {
+        Document doc = documentFactory().createFragment("test", "0123456789012345678901234567890123456789");
+        doc.add(new Sentence()).setRange(20, 40);
+        doc.add(new Sentence()).setRange(0, 20);
+        doc.add(new Sentence()).setRange(10, 30);
+        for (int i = 38; i >= 0; i -= 2) {
+            doc.add(new Token()).setRange(i, i+2).setPartOfSpeech(i % 6 == 0 ? "NN" : "VB");
+        }
+
+        NodeTVar<Token> T = Token.var();
+        NodeTVar<Sentence> S = Sentence.var();
+
+        Function<Proposition,String> key = prop -> String.format("%02d:%02d|%02d:%02d",
+                prop.get(S).getStart(), prop.get(S).getEnd(), prop.get(T).getStart(), prop.get(T).getEnd());
+
+        List<String> all = doc.select(S, T).where(T).coveredBy(S).stream().map(key).sorted().collect(Collectors.toList());
+        assertEquals(30, all.size());
+
+        for (int k : new int[] {0, 1, 5, 29, 30, 100}) {
+            List<String> top = all.subList(0, Math.min(k, all.size()));
+            assertEquals(top, doc.select(S, T).where(T).coveredBy(S).orderByRange(S, T).limit(k).stream().map(key).collect(Collectors.toList()));
+
+            List<String> matches = new ArrayList<>();
+            doc.select(S, T).where(T).coveredBy(S).orderByRange(S, T).limit(k).compile().forEachMatch(prop -> matches.add(key.apply(prop)));
+            assertEquals(top, matches);
+
+            assertEquals(Math.min(k, all.size()), doc.select(S, T).where(T).coveredBy(S).limit(k).stream().count());
+
+            int[] count = new int[1];
+            doc.select(S, T).where(T).coveredBy(S).limit(k).compile().forEachMatch(prop -> count[0]++);
+            assertEquals(Math.min(k, all.size()), count[0]);
+        }
+
+        assertEquals(all, doc.select(S, T).where(T).coveredBy(S).orderByRange(S, T).stream().map(key).collect(Collectors.toList()));
+
+        //Ordered by the var bound by the outermost predicate
+        CompiledQuery firstTokens = doc.select(T).orderByRange(T).limit(3).compile();
+        assertTrue(firstTokens.explain().contains("in range order"));
+        assertEquals(Arrays.asList("0:2", "2:4", "4:6"), firstTokens.stream().map(prop -> range(prop.get(T))).collect(Collectors.toList()));
+
+        //Engines with range ordered annotations stop binding tokens once no later token can enter the top 3
+        int[] evaluated = new int[1];
+        assertEquals(Arrays.asList("0:2", "2:4", "4:6"),
+                     doc.select(T).where(T, (Token t) -> ++evaluated[0] > 0).orderByRange(T).limit(3).stream().map(prop -> range(prop.get(T))).collect(Collectors.toList()));
+        if(doc.engine().hasRangeOrderedAnnotations())
+            assertEquals(4, evaluated[0]);
+        else
+            assertEquals(20, evaluated[0]);
+
+        //Distinct
+        assertEquals(30, doc.select(S).where(T).coveredBy(S).stream().count());
+        assertEquals(3, doc.select(S).where(T).coveredBy(S).distinct().stream().count());
+
+        List<String> sentences = new ArrayList<>();
+        doc.select(S).where(T).coveredBy(S).distinct().compile().forEachMatch(prop -> sentences.add(range(prop.get(S))));
+        assertEquals(3, new HashSet<>(sentences).size());
+        assertEquals(3, sentences.size());
+
+        assertEquals(Arrays.asList("0:20", "10:30"),
+                     doc.select(S).where(T).coveredBy(S).distinct().orderByRange(S).limit(2).stream().map(prop -> range(prop.get(S))).collect(Collectors.toList()));
+
+        //Modifiers are kept by prepared queries
+        PreparedQuery prepared = PreparedQuery.select(S).where(T).coveredBy(S).distinct().orderByRange(S).prepare();
+        assertEquals(Arrays.asList("0:20", "10:30", "20:40"), prepared.execute(doc).stream().map(prop -> range(prop.get(S))).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testGroupBy() {
+        Document doc = documentFactory().createFragment("test", "0123456789012345678901234567890123456789");
+        doc.add(new Sentence()).setRange(20, 40);
+        doc.add(new Sentence()).setRange(0, 20);
+        doc.add(new Sentence()).setRange(10, 30);
+        doc.add(new Sentence()).setRange(10, 30);
+        for (int i = 38; i >= 0; i -= 2) {
+            doc.add(new Token()).setRange(i, i+2).setPartOfSpeech(i % 6 == 0 ? "NN" : "VB");
+        }
+
+        NodeTVar<Token> T = Token.var();
+        NodeTVar<Sentence> S = Sentence.var();
+
+        Function<PropositionGroup,String> describe = group -> range(group.key(S)) + "=" + group.list(T).stream().map(ModelTest::range).collect(Collectors.joining(","));
+
+        List<String> expected = new ArrayList<>();
+        for (Sentence sentence : doc.nodes(Sentence.class)) {
+            List<Token> tokens = doc.nodes(Token.class).stream().filter(t -> covers(sentence, t)).collect(Collectors.toList());
+            tokens.sort(Comparator.comparingInt(Token::getStart));
+            expected.add(range(sentence) + "=" + tokens.stream().map(ModelTest::range).collect(Collectors.joining(",")));
+        }
+        Collections.sort(expected);
+
+        //Values in range order, groups in range order of the key
+        List<String> groups = doc.select(S, T).where(T).coveredBy(S).orderByRange(T).groupBy(S).stream().map(describe).collect(Collectors.toList());
+        List<String> sorted = new ArrayList<>(groups);
+        Collections.sort(sorted);
+        assertEquals(expected, sorted);
+        assertEquals(sorted.stream().map(g -> g.substring(0, g.indexOf('='))).collect(Collectors.toList()),
+                     groups.stream().map(g -> g.substring(0, g.indexOf('='))).collect(Collectors.toList()));
+
+        //Same groups as the hashing collector
+        List<PropositionGroup> hashed = doc.select(S, T).where(T).coveredBy(S).stream()
+                                           .collect(QueryCollectors.groupBy(doc, S).orderByValue(T).collector());
+        assertEquals(expected, hashed.stream().map(describe).sorted().collect(Collectors.toList()));
+
+        //Other keys and plans
+        assertEquals(20, doc.select(S, T).where(T).coveredBy(S).groupBy(T).stream().count());
+        assertEquals(4, doc.select(S, T).where(T).property(TokenProperties.POS).equals("NN").where(T).coveredBy(S).groupBy(S).stream().count());
+        assertEquals(40, doc.select(S, T).where(T).coveredBy(S).groupBy(S, T).stream().count());
+
+        //Engines with range ordered annotations bind the key one start position at a time instead of enumerating all roots
+        int[] evaluated = new int[1];
+        PropositionGroup firstGroup = doc.select(T).where(T, (Token t) -> ++evaluated[0] > 0).groupBy(T).stream().findFirst().get();
+        assertEquals("0:2", range(firstGroup.key(T)));
+        if(doc.engine().hasRangeOrderedAnnotations())
+            assertTrue(evaluated[0] <= 2);
+        else
+            assertEquals(20, evaluated[0]);
+
+        //Streaming group by of a range ordered stream
+        List<PropositionGroup> tokenGroups = QueryCollectors.groupBy(doc, T).stream(doc.select(S, T).where(T).coveredBy(S).orderByRange(T, S).stream())
+                                                            .collect(Collectors.toList());
+        assertEquals(20, tokenGroups.size());
+        for (int i = 1; i < tokenGroups.size(); i++) {
+            assertTrue(tokenGroups.get(i-1).key(T).getStart() < tokenGroups.get(i).key(T).getStart());
+        }
+
+        try {
+            QueryCollectors.groupBy(doc, T).stream(doc.select(S, T).where(T).coveredBy(S).orderByRange(S, T).stream()).count();
+            fail("Unordered keys not detected");
+        } catch (QueryException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testQueryProfile() {
+        Document doc = documentFactory().createFragment("test", "0123456789012345678901234567890123456789");
+        doc.add(new Sentence()).setRange(0, 20);
+        doc.add(new Sentence()).setRange(20, 40);
+        for (int i = 0; i < 40; i += 2) {
+            doc.add(new Token()).setRange(i, i+2).setPartOfSpeech(i % 6 == 0 ? "NN" : "VB");
+        }
+
+        NodeTVar<Token> T = Token.var();
+        NodeTVar<Sentence> S = Sentence.var();
+
+        CompiledQuery query = doc.select(S, T)
+                                 .where(T).coveredBy(S)
+                                 .where(T).property(TokenProperties.POS).equals("NN")
+                                 .where(T, (Token token) -> token.getStart() >= 10)
+                                 .compile();
+
+        long expected = query.stream().count();
+        assertEquals(5, expected);
+
+        List<Proposition> results = new ArrayList<>();
+        QueryProfile profile = query.profile(prop -> results.add(prop.copy()));
+        assertEquals(expected, profile.getResults());
+        assertEquals(expected, results.size());
+        assertEquals(query.getPlan().steps().length, profile.predicates().length);
+
+        PredicateProfile[] predicates = profile.predicates();
+        assertEquals(1, predicates[0].getEnters());
+        for (int i = 0; i < predicates.length; i++) {
+            PredicateProfile predicate = predicates[i];
+            assertSame(query.getPlan().steps()[i].getPredicate(), predicate.getPredicate());
+            assertEquals(predicate.getEnters(), predicate.getExits());
+            assertEquals(predicate.getMatches(), predicate.getCandidates() - predicate.getRejections());
+            if(i > 0)
+                assertEquals(predicates[i-1].getMatches(), predicate.getEnters());
+        }
+        assertEquals(expected, predicates[predicates.length-1].getMatches());
+        assertNotNull(profile.slowest());
+
+        long rejections = 0;
+        for (PredicateProfile predicate : predicates) {
+            rejections += predicate.getRejections();
+        }
+        assertTrue(rejections > 0);
+
+        String report = profile.toString();
+        assertTrue(report.contains("Rejected"));
+        assertTrue(report.contains("NodePredicate"));
+
+        //Profiling is opt-in, later evaluations are not recorded
+        long candidates = predicates[0].getCandidates();
+        assertEquals(expected, query.stream().count());
+        assertEquals(candidates, predicates[0].getCandidates());
+    }
+
+    @Test
+    public void testPreparedQuery() {
+        Document conny = new Conny_Andersson().createDocument(documentFactory());
+        Document fragment = documentFactory().createFragment("test", "0123456789012345678901234567890123456789");
+        fragment.add(new Sentence()).setRange(0, 20);
+        fragment.add(new Sentence()).setRange(20, 40);
+        for (int i = 0; i < 40; i += 2) {
+            fragment.add(new Token()).setRange(i, i+2).setPartOfSpeech(i % 6 == 0 ? "NN" : "VB");
+        }
+
+        NodeTVar<Token> T = Token.var();
+        NodeTVar<Sentence> S = Sentence.var();
+
+        PreparedQuery prepared = PreparedQuery.select(T, S)
+                                              .where(T).coveredBy(S)
+                                              .where(T).property(TokenProperties.POS).equals("NN")
+                                              .prepare();
+
+        assertNull(prepared.getPlan());
+
+        List<Document> docs = Arrays.asList(conny, fragment, conny, fragment);
+        for (Document doc : docs) {
+            Set<Proposition> expected = doc.select(T, S)
+                                           .where(T).coveredBy(S)
+                                           .where(T).property(TokenProperties.POS).equals("NN")
+                                           .stream().collect(Collectors.toSet());
+
+            assertEquals(expected, prepared.execute(doc).stream().collect(Collectors.toSet()));
+        }
+
+        assertEquals(7, prepared.execute(fragment).stream().count());
+
+        //Planned once, executions can run concurrently
+        QueryPlan plan = prepared.getPlan();
+        assertNotNull(plan);
+        assertSame(plan, prepared.execute(conny).getPlan());
+
+        long sequential = docs.stream().mapToLong(doc -> prepared.execute(doc).stream().count()).sum();
+        long parallel = docs.parallelStream().mapToLong(doc -> prepared.execute(doc).stream().count()).sum();
+        assertEquals(sequential, parallel);
+
+        try {
+            PreparedQuery.select(T).where(T).coveredBy(S).compile();
+            fail("Template compiled without a document");
+        } catch (QueryException e) {
+            //expected
+        }
+    }
+
     public void testQuestion() {
         Conny_Andersson connytest = new Conny_Andersson();
         Document doc = connytest.createDocument(documentFactory());
@@ -17,11 +17,30 @@ package se.lth.cs.docforia;
  */
 
 import org.junit.Test;
+import se.lth.cs.docforia.graph.text.DependencyRelation;
+import se.lth.cs.docforia.graph.text.NamedEntity;
+import se.lth.cs.docforia.graph.text.ParseTreeEdge;
+import se.lth.cs.docforia.graph.text.Phrase;
+import se.lth.cs.docforia.graph.text.Token;
+import se.lth.cs.docforia.io.mem.ByteBufferInput;
+import se.lth.cs.docforia.io.mem.Input;
+import se.lth.cs.docforia.io.multipart.MultipartCorpus;
+import se.lth.cs.docforia.io.multipart.MultipartCorpusLayerWriter;
+import se.lth.cs.docforia.io.multipart.MultipartCorpusReader;
+import se.lth.cs.docforia.io.multipart.MultipartCorpusWriter;
 import se.lth.cs.docforia.io.multipart.MultipartMessages;
 import se.lth.cs.docforia.io.multipart.MultipartReaderV1;
 import se.lth.cs.docforia.io.multipart.MultipartWriterV1;
 import se.lth.cs.docforia.memstore.MemoryDocumentFactory;
 
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
 public class MultipartTest extends ModelTest {
 
     @Override
@@ -45,4 +64,164 @@ public class MultipartTest extends ModelTest {
         byte[] fullyEncoded = encoded.toBytes();
         Document decoded = MultipartReaderV1.decode(MultipartMessages.fromBytes(fullyEncoded), MemoryDocumentFactory.getInstance());
     }
+
+    @Test
+    public void testLazyLayers() throws Exception {
+        MultipartWriterV1 writer = new MultipartWriterV1();
+        Document doc = new Conny_Andersson().createDocument(MemoryDocumentFactory.getInstance());
+        byte[] encoded = writer.encode(doc, null).toBytes();
+
+        //Unparsed layers are written back as they were read
+        byte[] padded = new byte[encoded.length + 3];
+        System.arraycopy(encoded, 0, padded, 3, encoded.length);
+        MultipartMessages messages = MultipartMessages.fromBytes(padded, 3, encoded.length);
+        MultipartMessages reread = MultipartMessages.fromBytes(messages.toBytes());
+        assertEquals(encoded.length, messages.toBytes().length);
+        for (String nodeLayer : messages.nodeLayers()) {
+            assertArrayEquals(messages.getNodeLayer(nodeLayer), reread.getNodeLayer(nodeLayer));
+        }
+        for (String edgeLayer : messages.edgeLayers()) {
+            assertArrayEquals(messages.getEdgeLayer(edgeLayer), reread.getEdgeLayer(edgeLayer));
+        }
+
+        String tokenLayer = Document.nodeLayer(Token.class);
+        assertTrue(messages.nodeLayers().contains(tokenLayer));
+
+        ByteBuffer data = messages.getNodeLayerData(tokenLayer);
+        assertTrue(data.isReadOnly());
+        byte[] layer = messages.getNodeLayer(tokenLayer);
+        assertEquals(data.remaining(), layer.length);
+        assertArrayEquals(layer, messages.getNodeLayerMessage(tokenLayer).toByteArray());
+
+        MultipartMessages added = new MultipartMessages();
+        added.setHeader(messages.getHeader());
+        added.setText(messages.getText());
+        for (String nodeLayer : messages.nodeLayers()) {
+            added.addNodeLayer(messages.getNodeLayer(nodeLayer));
+        }
+        for (String edgeLayer : messages.edgeLayers()) {
+            added.addEdgeLayer(messages.getEdgeLayer(edgeLayer));
+        }
+        assertEquals(messages.nodeLayers(), added.nodeLayers());
+        assertEquals(messages.edgeLayers(), added.edgeLayers());
+
+        Document decoded = MultipartReaderV1.decode(added, MemoryDocumentFactory.getInstance());
+        assertEquals(doc.nodes(Token.class).count(), decoded.nodes(Token.class).count());
+        assertEquals(doc.nodes(Token.class).first().getPartOfSpeech(), decoded.nodes(Token.class).first().getPartOfSpeech());
+
+        //Views without an accessible array are read in place
+        ByteBuffer readOnly = ByteBuffer.wrap(new byte[] {0, 42}).asReadOnlyBuffer();
+        readOnly.position(1);
+        Input input = Input.wrap(readOnly);
+        assertTrue(input instanceof ByteBufferInput);
+        assertEquals(42, input.readByte());
+        assertTrue(Arrays.equals(new byte[] {42}, Input.wrap(ByteBuffer.wrap(new byte[] {0, 42}, 1, 1)).readBytes(1)));
+    }
+
+    private static void deleteAll(File dir) {
+        File[] files = dir.listFiles();
+        if(files != null) {
+            for (File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+        assertTrue(dir.delete());
+    }
+
+    @Test
+    public void testLayerPartitionedCorpus() throws Exception {
+        File dir = Files.createTempDirectory("corpus").toFile();
+        try {
+            Document[] docs = new Document[3];
+            docs[0] = new Conny_Andersson().createDocument(MemoryDocumentFactory.getInstance());
+            docs[0].setId("d0");
+            docs[1] = MemoryDocumentFactory.getInstance().create("d1", "No layers");
+            docs[1].setId("d1");
+            docs[2] = new Conny_Andersson().createDocument(MemoryDocumentFactory.getInstance());
+            docs[2].setId("d2");
+            docs[2].removeAllNodes(NamedEntity.class);
+
+            MultipartCorpusWriter writer = new MultipartCorpusWriter(new MultipartCorpus(dir));
+            for (Document doc : docs) {
+                writer.write(doc);
+            }
+            writer.close();
+
+            MultipartCorpus corpus = new MultipartCorpus(dir);
+            assertEquals(3, corpus.size());
+            String tokenLayer = Document.nodeLayer(Token.class);
+            String dependencyLayer = Document.edgeLayer(DependencyRelation.class);
+            assertTrue(corpus.nodeLayers().contains(tokenLayer));
+            assertEquals(Collections.singletonList(tokenLayer), corpus.edgeLayerDependencies(dependencyLayer));
+
+            //Edge layers are read with the node layers they refer to
+            MultipartCorpusReader reader = new MultipartCorpusReader(corpus, dependencyLayer);
+            assertEquals(Collections.singleton(tokenLayer), reader.nodeLayers());
+            for (Document expected : docs) {
+                Document doc = reader.next();
+                assertEquals(expected.id(), doc.id());
+                assertEquals(expected.text(), doc.text());
+                assertEquals(0, doc.nodes(NamedEntity.class).count());
+                assertEquals(expected.nodes(Token.class).count(), doc.nodes(Token.class).count());
+                assertEquals(expected.edges(DependencyRelation.class).count(), doc.edges(DependencyRelation.class).count());
+                for (DependencyRelation relation : doc.edges(DependencyRelation.class)) {
+                    Token head = relation.getHead();
+                    Token tail = relation.getTail();
+                    assertEquals(1, expected.edges(DependencyRelation.class)
+                                            .filter(e -> e.getRelation().equals(relation.getRelation()))
+                                            .filter(e -> e.getHead().getStart() == head.getStart() && e.getTail().getStart() == tail.getStart())
+                                            .count());
+                }
+            }
+            assertNull(reader.next());
+            reader.close();
+
+            //Annotation stage adds a node layer and an edge layer referring to an existing layer
+            String phraseLayer = Document.nodeLayer(Phrase.class);
+            String parseTreeLayer = Document.edgeLayer(ParseTreeEdge.class);
+            reader = new MultipartCorpusReader(corpus, tokenLayer);
+            MultipartCorpusLayerWriter layerWriter = new MultipartCorpusLayerWriter(corpus, phraseLayer, parseTreeLayer);
+            Document doc;
+            while((doc = reader.next()) != null) {
+                for (Token token : doc.nodes(Token.class).toList()) {
+                    Phrase phrase = doc.add(new Phrase()).setRange(token.getStart(), token.getEnd());
+                    doc.add(new ParseTreeEdge(), phrase, token);
+                }
+                layerWriter.write(doc);
+            }
+            reader.close();
+            layerWriter.close();
+
+            assertEquals(2, corpus.edgeLayerDependencies(parseTreeLayer).size());
+            assertTrue(corpus.edgeLayerDependencies(parseTreeLayer).containsAll(Arrays.asList(tokenLayer, phraseLayer)));
+            assertEquals(phraseLayer, corpus.nodeLayers().get(corpus.nodeLayers().size()-1));
+
+            try {
+                new MultipartCorpusLayerWriter(corpus, phraseLayer);
+                fail("Layer exists");
+            } catch (IllegalArgumentException e) {
+            }
+
+            //All layers
+            reader = new MultipartCorpusReader(new MultipartCorpus(dir));
+            for (Document expected : docs) {
+                doc = reader.next();
+                assertEquals(expected.id(), doc.id());
+                assertEquals(expected.nodes(NamedEntity.class).count(), doc.nodes(NamedEntity.class).count());
+                assertEquals(expected.nodes(Token.class).count(), doc.nodes(Phrase.class).count());
+                assertEquals(expected.nodes(Token.class).count(), doc.edges(ParseTreeEdge.class).count());
+                assertEquals(expected.edges(DependencyRelation.class).count(), doc.edges(DependencyRelation.class).count());
+                for (ParseTreeEdge edge : doc.edges(ParseTreeEdge.class)) {
+                    Phrase tail = edge.getTail();
+                    Token head = edge.getHead();
+                    assertEquals(tail.getStart(), head.getStart());
+                    assertEquals(tail.getEnd(), head.getEnd());
+                }
+            }
+            assertNull(reader.next());
+            reader.close();
+        } finally {
+            deleteAll(dir);
+        }
+    }
 }
@@ -0,0 +1,151 @@
+package se.lth.cs.docforia.util;
+/*
+ * Copyright 2016 Marcus Klang
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Frozen range index test code
+ */
+public class FrozenAnnotationIndexTest {
+
+    private static AnnotationIndex<String> randomIndex(Random random, int n, int length) {
+        AnnotationIndex<String> index = new AnnotationIndex<>();
+        for (int i = 0; i < n; i++) {
+            int start = random.nextInt(length);
+            int end = start + (random.nextInt(10) == 0 ? random.nextInt(length) : random.nextInt(8));
+            index.add(start, end, "T" + i);
+        }
+        return index;
+    }
+
+    private static <T> ArrayList<T> toList(Iterator<T> iter) {
+        ArrayList<T> list = new ArrayList<>();
+        while(iter.hasNext())
+            list.add(iter.next());
+        return list;
+    }
+
+    @Test
+    public void testQueries() {
+        Random random = new Random(4711);
+        for (int n : new int[] {0, 1, 2, 3, 7, 8, 100, 1000}) {
+            AnnotationIndex<String> index = randomIndex(random, n, 200);
+            FrozenAnnotationIndex<String> frozen = new FrozenAnnotationIndex<>(index);
+            assertEquals(index.size(), frozen.size());
+            assertEquals(toList(index.iterator()), toList(frozen.iterator()));
+
+            for (int i = 0; i < 200; i++) {
+                int start = random.nextInt(220) - 10;
+                int end = start + random.nextInt(40);
+                assertEquals(toList(index.cover(start, end)), toList(frozen.cover(start, end)));
+                assertEquals(toList(index.overlap(start, end)), toList(frozen.overlap(start, end)));
+            }
+        }
+    }
+
+    @Test
+    public void testEntries() {
+        AnnotationIndex<String> index = new AnnotationIndex<>();
+        index.add(2, 10, "T1");
+        index.add(4, 12, "T2");
+        index.add(6, 14, "T3");
+        index.add(8, 16, "T4");
+        index.add(0, 100, "T0");
+
+        FrozenAnnotationIndex<String> frozen = new FrozenAnnotationIndex<>(index);
+        IntIterator overlap = frozen.overlapEntries(15, 17);
+        assertEquals("T0", frozen.get(overlap.nextInt()));
+        assertEquals("T4", frozen.get(overlap.nextInt()));
+        assertFalse(overlap.hasNext());
+
+        IntIterator cover = frozen.coverEntries(4, 14);
+        assertEquals(4, frozen.getStart(cover.nextInt()));
+        assertEquals(14, frozen.getEnd(cover.nextInt()));
+        assertFalse(cover.hasNext());
+
+        assertEquals(3, frozen.indexOf(6, 14, "T3"));
+        assertEquals(-1, frozen.indexOf(6, 14, "T4"));
+    }
+
+    @Test
+    public void testNavigator() {
+        AnnotationIndex<String> index = new AnnotationIndex<>();
+        int[][] ranges = {{2,10},{4,12},{20,28},{6,14},{6,14},{8,16},{10,18},{14,22},{32,40},{16,24},{18,26},{22,30},{12,20},{24,32},{26,34},{28,36},{30,38}};
+        String[] items = new String[ranges.length];
+        for (int i = 0; i < ranges.length; i++) {
+            index.add(ranges[i][0], ranges[i][1], items[i] = "T" + i);
+        }
+
+        FrozenAnnotationIndex<String> frozen = new FrozenAnnotationIndex<>(index);
+        AnnotationNavigator<String> navigator = frozen.navigator();
+        int last = 0;
+        int count = 0;
+        while(navigator.next()) {
+            assertTrue(last <= navigator.start());
+            last = navigator.start();
+            count++;
+        }
+
+        assertEquals(frozen.size(), count);
+        assertTrue(navigator.hasReachedEnd());
+
+        while(navigator.prev()) {
+            assertTrue(last >= navigator.start());
+            last = navigator.start();
+            count--;
+        }
+
+        assertEquals(0, count);
+
+        navigator.reset();
+        assertTrue(navigator.next(5));
+        assertEquals(6, navigator.start());
+
+        assertTrue(navigator.next(13));
+        assertEquals(14, navigator.start());
+
+        navigator.reset();
+        assertTrue(navigator.next(25));
+        assertEquals(26, navigator.start());
+
+        assertFalse(navigator.next(41));
+        assertTrue(navigator.hasReachedEnd());
+
+        navigator.reset();
+        assertTrue(navigator.nextFloor(5));
+        assertEquals(4, navigator.start());
+
+        assertTrue(navigator.nextFloor(13));
+        assertEquals(12, navigator.start());
+
+        navigator.reset();
+        assertTrue(navigator.nextFloor(25));
+        assertEquals(24, navigator.start());
+
+        AnnotationNavigator<String> from = frozen.navigator(frozen.indexOf(14, 22, items[7]));
+        assertEquals("T7", from.current());
+        assertTrue(from.next());
+        assertEquals(16, from.start());
+    }
+}
@@ -17,6 +17,7 @@ package se.lth.cs.docforia.util;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 
 import static org.junit.Assert.*;
@@ -484,4 +485,55 @@ public class RangeTest {
         }
         test.remove(e7);
     }
+
+    @Test
+    public void testBulkLoad() {
+        for (int n : new int[] {0, 1, 2, 3, 7, 8, 9, 100, 1000}) {
+            int[] starts = new int[n];
+            int[] ends = new int[n];
+            String[] items = new String[n];
+            for (int i = 0; i < n; i++) {
+                starts[i] = i / 3;
+                ends[i] = starts[i] + 5;
+                items[i] = "T" + i;
+            }
+
+            AnnotationIndex<String> test = new AnnotationIndex<>();
+            test.bulkLoad(starts, ends, items);
+            assertEquals(n, test.size());
+            assertTrue(test.verifyBalance());
+
+            int i = 0;
+            for (String item : test) {
+                assertSame(items[i++], item);
+            }
+
+            Iterator<String> overlap = test.overlap(10, 11);
+            int count = 0;
+            while(overlap.hasNext()) {
+                overlap.next();
+                count++;
+            }
+            assertEquals(Math.max(0, Math.min(n, 33) - 18), count);
+
+            test.add(5, 6, "X");
+            assertTrue(test.verifyBalance());
+            ArrayList<AnnotationIndex<String>.Entry> removals = new ArrayList<>();
+            for (AnnotationIndex<String>.Entry entry : test.entries()) {
+                if(entry.getStart() % 2 == 0)
+                    removals.add(entry);
+            }
+            for (AnnotationIndex<String>.Entry entry : removals) {
+                test.remove(entry);
+                assertTrue(test.verifyBalance());
+            }
+            assertTrue(test.verifyBalance());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBulkLoadUnsorted() {
+        AnnotationIndex<String> test = new AnnotationIndex<>();
+        test.bulkLoad(new int[] {4, 2}, new int[] {6, 4}, new String[] {"T1", "T2"});
+    }
 }